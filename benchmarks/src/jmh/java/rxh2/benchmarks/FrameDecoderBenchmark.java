@@ -0,0 +1,95 @@
+package rxh2.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import rxh2.h2.frame.Frame;
+import rxh2.h2.frame.FrameDecoderImpl;
+
+/**
+ * Decodes a connection preface followed by a mix of frames typical of a busy connection, with
+ * the bytes delivered in reads of {@code readSize} bytes. A read size of 0 delivers everything
+ * in one read, the other sizes split headers and payloads across reads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FrameDecoderBenchmark {
+
+  @Param({"0", "5", "1024", "16384"})
+  int readSize;
+
+  @Param({"64", "1024"})
+  int dataSize;
+
+  private ByteBuf input;
+  private ByteBuf[] reads;
+
+  @Setup
+  public void setup() {
+    input = Frames.connection(PooledByteBufAllocator.DEFAULT, 32, dataSize);
+    final int size = readSize == 0 ? input.readableBytes() : readSize;
+    reads = new ByteBuf[(input.readableBytes() + size - 1) / size];
+    for (int i = 0; i < reads.length; i++) {
+      final int index = i * size;
+      reads[i] = input.slice(index, Math.min(size, input.readableBytes() - index));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    input.release();
+  }
+
+  @Benchmark
+  public void decode(Blackhole blackhole) {
+    final FrameDecoderImpl decoder = new FrameDecoderImpl(PooledByteBufAllocator.DEFAULT);
+    decoder.subscribe(new ReleasingSubscriber(blackhole));
+    for (ByteBuf read : reads) {
+      // The decoder releases what it receives
+      decoder.onNext(read.retainedDuplicate());
+    }
+    decoder.onComplete();
+  }
+
+  private static class ReleasingSubscriber implements Subscriber<Frame> {
+
+    private final Blackhole blackhole;
+
+    ReleasingSubscriber(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+      s.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(Frame frame) {
+      blackhole.consume(frame.getHeader());
+      frame.release();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      throw new IllegalStateException(t);
+    }
+
+    @Override
+    public void onComplete() {
+    }
+  }
+}
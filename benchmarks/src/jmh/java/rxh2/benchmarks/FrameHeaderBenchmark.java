@@ -0,0 +1,33 @@
+package rxh2.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import rxh2.h2.frame.FrameHeader;
+
+/**
+ * Parses the headers of the small frames dominating idle and chatty connections.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameHeaderBenchmark {
+
+  // Length, type, flags and stream ID of a PING, a WINDOW_UPDATE, a SETTINGS ACK and a DATA
+  private final int[] lengths = {8, 4, 0, 1024};
+  private final byte[] types = {0x6, 0x8, 0x4, 0x0};
+  private final byte[] flags = {0x0, 0x0, 0x1, 0x1};
+  private final int[] streamIds = {0, 0, 0, 1};
+
+  private int next;
+
+  @Benchmark
+  public FrameHeader fromBytes() {
+    final int i = next++ & 3;
+    return FrameHeader.fromBytes(lengths[i], types[i], flags[i], streamIds[i]);
+  }
+}
@@ -0,0 +1,78 @@
+package rxh2.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import rxh2.h2.frame.FrameHeader.Flags;
+import rxh2.h2.frame.FrameHeader.Type;
+import rxh2.h2.frame.FrameWriter;
+import rxh2.h2.hpack.HeaderNames;
+import rxh2.h2.hpack.HpackEncoder;
+
+/**
+ * Builds the client side of a connection for the benchmarks.
+ */
+final class Frames {
+
+  static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+
+  private Frames() {
+  }
+
+  /**
+   * @return a header block for a GET request which doesn't change the HPACK dynamic table, so
+   * that it can be sent any number of times
+   */
+  static byte[] requestBlock(ByteBufAllocator alloc) {
+    final HpackEncoder encoder = new HpackEncoder(4096, 4096);
+    final ByteBuf block = alloc.buffer();
+    try {
+      encoder.beginBlock(block);
+      encoder.encodeHeader(block, HeaderNames.METHOD, "GET", true);
+      encoder.encodeHeader(block, HeaderNames.SCHEME, "http", true);
+      encoder.encodeHeader(block, HeaderNames.PATH, "/benchmark/resource", true);
+      encoder.encodeHeader(block, HeaderNames.AUTHORITY, "localhost:8080", true);
+      encoder.encodeHeader(block, "user-agent", "rxh2-benchmarks", true);
+      return ByteBufUtil.getBytes(block);
+    } finally {
+      block.release();
+    }
+  }
+
+  static void writePreface(ByteBuf out) {
+    out.writeBytes(PREFACE);
+    FrameWriter.writeFrameHeader(out, 0, Type.SETTINGS, 0, 0);
+  }
+
+  static void writeHeaders(ByteBuf out, int streamId, byte[] block, boolean endStream) {
+    final int flags = Flags.END_HEADERS.mask() | (endStream ? Flags.END_STREAM.mask() : 0);
+    FrameWriter.writeFrameHeader(out, block.length, Type.HEADERS, flags, streamId);
+    out.writeBytes(block);
+  }
+
+  static void writeData(ByteBuf out, int streamId, int length, boolean endStream) {
+    FrameWriter.writeFrameHeader(out, length, Type.DATA,
+        endStream ? Flags.END_STREAM.mask() : 0, streamId);
+    out.writeZero(length);
+  }
+
+  /**
+   * @return the preface followed by {@code streams} requests, each one made of a HEADERS frame, a
+   * DATA frame of {@code dataSize} bytes, and interleaved by a PING and a WINDOW_UPDATE
+   */
+  static ByteBuf connection(ByteBufAllocator alloc, int streams, int dataSize) {
+    final byte[] block = requestBlock(alloc);
+    final ByteBuf out = alloc.buffer();
+    writePreface(out);
+    for (int i = 0; i < streams; i++) {
+      final int streamId = i * 2 + 1;
+      writeHeaders(out, streamId, block, false);
+      writeData(out, streamId, dataSize, true);
+      FrameWriter.writeFrameHeader(out, 8, Type.PING, 0, 0);
+      out.writeLong(i);
+      FrameWriter.writeFrameHeader(out, 4, Type.WINDOW_UPDATE, 0, 0);
+      out.writeInt(dataSize);
+    }
+    return out;
+  }
+}
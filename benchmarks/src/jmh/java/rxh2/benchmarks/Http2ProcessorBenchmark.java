@@ -0,0 +1,119 @@
+package rxh2.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import rxh2.server.h2.Http2Processor;
+import rxh2.server.impl.OutboundByteBuf;
+
+/**
+ * End to end throughput of the connection engine: requests are decoded, dispatched to the
+ * default handler and its responses encoded, without any socket involved. Each invocation feeds
+ * one read carrying {@code streamsPerRead} GET requests, and the score is in requests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(Http2ProcessorBenchmark.STREAMS_PER_READ)
+public class Http2ProcessorBenchmark {
+
+  static final int STREAMS_PER_READ = 16;
+
+  @Param({"0", "1024"})
+  int dataSize;
+
+  private EmbeddedChannel channel;
+  private Http2Processor processor;
+  private ByteBuf read;
+  private int nextStreamId;
+  private long outboundBytes;
+
+  @Setup
+  public void setup() {
+    channel = new EmbeddedChannel();
+    processor = Http2Processor.createFor(channel);
+    processor.subscribe(new Subscriber<OutboundByteBuf>() {
+      @Override
+      public void onSubscribe(Subscription s) {
+        s.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(OutboundByteBuf outboundByteBuf) {
+        outboundBytes += outboundByteBuf.getBuffer().readableBytes();
+        outboundByteBuf.getBuffer().release();
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        throw new IllegalStateException(t);
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+    processor.onSubscribe(new Subscription() {
+      @Override
+      public void request(long n) {
+        // Reads are pushed by the benchmark
+      }
+
+      @Override
+      public void cancel() {
+      }
+    });
+
+    final ByteBuf preface = channel.alloc().buffer();
+    Frames.writePreface(preface);
+    processor.onNext(preface);
+
+    // The stream IDs are patched in on every invocation
+    final byte[] block = Frames.requestBlock(channel.alloc());
+    read = channel.alloc().buffer();
+    for (int i = 0; i < STREAMS_PER_READ; i++) {
+      Frames.writeHeaders(read, 1, block, dataSize == 0);
+      if (dataSize > 0) {
+        Frames.writeData(read, 1, dataSize, true);
+      }
+    }
+    nextStreamId = 1;
+  }
+
+  @TearDown
+  public void tearDown() {
+    read.release();
+    processor.onComplete();
+    channel.finishAndReleaseAll();
+  }
+
+  @Benchmark
+  public long requests() {
+    // Stream IDs must grow, there are enough of them for about a billion requests
+    int index = read.readerIndex();
+    for (int i = 0; i < STREAMS_PER_READ; i++) {
+      read.setInt(index + 5, nextStreamId);
+      index += 9 + read.getUnsignedMedium(index);
+      if (dataSize > 0) {
+        read.setInt(index + 5, nextStreamId);
+        index += 9 + read.getUnsignedMedium(index);
+      }
+      nextStreamId += 2;
+    }
+    // The processor releases what it receives
+    processor.onNext(read.retainedDuplicate());
+    return outboundBytes;
+  }
+}
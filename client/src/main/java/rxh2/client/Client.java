@@ -0,0 +1,167 @@
+package rxh2.client;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.ssl.SslContext;
+import java.time.Duration;
+import rxh2.client.impl.ClientImpl;
+import rxh2.client.impl.ClientImpl.ClientConfig;
+
+/**
+ * Builder for the client of a server. The client keeps a small pool of connections to the server
+ * and multiplexes the requests over them, so that requests don't pay for the setup of a TCP
+ * (and TLS) connection. This class is not thread safe.
+ */
+public class Client {
+
+  private String host = "localhost";
+  private int port = -1;
+  private SslContext sslContext;
+  private int maxConnections = 4;
+  private int maxConcurrentStreams = 1000;
+  private int maxPendingRequests = 1024;
+  private int initialWindowSize = 65535;
+  private Duration connectTimeout = Duration.ofSeconds(10);
+  private EventLoopGroup eventLoopGroup;
+  private ByteBufAllocator allocator;
+
+  private Client() {
+  }
+
+  /**
+   * Factory method for creating a new Client builder
+   */
+  public static Client builder() {
+    return new Client();
+  }
+
+  /**
+   * Sets the host of the server, also sent as the :authority of the requests. Defaults to
+   * localhost.
+   */
+  public Client host(String host) {
+    this.host = host;
+    return this;
+  }
+
+  /**
+   * Sets the port of the server. Defaults to 443 when secure, 80 otherwise.
+   */
+  public Client port(int port) {
+    if (port < 1 || port > 0xFFFF) {
+      throw new IllegalArgumentException("Invalid port " + port);
+    }
+    this.port = port;
+    return this;
+  }
+
+  /**
+   * Speaks cleartext HTTP/2 with prior knowledge (h2c), which is the default. Undoes
+   * {@link #secure(SslContext)}.
+   */
+  public Client h2c() {
+    this.sslContext = null;
+    return this;
+  }
+
+  /**
+   * Enables TLS.
+   *
+   * @param sslContext a client SslContext negotiating HTTP/2 with ALPN
+   */
+  public Client secure(SslContext sslContext) {
+    if (!sslContext.isClient()) {
+      throw new IllegalArgumentException("The SslContext must be a client one");
+    }
+    this.sslContext = sslContext;
+    return this;
+  }
+
+  /**
+   * Sets how many connections the client opens to the server at most. Requests go to the
+   * connection with the most streams left before its limit, and a connection is opened only
+   * when all the open ones are saturated. Defaults to 4.
+   */
+  public Client maxConnections(int maxConnections) {
+    if (maxConnections < 1) {
+      throw new IllegalArgumentException("At least one connection must be allowed");
+    }
+    this.maxConnections = maxConnections;
+    return this;
+  }
+
+  /**
+   * Caps the streams the client opens at once on a connection, below the
+   * SETTINGS_MAX_CONCURRENT_STREAMS of the server when lower. Defaults to 1000.
+   */
+  public Client maxConcurrentStreams(int maxConcurrentStreams) {
+    if (maxConcurrentStreams < 1) {
+      throw new IllegalArgumentException("At least one concurrent stream must be allowed");
+    }
+    this.maxConcurrentStreams = maxConcurrentStreams;
+    return this;
+  }
+
+  /**
+   * Sets how many requests can wait for a stream when all the connections are saturated. The
+   * requests past it fail right away. Defaults to 1024.
+   */
+  public Client maxPendingRequests(int maxPendingRequests) {
+    if (maxPendingRequests < 0) {
+      throw new IllegalArgumentException("The max pending requests can't be negative");
+    }
+    this.maxPendingRequests = maxPendingRequests;
+    return this;
+  }
+
+  /**
+   * Sets SETTINGS_INITIAL_WINDOW_SIZE: how many bytes of response body the server can send on a
+   * stream before the client consumes them. The connection window is enlarged to the same size.
+   * Defaults to 65535, the protocol default.
+   */
+  public Client initialWindowSize(int initialWindowSize) {
+    if (initialWindowSize < 0) {
+      throw new IllegalArgumentException("The initial window size can't be negative");
+    }
+    this.initialWindowSize = initialWindowSize;
+    return this;
+  }
+
+  /**
+   * Sets how long opening a connection may take. Defaults to 10 seconds.
+   */
+  public Client connectTimeout(Duration connectTimeout) {
+    if (connectTimeout.isNegative() || connectTimeout.isZero()) {
+      throw new IllegalArgumentException("The connect timeout must be positive");
+    }
+    this.connectTimeout = connectTimeout;
+    return this;
+  }
+
+  /**
+   * Runs the connections on the given event loops, e.g. the ones of a server, instead of
+   * creating NIO event loops. They are not shut down with the client.
+   */
+  public Client eventLoopGroup(EventLoopGroup eventLoopGroup) {
+    this.eventLoopGroup = eventLoopGroup;
+    return this;
+  }
+
+  /**
+   * Sets the allocator of the connections. Defaults to the pooled allocator of Netty.
+   */
+  public Client allocator(ByteBufAllocator allocator) {
+    this.allocator = allocator;
+    return this;
+  }
+
+  /**
+   * Creates the client. Connections are opened on demand, when requests are sent.
+   */
+  public ClientHandle build() {
+    final int effectivePort = port != -1 ? port : sslContext != null ? 443 : 80;
+    return new ClientImpl(new ClientConfig(host, effectivePort, sslContext, maxConnections,
+        maxConcurrentStreams, maxPendingRequests, initialWindowSize, connectTimeout,
+        eventLoopGroup, allocator));
+  }
+}
@@ -0,0 +1,40 @@
+package rxh2.client;
+
+import java.util.concurrent.ExecutionException;
+import reactor.core.publisher.Mono;
+
+/**
+ * Instances of the ClientHandle send requests to the server the client was built for. Instances
+ * must be thread safe.
+ */
+public interface ClientHandle {
+
+  /**
+   * Sends a request as a stream of one of the pooled connections. Nothing is sent until the Mono
+   * is subscribed, and it can be subscribed only once. Cancelling it before the response
+   * headers arrive resets the stream.
+   *
+   * Requests the server refused without processing them, with REFUSED_STREAM or because they
+   * were above the last stream of its GOAWAY, are sent again on another connection.
+   *
+   * @return the response, emitted as soon as its headers are received
+   */
+  Mono<ClientResponse> request(ClientRequest request);
+
+  /**
+   * @return the number of connections open or being opened
+   */
+  int connections();
+
+  /**
+   * Stops sending new requests: the waiting ones fail, the connections are closed once their
+   * streams are done and then the client threads stop, unless they were provided. It doesn't
+   * block, use {@link #join()} to wait for the end of the shutdown.
+   */
+  void shutdownGracefully();
+
+  /**
+   * Blocks until the client was shutdownGracefully and all resources freed up.
+   */
+  void join() throws ExecutionException, InterruptedException;
+}
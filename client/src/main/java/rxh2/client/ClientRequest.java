@@ -0,0 +1,70 @@
+package rxh2.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AsciiString;
+import rxh2.h2.Headers;
+import rxh2.h2.hpack.HeaderNames;
+
+/**
+ * A request sent by a {@link ClientHandle}. The :scheme and :authority pseudo-headers are added
+ * from the configuration of the client unless set. This class is not thread safe.
+ */
+public class ClientRequest {
+
+  private static final AsciiString GET = AsciiString.cached("GET");
+  private static final AsciiString POST = AsciiString.cached("POST");
+
+  private final Headers headers = new Headers();
+  private ByteBuf body;
+
+  private ClientRequest(CharSequence method, CharSequence path) {
+    headers.add(HeaderNames.METHOD, method);
+    headers.add(HeaderNames.PATH, path);
+  }
+
+  /**
+   * @param path the path, query included
+   */
+  public static ClientRequest method(CharSequence method, CharSequence path) {
+    return new ClientRequest(method, path);
+  }
+
+  public static ClientRequest get(CharSequence path) {
+    return new ClientRequest(GET, path);
+  }
+
+  public static ClientRequest post(CharSequence path) {
+    return new ClientRequest(POST, path);
+  }
+
+  public ClientRequest header(CharSequence name, CharSequence value) {
+    headers.add(name, value);
+    return this;
+  }
+
+  /**
+   * Sets the body, whose ownership is transferred to the request. It's sent as the flow control
+   * windows of the server allow, and released once the stream is closed.
+   */
+  public ClientRequest body(ByteBuf body) {
+    if (this.body != null) {
+      this.body.release();
+    }
+    this.body = body;
+    return this;
+  }
+
+  /**
+   * @return the headers, pseudo-headers included
+   */
+  public Headers headers() {
+    return headers;
+  }
+
+  /**
+   * @return the body, or null if the request has none
+   */
+  public ByteBuf body() {
+    return body;
+  }
+}
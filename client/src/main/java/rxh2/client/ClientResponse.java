@@ -0,0 +1,57 @@
+package rxh2.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+import reactor.core.publisher.Flux;
+import rxh2.client.impl.ClientStream;
+import rxh2.h2.Headers;
+import rxh2.h2.hpack.HeaderNames;
+
+/**
+ * A response received by the client. It can be used from any thread.
+ *
+ * The body must be either consumed or discarded: the server can't send more than the flow
+ * control windows allow, so a body left unread holds back the other streams of the connection.
+ */
+public class ClientResponse {
+
+  private final ClientStream stream;
+
+  public ClientResponse(ClientStream stream) {
+    this.stream = stream;
+  }
+
+  public int status() {
+    return AsciiString.of(stream.headers().get(HeaderNames.STATUS)).parseInt();
+  }
+
+  /**
+   * @return the response headers, :status included
+   */
+  public Headers headers() {
+    return stream.headers();
+  }
+
+  /**
+   * @return the trailers, or null if none were received (yet)
+   */
+  public Headers trailers() {
+    return stream.trailers();
+  }
+
+  /**
+   * @return the body, which can be subscribed only once. Every emitted buffer must be released
+   * by the subscriber.
+   */
+  public Flux<ByteBuf> body() {
+    return stream.body();
+  }
+
+  /**
+   * Releases the body as it arrives, instead of subscribing to {@link #body()}.
+   */
+  public void discardBody() {
+    stream.body().subscribe(ReferenceCountUtil::release);
+  }
+}
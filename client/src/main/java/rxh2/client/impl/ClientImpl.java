@@ -0,0 +1,103 @@
+package rxh2.client.impl;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import lombok.Data;
+import reactor.core.publisher.Mono;
+import rxh2.client.ClientHandle;
+import rxh2.client.ClientRequest;
+import rxh2.client.ClientResponse;
+
+public class ClientImpl implements ClientHandle {
+
+  private final ClientConfig config;
+  // Only set when the event loops are owned by the client
+  private final EventLoopGroup defaultEventLoopGroup;
+  private final ConnectionPool pool;
+
+  public ClientImpl(ClientConfig config) {
+    this.config = config;
+    final EventLoopGroup group;
+    if (config.eventLoopGroup != null) {
+      group = config.eventLoopGroup;
+      defaultEventLoopGroup = null;
+    } else {
+      group = new NioEventLoopGroup(0, new DefaultThreadFactory("rxh2-client"));
+      defaultEventLoopGroup = group;
+    }
+
+    final Bootstrap bootstrap = new Bootstrap()
+        .group(group)
+        .channel(group instanceof EpollEventLoopGroup
+            ? EpollSocketChannel.class : NioSocketChannel.class)
+        .option(ChannelOption.TCP_NODELAY, true)
+        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) config.connectTimeout.toMillis())
+        .option(ChannelOption.ALLOCATOR, config.allocator != null
+            ? config.allocator : PooledByteBufAllocator.DEFAULT)
+        .remoteAddress(config.host, config.port);
+    this.pool = new ConnectionPool(config, bootstrap);
+  }
+
+  @Override
+  public Mono<ClientResponse> request(ClientRequest request) {
+    return Mono.create(sink -> {
+      final PendingRequest pending = new PendingRequest(request, sink);
+      sink.onCancel(pending::cancel);
+      pool.acquire(pending);
+    });
+  }
+
+  @Override
+  public int connections() {
+    return pool.size();
+  }
+
+  @Override
+  public void shutdownGracefully() {
+    pool.close();
+    if (defaultEventLoopGroup != null) {
+      pool.closeFuture().thenRun(defaultEventLoopGroup::shutdownGracefully);
+    }
+  }
+
+  @Override
+  public void join() throws ExecutionException, InterruptedException {
+    pool.closeFuture().get();
+    if (defaultEventLoopGroup != null) {
+      defaultEventLoopGroup.terminationFuture().get();
+    }
+  }
+
+  /**
+   * Immutable client configuration data to instantiate a client.
+   */
+  @Data
+  public static class ClientConfig {
+
+    private final String host;
+    private final int port;
+    // Null for cleartext HTTP/2
+    private final SslContext sslContext;
+    private final int maxConnections;
+    // Caps the SETTINGS_MAX_CONCURRENT_STREAMS of the server
+    private final int maxConcurrentStreams;
+    private final int maxPendingRequests;
+    private final int initialWindowSize;
+    private final Duration connectTimeout;
+    // Null to use event loops owned by the client
+    private final EventLoopGroup eventLoopGroup;
+    // Null to use the default pooled allocator
+    private final ByteBufAllocator allocator;
+  }
+}
@@ -0,0 +1,113 @@
+package rxh2.client.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.EventExecutor;
+import reactor.core.publisher.Flux;
+import rxh2.h2.Headers;
+import rxh2.h2.StreamBody;
+
+/**
+ * A HTTP/2 stream opened by the client to send a request. The response body is exposed as a
+ * {@link Flux} of DATA payloads, the server gets window updates as it's consumed.
+ *
+ * All the state is owned by the connection and confined to its event loop.
+ */
+public class ClientStream {
+
+  private final int id;
+  private final Http2ClientConnection connection;
+  private final EventExecutor executor;
+  private final PendingRequest request;
+  private final StreamBody body;
+  private Headers headers;
+  private Headers trailers;
+
+  // Flow control state, owned by the connection
+  int sendWindow;
+  int recvWindow;
+  // Bytes consumed by the body subscriber which weren't credited back to the server yet
+  int consumedBytes;
+  // Bytes of the request body sent so far
+  int bodyOffset;
+  // True while queued to send the request body
+  boolean sending;
+  boolean endStreamSent;
+  boolean endStreamReceived;
+  boolean closed;
+
+  ClientStream(int id, Http2ClientConnection connection, EventExecutor executor,
+      PendingRequest request, int sendWindow, int recvWindow) {
+    this.id = id;
+    this.connection = connection;
+    this.executor = executor;
+    this.request = request;
+    this.sendWindow = sendWindow;
+    this.recvWindow = recvWindow;
+    this.body = new StreamBody(executor, bytes -> connection.consumeBytes(this, bytes));
+  }
+
+  public int id() {
+    return id;
+  }
+
+  /**
+   * @return the response headers, or null if they weren't received yet
+   */
+  public Headers headers() {
+    return headers;
+  }
+
+  /**
+   * @return the response trailers, or null if none were received (yet)
+   */
+  public Headers trailers() {
+    return trailers;
+  }
+
+  /**
+   * @return the response body. Every emitted buffer must be released by the subscriber.
+   */
+  public Flux<ByteBuf> body() {
+    return body;
+  }
+
+  /**
+   * Resets the stream, unless it's closed already. Can be called from any thread.
+   */
+  void cancel() {
+    if (executor.inEventLoop()) {
+      connection.cancelStream(this);
+    } else {
+      executor.execute(() -> connection.cancelStream(this));
+    }
+  }
+
+  PendingRequest request() {
+    return request;
+  }
+
+  StreamBody streamBody() {
+    return body;
+  }
+
+  /**
+   * @return the request body left to send, null if none
+   */
+  ByteBuf bodyLeft() {
+    final ByteBuf data = request.request().body();
+    return data == null || bodyOffset >= data.readableBytes() ? null : data;
+  }
+
+  void headers(Headers headers) {
+    this.headers = headers;
+  }
+
+  void trailers(Headers trailers) {
+    this.trailers = trailers;
+  }
+
+  @Override
+  public String toString() {
+    return "ClientStream(" + id + ")";
+  }
+}
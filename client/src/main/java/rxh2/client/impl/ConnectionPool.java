@@ -0,0 +1,316 @@
+package rxh2.client.impl;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import rxh2.client.impl.ClientImpl.ClientConfig;
+
+/**
+ * The connections of a client to its server, over which the requests are multiplexed as
+ * streams. A request goes to the connection with the most streams left before its limit, the
+ * SETTINGS_MAX_CONCURRENT_STREAMS of the server capped by the configured one, so that the load
+ * spreads evenly across them. Connections are opened on demand, when the waiting requests exceed
+ * what the open and opening connections can take, up to the max connections.
+ *
+ * The state is guarded by the pool: it's called from any thread, and from the event loops of
+ * its connections. Requests are handed to the connections outside of the lock.
+ */
+final class ConnectionPool {
+
+  private static final InternalLogger logger = InternalLoggerFactory
+      .getInstance(ConnectionPool.class);
+
+  private final ClientConfig config;
+  private final Bootstrap bootstrap;
+  // Connections which received the SETTINGS of the server, draining ones included
+  private final List<Http2ClientConnection> connections = new ArrayList<>();
+  private final ArrayDeque<PendingRequest> pending = new ArrayDeque<>();
+  private final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
+  // Connections being opened, until they receive the SETTINGS of the server
+  private int connecting;
+  // The streams a new connection is expected to take: the limit of the last one opened
+  private int expectedStreams;
+  private boolean closed;
+
+  ConnectionPool(ClientConfig config, Bootstrap bootstrap) {
+    this.config = config;
+    this.bootstrap = bootstrap;
+    this.expectedStreams = config.getMaxConcurrentStreams();
+  }
+
+  synchronized int size() {
+    return connections.size() + connecting;
+  }
+
+  /**
+   * Sends the request on the least loaded connection, or queues it until a stream is available.
+   */
+  void acquire(PendingRequest request) {
+    if (request.isCancelled()) {
+      request.releaseBody();
+      return;
+    }
+    if (!request.newAttempt()) {
+      request.fail(new IllegalStateException("Request refused "
+          + PendingRequest.MAX_ATTEMPTS + " times"));
+      return;
+    }
+
+    Http2ClientConnection connection = null;
+    boolean connect = false;
+    String failure = null;
+    synchronized (this) {
+      if (closed) {
+        failure = "The client is shut down";
+      } else if ((connection = reserveStream()) == null) {
+        if (pending.size() >= config.getMaxPendingRequests()) {
+          failure = "Too many pending requests";
+        } else {
+          pending.add(request);
+          connect = shouldConnect();
+        }
+      }
+    }
+
+    if (failure != null) {
+      request.fail(new IllegalStateException(failure));
+    } else if (connection != null) {
+      connection.openStream(request);
+    } else if (connect) {
+      connect();
+    }
+  }
+
+  /**
+   * Called by a connection when one of its streams is closed.
+   */
+  void release(Http2ClientConnection connection) {
+    final List<Runnable> tasks;
+    synchronized (this) {
+      connection.reservedStreams--;
+      tasks = assignPending();
+    }
+    tasks.forEach(Runnable::run);
+  }
+
+  /**
+   * Called by a connection when it received the first SETTINGS of the server.
+   */
+  void onReady(Http2ClientConnection connection, int maxStreams) {
+    final List<Runnable> tasks;
+    final boolean shutdown;
+    synchronized (this) {
+      connecting--;
+      connection.maxStreams = maxStreams;
+      connection.available = !closed;
+      connections.add(connection);
+      expectedStreams = Math.max(1, maxStreams);
+      shutdown = closed;
+      tasks = assignPending();
+    }
+    if (shutdown) {
+      connection.shutdownGracefully();
+    }
+    tasks.forEach(Runnable::run);
+  }
+
+  /**
+   * Called by a connection when the server changed its SETTINGS_MAX_CONCURRENT_STREAMS.
+   */
+  void onSettings(Http2ClientConnection connection, int maxStreams) {
+    final List<Runnable> tasks;
+    synchronized (this) {
+      connection.maxStreams = maxStreams;
+      tasks = assignPending();
+    }
+    tasks.forEach(Runnable::run);
+  }
+
+  /**
+   * Called by a connection which received or sent a GOAWAY: it takes no more streams.
+   */
+  void onGoAway(Http2ClientConnection connection) {
+    final List<Runnable> tasks;
+    synchronized (this) {
+      connection.available = false;
+      // A draining connection doesn't count against the max connections
+      tasks = assignPending();
+    }
+    tasks.forEach(Runnable::run);
+  }
+
+  /**
+   * Called by a connection when its channel is closed.
+   */
+  void onClosed(Http2ClientConnection connection) {
+    final List<Runnable> tasks;
+    synchronized (this) {
+      if (connections.remove(connection)) {
+        tasks = assignPending();
+      } else {
+        // Closed before the server sent its SETTINGS, not worth retrying the pending requests on
+        tasks = connectFailed(new IllegalStateException("Connection closed by the server"));
+      }
+      completeIfClosed();
+    }
+    tasks.forEach(Runnable::run);
+  }
+
+  private void onConnectFailed(Throwable cause) {
+    logger.debug("Failed to connect to {}:{}", config.getHost(), config.getPort(), cause);
+    final List<Runnable> tasks;
+    synchronized (this) {
+      tasks = connectFailed(cause);
+      completeIfClosed();
+    }
+    tasks.forEach(Runnable::run);
+  }
+
+  /**
+   * Called with the lock held: fails the pending requests if no connection is left to take
+   * them, rather than trying to connect again and again.
+   */
+  private List<Runnable> connectFailed(Throwable cause) {
+    connecting--;
+    if (connecting > 0 || connections.stream().anyMatch(c -> c.available)) {
+      return assignPending();
+    }
+    final List<Runnable> tasks = new ArrayList<>(pending.size());
+    for (PendingRequest request : pending) {
+      tasks.add(() -> request.fail(cause));
+    }
+    pending.clear();
+    return tasks;
+  }
+
+  /**
+   * Fails the pending requests and closes the connections once their streams are done.
+   */
+  void close() {
+    final List<PendingRequest> failed;
+    final List<Http2ClientConnection> open;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      failed = new ArrayList<>(pending);
+      pending.clear();
+      open = new ArrayList<>(connections);
+      for (Http2ClientConnection connection : open) {
+        connection.available = false;
+      }
+      completeIfClosed();
+    }
+    final IllegalStateException cause = new IllegalStateException("The client is shut down");
+    failed.forEach(request -> request.fail(cause));
+    open.forEach(Http2ClientConnection::shutdownGracefully);
+  }
+
+  /**
+   * @return completed once closed and all the connections are closed
+   */
+  CompletableFuture<Void> closeFuture() {
+    return closeFuture;
+  }
+
+  // Called with the lock held
+
+  private void completeIfClosed() {
+    if (closed && connections.isEmpty() && connecting == 0) {
+      closeFuture.complete(null);
+    }
+  }
+
+  /**
+   * @return the available connection with the most streams left, with a stream reserved, or
+   * null if they are all saturated
+   */
+  private Http2ClientConnection reserveStream() {
+    Http2ClientConnection best = null;
+    int bestFreeStreams = 0;
+    for (Http2ClientConnection connection : connections) {
+      final int freeStreams = connection.available
+          ? connection.maxStreams - connection.reservedStreams : 0;
+      if (freeStreams > bestFreeStreams) {
+        best = connection;
+        bestFreeStreams = freeStreams;
+      }
+    }
+    if (best != null) {
+      best.reservedStreams++;
+    }
+    return best;
+  }
+
+  /**
+   * @return true if a connection must be opened for the pending requests, counted as connecting
+   */
+  private boolean shouldConnect() {
+    int open = connecting;
+    for (Http2ClientConnection connection : connections) {
+      if (connection.available) {
+        open++;
+      }
+    }
+    if (closed || open >= config.getMaxConnections()
+        || pending.size() <= (long) connecting * expectedStreams) {
+      return false;
+    }
+    connecting++;
+    return true;
+  }
+
+  /**
+   * @return the tasks handing the pending requests to the connections with streams left, and
+   * opening a connection if they are not enough
+   */
+  private List<Runnable> assignPending() {
+    if (pending.isEmpty()) {
+      return Collections.emptyList();
+    }
+    final List<Runnable> tasks = new ArrayList<>();
+    Http2ClientConnection connection;
+    while (!pending.isEmpty() && (connection = reserveStream()) != null) {
+      final Http2ClientConnection target = connection;
+      final PendingRequest request = pending.poll();
+      tasks.add(() -> target.openStream(request));
+    }
+    if (!pending.isEmpty() && shouldConnect()) {
+      tasks.add(this::connect);
+    }
+    return tasks;
+  }
+
+  // Called without the lock
+
+  private void connect() {
+    final Http2ClientConnection connection = new Http2ClientConnection(this, config);
+    final SslContext sslContext = config.getSslContext();
+    bootstrap.clone()
+        .handler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(Channel ch) {
+            if (sslContext != null) {
+              ch.pipeline().addLast(sslContext.newHandler(ch.alloc(), config.getHost(),
+                  config.getPort()));
+            }
+            ch.pipeline().addLast(connection);
+          }
+        })
+        .connect()
+        .addListener(future -> {
+          if (!future.isSuccess()) {
+            onConnectFailed(future.cause());
+          }
+        });
+  }
+}
@@ -0,0 +1,918 @@
+package rxh2.client.impl;
+
+import static io.netty.handler.codec.http2.Http2Error.COMPRESSION_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.FLOW_CONTROL_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.FRAME_SIZE_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.INTERNAL_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.NO_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.PROTOCOL_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.REFUSED_STREAM;
+import static io.netty.handler.codec.http2.Http2Error.STREAM_CLOSED;
+import static io.netty.handler.codec.http2.Http2Exception.connectionError;
+import static io.netty.handler.codec.http2.Http2Exception.streamError;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2Exception.StreamException;
+import io.netty.util.AsciiString;
+import io.netty.util.CharsetUtil;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import reactor.core.publisher.Flux;
+import rxh2.client.ClientResponse;
+import rxh2.client.impl.ClientImpl.ClientConfig;
+import rxh2.h2.HeaderBlockAssembler;
+import rxh2.h2.Headers;
+import rxh2.h2.frame.Frame;
+import rxh2.h2.frame.FrameDecoderImpl;
+import rxh2.h2.frame.FrameHeader;
+import rxh2.h2.frame.FrameHeader.Flags;
+import rxh2.h2.frame.FrameWriter;
+import rxh2.h2.hpack.HeaderListSizeException;
+import rxh2.h2.hpack.HeaderNames;
+import rxh2.h2.hpack.HpackDecoder;
+import rxh2.h2.hpack.HpackEncoder;
+import rxh2.h2.hpack.HpackException;
+
+/**
+ * A HTTP/2 connection to the server, on which the requests handed by the {@link ConnectionPool}
+ * are sent as streams. It's the last handler of the pipeline of its channel: the buffers read are
+ * decoded into frames and processed right away, and the frames to send are written as they are
+ * produced and flushed at the end of the read, or of the task which produced them.
+ *
+ * Both directions are flow controlled (RFC 7540 section 6.9): request bodies are sent as the
+ * windows of the server allow, round robin across the streams, and the server gets window
+ * updates as the response bodies are consumed.
+ *
+ * All the state is confined to the event loop of the channel, except the stream counts which
+ * are guarded by the pool.
+ */
+final class Http2ClientConnection extends ChannelInboundHandlerAdapter {
+
+  private static final InternalLogger logger = InternalLoggerFactory
+      .getInstance(Http2ClientConnection.class);
+
+  private static final ByteBuf PREFACE = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(
+      "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n", CharsetUtil.US_ASCII));
+
+  // Protocol defaults of SETTINGS_HEADER_TABLE_SIZE, SETTINGS_MAX_FRAME_SIZE and
+  // SETTINGS_INITIAL_WINDOW_SIZE
+  private static final long DEFAULT_HEADER_TABLE_SIZE = 4096;
+  private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+  private static final int MAX_ALLOWED_FRAME_SIZE = 0xFFFFFF;
+  private static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+  private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+  // The largest response header list accepted, advertised with SETTINGS_MAX_HEADER_LIST_SIZE
+  private static final long MAX_HEADER_LIST_SIZE = 65536;
+
+  private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  private static final int SETTINGS_ENABLE_PUSH = 0x2;
+  private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+  private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+  private final ConnectionPool pool;
+  private final ClientConfig config;
+  private final AsciiString scheme;
+  private final AsciiString authority;
+  private final IntObjectMap<ClientStream> streams = new IntObjectHashMap<>();
+  // Streams with request body to send, in round robin order
+  private final ArrayDeque<ClientStream> sending = new ArrayDeque<>();
+
+  private ChannelHandlerContext ctx;
+  private EventExecutor executor;
+  private ByteBufAllocator alloc;
+  private FrameDecoderImpl frameDecoder;
+  private HeaderBlockAssembler headerBlockAssembler;
+  private final HpackDecoder hpackDecoder = new HpackDecoder(DEFAULT_HEADER_TABLE_SIZE,
+      MAX_HEADER_LIST_SIZE);
+  private final HpackEncoder hpackEncoder = new HpackEncoder(DEFAULT_HEADER_TABLE_SIZE,
+      DEFAULT_HEADER_TABLE_SIZE);
+
+  private int nextStreamId = 1;
+  private long peerMaxConcurrentStreams = Long.MAX_VALUE;
+  private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+  private int peerInitialWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+  // The protocol default or the configured one, whichever is larger, until our SETTINGS are
+  // acknowledged: the server may send with either until then
+  private int localInitialWindowSize;
+  private final int connectionWindowSize;
+  private int connectionSendWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+  private int connectionRecvWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+  private int connectionConsumedBytes;
+  private boolean settingsReceived;
+  private boolean settingsAcked;
+  private boolean goAwayReceived;
+  private boolean goAwaySent;
+  private boolean inRead;
+  private boolean needsFlush;
+  private boolean closing;
+  private boolean closed;
+
+  // Guarded by the pool
+  int reservedStreams;
+  int maxStreams;
+  boolean available;
+
+  Http2ClientConnection(ConnectionPool pool, ClientConfig config) {
+    this.pool = pool;
+    this.config = config;
+    final boolean secure = config.getSslContext() != null;
+    this.scheme = AsciiString.cached(secure ? "https" : "http");
+    this.authority = new AsciiString(config.getPort() == (secure ? 443 : 80)
+        ? config.getHost() : config.getHost() + ":" + config.getPort());
+    this.localInitialWindowSize = Math.max(DEFAULT_INITIAL_WINDOW_SIZE,
+        config.getInitialWindowSize());
+    this.connectionWindowSize = localInitialWindowSize;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) {
+    this.ctx = ctx;
+    this.executor = ctx.executor();
+    this.alloc = ctx.alloc();
+    this.headerBlockAssembler = new HeaderBlockAssembler(alloc);
+    // The preface of the server is a SETTINGS frame, there is no preface to validate
+    this.frameDecoder = new FrameDecoderImpl(alloc, DEFAULT_MAX_FRAME_SIZE, false);
+    Flux.from(frameDecoder)
+        .subscribe(this::onFrame, this::onInboundError);
+  }
+
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) throws Exception {
+    // The client connection preface, then the connection window which SETTINGS can't change
+    write(PREFACE.duplicate());
+    write(localSettings());
+    if (connectionWindowSize > DEFAULT_INITIAL_WINDOW_SIZE) {
+      connectionRecvWindow = connectionWindowSize;
+      write(FrameWriter.windowUpdate(alloc, 0,
+          connectionWindowSize - DEFAULT_INITIAL_WINDOW_SIZE));
+    }
+    flushIfNeeded();
+    super.channelActive(ctx);
+  }
+
+  /**
+   * @return a SETTINGS frame disabling push, with the configured values differing from the
+   * protocol defaults
+   */
+  private ByteBuf localSettings() {
+    final int initialWindowSize = config.getInitialWindowSize();
+    if (initialWindowSize == DEFAULT_INITIAL_WINDOW_SIZE) {
+      return FrameWriter.settings(alloc, SETTINGS_ENABLE_PUSH, 0,
+          SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE);
+    }
+    return FrameWriter.settings(alloc, SETTINGS_ENABLE_PUSH, 0,
+        SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE,
+        SETTINGS_INITIAL_WINDOW_SIZE, initialWindowSize);
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    inRead = true;
+    frameDecoder.onNext((ByteBuf) msg);
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    inRead = false;
+    flushIfNeeded();
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    logger.debug("Closing channel {} after an exception", ctx.channel().id(), cause);
+    ctx.close();
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    closing = true;
+    closed = true;
+    headerBlockAssembler.release();
+    frameDecoder.onComplete();
+    sending.clear();
+    final ClosedChannelException exception = new ClosedChannelException();
+    for (ClientStream stream : new ArrayList<>(streams.values())) {
+      // The server may have processed the requests, they are not sent again
+      failStream(stream, exception);
+    }
+    pool.onClosed(this);
+    super.channelInactive(ctx);
+  }
+
+  // Called by the pool from any thread
+
+  /**
+   * Sends the request on a new stream. A stream must have been reserved for it.
+   */
+  void openStream(PendingRequest request) {
+    try {
+      executor.execute(() -> {
+        doOpenStream(request);
+        flushIfNeeded();
+      });
+    } catch (RejectedExecutionException e) {
+      // The event loop was shut down with the client
+      pool.release(this);
+      request.fail(e);
+    }
+  }
+
+  /**
+   * Sends a GOAWAY and closes the connection once its streams are done.
+   */
+  void shutdownGracefully() {
+    try {
+      executor.execute(() -> {
+        sendGoAway();
+        flushIfNeeded();
+      });
+    } catch (RejectedExecutionException e) {
+      // Closed with the event loop
+    }
+  }
+
+  // Called on the event loop
+
+  private void doOpenStream(PendingRequest request) {
+    if (closing || goAwayReceived || goAwaySent) {
+      // Not sent, another connection gets it
+      pool.release(this);
+      pool.acquire(request);
+      return;
+    }
+    if (request.isCancelled()) {
+      pool.release(this);
+      request.releaseBody();
+      return;
+    }
+
+    final int streamId = nextStreamId;
+    nextStreamId += 2;
+    final ClientStream stream = new ClientStream(streamId, this, executor, request,
+        peerInitialWindowSize, localInitialWindowSize);
+    streams.put(streamId, stream);
+
+    final ByteBuf body = request.request().body();
+    final boolean endStream = body == null || !body.isReadable();
+    write(FrameWriter.headers(alloc, streamId, encodeHeaders(request.request().headers()),
+        endStream, peerMaxFrameSize));
+    if (endStream) {
+      stream.endStreamSent = true;
+    } else {
+      stream.sending = true;
+      sending.add(stream);
+      writeData();
+    }
+    if (nextStreamId < 0) {
+      // Stream IDs exhausted, the pool opens another connection
+      sendGoAway();
+    }
+    request.sentOn(stream);
+  }
+
+  /**
+   * Encodes the pseudo-headers first as required, adding the missing :scheme and :authority.
+   */
+  private ByteBuf encodeHeaders(Headers headers) {
+    final ByteBuf block = alloc.buffer();
+    hpackEncoder.beginBlock(block);
+    for (int i = 0; i < headers.size(); i++) {
+      if (isPseudoHeader(headers.name(i))) {
+        hpackEncoder.encodeHeader(block, headers.name(i), headers.value(i), false);
+      }
+    }
+    if (!headers.contains(HeaderNames.SCHEME)) {
+      hpackEncoder.encodeHeader(block, HeaderNames.SCHEME, scheme, false);
+    }
+    if (!headers.contains(HeaderNames.AUTHORITY)) {
+      hpackEncoder.encodeHeader(block, HeaderNames.AUTHORITY, authority, false);
+    }
+    for (int i = 0; i < headers.size(); i++) {
+      if (!isPseudoHeader(headers.name(i))) {
+        hpackEncoder.encodeHeader(block, headers.name(i), headers.value(i), false);
+      }
+    }
+    return block;
+  }
+
+  private static boolean isPseudoHeader(CharSequence name) {
+    return name.length() > 0 && name.charAt(0) == ':';
+  }
+
+  /**
+   * Sends the request bodies as far as the windows allow, a frame per stream in turn.
+   */
+  private void writeData() {
+    ClientStream stream;
+    while (connectionSendWindow > 0 && (stream = sending.poll()) != null) {
+      final ByteBuf body = stream.bodyLeft();
+      if (stream.closed || body == null || stream.sendWindow <= 0) {
+        // Queued again by the WINDOW_UPDATE of the stream
+        stream.sending = false;
+        continue;
+      }
+      final int left = body.readableBytes() - stream.bodyOffset;
+      final int length = Math.min(Math.min(left, peerMaxFrameSize),
+          Math.min(stream.sendWindow, connectionSendWindow));
+      final boolean endStream = length == left;
+      write(FrameWriter.data(alloc, stream.id(),
+          body.retainedSlice(body.readerIndex() + stream.bodyOffset, length), endStream));
+      stream.bodyOffset += length;
+      stream.sendWindow -= length;
+      connectionSendWindow -= length;
+      if (endStream) {
+        stream.sending = false;
+        stream.endStreamSent = true;
+        closeIfDone(stream);
+      } else {
+        sending.add(stream);
+      }
+    }
+  }
+
+  /**
+   * Credits back to the server the bytes of a response body which were consumed. Window updates
+   * are sent once half of a window is consumed, to save frames.
+   *
+   * @param stream null to credit only the connection window
+   */
+  void consumeBytes(ClientStream stream, int bytes) {
+    if (closing || bytes == 0) {
+      return;
+    }
+    connectionConsumedBytes += bytes;
+    if (connectionConsumedBytes >= connectionWindowSize / 2) {
+      connectionRecvWindow += connectionConsumedBytes;
+      write(FrameWriter.windowUpdate(alloc, 0, connectionConsumedBytes));
+      connectionConsumedBytes = 0;
+    }
+    if (stream != null && !stream.closed && !stream.endStreamReceived) {
+      // No point in updating the window of a stream the server can't send on anymore
+      stream.consumedBytes += bytes;
+      if (stream.consumedBytes >= localInitialWindowSize / 2) {
+        stream.recvWindow += stream.consumedBytes;
+        write(FrameWriter.windowUpdate(alloc, stream.id(), stream.consumedBytes));
+        stream.consumedBytes = 0;
+      }
+    }
+    flushIfNeeded();
+  }
+
+  void cancelStream(ClientStream stream) {
+    if (stream.closed || stream.headers() != null) {
+      // Once the response is received, cancelling its body discards it
+      return;
+    }
+    resetStream(stream, Http2Error.CANCEL,
+        streamError(stream.id(), Http2Error.CANCEL, "Stream cancelled"));
+    flushIfNeeded();
+  }
+
+  private void onFrame(Frame frame) {
+    if (closing) {
+      frame.release();
+      return;
+    }
+    try {
+      final FrameHeader header = frame.getHeader();
+      if (!settingsReceived && header.getType() != FrameHeader.Type.SETTINGS) {
+        frame.release();
+        throw connectionError(PROTOCOL_ERROR, "The server preface must be a SETTINGS frame");
+      }
+      if (headerBlockAssembler.inProgress()) {
+        if (headerBlockAssembler.onContinuation(frame)) {
+          onHeaderBlock();
+        }
+        return;
+      }
+
+      switch (header.getType()) {
+        case HEADERS:
+          if (header.getStreamId() == 0) {
+            frame.release();
+            throw connectionError(PROTOCOL_ERROR, "HEADERS frame on stream 0");
+          }
+          if (headerBlockAssembler.onHeaders(frame)) {
+            onHeaderBlock();
+          }
+          break;
+        case DATA:
+          onDataFrame(frame);
+          break;
+        case SETTINGS:
+          onSettingsFrame(frame);
+          break;
+        case WINDOW_UPDATE:
+          onWindowUpdateFrame(frame);
+          break;
+        case RST_STREAM:
+          onRstStreamFrame(frame);
+          break;
+        case PING:
+          onPingFrame(frame);
+          break;
+        case GOAWAY:
+          onGoAwayFrame(frame);
+          break;
+        case PUSH_PROMISE:
+          frame.release();
+          throw connectionError(PROTOCOL_ERROR, "PUSH_PROMISE while push is disabled");
+        case CONTINUATION:
+          frame.release();
+          throw connectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION frame on stream %d",
+              header.getStreamId());
+        default:
+          // PRIORITY, PRIORITY_UPDATE and the unknown types are ignored
+          frame.release();
+      }
+    } catch (StreamException e) {
+      logger.debug("Stream error on stream {}", e.streamId(), e);
+      final ClientStream stream = streams.get(e.streamId());
+      if (stream != null) {
+        resetStream(stream, e.error(), e);
+      } else {
+        write(FrameWriter.rstStream(alloc, e.streamId(), e.error().code()));
+      }
+    } catch (Http2Exception e) {
+      onConnectionError(e);
+    } catch (HpackException e) {
+      onConnectionError(connectionError(COMPRESSION_ERROR, e, e.getMessage()));
+    }
+  }
+
+  private void onHeaderBlock() throws Http2Exception {
+    final int streamId = headerBlockAssembler.streamId();
+    final boolean endStream = Flags.END_STREAM.isSetInByte(headerBlockAssembler.headersFlags());
+    final ByteBuf block = headerBlockAssembler.takeBlock();
+    final Headers headers = new Headers();
+    boolean tooLarge = false;
+    try {
+      hpackDecoder.decode(block, (name, value, sensitive) -> headers.add(name, value));
+    } catch (HeaderListSizeException e) {
+      logger.debug("Header list too large on stream {}", streamId, e);
+      tooLarge = true;
+    } finally {
+      block.release();
+    }
+
+    final ClientStream stream = streams.get(streamId);
+    if (stream == null) {
+      requireOpenedStream(streamId);
+      // A stream closed or reset by us, the decoding kept the dynamic table in sync
+      return;
+    }
+    if (stream.endStreamReceived) {
+      throw streamError(streamId, STREAM_CLOSED, "HEADERS on half closed stream %d", streamId);
+    }
+    if (tooLarge) {
+      throw streamError(streamId, PROTOCOL_ERROR, "Response headers larger than %d bytes",
+          MAX_HEADER_LIST_SIZE);
+    }
+    if (stream.headers() == null) {
+      final CharSequence status = headers.get(HeaderNames.STATUS);
+      if (status == null) {
+        throw streamError(streamId, PROTOCOL_ERROR, "Response without :status");
+      }
+      if (status.length() == 3 && status.charAt(0) == '1') {
+        // Informational, e.g. 100 Continue: the final response follows
+        if (endStream) {
+          throw streamError(streamId, PROTOCOL_ERROR, "Informational response ending the "
+              + "stream");
+        }
+        return;
+      }
+      stream.headers(headers);
+      stream.request().succeed(new ClientResponse(stream));
+    } else if (!endStream) {
+      throw streamError(streamId, PROTOCOL_ERROR, "Trailers without END_STREAM");
+    } else {
+      stream.trailers(headers);
+    }
+    if (endStream) {
+      stream.endStreamReceived = true;
+      stream.streamBody().onComplete();
+      closeIfDone(stream);
+    }
+  }
+
+  private void onDataFrame(Frame frame) throws Http2Exception {
+    final FrameHeader header = frame.getHeader();
+    final int streamId = header.getStreamId();
+    // The whole payload counts against the windows, padding included
+    final int flowControlledBytes = header.getLength();
+    final ByteBuf data;
+    try {
+      requireStreamId(frame);
+      if (flowControlledBytes > connectionRecvWindow) {
+        throw connectionError(FLOW_CONTROL_ERROR, "Connection flow control window exceeded");
+      }
+      connectionRecvWindow -= flowControlledBytes;
+      data = stripPadding(frame);
+    } finally {
+      frame.release();
+    }
+
+    final ClientStream stream = streams.get(streamId);
+    if (stream == null || stream.endStreamReceived || stream.headers() == null) {
+      data.release();
+      consumeBytes(null, flowControlledBytes);
+      if (stream == null) {
+        requireOpenedStream(streamId);
+        // A stream closed or reset by us
+        return;
+      }
+      throw streamError(streamId, stream.headers() == null ? PROTOCOL_ERROR : STREAM_CLOSED,
+          "Unexpected DATA");
+    }
+    if (flowControlledBytes > stream.recvWindow) {
+      data.release();
+      consumeBytes(null, flowControlledBytes);
+      throw streamError(streamId, FLOW_CONTROL_ERROR, "Stream flow control window exceeded");
+    }
+    stream.recvWindow -= flowControlledBytes;
+
+    // The padding is consumed right away, the data once delivered to the body subscriber
+    consumeBytes(stream, flowControlledBytes - data.readableBytes());
+    if (data.isReadable()) {
+      stream.streamBody().onData(data);
+    } else {
+      data.release();
+    }
+    if (Flags.END_STREAM.isSetInByte(header.getFlags())) {
+      stream.endStreamReceived = true;
+      stream.streamBody().onComplete();
+      closeIfDone(stream);
+    }
+  }
+
+  /**
+   * @return a retained slice of the payload without the padding
+   */
+  private static ByteBuf stripPadding(Frame frame) throws Http2Exception {
+    final ByteBuf payload = frame.getPayload();
+    if (!Flags.PADDED.isSetInByte(frame.getHeader().getFlags())) {
+      return payload.retainedSlice();
+    }
+    if (!payload.isReadable()) {
+      throw connectionError(PROTOCOL_ERROR, "Padded frame without the padding length");
+    }
+    final int padLength = payload.getUnsignedByte(payload.readerIndex());
+    final int dataLength = payload.readableBytes() - 1 - padLength;
+    if (dataLength < 0) {
+      throw connectionError(PROTOCOL_ERROR, "Padding longer than the frame");
+    }
+    return payload.retainedSlice(payload.readerIndex() + 1, dataLength);
+  }
+
+  private void onSettingsFrame(Frame frame) throws Http2Exception {
+    try {
+      final FrameHeader header = frame.getHeader();
+      requireConnectionFrame(frame);
+      if (Flags.ACK.isSetInByte(header.getFlags())) {
+        if (header.getLength() != 0) {
+          throw connectionError(FRAME_SIZE_ERROR, "SETTINGS ACK with a payload");
+        }
+        if (!settingsAcked) {
+          settingsAcked = true;
+          applyLocalSettings();
+        }
+        return;
+      }
+      if (header.getLength() % 6 != 0) {
+        throw connectionError(FRAME_SIZE_ERROR, "Invalid SETTINGS length %d",
+            header.getLength());
+      }
+
+      final ByteBuf payload = frame.getPayload();
+      for (int i = payload.readerIndex(); i < payload.writerIndex(); i += 6) {
+        applyPeerSetting(payload.getUnsignedShort(i), payload.getUnsignedInt(i + 2));
+      }
+      write(FrameWriter.settingsAck(alloc));
+    } finally {
+      frame.release();
+    }
+
+    final int maxStreams = (int) Math.min(peerMaxConcurrentStreams,
+        config.getMaxConcurrentStreams());
+    if (!settingsReceived) {
+      settingsReceived = true;
+      pool.onReady(this, maxStreams);
+    } else {
+      pool.onSettings(this, maxStreams);
+    }
+    writeData();
+  }
+
+  /**
+   * Lowers the window which was kept at the protocol default until the server acknowledged our
+   * SETTINGS.
+   */
+  private void applyLocalSettings() {
+    final int delta = config.getInitialWindowSize() - localInitialWindowSize;
+    if (delta != 0) {
+      localInitialWindowSize = config.getInitialWindowSize();
+      for (ClientStream stream : streams.values()) {
+        stream.recvWindow += delta;
+      }
+    }
+  }
+
+  private void applyPeerSetting(int id, long value) throws Http2Exception {
+    switch (id) {
+      case SETTINGS_HEADER_TABLE_SIZE:
+        hpackEncoder.setMaxTableSize(value);
+        break;
+      case SETTINGS_ENABLE_PUSH:
+        if (value != 0) {
+          throw connectionError(PROTOCOL_ERROR, "SETTINGS_ENABLE_PUSH %d sent by a server",
+              value);
+        }
+        break;
+      case SETTINGS_MAX_CONCURRENT_STREAMS:
+        peerMaxConcurrentStreams = value;
+        break;
+      case SETTINGS_INITIAL_WINDOW_SIZE:
+        if (value > MAX_WINDOW_SIZE) {
+          throw connectionError(FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE %d",
+              value);
+        }
+        // The change applies to the windows of all the streams, which may turn negative
+        final int delta = (int) value - peerInitialWindowSize;
+        peerInitialWindowSize = (int) value;
+        for (ClientStream stream : streams.values()) {
+          if (delta > 0 && stream.sendWindow > MAX_WINDOW_SIZE - delta) {
+            throw connectionError(FLOW_CONTROL_ERROR, "Window of stream %d overflows",
+                stream.id());
+          }
+          stream.sendWindow += delta;
+          queueForSending(stream);
+        }
+        break;
+      case SETTINGS_MAX_FRAME_SIZE:
+        if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_ALLOWED_FRAME_SIZE) {
+          throw connectionError(PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE %d", value);
+        }
+        peerMaxFrameSize = (int) value;
+        break;
+      default:
+        // SETTINGS_MAX_HEADER_LIST_SIZE is advisory, unknown settings must be ignored
+    }
+  }
+
+  private void onWindowUpdateFrame(Frame frame) throws Http2Exception {
+    final int streamId = frame.getHeader().getStreamId();
+    final int increment;
+    try {
+      if (frame.getHeader().getLength() != 4) {
+        throw connectionError(FRAME_SIZE_ERROR, "WINDOW_UPDATE payload must be 4 bytes");
+      }
+      increment = frame.getPayload().getInt(frame.getPayload().readerIndex()) & 0x7FFFFFFF;
+    } finally {
+      frame.release();
+    }
+
+    if (streamId == 0) {
+      if (increment == 0) {
+        throw connectionError(PROTOCOL_ERROR, "WINDOW_UPDATE with a zero increment");
+      }
+      if (connectionSendWindow > MAX_WINDOW_SIZE - increment) {
+        throw connectionError(FLOW_CONTROL_ERROR, "Connection flow control window overflows");
+      }
+      connectionSendWindow += increment;
+      writeData();
+      return;
+    }
+
+    final ClientStream stream = streams.get(streamId);
+    if (stream == null) {
+      requireOpenedStream(streamId);
+      return;
+    }
+    if (increment == 0) {
+      throw streamError(streamId, PROTOCOL_ERROR, "WINDOW_UPDATE with a zero increment");
+    }
+    if (stream.sendWindow > MAX_WINDOW_SIZE - increment) {
+      throw streamError(streamId, FLOW_CONTROL_ERROR, "Stream flow control window overflows");
+    }
+    stream.sendWindow += increment;
+    queueForSending(stream);
+    writeData();
+  }
+
+  private void queueForSending(ClientStream stream) {
+    if (!stream.sending && !stream.closed && stream.bodyLeft() != null) {
+      stream.sending = true;
+      sending.add(stream);
+    }
+  }
+
+  private void onRstStreamFrame(Frame frame) throws Http2Exception {
+    final int streamId = frame.getHeader().getStreamId();
+    final long errorCode;
+    try {
+      requireStreamId(frame);
+      if (frame.getHeader().getLength() != 4) {
+        throw connectionError(FRAME_SIZE_ERROR, "RST_STREAM payload must be 4 bytes");
+      }
+      errorCode = frame.getPayload().getUnsignedInt(frame.getPayload().readerIndex());
+    } finally {
+      frame.release();
+    }
+
+    final ClientStream stream = streams.get(streamId);
+    if (stream == null) {
+      requireOpenedStream(streamId);
+      return;
+    }
+    logger.debug("Stream {} reset by peer with error code {}", streamId, errorCode);
+    final Http2Error error = Http2Error.valueOf(errorCode);
+    if (error == REFUSED_STREAM && stream.headers() == null) {
+      // Not processed by the server, e.g. because of its MAX_CONCURRENT_STREAMS
+      retry(stream);
+    } else if (error == NO_ERROR && stream.endStreamReceived) {
+      // The complete response was received, the server doesn't need the rest of the request
+      closeStream(stream);
+    } else {
+      failStream(stream, streamError(streamId, error != null ? error : INTERNAL_ERROR,
+          "Stream reset by peer"));
+    }
+  }
+
+  private void onPingFrame(Frame frame) throws Http2Exception {
+    try {
+      requireConnectionFrame(frame);
+      if (frame.getHeader().getLength() != 8) {
+        throw connectionError(FRAME_SIZE_ERROR, "PING payload must be 8 bytes");
+      }
+      if (!Flags.ACK.isSetInByte(frame.getHeader().getFlags())) {
+        write(FrameWriter.ping(alloc, frame.getPayload(), true));
+      }
+    } finally {
+      frame.release();
+    }
+  }
+
+  private void onGoAwayFrame(Frame frame) throws Http2Exception {
+    final int lastStreamId;
+    try {
+      requireConnectionFrame(frame);
+      if (frame.getHeader().getLength() < 8) {
+        throw connectionError(FRAME_SIZE_ERROR, "GOAWAY payload must be at least 8 bytes");
+      }
+      final ByteBuf payload = frame.getPayload();
+      lastStreamId = payload.getInt(payload.readerIndex()) & 0x7FFFFFFF;
+      logger.debug("GOAWAY received: last stream {}, error code {}", lastStreamId,
+          payload.getUnsignedInt(payload.readerIndex() + 4));
+    } finally {
+      frame.release();
+    }
+    if (!goAwayReceived) {
+      goAwayReceived = true;
+      pool.onGoAway(this);
+    }
+    // The streams above the last one were not processed and can be sent elsewhere
+    for (ClientStream stream : new ArrayList<>(streams.values())) {
+      if (stream.id() > lastStreamId) {
+        retry(stream);
+      }
+    }
+    closeIfIdle();
+  }
+
+  private void requireOpenedStream(int streamId) throws Http2Exception {
+    if ((streamId & 1) == 0 || streamId >= nextStreamId) {
+      throw connectionError(PROTOCOL_ERROR, "Frame on idle stream %d", streamId);
+    }
+  }
+
+  private static void requireStreamId(Frame frame) throws Http2Exception {
+    if (frame.getHeader().getStreamId() == 0) {
+      throw connectionError(PROTOCOL_ERROR, "%s frame on stream 0",
+          frame.getHeader().getType());
+    }
+  }
+
+  private static void requireConnectionFrame(Frame frame) throws Http2Exception {
+    if (frame.getHeader().getStreamId() != 0) {
+      throw connectionError(PROTOCOL_ERROR, "%s frame on stream %d",
+          frame.getHeader().getType(), frame.getHeader().getStreamId());
+    }
+  }
+
+  private void onConnectionError(Http2Exception e) {
+    logger.debug("Connection error, closing channel {}", ctx.channel().id(), e);
+    closing = true;
+    headerBlockAssembler.release();
+    ctx.writeAndFlush(FrameWriter.goAway(alloc, 0, e.error().code()))
+        .addListener(ChannelFutureListener.CLOSE);
+  }
+
+  private void onInboundError(Throwable t) {
+    if (t instanceof Http2Exception) {
+      // E.g. a frame larger than the max frame size, rejected by the decoder
+      onConnectionError((Http2Exception) t);
+      return;
+    }
+    logger.error("Unrecoverable error processing channel {}, closing it", ctx.channel().id(), t);
+    closing = true;
+    headerBlockAssembler.release();
+    ctx.close();
+  }
+
+  private void resetStream(ClientStream stream, Http2Error error, Throwable cause) {
+    write(FrameWriter.rstStream(alloc, stream.id(), error.code()));
+    failStream(stream, cause);
+  }
+
+  /**
+   * Closes the stream, failing the response or its body.
+   */
+  private void failStream(ClientStream stream, Throwable cause) {
+    if (stream.headers() == null) {
+      stream.request().fail(cause);
+    } else if (!stream.endStreamReceived) {
+      stream.streamBody().onError(cause);
+    }
+    closeStream(stream);
+  }
+
+  /**
+   * Closes a stream the server didn't process and sends its request again.
+   */
+  private void retry(ClientStream stream) {
+    stream.closed = true;
+    streams.remove(stream.id());
+    pool.release(this);
+    pool.acquire(stream.request());
+    closeIfIdle();
+  }
+
+  private void closeIfDone(ClientStream stream) {
+    if (stream.endStreamSent && stream.endStreamReceived && !stream.closed) {
+      closeStream(stream);
+    }
+  }
+
+  private void closeStream(ClientStream stream) {
+    if (stream.closed) {
+      return;
+    }
+    stream.closed = true;
+    streams.remove(stream.id());
+    stream.request().releaseBody();
+    if (!closed) {
+      pool.release(this);
+    }
+    closeIfIdle();
+  }
+
+  private void sendGoAway() {
+    if (closing || goAwaySent) {
+      return;
+    }
+    goAwaySent = true;
+    pool.onGoAway(this);
+    // There are no streams initiated by the server
+    write(FrameWriter.goAway(alloc, 0, NO_ERROR.code()));
+    closeIfIdle();
+  }
+
+  private void closeIfIdle() {
+    if ((goAwayReceived || goAwaySent) && streams.isEmpty() && !closing) {
+      closing = true;
+      needsFlush = false;
+      ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+    }
+  }
+
+  private void write(ByteBuf frame) {
+    ctx.write(frame, ctx.voidPromise());
+    needsFlush = true;
+  }
+
+  /**
+   * Flushes what was written, unless reading: the end of the read flushes it.
+   */
+  private void flushIfNeeded() {
+    if (needsFlush && !inRead) {
+      needsFlush = false;
+      ctx.flush();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package rxh2.client.impl;
+
+import io.netty.buffer.ByteBuf;
+import java.util.concurrent.atomic.AtomicBoolean;
+import reactor.core.publisher.MonoSink;
+import rxh2.client.ClientRequest;
+import rxh2.client.ClientResponse;
+
+/**
+ * A request on its way to a stream, and the sink of its response. It outlives the streams it's
+ * sent on: a request the server refused without processing it is sent again on another stream,
+ * so the body is released only once the request is done.
+ */
+final class PendingRequest {
+
+  // Attempts of a request refused again and again before failing it
+  static final int MAX_ATTEMPTS = 3;
+
+  private final ClientRequest request;
+  private final MonoSink<ClientResponse> sink;
+  private final AtomicBoolean bodyReleased = new AtomicBoolean();
+  private int attempts;
+  private volatile boolean cancelled;
+  // The stream the request is being sent on, if any
+  private volatile ClientStream stream;
+
+  PendingRequest(ClientRequest request, MonoSink<ClientResponse> sink) {
+    this.request = request;
+    this.sink = sink;
+  }
+
+  ClientRequest request() {
+    return request;
+  }
+
+  boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @return false if the request was attempted too many times already
+   */
+  boolean newAttempt() {
+    stream = null;
+    return ++attempts <= MAX_ATTEMPTS;
+  }
+
+  /**
+   * Called on the event loop of the stream the request is sent on.
+   */
+  void sentOn(ClientStream stream) {
+    this.stream = stream;
+    if (cancelled) {
+      stream.cancel();
+    }
+  }
+
+  /**
+   * Called from any thread when the subscriber of the response cancels.
+   */
+  void cancel() {
+    cancelled = true;
+    final ClientStream current = stream;
+    if (current != null) {
+      current.cancel();
+    }
+  }
+
+  void succeed(ClientResponse response) {
+    sink.success(response);
+  }
+
+  void fail(Throwable t) {
+    releaseBody();
+    sink.error(t);
+  }
+
+  void releaseBody() {
+    final ByteBuf body = request.body();
+    if (body != null && bodyReleased.compareAndSet(false, true)) {
+      body.release();
+    }
+  }
+}
@@ -0,0 +1,246 @@
+package rxh2.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.util.CharsetUtil;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import rxh2.h2.hpack.HpackEncoder;
+import reactor.core.publisher.Flux;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import rxh2.server.Response;
+import rxh2.server.Server;
+import rxh2.server.ServerHandle;
+
+class ClientTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  private ServerHandle server;
+  private ClientHandle client;
+  private ScriptedServer scripted;
+  private int port;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    server = Server.builder()
+        .port(port)
+        .maxConcurrentStreams(2)
+        .handler("/slow", request -> Mono.delay(Duration.ofMillis(200))
+            .map(ignored -> Response.ok()))
+        .handler("/echo", request -> Mono.just(Response.ok().body(request.body())))
+        .bind();
+  }
+
+  @AfterEach
+  void shutdown() throws Exception {
+    // Closed first, the client would otherwise wait for the streams the script left unanswered
+    if (scripted != null) {
+      scripted.close();
+    }
+    if (client != null) {
+      client.shutdownGracefully();
+      client.join();
+    }
+    server.shutdownGracefully();
+    server.join();
+  }
+
+  @Test
+  void spreadsRequestsAcrossConnectionsUpToTheServerLimit() {
+    client = Client.builder().port(port).maxConnections(3).build();
+
+    final List<Integer> statuses = Flux.range(0, 6)
+        .flatMap(i -> client.request(ClientRequest.get("/slow"))
+            .map(response -> {
+              response.discardBody();
+              return response.status();
+            }))
+        .collectList()
+        .block(TIMEOUT);
+
+    assertEquals(6, statuses.size());
+    statuses.forEach(status -> assertEquals(200, (int) status));
+    // Two streams per connection
+    assertEquals(3, client.connections());
+  }
+
+  @Test
+  void sendsTheRequestBodyAndReceivesTheResponseBody() {
+    client = Client.builder().port(port).build();
+    final byte[] content = new byte[200_000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) ('a' + i % 26);
+    }
+
+    final String echoed = client.request(ClientRequest.post("/echo")
+        .body(Unpooled.wrappedBuffer(content)))
+        .flatMap(response -> response.body()
+            .map(buf -> {
+              final String chunk = buf.toString(CharsetUtil.US_ASCII);
+              buf.release();
+              return chunk;
+            })
+            .reduce(String::concat))
+        .block(TIMEOUT);
+
+    assertEquals(new String(content, CharsetUtil.US_ASCII), echoed);
+  }
+
+  @Test
+  void retriesRefusedStreams() throws InterruptedException {
+    scripted = new ScriptedServer(10, (connection, streamId, request) -> {
+      if (request == 0) {
+        connection.reset(streamId, Http2Error.REFUSED_STREAM);
+      } else {
+        connection.respond(streamId, 200);
+      }
+    });
+    client = Client.builder().port(scripted.port()).build();
+
+    assertEquals(200, status(client.request(ClientRequest.get("/"))));
+    assertEquals(2, scripted.requests());
+  }
+
+  @Test
+  void retriesStreamsAboveTheGoAwayLastStreamIdOnANewConnection()
+      throws InterruptedException {
+    scripted = new ScriptedServer(10, (connection, streamId, request) -> {
+      if (connection.index() == 0) {
+        connection.goAway(0);
+      } else {
+        connection.respond(streamId, 200);
+      }
+    });
+    client = Client.builder().port(scripted.port()).build();
+
+    assertEquals(200, status(client.request(ClientRequest.get("/"))));
+    assertEquals(2, scripted.requests());
+    assertEquals(2, scripted.connections());
+  }
+
+  @Test
+  void failsRequestsRefusedTooManyTimes() throws InterruptedException {
+    scripted = new ScriptedServer(10, (connection, streamId, request) ->
+        connection.reset(streamId, Http2Error.REFUSED_STREAM));
+    client = Client.builder().port(scripted.port()).build();
+
+    final IllegalStateException e = assertThrows(IllegalStateException.class,
+        () -> client.request(ClientRequest.get("/")).block(TIMEOUT));
+    assertEquals("Request refused 3 times", e.getMessage());
+    assertEquals(3, scripted.requests());
+  }
+
+  @Test
+  void failsRequestsPastTheMaxPendingRequests() throws InterruptedException {
+    final AtomicReference<Runnable> held = new AtomicReference<>();
+    scripted = new ScriptedServer(1, (connection, streamId, request) -> {
+      if (request == 0) {
+        held.set(() -> connection.execute(() -> connection.respond(streamId, 200)));
+      } else {
+        connection.respond(streamId, 200);
+      }
+    });
+    client = Client.builder().port(scripted.port()).maxConnections(1).maxPendingRequests(1)
+        .build();
+
+    // The first request takes the only stream, the second one waits for it
+    final Mono<Integer> first = client.request(ClientRequest.get("/")).map(this::status).cache();
+    first.subscribe();
+    await(() -> held.get() != null);
+    final Mono<Integer> second = client.request(ClientRequest.get("/")).map(this::status)
+        .cache();
+    second.subscribe();
+
+    final IllegalStateException e = assertThrows(IllegalStateException.class,
+        () -> client.request(ClientRequest.get("/")).block(TIMEOUT));
+    assertEquals("Too many pending requests", e.getMessage());
+
+    held.get().run();
+    assertEquals(200, (int) first.block(TIMEOUT));
+    assertEquals(200, (int) second.block(TIMEOUT));
+    assertEquals(2, scripted.requests());
+  }
+
+  @Test
+  void dropsCancelledRequestsWaitingForAStream() throws InterruptedException {
+    final AtomicReference<Runnable> held = new AtomicReference<>();
+    scripted = new ScriptedServer(1, (connection, streamId, request) -> {
+      if (request == 0) {
+        held.set(() -> connection.execute(() -> connection.respond(streamId, 200)));
+      } else {
+        connection.respond(streamId, 200);
+      }
+    });
+    client = Client.builder().port(scripted.port()).maxConnections(1).build();
+
+    final Mono<Integer> first = client.request(ClientRequest.get("/")).map(this::status).cache();
+    first.subscribe();
+    await(() -> held.get() != null);
+    final ByteBuf body = Unpooled.copiedBuffer("queued", CharsetUtil.US_ASCII);
+    final Disposable queued = client.request(ClientRequest.post("/").body(body)).subscribe();
+    queued.dispose();
+
+    // The stream freed by the first request goes to the next one, not to the cancelled one
+    held.get().run();
+    assertEquals(200, (int) first.block(TIMEOUT));
+    await(() -> body.refCnt() == 0);
+    assertEquals(200, status(client.request(ClientRequest.get("/"))));
+    assertEquals(2, scripted.requests());
+  }
+
+  @Test
+  void failsOnlyTheStreamOfOversizedResponseHeaders() throws InterruptedException {
+    final HpackEncoder encoder = new HpackEncoder(4096, 4096);
+    final String large = new String(new char[120_000]).replace('\0', 'a');
+    scripted = new ScriptedServer(10, (connection, streamId, request) -> {
+      if (request == 0) {
+        // Added to the dynamic table after the header exceeding the limit of the client
+        connection.respond(streamId, encoder, 200, "x-large", large, "x-after", "indexed");
+      } else {
+        connection.respond(streamId, encoder, 200, "x-after", "indexed");
+      }
+    });
+    client = Client.builder().port(scripted.port()).build();
+
+    assertThrows(RuntimeException.class,
+        () -> client.request(ClientRequest.get("/")).block(TIMEOUT));
+    final ClientResponse response = client.request(ClientRequest.get("/")).block(TIMEOUT);
+    response.discardBody();
+    assertEquals("indexed", response.headers().get("x-after").toString());
+    assertEquals(1, scripted.connections());
+  }
+
+  private int status(Mono<ClientResponse> response) {
+    return status(response.block(TIMEOUT));
+  }
+
+  private int status(ClientResponse response) {
+    response.discardBody();
+    return response.status();
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + TIMEOUT.toNanos();
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "Timed out");
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package rxh2.client;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http2.Http2Error;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import rxh2.h2.frame.Frame;
+import rxh2.h2.frame.FrameDecoderImpl;
+import rxh2.h2.frame.FrameHeader.Flags;
+import rxh2.h2.frame.FrameHeader.Type;
+import rxh2.h2.frame.FrameWriter;
+import rxh2.h2.hpack.HeaderNames;
+import rxh2.h2.hpack.HpackEncoder;
+
+/**
+ * A bare HTTP/2 server whose answers to the requests are scripted by the test, to play the
+ * misbehaviors and races the real server doesn't produce on demand, e.g. refusing streams. It
+ * only decodes the frames and answers SETTINGS, the rest is up to the script.
+ */
+class ScriptedServer {
+
+  /**
+   * Answers a request, on the event loop of its connection.
+   */
+  @FunctionalInterface
+  interface Script {
+
+    /**
+     * @param connection the index of the connection, in accept order
+     * @param request the index of the request across the connections, in arrival order
+     */
+    void onRequest(Connection connection, int streamId, int request);
+  }
+
+  private final NioEventLoopGroup group = new NioEventLoopGroup(1);
+  private final AtomicInteger connections = new AtomicInteger();
+  private final AtomicInteger requests = new AtomicInteger();
+  private final Channel channel;
+
+  /**
+   * @param maxStreams the SETTINGS_MAX_CONCURRENT_STREAMS advertised
+   */
+  ScriptedServer(int maxStreams, Script script) throws InterruptedException {
+    channel = new ServerBootstrap()
+        .group(group)
+        .channel(NioServerSocketChannel.class)
+        .childHandler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(Channel ch) {
+            ch.pipeline().addLast(new Connection(connections.getAndIncrement(), maxStreams,
+                script));
+          }
+        })
+        .bind(0)
+        .sync()
+        .channel();
+  }
+
+  int port() {
+    return ((InetSocketAddress) channel.localAddress()).getPort();
+  }
+
+  int connections() {
+    return connections.get();
+  }
+
+  int requests() {
+    return requests.get();
+  }
+
+  void close() {
+    channel.close().syncUninterruptibly();
+    group.shutdownGracefully().syncUninterruptibly();
+  }
+
+  /**
+   * A connection accepted by the server.
+   */
+  class Connection extends ChannelInboundHandlerAdapter implements Subscriber<Frame> {
+
+    private final int index;
+    private final int maxStreams;
+    private final Script script;
+    private ChannelHandlerContext ctx;
+    private FrameDecoderImpl decoder;
+
+    Connection(int index, int maxStreams, Script script) {
+      this.index = index;
+      this.maxStreams = maxStreams;
+      this.script = script;
+    }
+
+    int index() {
+      return index;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+      this.ctx = ctx;
+      decoder = new FrameDecoderImpl(ctx.alloc());
+      decoder.subscribe(this);
+      ctx.writeAndFlush(FrameWriter.settings(ctx.alloc(), 0x3, maxStreams));
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      decoder.onNext((ByteBuf) msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+      decoder.onComplete();
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+    }
+
+    @Override
+    public void onNext(Frame frame) {
+      final Type type = frame.getHeader().getType();
+      final byte flags = frame.getHeader().getFlags();
+      final int streamId = frame.getHeader().getStreamId();
+      frame.release();
+      if (type == Type.SETTINGS && !Flags.ACK.isSetInByte(flags)) {
+        ctx.writeAndFlush(FrameWriter.settingsAck(ctx.alloc()));
+      } else if (type == Type.HEADERS) {
+        // The requests of the tests fit in a frame, and have no trailers
+        script.onRequest(this, streamId, requests.getAndIncrement());
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      ctx.close();
+    }
+
+    @Override
+    public void onComplete() {
+    }
+
+    /**
+     * Answers with a response without body.
+     *
+     * @param namesAndValues the headers following the :status, encoded with the dynamic table
+     * of the connection
+     */
+    void respond(int streamId, HpackEncoder encoder, int status,
+        CharSequence... namesAndValues) {
+      final ByteBuf block = ctx.alloc().buffer();
+      encoder.beginBlock(block);
+      encoder.encodeHeader(block, HeaderNames.STATUS, Integer.toString(status), false);
+      for (int i = 0; i < namesAndValues.length; i += 2) {
+        encoder.encodeHeader(block, namesAndValues[i], namesAndValues[i + 1], false);
+      }
+      ctx.writeAndFlush(FrameWriter.headers(ctx.alloc(), streamId, block, true, 16384));
+    }
+
+    void respond(int streamId, int status) {
+      final ByteBuf block = ctx.alloc().buffer();
+      HpackEncoder.encodeStateless(block, HeaderNames.STATUS, Integer.toString(status));
+      ctx.writeAndFlush(FrameWriter.headers(ctx.alloc(), streamId, block, true, 16384));
+    }
+
+    void reset(int streamId, Http2Error error) {
+      ctx.writeAndFlush(FrameWriter.rstStream(ctx.alloc(), streamId, error.code()));
+    }
+
+    void goAway(int lastStreamId) {
+      ctx.writeAndFlush(FrameWriter.goAway(ctx.alloc(), lastStreamId, Http2Error.NO_ERROR.code()));
+    }
+
+    /**
+     * Runs a task on the event loop of the connection, e.g. to answer a held request.
+     */
+    void execute(Runnable task) {
+      ctx.executor().execute(task);
+    }
+  }
+}
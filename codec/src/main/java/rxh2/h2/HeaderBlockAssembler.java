@@ -0,0 +1,166 @@
+package rxh2.h2;
+
+import static io.netty.handler.codec.http2.Http2Error.PROTOCOL_ERROR;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.handler.codec.http2.Http2Exception;
+import rxh2.h2.frame.Frame;
+import rxh2.h2.frame.FrameHeader;
+import rxh2.h2.frame.FrameHeader.Flags;
+import rxh2.h2.frame.FrameHeader.Type;
+
+/**
+ * Assembles the header block fragments of a HEADERS frame and of the CONTINUATION frames
+ * following it. The fragments are retained slices of the frame payloads (stripped of padding and
+ * priority fields) so the block is assembled without copying: a block contained in a single
+ * HEADERS frame is the slice itself, a block split across frames is a composite of the slices.
+ * Both HEADERS sent by clients and by servers are assembled this way.
+ *
+ * There is one assembler per connection and it's not thread safe.
+ */
+public class HeaderBlockAssembler {
+
+  private final ByteBufAllocator alloc;
+
+  private CompositeByteBuf fragments;
+  private ByteBuf block;
+  private int streamId;
+  private byte headersFlags;
+  private int weight;
+
+  public HeaderBlockAssembler(ByteBufAllocator alloc) {
+    this.alloc = alloc;
+  }
+
+  /**
+   * @return true if a header block is being assembled and only CONTINUATION frames for its
+   * stream are allowed
+   */
+  public boolean inProgress() {
+    return fragments != null;
+  }
+
+  public int streamId() {
+    return streamId;
+  }
+
+  /**
+   * @return the flags of the HEADERS frame which started the block
+   */
+  public byte headersFlags() {
+    return headersFlags;
+  }
+
+  /**
+   * @return the weight of the priority fields of the HEADERS frame which started the block, 0 if
+   * it had none
+   */
+  public int weight() {
+    return weight;
+  }
+
+  /**
+   * Starts a new block. The frame is released.
+   *
+   * @return true if the block is complete
+   */
+  public boolean onHeaders(Frame frame) throws Http2Exception {
+    try {
+      final FrameHeader header = frame.getHeader();
+      final ByteBuf payload = frame.getPayload();
+      streamId = header.getStreamId();
+      headersFlags = header.getFlags();
+
+      int index = payload.readerIndex();
+      int padLength = 0;
+      if (Flags.PADDED.isSetInByte(header.getFlags())) {
+        if (index >= payload.writerIndex()) {
+          throw Http2Exception.connectionError(PROTOCOL_ERROR,
+              "PADDED HEADERS frame without a pad length");
+        }
+        padLength = payload.getUnsignedByte(index++);
+      }
+      weight = 0;
+      if (Flags.PRIORITY.isSetInByte(header.getFlags())) {
+        // Stream dependency, ignored, and weight
+        if (payload.writerIndex() - index >= 5) {
+          weight = payload.getUnsignedByte(index + 4) + 1;
+        }
+        index += 5;
+      }
+      final int fragmentLength = payload.writerIndex() - index - padLength;
+      if (fragmentLength < 0) {
+        throw Http2Exception.connectionError(PROTOCOL_ERROR,
+            "HEADERS frame too short for its padding and priority fields");
+      }
+
+      final ByteBuf fragment = payload.retainedSlice(index, fragmentLength);
+      if (Flags.END_HEADERS.isSetInByte(header.getFlags())) {
+        block = fragment;
+        return true;
+      }
+      fragments = alloc.compositeBuffer(Integer.MAX_VALUE);
+      fragments.addComponent(true, fragment);
+      return false;
+    } finally {
+      frame.release();
+    }
+  }
+
+  /**
+   * Adds a fragment to the block being assembled. The frame is released.
+   *
+   * @return true if the block is complete
+   */
+  public boolean onContinuation(Frame frame) throws Http2Exception {
+    try {
+      final FrameHeader header = frame.getHeader();
+      if (fragments == null || header.getType() != Type.CONTINUATION
+          || header.getStreamId() != streamId) {
+        throw Http2Exception.connectionError(PROTOCOL_ERROR,
+            "Unexpected CONTINUATION frame on stream %d", header.getStreamId());
+      }
+      fragments.addComponent(true, frame.getPayload().retain());
+      if (Flags.END_HEADERS.isSetInByte(header.getFlags())) {
+        block = fragments;
+        fragments = null;
+        return true;
+      }
+      return false;
+    } finally {
+      frame.release();
+    }
+  }
+
+  /**
+   * @return the completed block, which the caller must release
+   */
+  public ByteBuf takeBlock() {
+    final ByteBuf result = block;
+    block = null;
+    return result;
+  }
+
+  /**
+   * @return the number of bytes buffered for the block being assembled
+   */
+  public int bufferedBytes() {
+    return fragments == null ? 0 : fragments.readableBytes();
+  }
+
+  /**
+   * Releases the buffered fragments, if any.
+   */
+  public void release() {
+    if (fragments != null) {
+      fragments.release();
+      fragments = null;
+    }
+    if (block != null) {
+      block.release();
+      block = null;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package rxh2.h2;
+
+import io.netty.util.AsciiString;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * An ordered list of HTTP/2 header fields. Names are lowercase as required by HTTP/2; lookups
+ * are linear, which is faster than hashing for the few fields of a typical request.
+ *
+ * This class is not thread safe.
+ */
+public class Headers {
+
+  // Names at even positions, values at odd ones
+  private final List<CharSequence> fields;
+
+  public Headers() {
+    this(8);
+  }
+
+  public Headers(int expectedSize) {
+    fields = new ArrayList<>(expectedSize * 2);
+  }
+
+  public Headers add(CharSequence name, CharSequence value) {
+    fields.add(name);
+    fields.add(value);
+    return this;
+  }
+
+  /**
+   * Replaces all the values of the header with the given one.
+   */
+  public Headers set(CharSequence name, CharSequence value) {
+    remove(name);
+    return add(name, value);
+  }
+
+  public Headers remove(CharSequence name) {
+    for (int i = fields.size() - 2; i >= 0; i -= 2) {
+      if (AsciiString.contentEquals(fields.get(i), name)) {
+        fields.remove(i + 1);
+        fields.remove(i);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * @return the first value of the header or null if it's not present
+   */
+  public CharSequence get(CharSequence name) {
+    for (int i = 0; i < fields.size(); i += 2) {
+      if (AsciiString.contentEquals(fields.get(i), name)) {
+        return fields.get(i + 1);
+      }
+    }
+    return null;
+  }
+
+  public List<CharSequence> getAll(CharSequence name) {
+    final List<CharSequence> values = new ArrayList<>(1);
+    for (int i = 0; i < fields.size(); i += 2) {
+      if (AsciiString.contentEquals(fields.get(i), name)) {
+        values.add(fields.get(i + 1));
+      }
+    }
+    return values;
+  }
+
+  public boolean contains(CharSequence name) {
+    return get(name) != null;
+  }
+
+  public int size() {
+    return fields.size() / 2;
+  }
+
+  public CharSequence name(int index) {
+    return fields.get(index * 2);
+  }
+
+  public CharSequence value(int index) {
+    return fields.get(index * 2 + 1);
+  }
+
+  public void forEach(BiConsumer<CharSequence, CharSequence> consumer) {
+    for (int i = 0; i < fields.size(); i += 2) {
+      consumer.accept(fields.get(i), fields.get(i + 1));
+    }
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("Headers[");
+    for (int i = 0; i < fields.size(); i += 2) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(fields.get(i)).append(": ").append(fields.get(i + 1));
+    }
+    return sb.append(']').toString();
+  }
+}
@@ -0,0 +1,147 @@
+package rxh2.h2;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.EventExecutor;
+import java.util.ArrayDeque;
+import java.util.function.IntConsumer;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+
+/**
+ * The body of a stream, a request received by a server or a response received by a client, as a
+ * {@link Flux} of DATA payloads. It can be subscribed only once.
+ *
+ * Payloads are buffered until the subscriber requests them. The state is confined to the event
+ * loop of the connection: requests and cancellations coming from other threads are handed over
+ * to it. Every delivered buffer is owned by the subscriber, which must release it.
+ *
+ * The bytes leaving the body, either delivered or discarded, are reported to a listener so that
+ * the flow control window can be credited back to the peer: the peer can't send more than what
+ * the subscriber asks for, plus a window.
+ */
+public class StreamBody extends Flux<ByteBuf> implements Subscription {
+
+  private final EventExecutor executor;
+  private final IntConsumer consumedListener;
+  private final ArrayDeque<ByteBuf> queue = new ArrayDeque<>();
+
+  private CoreSubscriber<? super ByteBuf> actual;
+  private long requested;
+  private boolean done;
+  private Throwable error;
+  private boolean terminated;
+  private boolean cancelled;
+  private boolean draining;
+
+  /**
+   * @param executor the event loop of the connection
+   * @param consumedListener receives the number of bytes leaving the body, on the event loop
+   */
+  public StreamBody(EventExecutor executor, IntConsumer consumedListener) {
+    this.executor = executor;
+    this.consumedListener = consumedListener;
+  }
+
+  @Override
+  public void subscribe(CoreSubscriber<? super ByteBuf> subscriber) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> subscribe(subscriber));
+      return;
+    }
+    if (actual != null) {
+      Operators.error(subscriber,
+          new IllegalStateException("The body of a stream can be subscribed only once"));
+      return;
+    }
+    actual = subscriber;
+    subscriber.onSubscribe(this);
+    drain();
+  }
+
+  /**
+   * Enqueues a payload received from the peer. Ownership is transferred to the body.
+   */
+  public void onData(ByteBuf data) {
+    if (cancelled || done) {
+      consumedListener.accept(data.readableBytes());
+      data.release();
+      return;
+    }
+    queue.add(data);
+    drain();
+  }
+
+  public void onComplete() {
+    done = true;
+    drain();
+  }
+
+  public void onError(Throwable t) {
+    if (done) {
+      return;
+    }
+    error = t;
+    done = true;
+    drain();
+  }
+
+  @Override
+  public void request(long n) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> request(n));
+      return;
+    }
+    if (Operators.validate(n)) {
+      requested = Operators.addCap(requested, n);
+      drain();
+    }
+  }
+
+  @Override
+  public void cancel() {
+    if (!executor.inEventLoop()) {
+      executor.execute(this::cancel);
+      return;
+    }
+    cancelled = true;
+    releaseQueued();
+  }
+
+  /**
+   * Releases the buffered payloads and stops accepting new ones.
+   */
+  public void releaseQueued() {
+    ByteBuf data;
+    while ((data = queue.poll()) != null) {
+      consumedListener.accept(data.readableBytes());
+      data.release();
+    }
+  }
+
+  private void drain() {
+    if (draining || actual == null) {
+      return;
+    }
+    draining = true;
+    try {
+      while (requested > 0 && !queue.isEmpty() && !cancelled) {
+        requested--;
+        final ByteBuf data = queue.poll();
+        consumedListener.accept(data.readableBytes());
+        actual.onNext(data);
+      }
+      if (done && queue.isEmpty() && !terminated && !cancelled) {
+        terminated = true;
+        if (error != null) {
+          actual.onError(error);
+        } else {
+          actual.onComplete();
+        }
+      }
+    } finally {
+      draining = false;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package rxh2.h2.frame;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A decoded HTTP/2 frame.
+ *
+ * Frames emitted by the {@link FrameDecoderImpl} are flyweights, like their {@link FrameHeader}:
+ * the decoder reuses the same instance for every frame, so the instance and its header must not
+ * be used after the onNext call delivering them. Only the ownership of the payload outlives the
+ * call; {@link #detach()} gives a frame which can be kept.
+ *
+ * The payload is usually a retained slice of the buffer which was read from the channel, so the
+ * frame holds a reference to pooled memory. Reference counting follows the Netty rules:
+ * whoever receives a {@link Frame} from a {@link FrameDecoderImpl} owns it and must call
+ * {@link #release()} exactly once when done with it (or pass it on to somebody who does).
+ * Components which need the payload after releasing the frame must {@link #retain()} it first.
+ */
+@Getter
+@ToString
+public class Frame implements ReferenceCounted {
+  private final FrameHeader header;
+  private ByteBuf payload;
+
+  public Frame(FrameHeader header, ByteBuf payload) {
+    this.header = header;
+    this.payload = payload;
+  }
+
+  /**
+   * Points the flyweight to the payload of the next frame.
+   */
+  Frame wrap(ByteBuf payload) {
+    this.payload = payload;
+    return this;
+  }
+
+  /**
+   * @return a frame with a copy of the header which owns the payload in place of this one
+   */
+  public Frame detach() {
+    return new Frame(header.copy(), payload);
+  }
+
+  @Override
+  public int refCnt() {
+    return payload.refCnt();
+  }
+
+  @Override
+  public Frame retain() {
+    payload.retain();
+    return this;
+  }
+
+  @Override
+  public Frame retain(int increment) {
+    payload.retain(increment);
+    return this;
+  }
+
+  @Override
+  public Frame touch() {
+    payload.touch();
+    return this;
+  }
+
+  @Override
+  public Frame touch(Object hint) {
+    payload.touch(hint);
+    return this;
+  }
+
+  @Override
+  public boolean release() {
+    return payload.release();
+  }
+
+  @Override
+  public boolean release(int decrement) {
+    return payload.release(decrement);
+  }
+}
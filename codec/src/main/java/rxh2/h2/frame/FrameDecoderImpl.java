@@ -0,0 +1,285 @@
+package rxh2.h2.frame;
+
+
+import static io.netty.handler.codec.http2.Http2Error.FRAME_SIZE_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.PROTOCOL_ERROR;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http2.Http2Exception;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import rxh2.h2.frame.FrameHeader.Type;
+
+/**
+ * This class decodes a stream of {@link ByteBuf}s into a stream of Http2 Frames
+ * handling the special case of the connection preface. Servers expect the preface of the client
+ * first, clients decode frames right away as the preface of the server is a SETTINGS frame.
+ *
+ * Decoding is zero-copy whenever possible: when a frame sits entirely in one inbound buffer its
+ * payload is emitted as a retained slice of that buffer. Only when a frame spans multiple reads
+ * the slices are accumulated in a {@link CompositeByteBuf}, which still doesn't copy the bytes.
+ * The 9 bytes of a frame header spanning multiple reads are the only bytes being copied.
+ * Nothing is allocated ahead of the payload bytes, so the memory held for a frame grows only as
+ * its bytes arrive, whatever length its header announces.
+ *
+ * Frames longer than the max frame size are rejected as soon as their header is decoded, with a
+ * FRAME_SIZE_ERROR {@link Http2Exception}, before any of their payload is buffered.
+ *
+ * Headers are parsed in place into a single {@link FrameHeader} and emitted in a single
+ * {@link Frame}, so decoding a frame allocates nothing but the payload slice. The emitted frame is
+ * valid only during the onNext call: subscribers keeping it must {@link Frame#detach()} it.
+ *
+ * Ownership rules: the decoder takes ownership of every {@link ByteBuf} passed to
+ * {@link #onNext(ByteBuf)} and releases it once decoded. The payload of every emitted
+ * {@link Frame} is owned by the subscriber, which must release it.
+ *
+ * The preface is validated as its bytes arrive, so that a client speaking another protocol, e.g.
+ * HTTP/1.1 with a request line shorter than the preface, is rejected right away. On a mismatch a
+ * PROTOCOL_ERROR {@link Http2Exception} is signalled and the following buffers are discarded.
+ *
+ * Note that this Processor is made to have just one subscriber at any given point in time
+ * which must be subscribed before start receiving buffers.
+ */
+public class FrameDecoderImpl implements Processor<ByteBuf, Frame> {
+
+  private final static int FRAME_HEADER_SIZE = 9;
+  private final static int CONNECTION_PREFACE_LENGTH = 24;
+  // Protocol default of SETTINGS_MAX_FRAME_SIZE
+  private final static int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+  // Frames spanning more reads than this get consolidated (copied) by the CompositeByteBuf
+  private final static int MAX_PAYLOAD_COMPONENTS = 64;
+
+  private final static ByteBuf EXPECTED_PREFACE = Unpooled.wrappedBuffer(new byte[]{
+      0x50, 0x52, 0x49, 0x20, 0x2a, 0x20, 0x48, 0x54, 0x54, 0x50, 0x2f, 0x32, 0x2e,
+      0x30, 0x0d, 0x0a, 0x0d, 0x0a, 0x53, 0x4d, 0x0d, 0x0a, 0x0d, 0x0a
+  });
+
+  private final ByteBufAllocator alloc;
+  private final int maxFrameSize;
+
+  private boolean decodingHeader = false;
+  private boolean failed = false;
+  private int missingBytes = CONNECTION_PREFACE_LENGTH;
+  // The flyweights every frame is decoded into, starting with a fake header for the preface
+  private final FrameHeader currentHeader = new FrameHeader(
+      CONNECTION_PREFACE_LENGTH, Type.PREFACE, (byte)0, 0);
+  private final Frame currentFrame = new Frame(currentHeader, null);
+
+  // Only used when a frame header spans multiple reads
+  private final ByteBuf frameHeaderBuffer = Unpooled
+      .buffer(FRAME_HEADER_SIZE, FRAME_HEADER_SIZE);
+
+  // Only used when a frame payload spans multiple reads
+  private CompositeByteBuf framePayloadBuffer = null;
+  private Subscriber<? super Frame> subscriber;
+
+  /**
+   * @param alloc the allocator used for the composite buffers of frames spanning multiple reads.
+   * Usually the allocator of the channel.
+   */
+  public FrameDecoderImpl(ByteBufAllocator alloc) {
+    this(alloc, DEFAULT_MAX_FRAME_SIZE);
+  }
+
+  /**
+   * @param alloc the allocator used for the composite buffers of frames spanning multiple reads.
+   * Usually the allocator of the channel.
+   * @param maxFrameSize the largest frame payload accepted, the SETTINGS_MAX_FRAME_SIZE advertised
+   */
+  public FrameDecoderImpl(ByteBufAllocator alloc, int maxFrameSize) {
+    this(alloc, maxFrameSize, true);
+  }
+
+  /**
+   * @param alloc the allocator used for the composite buffers of frames spanning multiple reads.
+   * Usually the allocator of the channel.
+   * @param maxFrameSize the largest frame payload accepted, the SETTINGS_MAX_FRAME_SIZE advertised
+   * @param expectPreface true to validate and emit the connection preface of a client first,
+   * false to decode the frames sent by a server
+   */
+  public FrameDecoderImpl(ByteBufAllocator alloc, int maxFrameSize, boolean expectPreface) {
+    this.alloc = alloc;
+    this.maxFrameSize = maxFrameSize;
+    if (!expectPreface) {
+      decodingHeader = true;
+      missingBytes = FRAME_HEADER_SIZE;
+    }
+  }
+
+  /**
+   * @return the bytes held for the frame being decoded, which wasn't emitted yet
+   */
+  public int bufferedBytes() {
+    return frameHeaderBuffer.readableBytes()
+        + (framePayloadBuffer == null ? 0 : framePayloadBuffer.readableBytes());
+  }
+
+  @Override
+  public void onSubscribe(Subscription s) {
+    // The reads are paused upstream by the owner of the decoder, see Http2Processor
+  }
+
+  public void onNext(ByteBuf byteBuf) {
+    if (byteBuf == null) {
+      return;
+    }
+    if (failed) {
+      byteBuf.release();
+      return;
+    }
+
+    try {
+      while (byteBuf.isReadable()) {
+        if (decodingHeader) {
+          decodeHeader(byteBuf);
+        } else {
+          decodePayload(byteBuf);
+        }
+      }
+    } finally {
+      // Emitted payloads hold their own references on the buffer
+      byteBuf.release();
+    }
+  }
+
+  private void decodeHeader(ByteBuf byteBuf) {
+    if (!frameHeaderBuffer.isReadable() && byteBuf.readableBytes() >= FRAME_HEADER_SIZE) {
+      // Fast path: the whole header is available
+      buildHeader(byteBuf, byteBuf.readerIndex());
+      byteBuf.skipBytes(FRAME_HEADER_SIZE);
+    } else {
+      final int bytesToRead = Math.min(byteBuf.readableBytes(), missingBytes);
+      byteBuf.readBytes(frameHeaderBuffer, bytesToRead);
+      missingBytes -= bytesToRead;
+      if (missingBytes > 0) {
+        return;
+      }
+      buildHeader(frameHeaderBuffer, frameHeaderBuffer.readerIndex());
+      frameHeaderBuffer.clear();
+    }
+
+    if (currentHeader.getLength() > maxFrameSize) {
+      fail(byteBuf, Http2Exception.connectionError(FRAME_SIZE_ERROR,
+          "%s frame of %d bytes exceeds %d", currentHeader.getType(), currentHeader.getLength(),
+          maxFrameSize));
+      return;
+    }
+    missingBytes = currentHeader.getLength();
+    if (missingBytes == 0) {
+      // Empty frame
+      frameCompleted(Unpooled.EMPTY_BUFFER);
+    } else {
+      decodingHeader = false;
+    }
+  }
+
+  private void decodePayload(ByteBuf byteBuf) {
+    if (currentHeader.getType() == Type.PREFACE && !prefaceMatches(byteBuf)) {
+      fail(byteBuf, Http2Exception.connectionError(PROTOCOL_ERROR,
+          "Invalid connection preface, the client doesn't speak HTTP/2 with prior knowledge"));
+      return;
+    }
+    if (framePayloadBuffer == null && byteBuf.readableBytes() >= missingBytes) {
+      // Fast path: the whole payload is available
+      frameCompleted(byteBuf.readRetainedSlice(missingBytes));
+      return;
+    }
+
+    final int bytesToRead = Math.min(byteBuf.readableBytes(), missingBytes);
+    if (framePayloadBuffer == null) {
+      framePayloadBuffer = alloc.compositeBuffer(MAX_PAYLOAD_COMPONENTS);
+    }
+    framePayloadBuffer.addComponent(true, byteBuf.readRetainedSlice(bytesToRead));
+    missingBytes -= bytesToRead;
+
+    if (missingBytes == 0) {
+      final ByteBuf payload = framePayloadBuffer;
+      framePayloadBuffer = null;
+      frameCompleted(payload);
+    }
+  }
+
+  /**
+   * Compares the preface bytes of the buffer with the expected ones at the same offset: a single
+   * comparison when the whole preface arrives in one read.
+   */
+  private boolean prefaceMatches(ByteBuf byteBuf) {
+    final int length = Math.min(byteBuf.readableBytes(), missingBytes);
+    return ByteBufUtil.equals(EXPECTED_PREFACE, CONNECTION_PREFACE_LENGTH - missingBytes,
+        byteBuf, byteBuf.readerIndex(), length);
+  }
+
+  private void frameCompleted(ByteBuf payload) {
+    emitFrame(payload);
+    missingBytes = FRAME_HEADER_SIZE;
+    decodingHeader = true;
+  }
+
+  private void buildHeader(ByteBuf buffer, int index) {
+    currentHeader.read(buffer, index);
+  }
+
+  private void emitFrame(ByteBuf payload) {
+    subscriber.onNext(currentFrame.wrap(payload));
+    // Don't keep a reference on a payload the subscriber may have released already
+    currentFrame.wrap(null);
+  }
+
+  /**
+   * Signals the error and discards the rest of the buffer, as well as the following ones.
+   */
+  private void fail(ByteBuf byteBuf, Http2Exception error) {
+    failed = true;
+    releasePartialFrame();
+    byteBuf.skipBytes(byteBuf.readableBytes());
+    subscriber.onError(error);
+  }
+
+  private void releasePartialFrame() {
+    if (framePayloadBuffer != null) {
+      framePayloadBuffer.release();
+      framePayloadBuffer = null;
+    }
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    if (failed) {
+      return;
+    }
+    releasePartialFrame();
+    // Let the subscriber decide what to do with the error
+    subscriber.onError(t);
+  }
+
+  @Override
+  public void onComplete() {
+    if (failed) {
+      // The subscriber got the error already
+      return;
+    }
+    releasePartialFrame();
+    subscriber.onComplete();
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super Frame> s) {
+    subscriber = s;
+    s.onSubscribe(new Subscription() {
+      @Override
+      public void request(long n) {
+        // Frames are pushed as soon as they are decoded
+      }
+
+      @Override
+      public void cancel() {
+      }
+    });
+  }
+}
@@ -0,0 +1,147 @@
+package rxh2.h2.frame;
+
+import io.netty.buffer.ByteBuf;
+import java.util.Arrays;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Represents a HTTPs frame header and it contains utility methods to decode
+ * and encode it
+ *
+ * Headers emitted by the {@link FrameDecoderImpl} are flyweights: the decoder of a connection
+ * parses every frame header into the same instance, so its fields are valid only during the
+ * onNext call delivering the frame. Use {@link #copy()} to keep one around.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class FrameHeader {
+
+  private int length;
+  private Type type;
+  private byte flags;
+  private int streamId;
+
+  public FrameHeader(int length, Type type, byte flags, int streamId) {
+    this.length = length;
+    this.type = type;
+    this.flags = flags;
+    this.streamId = streamId;
+  }
+
+  /**
+   * Builds a {@link FrameHeader} from its components.
+   * @param length the 24 bit length, upper bits are ignored
+   * @param type the type identifier, unknown types are mapped to {@link Type#UNKNOWN}
+   * @param flags the flags byte
+   * @param streamId the stream ID (and the reserved bit, which is ignored)
+   * @return a new non-null {@link FrameHeader} representing the fields
+   */
+  public static FrameHeader fromBytes(int length, byte type, byte flags, int streamId) {
+    return new FrameHeader(
+        length & 0xFFFFFF,
+        Type.from(type),
+        flags,
+        streamId & 0x7FFFFFFF);
+  }
+
+  /**
+   * Parses the 9 bytes of a frame header into this instance, without allocating nor moving the
+   * reader index of the buffer.
+   */
+  FrameHeader read(ByteBuf buffer, int index) {
+    length = buffer.getUnsignedMedium(index);
+    type = Type.from(buffer.getByte(index + 3));
+    flags = buffer.getByte(index + 4);
+    streamId = buffer.getInt(index + 5) & 0x7FFFFFFF;
+    return this;
+  }
+
+  FrameHeader set(int length, Type type, byte flags, int streamId) {
+    this.length = length;
+    this.type = type;
+    this.flags = flags;
+    this.streamId = streamId;
+    return this;
+  }
+
+  /**
+   * @return a copy of this header which isn't reused by the decoder
+   */
+  public FrameHeader copy() {
+    return new FrameHeader(length, type, flags, streamId);
+  }
+
+  @AllArgsConstructor
+  public enum Type {
+    // Not frame types on the wire: the connection preface and any type this implementation
+    // doesn't know about, which must be ignored
+    PREFACE((byte)0xFF),
+    UNKNOWN((byte)0xFE),
+    DATA((byte)0x0),
+    HEADERS((byte)0x01),
+    PRIORITY((byte)0x02),
+    RST_STREAM((byte)0x03),
+    SETTINGS((byte)0x04),
+    PUSH_PROMISE((byte)0x05),
+    PING((byte)0x06),
+    GOAWAY((byte)0x07),
+    WINDOW_UPDATE((byte)0x08),
+    CONTINUATION((byte)0x09),
+    // RFC 9218
+    PRIORITY_UPDATE((byte)0x10);
+
+    private final byte type;
+
+    /**
+     * @return the type identifier used on the wire
+     */
+    public byte code() {
+      return type;
+    }
+
+    // Indexed by the unsigned type identifier, so that a lookup is a single array load
+    private static final Type[] BY_CODE = new Type[256];
+
+    static {
+      Arrays.fill(BY_CODE, UNKNOWN);
+      for (Type type : values()) {
+        if (type != PREFACE && type != UNKNOWN) {
+          BY_CODE[type.type & 0xFF] = type;
+        }
+      }
+    }
+
+    /**
+     * @return the type with the given identifier, or {@link #UNKNOWN}
+     */
+    public static Type from(byte typeId) {
+      return BY_CODE[typeId & 0xFF];
+    }
+  }
+
+  public enum Flags {
+    END_STREAM((byte)0x01),
+    ACK((byte)0x01),
+    END_HEADERS((byte)0x04),
+    PADDED((byte)0x08),
+    PRIORITY((byte)0x20);
+
+    private byte mask;
+
+    Flags(byte mask) {
+      this.mask = mask;
+    }
+
+    public byte mask() {
+      return mask;
+    }
+
+    public boolean isSetInByte(byte flags) {
+      return (flags & mask) > 0;
+    }
+  }
+}
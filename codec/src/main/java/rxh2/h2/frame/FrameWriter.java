@@ -0,0 +1,132 @@
+package rxh2.h2.frame;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import rxh2.h2.frame.FrameHeader.Flags;
+import rxh2.h2.frame.FrameHeader.Type;
+
+/**
+ * Utility methods to encode HTTP/2 frames. The returned buffers are allocated with the given
+ * allocator and owned by the caller.
+ */
+public final class FrameWriter {
+
+  public static final int FRAME_HEADER_SIZE = 9;
+
+  private FrameWriter() {
+  }
+
+  public static void writeFrameHeader(ByteBuf out, int length, Type type, int flags,
+      int streamId) {
+    out.writeMedium(length);
+    out.writeByte(type.code());
+    out.writeByte(flags);
+    out.writeInt(streamId);
+  }
+
+  /**
+   * @param settings pairs of setting identifier and value
+   */
+  public static ByteBuf settings(ByteBufAllocator alloc, long... settings) {
+    final int length = settings.length / 2 * 6;
+    final ByteBuf out = alloc.buffer(FRAME_HEADER_SIZE + length);
+    writeFrameHeader(out, length, Type.SETTINGS, 0, 0);
+    for (int i = 0; i < settings.length; i += 2) {
+      out.writeShort((int) settings[i]);
+      out.writeInt((int) settings[i + 1]);
+    }
+    return out;
+  }
+
+  public static ByteBuf settingsAck(ByteBufAllocator alloc) {
+    final ByteBuf out = alloc.buffer(FRAME_HEADER_SIZE);
+    writeFrameHeader(out, 0, Type.SETTINGS, Flags.ACK.mask(), 0);
+    return out;
+  }
+
+  /**
+   * @param opaqueData the 8 bytes of data of the PING, which are not consumed
+   */
+  public static ByteBuf ping(ByteBufAllocator alloc, ByteBuf opaqueData, boolean ack) {
+    final ByteBuf out = alloc.buffer(FRAME_HEADER_SIZE + 8);
+    writeFrameHeader(out, 8, Type.PING, ack ? Flags.ACK.mask() : 0, 0);
+    out.writeBytes(opaqueData, opaqueData.readerIndex(), 8);
+    return out;
+  }
+
+  public static ByteBuf ping(ByteBufAllocator alloc, long opaqueData, boolean ack) {
+    final ByteBuf out = alloc.buffer(FRAME_HEADER_SIZE + 8);
+    writeFrameHeader(out, 8, Type.PING, ack ? Flags.ACK.mask() : 0, 0);
+    out.writeLong(opaqueData);
+    return out;
+  }
+
+  public static ByteBuf goAway(ByteBufAllocator alloc, int lastStreamId, long errorCode) {
+    final ByteBuf out = alloc.buffer(FRAME_HEADER_SIZE + 8);
+    writeFrameHeader(out, 8, Type.GOAWAY, 0, 0);
+    out.writeInt(lastStreamId);
+    out.writeInt((int) errorCode);
+    return out;
+  }
+
+  public static ByteBuf rstStream(ByteBufAllocator alloc, int streamId, long errorCode) {
+    final ByteBuf out = alloc.buffer(FRAME_HEADER_SIZE + 4);
+    writeFrameHeader(out, 4, Type.RST_STREAM, 0, streamId);
+    out.writeInt((int) errorCode);
+    return out;
+  }
+
+  public static ByteBuf windowUpdate(ByteBufAllocator alloc, int streamId, int increment) {
+    final ByteBuf out = alloc.buffer(FRAME_HEADER_SIZE + 4);
+    writeFrameHeader(out, 4, Type.WINDOW_UPDATE, 0, streamId);
+    out.writeInt(increment);
+    return out;
+  }
+
+  /**
+   * Frames a header block in a HEADERS frame followed by as many CONTINUATION frames as needed
+   * to respect the maximum frame size. The block is consumed and released.
+   */
+  public static ByteBuf headers(ByteBufAllocator alloc, int streamId, ByteBuf block,
+      boolean endStream, int maxFrameSize) {
+    final int frames = Math.max(1, (block.readableBytes() + maxFrameSize - 1) / maxFrameSize);
+    final ByteBuf out = alloc.buffer(block.readableBytes() + frames * FRAME_HEADER_SIZE);
+    try {
+      Type type = Type.HEADERS;
+      int flags = endStream ? Flags.END_STREAM.mask() : 0;
+      do {
+        final int length = Math.min(block.readableBytes(), maxFrameSize);
+        final boolean last = length == block.readableBytes();
+        writeFrameHeader(out, length, type, last ? flags | Flags.END_HEADERS.mask() : flags,
+            streamId);
+        out.writeBytes(block, length);
+        type = Type.CONTINUATION;
+        flags = 0;
+      } while (block.isReadable());
+    } finally {
+      block.release();
+    }
+    return out;
+  }
+
+  /**
+   * Prepends a DATA frame header to a payload without copying it.
+   *
+   * @param payload the payload, which must not be larger than the maximum frame size. Ownership
+   * is transferred to the returned buffer.
+   */
+  public static ByteBuf data(ByteBufAllocator alloc, int streamId, ByteBuf payload,
+      boolean endStream) {
+    final ByteBuf header = alloc.buffer(FRAME_HEADER_SIZE);
+    writeFrameHeader(header, payload.readableBytes(), Type.DATA,
+        endStream ? Flags.END_STREAM.mask() : 0, streamId);
+    if (!payload.isReadable()) {
+      payload.release();
+      return header;
+    }
+    final CompositeByteBuf frame = alloc.compositeBuffer(2);
+    frame.addComponents(true, header, payload);
+    return frame;
+  }
+}
@@ -0,0 +1,140 @@
+package rxh2.h2.hpack;
+
+import io.netty.util.AsciiString;
+
+/**
+ * The HPACK dynamic table, implemented as a ring buffer over two parallel arrays so that adding
+ * and evicting entries doesn't create any objects besides the header strings themselves.
+ * Indexes are 1-based starting from the newest entry, as in the specification.
+ */
+final class DynamicTable {
+
+  // Per entry overhead defined by RFC 7541 section 4.1
+  static final int ENTRY_OVERHEAD = 32;
+
+  private AsciiString[] names;
+  private AsciiString[] values;
+  // Position where the next entry is stored
+  private int head;
+  private int length;
+  private long size;
+  private long capacity;
+
+  DynamicTable(long capacity) {
+    this.capacity = capacity;
+    // Sized for the typical table, grown when needed
+    this.names = new AsciiString[16];
+    this.values = new AsciiString[16];
+  }
+
+  static long entrySize(CharSequence name, CharSequence value) {
+    return name.length() + value.length() + ENTRY_OVERHEAD;
+  }
+
+  int length() {
+    return length;
+  }
+
+  long size() {
+    return size;
+  }
+
+  long capacity() {
+    return capacity;
+  }
+
+  AsciiString name(int index) {
+    return names[position(index)];
+  }
+
+  AsciiString value(int index) {
+    return values[position(index)];
+  }
+
+  private int position(int index) {
+    if (index < 1 || index > length) {
+      throw new HpackException("Invalid dynamic table index: " + index);
+    }
+    return (head - index) & (names.length - 1);
+  }
+
+  /**
+   * Adds an entry evicting the oldest ones as needed. An entry larger than the capacity empties
+   * the table.
+   */
+  void add(AsciiString name, AsciiString value) {
+    final long entrySize = entrySize(name, value);
+    if (entrySize > capacity) {
+      clear();
+      return;
+    }
+    evict(capacity - entrySize);
+    if (length == names.length) {
+      grow();
+    }
+    names[head] = name;
+    values[head] = value;
+    head = (head + 1) & (names.length - 1);
+    length++;
+    size += entrySize;
+  }
+
+  void setCapacity(long capacity) {
+    this.capacity = capacity;
+    evict(capacity);
+  }
+
+  /**
+   * @return the index of the newest entry matching name and value, 0 if there's none
+   */
+  int indexOf(CharSequence name, CharSequence value) {
+    for (int index = 1; index <= length; index++) {
+      final int position = (head - index) & (names.length - 1);
+      if (names[position].contentEquals(name) && values[position].contentEquals(value)) {
+        return index;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * @return the index of the newest entry with the name, 0 if there's none
+   */
+  int indexOf(CharSequence name) {
+    for (int index = 1; index <= length; index++) {
+      if (names[(head - index) & (names.length - 1)].contentEquals(name)) {
+        return index;
+      }
+    }
+    return 0;
+  }
+
+  private void evict(long maxSize) {
+    while (size > maxSize) {
+      final int oldest = (head - length) & (names.length - 1);
+      size -= entrySize(names[oldest], values[oldest]);
+      names[oldest] = null;
+      values[oldest] = null;
+      length--;
+    }
+  }
+
+  private void clear() {
+    evict(0);
+    head = 0;
+  }
+
+  private void grow() {
+    final AsciiString[] newNames = new AsciiString[names.length * 2];
+    final AsciiString[] newValues = new AsciiString[values.length * 2];
+    // Unroll the ring so that the oldest entry is at position 0
+    for (int i = 0; i < length; i++) {
+      final int position = (head - length + i) & (names.length - 1);
+      newNames[i] = names[position];
+      newValues[i] = values[position];
+    }
+    names = newNames;
+    values = newValues;
+    head = length;
+  }
+}
@@ -0,0 +1,15 @@
+package rxh2.h2.hpack;
+
+/**
+ * Signals that a decoded header list exceeded the configured maximum size. Unlike the other
+ * {@link HpackException}s the whole block was decoded, so the dynamic table is still in sync and
+ * only the stream needs to be rejected.
+ */
+public class HeaderListSizeException extends HpackException {
+
+  private static final long serialVersionUID = 1L;
+
+  public HeaderListSizeException(long size, long maxSize) {
+    super("Header list size " + size + " exceeds the maximum of " + maxSize);
+  }
+}
@@ -0,0 +1,18 @@
+package rxh2.h2.hpack;
+
+import io.netty.util.AsciiString;
+
+/**
+ * Receives the header fields decoded by a {@link HpackDecoder}, in order. Using a callback
+ * instead of returning a collection lets the caller decide where the headers are stored.
+ */
+@FunctionalInterface
+public interface HeaderListener {
+
+  /**
+   * @param name the header name. Common names are the shared instances of {@link HeaderNames}.
+   * @param value the header value
+   * @param sensitive true if the peer asked never to index the field
+   */
+  void onHeader(AsciiString name, AsciiString value, boolean sensitive);
+}
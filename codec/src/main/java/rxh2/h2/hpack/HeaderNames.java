@@ -0,0 +1,195 @@
+package rxh2.h2.hpack;
+
+import io.netty.util.AsciiString;
+
+/**
+ * Shared instances of the common header names: all the names of the HPACK static table plus a
+ * few frequent ones. Decoded literal names matching one of these are interned so that decoding
+ * them doesn't allocate, and so that they can be compared by identity.
+ */
+public final class HeaderNames {
+
+  public static final AsciiString AUTHORITY = AsciiString.cached(":authority");
+  public static final AsciiString METHOD = AsciiString.cached(":method");
+  public static final AsciiString PATH = AsciiString.cached(":path");
+  public static final AsciiString SCHEME = AsciiString.cached(":scheme");
+  public static final AsciiString STATUS = AsciiString.cached(":status");
+  public static final AsciiString ACCEPT_CHARSET = AsciiString.cached("accept-charset");
+  public static final AsciiString ACCEPT_ENCODING = AsciiString.cached("accept-encoding");
+  public static final AsciiString ACCEPT_LANGUAGE = AsciiString.cached("accept-language");
+  public static final AsciiString ACCEPT_RANGES = AsciiString.cached("accept-ranges");
+  public static final AsciiString ACCEPT = AsciiString.cached("accept");
+  public static final AsciiString ACCESS_CONTROL_ALLOW_ORIGIN = AsciiString.cached("access-control-allow-origin");
+  public static final AsciiString AGE = AsciiString.cached("age");
+  public static final AsciiString ALLOW = AsciiString.cached("allow");
+  public static final AsciiString AUTHORIZATION = AsciiString.cached("authorization");
+  public static final AsciiString CACHE_CONTROL = AsciiString.cached("cache-control");
+  public static final AsciiString CONTENT_DISPOSITION = AsciiString.cached("content-disposition");
+  public static final AsciiString CONTENT_ENCODING = AsciiString.cached("content-encoding");
+  public static final AsciiString CONTENT_LANGUAGE = AsciiString.cached("content-language");
+  public static final AsciiString CONTENT_LENGTH = AsciiString.cached("content-length");
+  public static final AsciiString CONTENT_LOCATION = AsciiString.cached("content-location");
+  public static final AsciiString CONTENT_RANGE = AsciiString.cached("content-range");
+  public static final AsciiString CONTENT_TYPE = AsciiString.cached("content-type");
+  public static final AsciiString COOKIE = AsciiString.cached("cookie");
+  public static final AsciiString DATE = AsciiString.cached("date");
+  public static final AsciiString ETAG = AsciiString.cached("etag");
+  public static final AsciiString EXPECT = AsciiString.cached("expect");
+  public static final AsciiString EXPIRES = AsciiString.cached("expires");
+  public static final AsciiString FROM = AsciiString.cached("from");
+  public static final AsciiString HOST = AsciiString.cached("host");
+  public static final AsciiString IF_MATCH = AsciiString.cached("if-match");
+  public static final AsciiString IF_MODIFIED_SINCE = AsciiString.cached("if-modified-since");
+  public static final AsciiString IF_NONE_MATCH = AsciiString.cached("if-none-match");
+  public static final AsciiString IF_RANGE = AsciiString.cached("if-range");
+  public static final AsciiString IF_UNMODIFIED_SINCE = AsciiString.cached("if-unmodified-since");
+  public static final AsciiString LAST_MODIFIED = AsciiString.cached("last-modified");
+  public static final AsciiString LINK = AsciiString.cached("link");
+  public static final AsciiString LOCATION = AsciiString.cached("location");
+  public static final AsciiString MAX_FORWARDS = AsciiString.cached("max-forwards");
+  public static final AsciiString PROXY_AUTHENTICATE = AsciiString.cached("proxy-authenticate");
+  public static final AsciiString PROXY_AUTHORIZATION = AsciiString.cached("proxy-authorization");
+  public static final AsciiString RANGE = AsciiString.cached("range");
+  public static final AsciiString REFERER = AsciiString.cached("referer");
+  public static final AsciiString REFRESH = AsciiString.cached("refresh");
+  public static final AsciiString RETRY_AFTER = AsciiString.cached("retry-after");
+  public static final AsciiString SERVER = AsciiString.cached("server");
+  public static final AsciiString SET_COOKIE = AsciiString.cached("set-cookie");
+  public static final AsciiString STRICT_TRANSPORT_SECURITY = AsciiString.cached("strict-transport-security");
+  public static final AsciiString TRANSFER_ENCODING = AsciiString.cached("transfer-encoding");
+  public static final AsciiString USER_AGENT = AsciiString.cached("user-agent");
+  public static final AsciiString VARY = AsciiString.cached("vary");
+  public static final AsciiString VIA = AsciiString.cached("via");
+  public static final AsciiString WWW_AUTHENTICATE = AsciiString.cached("www-authenticate");
+  public static final AsciiString PROTOCOL = AsciiString.cached(":protocol");
+  public static final AsciiString TE = AsciiString.cached("te");
+  public static final AsciiString PRIORITY = AsciiString.cached("priority");
+  public static final AsciiString X_FORWARDED_FOR = AsciiString.cached("x-forwarded-for");
+  public static final AsciiString X_FORWARDED_PROTO = AsciiString.cached("x-forwarded-proto");
+  public static final AsciiString X_REQUEST_ID = AsciiString.cached("x-request-id");
+  public static final AsciiString GRPC_ENCODING = AsciiString.cached("grpc-encoding");
+  public static final AsciiString GRPC_ACCEPT_ENCODING = AsciiString.cached("grpc-accept-encoding");
+  public static final AsciiString GRPC_TIMEOUT = AsciiString.cached("grpc-timeout");
+  public static final AsciiString GRPC_STATUS = AsciiString.cached("grpc-status");
+  public static final AsciiString GRPC_MESSAGE = AsciiString.cached("grpc-message");
+
+  private static final AsciiString[] ALL = {
+      AUTHORITY,
+      METHOD,
+      PATH,
+      SCHEME,
+      STATUS,
+      ACCEPT_CHARSET,
+      ACCEPT_ENCODING,
+      ACCEPT_LANGUAGE,
+      ACCEPT_RANGES,
+      ACCEPT,
+      ACCESS_CONTROL_ALLOW_ORIGIN,
+      AGE,
+      ALLOW,
+      AUTHORIZATION,
+      CACHE_CONTROL,
+      CONTENT_DISPOSITION,
+      CONTENT_ENCODING,
+      CONTENT_LANGUAGE,
+      CONTENT_LENGTH,
+      CONTENT_LOCATION,
+      CONTENT_RANGE,
+      CONTENT_TYPE,
+      COOKIE,
+      DATE,
+      ETAG,
+      EXPECT,
+      EXPIRES,
+      FROM,
+      HOST,
+      IF_MATCH,
+      IF_MODIFIED_SINCE,
+      IF_NONE_MATCH,
+      IF_RANGE,
+      IF_UNMODIFIED_SINCE,
+      LAST_MODIFIED,
+      LINK,
+      LOCATION,
+      MAX_FORWARDS,
+      PROXY_AUTHENTICATE,
+      PROXY_AUTHORIZATION,
+      RANGE,
+      REFERER,
+      REFRESH,
+      RETRY_AFTER,
+      SERVER,
+      SET_COOKIE,
+      STRICT_TRANSPORT_SECURITY,
+      TRANSFER_ENCODING,
+      USER_AGENT,
+      VARY,
+      VIA,
+      WWW_AUTHENTICATE,
+      PROTOCOL,
+      TE,
+      PRIORITY,
+      X_FORWARDED_FOR,
+      X_FORWARDED_PROTO,
+      X_REQUEST_ID,
+      GRPC_ENCODING,
+      GRPC_ACCEPT_ENCODING,
+      GRPC_TIMEOUT,
+      GRPC_STATUS,
+      GRPC_MESSAGE
+  };
+
+  // Open addressing table, at most half full
+  private static final int TABLE_MASK = 255;
+  private static final AsciiString[] TABLE = new AsciiString[TABLE_MASK + 1];
+
+  static {
+    for (AsciiString name : ALL) {
+      int slot = hash(name) & TABLE_MASK;
+      while (TABLE[slot] != null) {
+        slot = (slot + 1) & TABLE_MASK;
+      }
+      TABLE[slot] = name;
+    }
+  }
+
+  private HeaderNames() {
+  }
+
+  /**
+   * @return the shared instance of the name contained in the bytes, or null if it's not a
+   * common name
+   */
+  static AsciiString intern(byte[] bytes, int offset, int length) {
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++) {
+      hash = hash * 31 + bytes[i];
+    }
+    for (int slot = hash & TABLE_MASK; TABLE[slot] != null; slot = (slot + 1) & TABLE_MASK) {
+      if (equals(TABLE[slot], bytes, offset, length)) {
+        return TABLE[slot];
+      }
+    }
+    return null;
+  }
+
+  static int hash(CharSequence name) {
+    int hash = 0;
+    for (int i = 0; i < name.length(); i++) {
+      hash = hash * 31 + (byte) name.charAt(i);
+    }
+    return hash;
+  }
+
+  private static boolean equals(AsciiString name, byte[] bytes, int offset, int length) {
+    if (name.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (name.byteAt(i) != bytes[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,209 @@
+package rxh2.h2.hpack;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AsciiString;
+
+/**
+ * Decodes HPACK (RFC 7541) header blocks.
+ *
+ * The decoder is built to be allocation-light: Huffman strings are decoded through a lookup
+ * table into a reused scratch array, common header names are resolved to the shared instances of
+ * {@link HeaderNames} and indexed fields reuse the strings stored in the tables. In the common
+ * case the only allocated objects are the values of the literal fields.
+ *
+ * There is one decoder per connection and it's not thread safe.
+ */
+public final class HpackDecoder {
+
+  private final DynamicTable dynamicTable;
+  // The limit we advertise with SETTINGS_HEADER_TABLE_SIZE
+  private long maxTableSize;
+  private long maxHeaderListSize;
+  private byte[] scratch = new byte[256];
+
+  /**
+   * @param maxTableSize the maximum size of the dynamic table, as advertised in
+   * SETTINGS_HEADER_TABLE_SIZE
+   * @param maxHeaderListSize the maximum size of a decoded header list, as advertised in
+   * SETTINGS_MAX_HEADER_LIST_SIZE
+   */
+  public HpackDecoder(long maxTableSize, long maxHeaderListSize) {
+    this.dynamicTable = new DynamicTable(maxTableSize);
+    this.maxTableSize = maxTableSize;
+    this.maxHeaderListSize = maxHeaderListSize;
+  }
+
+  /**
+   * Changes the maximum table size. Must be called once the peer acknowledged the new
+   * SETTINGS_HEADER_TABLE_SIZE.
+   */
+  public void setMaxTableSize(long maxTableSize) {
+    this.maxTableSize = maxTableSize;
+    if (dynamicTable.capacity() > maxTableSize) {
+      dynamicTable.setCapacity(maxTableSize);
+    }
+  }
+
+  public void setMaxHeaderListSize(long maxHeaderListSize) {
+    this.maxHeaderListSize = maxHeaderListSize;
+  }
+
+  /**
+   * Decodes a whole header block, consuming all its readable bytes.
+   *
+   * @param block the complete header block
+   * @param listener receives the decoded fields
+   * @throws HeaderListSizeException if the header list is too large. The block is decoded
+   * anyway to keep the dynamic table in sync, but the fields exceeding the size are not passed to
+   * the listener.
+   * @throws HpackException if the block is malformed
+   */
+  public void decode(ByteBuf block, HeaderListener listener) {
+    long headerListSize = 0;
+    boolean sizeUpdateAllowed = true;
+
+    while (block.isReadable()) {
+      final int b = block.getUnsignedByte(block.readerIndex());
+      final AsciiString name;
+      final AsciiString value;
+      boolean sensitive = false;
+
+      if ((b & 0x80) != 0) {
+        // Indexed header field
+        final int index = decodeInt(block, 7);
+        name = name(index);
+        value = value(index);
+      } else if ((b & 0x40) != 0) {
+        // Literal header field with incremental indexing
+        name = readName(block, 6);
+        value = readValue(block);
+        dynamicTable.add(name, value);
+      } else if ((b & 0x20) != 0) {
+        // Dynamic table size update, only allowed at the beginning of a block
+        if (!sizeUpdateAllowed) {
+          throw new HpackException("Dynamic table size update after the first header field");
+        }
+        final int newSize = decodeInt(block, 5);
+        if (newSize > maxTableSize) {
+          throw new HpackException("Dynamic table size update to " + newSize
+              + " exceeds the maximum of " + maxTableSize);
+        }
+        dynamicTable.setCapacity(newSize);
+        continue;
+      } else {
+        // Literal header field without indexing (0000) or never indexed (0001)
+        sensitive = (b & 0x10) != 0;
+        name = readName(block, 4);
+        value = readValue(block);
+      }
+
+      sizeUpdateAllowed = false;
+      headerListSize += DynamicTable.entrySize(name, value);
+      if (headerListSize <= maxHeaderListSize) {
+        listener.onHeader(name, value, sensitive);
+      }
+    }
+
+    if (headerListSize > maxHeaderListSize) {
+      throw new HeaderListSizeException(headerListSize, maxHeaderListSize);
+    }
+  }
+
+  private AsciiString name(int index) {
+    if (index == 0) {
+      throw new HpackException("Invalid header index 0");
+    }
+    if (index <= StaticTable.LENGTH) {
+      return StaticTable.name(index);
+    }
+    return dynamicTable.name(index - StaticTable.LENGTH);
+  }
+
+  private AsciiString value(int index) {
+    if (index <= StaticTable.LENGTH) {
+      return StaticTable.value(index);
+    }
+    return dynamicTable.value(index - StaticTable.LENGTH);
+  }
+
+  private AsciiString readName(ByteBuf block, int prefixBits) {
+    final int index = decodeInt(block, prefixBits);
+    if (index != 0) {
+      return name(index);
+    }
+    final int length = readString(block);
+    final AsciiString interned = HeaderNames.intern(scratch, 0, length);
+    return interned != null ? interned : new AsciiString(scratch, 0, length, true);
+  }
+
+  private AsciiString readValue(ByteBuf block) {
+    final int length = readString(block);
+    return length == 0 ? AsciiString.EMPTY_STRING : new AsciiString(scratch, 0, length, true);
+  }
+
+  /**
+   * Reads a string literal into the scratch array. A literal exceeding the max header list size
+   * is still decoded, as it may be added to the dynamic table: its length is bounded by the
+   * block, whose size the caller limits.
+   *
+   * @return the length of the string
+   */
+  private int readString(ByteBuf block) {
+    if (!block.isReadable()) {
+      throw new HpackException("Truncated string literal");
+    }
+    final boolean huffman = (block.getByte(block.readerIndex()) & 0x80) != 0;
+    final int length = decodeInt(block, 7);
+    if (length > block.readableBytes()) {
+      throw new HpackException("String literal longer than the header block");
+    }
+
+    final int decodedLength;
+    if (huffman) {
+      ensureScratch(Huffman.maxDecodedLength(length));
+      decodedLength = Huffman.decode(block, block.readerIndex(), length, scratch);
+    } else {
+      ensureScratch(length);
+      block.getBytes(block.readerIndex(), scratch, 0, length);
+      decodedLength = length;
+    }
+    block.skipBytes(length);
+    return decodedLength;
+  }
+
+  private void ensureScratch(int length) {
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+  }
+
+  /**
+   * Decodes an integer with an N-bit prefix (RFC 7541 section 5.1).
+   */
+  static int decodeInt(ByteBuf block, int prefixBits) {
+    final int mask = (1 << prefixBits) - 1;
+    long value = block.readUnsignedByte() & mask;
+    if (value < mask) {
+      return (int) value;
+    }
+
+    int shift = 0;
+    int b;
+    do {
+      if (!block.isReadable()) {
+        throw new HpackException("Truncated integer");
+      }
+      if (shift > 28) {
+        throw new HpackException("Integer overflow");
+      }
+      b = block.readUnsignedByte();
+      value += (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    if (value > Integer.MAX_VALUE) {
+      throw new HpackException("Integer overflow");
+    }
+    return (int) value;
+  }
+}
@@ -0,0 +1,177 @@
+package rxh2.h2.hpack;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AsciiString;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes header fields into HPACK (RFC 7541) header blocks.
+ *
+ * Fields matching the static or the dynamic table are written as indexes, the others as literals
+ * which are added to the dynamic table unless marked as sensitive. Strings are Huffman encoded
+ * when that makes them shorter.
+ *
+ * There is one encoder per connection and it's not thread safe.
+ */
+public final class HpackEncoder {
+
+  private final DynamicTable dynamicTable;
+  // Upper bound we accept for the table regardless of what the peer allows
+  private final long maxTableSizeLimit;
+  private boolean sizeUpdatePending;
+  // Smallest capacity since the last block, which must be signaled before the final one
+  private long minCapacitySinceLastBlock;
+
+  /**
+   * @param maxTableSize the initial size of the dynamic table, the default of
+   * SETTINGS_HEADER_TABLE_SIZE is 4096
+   * @param maxTableSizeLimit the largest table the encoder will ever use, even if the peer allows
+   * more
+   */
+  public HpackEncoder(long maxTableSize, long maxTableSizeLimit) {
+    this.maxTableSizeLimit = maxTableSizeLimit;
+    this.dynamicTable = new DynamicTable(Math.min(maxTableSize, maxTableSizeLimit));
+    this.minCapacitySinceLastBlock = dynamicTable.capacity();
+  }
+
+  /**
+   * Applies the SETTINGS_HEADER_TABLE_SIZE of the peer. The change is signaled at the beginning
+   * of the next header block.
+   */
+  public void setMaxTableSize(long peerMaxTableSize) {
+    final long newCapacity = Math.min(peerMaxTableSize, maxTableSizeLimit);
+    if (newCapacity == dynamicTable.capacity() && !sizeUpdatePending) {
+      return;
+    }
+    dynamicTable.setCapacity(newCapacity);
+    minCapacitySinceLastBlock = Math.min(minCapacitySinceLastBlock, newCapacity);
+    sizeUpdatePending = true;
+  }
+
+  /**
+   * @return true if the next header block must begin with a dynamic table size update, which
+   * {@link #beginBlock(ByteBuf)} writes
+   */
+  public boolean sizeUpdatePending() {
+    return sizeUpdatePending;
+  }
+
+  /**
+   * Must be called before encoding the first field of every header block.
+   */
+  public void beginBlock(ByteBuf out) {
+    if (!sizeUpdatePending) {
+      return;
+    }
+    if (minCapacitySinceLastBlock < dynamicTable.capacity()) {
+      encodeInt(out, 0x20, 5, minCapacitySinceLastBlock);
+    }
+    encodeInt(out, 0x20, 5, dynamicTable.capacity());
+    sizeUpdatePending = false;
+    minCapacitySinceLastBlock = dynamicTable.capacity();
+  }
+
+  /**
+   * Encodes a header field.
+   *
+   * @param out the buffer where the field is written
+   * @param name the lowercase header name
+   * @param value the header value
+   * @param sensitive if true the field is never indexed, neither by us nor by intermediaries
+   */
+  public void encodeHeader(ByteBuf out, CharSequence name, CharSequence value,
+      boolean sensitive) {
+    final int staticNameIndex = StaticTable.indexOf(name);
+
+    if (!sensitive) {
+      if (staticNameIndex != 0) {
+        final int staticIndex = StaticTable.indexOf(name, value);
+        if (staticIndex != 0) {
+          encodeInt(out, 0x80, 7, staticIndex);
+          return;
+        }
+      }
+      final int dynamicIndex = dynamicTable.indexOf(name, value);
+      if (dynamicIndex != 0) {
+        encodeInt(out, 0x80, 7, StaticTable.LENGTH + dynamicIndex);
+        return;
+      }
+    }
+
+    final int nameIndex = staticNameIndex != 0 ? staticNameIndex : dynamicNameIndex(name);
+
+    if (sensitive) {
+      encodeLiteral(out, 0x10, 4, nameIndex, name, value);
+    } else if (DynamicTable.entrySize(name, value) > dynamicTable.capacity()) {
+      encodeLiteral(out, 0x00, 4, nameIndex, name, value);
+    } else {
+      encodeLiteral(out, 0x40, 6, nameIndex, name, value);
+      dynamicTable.add(AsciiString.of(name), AsciiString.of(value));
+    }
+  }
+
+  /**
+   * Encodes a header field without referencing nor altering any dynamic table, so that the
+   * block can be sent on any connection, e.g. a block encoded once and cached. Fields of the
+   * static table are still written as indexes.
+   */
+  public static void encodeStateless(ByteBuf out, CharSequence name, CharSequence value) {
+    final int staticNameIndex = StaticTable.indexOf(name);
+    if (staticNameIndex != 0) {
+      final int staticIndex = StaticTable.indexOf(name, value);
+      if (staticIndex != 0) {
+        encodeInt(out, 0x80, 7, staticIndex);
+        return;
+      }
+    }
+    encodeLiteral(out, 0x00, 4, staticNameIndex, name, value);
+  }
+
+  private int dynamicNameIndex(CharSequence name) {
+    final int index = dynamicTable.indexOf(name);
+    return index == 0 ? 0 : StaticTable.LENGTH + index;
+  }
+
+  private static void encodeLiteral(ByteBuf out, int pattern, int prefixBits, int nameIndex,
+      CharSequence name, CharSequence value) {
+    encodeInt(out, pattern, prefixBits, nameIndex);
+    if (nameIndex == 0) {
+      encodeString(out, name);
+    }
+    encodeString(out, value);
+  }
+
+  private static void encodeString(ByteBuf out, CharSequence string) {
+    final int huffmanLength = Huffman.encodedLength(string);
+    if (huffmanLength < string.length()) {
+      encodeInt(out, 0x80, 7, huffmanLength);
+      Huffman.encode(out, string);
+    } else {
+      encodeInt(out, 0x00, 7, string.length());
+      if (string instanceof AsciiString) {
+        final AsciiString ascii = (AsciiString) string;
+        out.writeBytes(ascii.array(), ascii.arrayOffset(), ascii.length());
+      } else {
+        out.writeCharSequence(string, StandardCharsets.US_ASCII);
+      }
+    }
+  }
+
+  /**
+   * Encodes an integer with an N-bit prefix (RFC 7541 section 5.1).
+   */
+  static void encodeInt(ByteBuf out, int pattern, int prefixBits, long value) {
+    final int mask = (1 << prefixBits) - 1;
+    if (value < mask) {
+      out.writeByte(pattern | (int) value);
+      return;
+    }
+    out.writeByte(pattern | mask);
+    value -= mask;
+    while (value >= 0x80) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+}
@@ -0,0 +1,14 @@
+package rxh2.h2.hpack;
+
+/**
+ * Signals an error decoding a header block. The HTTP/2 connection must be terminated with a
+ * COMPRESSION_ERROR as the state of the dynamic table is not reliable anymore.
+ */
+public class HpackException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public HpackException(String message) {
+    super(message);
+  }
+}
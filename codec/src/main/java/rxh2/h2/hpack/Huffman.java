@@ -0,0 +1,197 @@
+package rxh2.h2.hpack;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * The static Huffman code of HPACK (RFC 7541 Appendix B).
+ *
+ * Decoding runs a finite state machine which consumes 4 bits at a time: the transitions for every
+ * state of the code tree and every nibble are precomputed in a lookup table when the class is
+ * loaded, so decoding costs two table lookups per input byte and doesn't allocate.
+ */
+final class Huffman {
+
+  static final int EOS = 256;
+
+  // Code lengths in bits of the 256 octets and of EOS. The code is canonical so the codes are
+  // derived from the lengths.
+  private static final byte[] CODE_LENGTHS = {
+      13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+      28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+      6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+      5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+      13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+      7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+      15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+      6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+      20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+      24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+      22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+      21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+      26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+      19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+      20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+      26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+      30
+  };
+
+  private static final int[] CODES = new int[CODE_LENGTHS.length];
+
+  // A transition holds the next state in the low bits, the emitted symbol and the flags
+  private static final int STATE_MASK = 0xFFFF;
+  private static final int SYMBOL_SHIFT = 16;
+  private static final int SYMBOL_MASK = 0xFF;
+  private static final int FLAG_EMIT = 1 << 30;
+  private static final int FLAG_FAIL = 1 << 29;
+
+  // Indexed by state * 16 + nibble. The states are the internal nodes of the code tree, 0 is the
+  // root
+  private static final int[] TRANSITIONS;
+  // Whether the string can end in a state: only the root and the states reached by at most 7
+  // bits of EOS padding (all ones) are accepting
+  private static final boolean[] ACCEPTING;
+
+  static {
+    int code = 0;
+    for (int length = 1; length <= 30; length++) {
+      for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++) {
+        if (CODE_LENGTHS[symbol] == length) {
+          CODES[symbol] = code++;
+        }
+      }
+      code <<= 1;
+    }
+
+    // Children of the internal nodes at node * 2 + bit: a positive number is an internal node, a
+    // negative one is the leaf -(symbol + 1). The root is never a child so 0 means "no child".
+    final int[] children = new int[CODE_LENGTHS.length * 2];
+    int nodes = 1;
+    for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++) {
+      int node = 0;
+      for (int bit = CODE_LENGTHS[symbol] - 1; bit > 0; bit--) {
+        final int index = node * 2 + ((CODES[symbol] >>> bit) & 1);
+        if (children[index] == 0) {
+          children[index] = nodes++;
+        }
+        node = children[index];
+      }
+      children[node * 2 + (CODES[symbol] & 1)] = -(symbol + 1);
+    }
+
+    ACCEPTING = new boolean[nodes];
+    ACCEPTING[0] = true;
+    for (int node = 0, depth = 1; depth <= 7; depth++) {
+      node = children[node * 2 + 1];
+      ACCEPTING[node] = true;
+    }
+
+    TRANSITIONS = new int[nodes * 16];
+    for (int state = 0; state < nodes; state++) {
+      for (int nibble = 0; nibble < 16; nibble++) {
+        int node = state;
+        int transition = 0;
+        for (int bit = 3; bit >= 0; bit--) {
+          final int child = children[node * 2 + ((nibble >>> bit) & 1)];
+          if (child < 0) {
+            final int symbol = -child - 1;
+            if (symbol == EOS) {
+              transition = FLAG_FAIL;
+              break;
+            }
+            // Codes are at least 5 bits long so a nibble emits at most one symbol
+            transition = FLAG_EMIT | (symbol << SYMBOL_SHIFT);
+            node = 0;
+          } else {
+            node = child;
+          }
+        }
+        TRANSITIONS[state * 16 + nibble] = transition | (transition == FLAG_FAIL ? 0 : node);
+      }
+    }
+  }
+
+  private Huffman() {
+  }
+
+  /**
+   * Decodes a Huffman encoded string.
+   *
+   * @param in the buffer containing the encoded string, its reader index is not modified
+   * @param index the index of the first byte of the string
+   * @param length the length of the encoded string in bytes
+   * @param out the destination array which must hold at least {@link #maxDecodedLength(int)}
+   * bytes
+   * @return the number of decoded bytes written in out
+   * @throws HpackException if the string contains EOS or is not correctly padded
+   */
+  static int decode(ByteBuf in, int index, int length, byte[] out) {
+    int state = 0;
+    int written = 0;
+    final int end = index + length;
+    for (int i = index; i < end; i++) {
+      final int b = in.getByte(i) & 0xFF;
+
+      int transition = TRANSITIONS[(state << 4) | (b >>> 4)];
+      if ((transition & FLAG_EMIT) != 0) {
+        out[written++] = (byte) ((transition >>> SYMBOL_SHIFT) & SYMBOL_MASK);
+      } else if (transition == FLAG_FAIL) {
+        throw new HpackException("EOS decoded in a Huffman encoded string");
+      }
+      state = transition & STATE_MASK;
+
+      transition = TRANSITIONS[(state << 4) | (b & 0x0F)];
+      if ((transition & FLAG_EMIT) != 0) {
+        out[written++] = (byte) ((transition >>> SYMBOL_SHIFT) & SYMBOL_MASK);
+      } else if (transition == FLAG_FAIL) {
+        throw new HpackException("EOS decoded in a Huffman encoded string");
+      }
+      state = transition & STATE_MASK;
+    }
+
+    if (!ACCEPTING[state]) {
+      throw new HpackException("Invalid padding of a Huffman encoded string");
+    }
+    return written;
+  }
+
+  /**
+   * @return an upper bound of the decoded length of an encoded string: the shortest code is 5
+   * bits long
+   */
+  static int maxDecodedLength(int encodedLength) {
+    return encodedLength * 8 / 5;
+  }
+
+  /**
+   * @return the length in bytes of the Huffman encoding of the string
+   */
+  static int encodedLength(CharSequence string) {
+    long bits = 0;
+    for (int i = 0; i < string.length(); i++) {
+      bits += CODE_LENGTHS[string.charAt(i) & 0xFF];
+    }
+    return (int) ((bits + 7) >> 3);
+  }
+
+  /**
+   * Writes the Huffman encoding of the string, padded with the most significant bits of EOS.
+   */
+  static void encode(ByteBuf out, CharSequence string) {
+    long current = 0;
+    int bits = 0;
+    for (int i = 0; i < string.length(); i++) {
+      final int b = string.charAt(i) & 0xFF;
+      final int length = CODE_LENGTHS[b];
+      current = (current << length) | CODES[b];
+      bits += length;
+      while (bits >= 8) {
+        bits -= 8;
+        out.writeByte((int) (current >>> bits));
+      }
+    }
+    if (bits > 0) {
+      current = (current << (8 - bits)) | (0xFF >>> bits);
+      out.writeByte((int) current);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package rxh2.h2.hpack;
+
+import io.netty.util.AsciiString;
+
+/**
+ * The HPACK static table (RFC 7541 Appendix A). Indexes are 1-based as in the specification.
+ */
+final class StaticTable {
+
+  private static final AsciiString[][] ENTRIES = {
+      entry(HeaderNames.AUTHORITY, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.METHOD, AsciiString.cached("GET")),
+      entry(HeaderNames.METHOD, AsciiString.cached("POST")),
+      entry(HeaderNames.PATH, AsciiString.cached("/")),
+      entry(HeaderNames.PATH, AsciiString.cached("/index.html")),
+      entry(HeaderNames.SCHEME, AsciiString.cached("http")),
+      entry(HeaderNames.SCHEME, AsciiString.cached("https")),
+      entry(HeaderNames.STATUS, AsciiString.cached("200")),
+      entry(HeaderNames.STATUS, AsciiString.cached("204")),
+      entry(HeaderNames.STATUS, AsciiString.cached("206")),
+      entry(HeaderNames.STATUS, AsciiString.cached("304")),
+      entry(HeaderNames.STATUS, AsciiString.cached("400")),
+      entry(HeaderNames.STATUS, AsciiString.cached("404")),
+      entry(HeaderNames.STATUS, AsciiString.cached("500")),
+      entry(HeaderNames.ACCEPT_CHARSET, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.ACCEPT_ENCODING, AsciiString.cached("gzip, deflate")),
+      entry(HeaderNames.ACCEPT_LANGUAGE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.ACCEPT_RANGES, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.ACCEPT, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.AGE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.ALLOW, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.AUTHORIZATION, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.CACHE_CONTROL, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.CONTENT_DISPOSITION, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.CONTENT_ENCODING, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.CONTENT_LANGUAGE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.CONTENT_LENGTH, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.CONTENT_LOCATION, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.CONTENT_RANGE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.CONTENT_TYPE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.COOKIE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.DATE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.ETAG, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.EXPECT, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.EXPIRES, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.FROM, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.HOST, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.IF_MATCH, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.IF_MODIFIED_SINCE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.IF_NONE_MATCH, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.IF_RANGE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.IF_UNMODIFIED_SINCE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.LAST_MODIFIED, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.LINK, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.LOCATION, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.MAX_FORWARDS, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.PROXY_AUTHENTICATE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.PROXY_AUTHORIZATION, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.RANGE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.REFERER, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.REFRESH, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.RETRY_AFTER, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.SERVER, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.SET_COOKIE, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.STRICT_TRANSPORT_SECURITY, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.TRANSFER_ENCODING, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.USER_AGENT, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.VARY, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.VIA, AsciiString.EMPTY_STRING),
+      entry(HeaderNames.WWW_AUTHENTICATE, AsciiString.EMPTY_STRING)
+  };
+
+  static final int LENGTH = ENTRIES.length;
+
+  // Open addressing table from the hash of a name to the index of its first entry. The entries
+  // with the same name are contiguous.
+  private static final int NAME_TABLE_MASK = 127;
+  private static final int[] NAME_TABLE = new int[NAME_TABLE_MASK + 1];
+
+  static {
+    for (int index = LENGTH; index >= 1; index--) {
+      int slot = HeaderNames.hash(name(index)) & NAME_TABLE_MASK;
+      while (NAME_TABLE[slot] != 0 && !name(NAME_TABLE[slot]).equals(name(index))) {
+        slot = (slot + 1) & NAME_TABLE_MASK;
+      }
+      // Iterating backwards leaves the first entry of every name in the table
+      NAME_TABLE[slot] = index;
+    }
+  }
+
+  private StaticTable() {
+  }
+
+  private static AsciiString[] entry(AsciiString name, AsciiString value) {
+    return new AsciiString[]{name, value};
+  }
+
+  static AsciiString name(int index) {
+    return ENTRIES[index - 1][0];
+  }
+
+  static AsciiString value(int index) {
+    return ENTRIES[index - 1][1];
+  }
+
+  /**
+   * @return the index of the first entry with the name, or 0 if there's none
+   */
+  static int indexOf(CharSequence name) {
+    int slot = HeaderNames.hash(name) & NAME_TABLE_MASK;
+    for (; NAME_TABLE[slot] != 0; slot = (slot + 1) & NAME_TABLE_MASK) {
+      if (name(NAME_TABLE[slot]).contentEquals(name)) {
+        return NAME_TABLE[slot];
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * @return the index of the entry matching both name and value, or 0 if there's none
+   */
+  static int indexOf(CharSequence name, CharSequence value) {
+    final int first = indexOf(name);
+    if (first == 0) {
+      return 0;
+    }
+    for (int index = first; index <= LENGTH && name(index) == name(first); index++) {
+      if (value(index).contentEquals(value)) {
+        return index;
+      }
+    }
+    return 0;
+  }
+}
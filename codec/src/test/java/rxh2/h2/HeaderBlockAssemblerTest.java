@@ -0,0 +1,56 @@
+package rxh2.h2;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Exception;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rxh2.h2.frame.Frame;
+import rxh2.h2.frame.FrameHeader;
+import rxh2.h2.frame.FrameHeader.Flags;
+import rxh2.h2.frame.FrameHeader.Type;
+
+public class HeaderBlockAssemblerTest {
+
+  private final HeaderBlockAssembler assembler = new HeaderBlockAssembler(
+      PooledByteBufAllocator.DEFAULT);
+
+  private static Frame headers(byte flags, byte... payload) {
+    return new Frame(new FrameHeader(payload.length, Type.HEADERS, flags, 1),
+        Unpooled.buffer(payload.length).writeBytes(payload));
+  }
+
+  private void assertRejected(Frame frame) {
+    final ByteBuf payload = frame.getPayload();
+    final Http2Exception e = Assertions.assertThrows(Http2Exception.class,
+        () -> assembler.onHeaders(frame));
+    Assertions.assertEquals(Http2Error.PROTOCOL_ERROR, e.error());
+    Assertions.assertEquals(0, payload.refCnt());
+  }
+
+  @Test
+  public void rejectsEmptyPaddedAndPriorityFrames() {
+    final byte endHeaders = Flags.END_HEADERS.mask();
+    assertRejected(headers((byte) (endHeaders | Flags.PADDED.mask())));
+    assertRejected(headers((byte) (endHeaders | Flags.PRIORITY.mask())));
+    assertRejected(headers((byte) (endHeaders | Flags.PADDED.mask() | Flags.PRIORITY.mask()),
+        (byte) 0));
+    // Pad length larger than what follows it
+    assertRejected(headers((byte) (endHeaders | Flags.PADDED.mask()), (byte) 2, (byte) 0x82));
+  }
+
+  @Test
+  public void stripsPaddingAndPriorityFields() throws Http2Exception {
+    final Frame frame = headers((byte) (Flags.END_HEADERS.mask() | Flags.PADDED.mask()
+            | Flags.PRIORITY.mask()),
+        (byte) 1, (byte) 0, (byte) 0, (byte) 0, (byte) 3, (byte) 15, (byte) 0x82, (byte) 0);
+    Assertions.assertTrue(assembler.onHeaders(frame));
+    Assertions.assertEquals(16, assembler.weight());
+    final ByteBuf block = assembler.takeBlock();
+    Assertions.assertEquals(1, block.readableBytes());
+    Assertions.assertEquals(0x82, block.getUnsignedByte(block.readerIndex()));
+    block.release();
+  }
+}
@@ -0,0 +1,172 @@
+package rxh2.h2.frame;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.util.CharsetUtil;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import rxh2.h2.frame.FrameHeader.Type;
+
+public class FrameDecoderImplTest {
+
+  private static final String PREFACE = "505249202a20485454502f322e300d0a0d0a534d0d0a0d0a";
+  // SETTINGS frame with one setting (MAX_CONCURRENT_STREAMS = 100)
+  private static final String SETTINGS = "000006040000000000" + "000300000064";
+  // PING frame (empty ack flags) with 8 bytes of opaque data
+  private static final String PING = "000008060000000000" + "0102030405060708";
+
+  private final List<Frame> frames = new ArrayList<>();
+  private Throwable error;
+  private FrameDecoderImpl decoder;
+
+  @BeforeEach
+  public void setUp() {
+    decoder = new FrameDecoderImpl(PooledByteBufAllocator.DEFAULT);
+    decoder.subscribe(new Subscriber<Frame>() {
+      @Override
+      public void onSubscribe(Subscription s) {
+      }
+
+      @Override
+      public void onNext(Frame frame) {
+        // The decoder reuses the frame for the next one
+        frames.add(frame.detach());
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        error = t;
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+  }
+
+  @Test
+  public void decodesFramesContainedInASingleRead() {
+    ByteBuf in = bytes(PREFACE + SETTINGS + PING);
+    decoder.onNext(in);
+
+    assertFrames();
+    // The payloads are slices of the inbound buffer which is kept alive by them
+    Assertions.assertEquals(frames.size(), in.refCnt());
+    frames.forEach(Frame::release);
+    Assertions.assertEquals(0, in.refCnt());
+  }
+
+  @Test
+  public void decodesFramesSplitAcrossReads() {
+    ByteBuf all = bytes(PREFACE + SETTINGS + PING);
+    // Split every 5 bytes so that both headers and payloads span reads
+    while (all.isReadable()) {
+      decoder.onNext(all.readRetainedSlice(Math.min(5, all.readableBytes())));
+    }
+    all.release();
+
+    assertFrames();
+    frames.forEach(Frame::release);
+    Assertions.assertEquals(0, all.refCnt());
+  }
+
+  @Test
+  public void decodesLargeFramesHighStreamIdsAndUnknownTypes() {
+    ByteBuf in = Unpooled.buffer().writeBytes(ByteBufUtil.decodeHexDump(PREFACE));
+    // A 16 KB DATA frame on the highest stream ID, with the reserved bit set
+    in.writeMedium(16384).writeByte(0x0).writeByte(0x1).writeInt(0xFFFFFFFF).writeZero(16384);
+    // A frame of an extension type, which must be passed on to be ignored
+    in.writeMedium(1).writeByte(0x20).writeByte(0x0).writeInt(3).writeByte(0x42);
+    decoder.onNext(in);
+
+    Assertions.assertNull(error);
+    Assertions.assertEquals(3, frames.size());
+    final FrameHeader data = frames.get(1).getHeader();
+    Assertions.assertEquals(Type.DATA, data.getType());
+    Assertions.assertEquals(16384, data.getLength());
+    Assertions.assertEquals(0x7FFFFFFF, data.getStreamId());
+    Assertions.assertEquals(16384, frames.get(1).getPayload().readableBytes());
+
+    final FrameHeader unknown = frames.get(2).getHeader();
+    Assertions.assertEquals(Type.UNKNOWN, unknown.getType());
+    Assertions.assertEquals(3, unknown.getStreamId());
+    Assertions.assertEquals("42", ByteBufUtil.hexDump(frames.get(2).getPayload()));
+    frames.forEach(Frame::release);
+  }
+
+  @Test
+  public void rejectsClientsNotSendingThePreface() {
+    // Shorter than the preface, it must be rejected without waiting for more bytes
+    ByteBuf in = Unpooled.copiedBuffer("GET / HTTP/1.1\r\n", CharsetUtil.US_ASCII);
+    decoder.onNext(in);
+
+    Assertions.assertTrue(error instanceof Http2Exception);
+    Assertions.assertEquals(Http2Error.PROTOCOL_ERROR, ((Http2Exception) error).error());
+    Assertions.assertEquals(0, in.refCnt());
+
+    // What follows is discarded
+    ByteBuf more = bytes(SETTINGS);
+    decoder.onNext(more);
+    Assertions.assertEquals(0, more.refCnt());
+    Assertions.assertTrue(frames.isEmpty());
+  }
+
+  @Test
+  public void buffersPayloadsOnlyAsTheyArrive() {
+    decoder.onNext(bytes(PREFACE));
+    // A DATA frame announcing the max frame size, of which 100 bytes arrive
+    ByteBuf in = Unpooled.buffer().writeMedium(16384).writeByte(0x0).writeByte(0x0).writeInt(1)
+        .writeZero(100);
+    decoder.onNext(in);
+    Assertions.assertEquals(100, decoder.bufferedBytes());
+
+    decoder.onNext(Unpooled.buffer().writeZero(16284));
+    Assertions.assertEquals(0, decoder.bufferedBytes());
+    Assertions.assertEquals(2, frames.size());
+    Assertions.assertEquals(16384, frames.get(1).getPayload().readableBytes());
+    frames.forEach(Frame::release);
+  }
+
+  @Test
+  public void rejectsFramesLargerThanTheMaxFrameSize() {
+    decoder.onNext(bytes(PREFACE));
+    // Rejected on the header, without waiting for the payload
+    ByteBuf in = Unpooled.buffer().writeMedium(16385).writeByte(0x0).writeByte(0x0).writeInt(1)
+        .writeZero(10);
+    decoder.onNext(in);
+
+    Assertions.assertTrue(error instanceof Http2Exception);
+    Assertions.assertEquals(Http2Error.FRAME_SIZE_ERROR, ((Http2Exception) error).error());
+    Assertions.assertEquals(0, in.refCnt());
+    Assertions.assertEquals(0, decoder.bufferedBytes());
+    Assertions.assertEquals(1, frames.size());
+    frames.forEach(Frame::release);
+  }
+
+  private void assertFrames() {
+    Assertions.assertNull(error);
+    Assertions.assertEquals(3, frames.size());
+    Assertions.assertEquals(Type.PREFACE, frames.get(0).getHeader().getType());
+    Assertions.assertEquals(PREFACE, ByteBufUtil.hexDump(frames.get(0).getPayload()));
+
+    Assertions.assertEquals(Type.SETTINGS, frames.get(1).getHeader().getType());
+    Assertions.assertEquals(6, frames.get(1).getHeader().getLength());
+    Assertions.assertEquals(6, frames.get(1).getPayload().readableBytes());
+
+    Assertions.assertEquals(Type.PING, frames.get(2).getHeader().getType());
+    Assertions.assertEquals("0102030405060708", ByteBufUtil.hexDump(frames.get(2).getPayload()));
+  }
+
+  private static ByteBuf bytes(String hex) {
+    return Unpooled.copiedBuffer(ByteBufUtil.decodeHexDump(hex));
+  }
+}
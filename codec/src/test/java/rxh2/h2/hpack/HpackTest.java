@@ -0,0 +1,122 @@
+package rxh2.h2.hpack;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Uses the request examples with Huffman coding of RFC 7541 Appendix C.4, which share the
+ * dynamic table across the three requests.
+ */
+public class HpackTest {
+
+  private static final String[][][] REQUESTS = {
+      {{":method", "GET"}, {":scheme", "http"}, {":path", "/"},
+          {":authority", "www.example.com"}},
+      {{":method", "GET"}, {":scheme", "http"}, {":path", "/"},
+          {":authority", "www.example.com"}, {"cache-control", "no-cache"}},
+      {{":method", "GET"}, {":scheme", "https"}, {":path", "/index.html"},
+          {":authority", "www.example.com"}, {"custom-key", "custom-value"}}
+  };
+
+  private static final String[] ENCODED = {
+      "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+      "828684be5886a8eb10649cbf",
+      "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"
+  };
+
+  @Test
+  public void decodesRfcExamples() {
+    HpackDecoder decoder = new HpackDecoder(4096, 8192);
+    for (int i = 0; i < REQUESTS.length; i++) {
+      List<String[]> headers = new ArrayList<>();
+      ByteBuf block = Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump(ENCODED[i]));
+      decoder.decode(block, (name, value, sensitive) ->
+          headers.add(new String[]{name.toString(), value.toString()}));
+      Assertions.assertArrayEquals(REQUESTS[i], headers.toArray());
+    }
+  }
+
+  @Test
+  public void internsCommonNames() {
+    HpackDecoder decoder = new HpackDecoder(4096, 8192);
+    List<Object> names = new ArrayList<>();
+    // Literal without indexing with the literal name "content-type"
+    ByteBuf block = Unpooled.buffer();
+    block.writeByte(0);
+    HpackEncoder.encodeInt(block, 0, 7, "content-type".length());
+    block.writeBytes("content-type".getBytes());
+    block.writeByte(0);
+    decoder.decode(block, (name, value, sensitive) -> names.add(name));
+    Assertions.assertSame(HeaderNames.CONTENT_TYPE, names.get(0));
+  }
+
+  @Test
+  public void encodesRfcExamples() {
+    HpackEncoder encoder = new HpackEncoder(4096, 4096);
+    for (int i = 0; i < REQUESTS.length; i++) {
+      ByteBuf block = Unpooled.buffer();
+      encoder.beginBlock(block);
+      for (String[] header : REQUESTS[i]) {
+        encoder.encodeHeader(block, header[0], header[1], false);
+      }
+      Assertions.assertEquals(ENCODED[i], ByteBufUtil.hexDump(block));
+    }
+  }
+
+  @Test
+  public void encodesStatelessBlocksDecodableInAnyState() {
+    HpackDecoder decoder = new HpackDecoder(4096, 8192);
+    List<String[]> headers = new ArrayList<>();
+    decoder.decode(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump(ENCODED[0])),
+        (name, value, sensitive) -> { });
+
+    ByteBuf block = Unpooled.buffer();
+    for (String[] header : REQUESTS[2]) {
+      HpackEncoder.encodeStateless(block, header[0], header[1]);
+    }
+    decoder.decode(block, (name, value, sensitive) ->
+        headers.add(new String[]{name.toString(), value.toString()}));
+    Assertions.assertArrayEquals(REQUESTS[2], headers.toArray());
+
+    // The second example refers to the dynamic table left by the first one
+    headers.clear();
+    decoder.decode(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump(ENCODED[1])),
+        (name, value, sensitive) ->
+            headers.add(new String[]{name.toString(), value.toString()}));
+    Assertions.assertArrayEquals(REQUESTS[1], headers.toArray());
+  }
+
+  @Test
+  public void rejectsHeaderListsTooLarge() {
+    HpackDecoder decoder = new HpackDecoder(4096, 100);
+    ByteBuf block = Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump(ENCODED[0]));
+    Assertions.assertThrows(HeaderListSizeException.class,
+        () -> decoder.decode(block, (name, value, sensitive) -> { }));
+    // The block was consumed anyway, keeping the dynamic table in sync
+    Assertions.assertFalse(block.isReadable());
+  }
+
+  @Test
+  public void keepsTheTableInSyncPastAnOversizedLiteral() {
+    HpackEncoder encoder = new HpackEncoder(4096, 4096);
+    HpackDecoder decoder = new HpackDecoder(4096, 100);
+    ByteBuf block = Unpooled.buffer();
+    encoder.encodeHeader(block, "x-large", "x".repeat(200), false);
+    encoder.encodeHeader(block, "x-after", "indexed", false);
+    Assertions.assertThrows(HeaderListSizeException.class,
+        () -> decoder.decode(block, (name, value, sensitive) -> { }));
+
+    // The field added after the oversized one is referenced by its index
+    block.clear();
+    encoder.encodeHeader(block, "x-after", "indexed", false);
+    Assertions.assertEquals(1, block.readableBytes());
+    List<String> headers = new ArrayList<>();
+    decoder.decode(block, (name, value, sensitive) -> headers.add(name + ": " + value));
+    Assertions.assertEquals(List.of("x-after: indexed"), headers);
+  }
+}
@@ -1,11 +1,16 @@
 package rxh2.examples.server.echo;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import java.util.concurrent.ExecutionException;
 import org.apache.logging.log4j.LogManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import rxh2.server.Request;
+import rxh2.server.Response;
 import rxh2.server.Server;
 import rxh2.server.ServerHandle;
 
@@ -13,11 +18,16 @@ import rxh2.server.ServerHandle;
  * A simple HTTP/2 Echo server which replays everything is sent over in the request body. Note that
  * this implements the correct way of shutting down the server in case of a OS signal (like when
  * pressing ctrl+c in the console)
+ *
+ * When the request carries a x-response-size header, the body is discarded and a body of that
+ * many bytes is sent instead, which is what the load generator uses to choose the response size.
  */
 public class EchoServer {
 
   private static Logger log = LoggerFactory.getLogger(EchoServer.class);
 
+  private static final String RESPONSE_SIZE = "x-response-size";
+
   public static void main(String[] args) {
     Thread mainThread = Thread.currentThread();
 
@@ -26,6 +36,7 @@ public class EchoServer {
         .serverChannelHandler(new LoggingHandler(LogLevel.INFO))
         .shutdownCallback(() -> log.info("Shutting down server!"))
         .secure()
+        .handler(EchoServer::echo)
         .bind();
 
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -50,4 +61,17 @@ public class EchoServer {
       mainThread.interrupt();
     }
   }
+
+  // Runs on the event loop, it never blocks
+  private static Mono<Response> echo(Request request) {
+    final CharSequence responseSize = request.headers().get(RESPONSE_SIZE);
+    if (responseSize != null) {
+      final int size = Integer.parseInt(responseSize.toString());
+      final ByteBuf body = PooledByteBufAllocator.DEFAULT.buffer(size).writeZero(size);
+      return Mono.just(Response.ok().body(body));
+    }
+
+    // The request body is streamed back as it arrives, so it's never held in memory
+    return Mono.just(Response.ok().body(request.body()));
+  }
 }
@@ -0,0 +1,234 @@
+package rxh2.loadgen;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http2.AbstractHttp2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.Http2Connection.PropertyKey;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
+import io.netty.handler.codec.http2.Http2ConnectionDecoder;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2FrameAdapter;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+/**
+ * Keeps a fixed number of requests in flight on a connection: every time a response completes
+ * its latency is recorded and a new request is sent, until the run stops. A request which can't
+ * be sent because the server's stream limit is reached is owed, and sent as soon as a stream
+ * closes or the server raises its limit.
+ *
+ * All the methods are called on the event loop of the connection.
+ */
+class LoadConnectionHandler extends Http2ConnectionHandler {
+
+  private static final InternalLogger logger = InternalLoggerFactory
+      .getInstance(LoadConnectionHandler.class);
+
+  private final Options options;
+  private final Stats stats;
+  private final Http2Headers requestHeaders;
+  private final ByteBuf requestBody;
+  private final PropertyKey startTimeKey;
+
+  private ChannelHandlerContext ctx;
+  private boolean started;
+  // Requests to send as soon as streams are available
+  private int owed;
+  private boolean sendScheduled;
+
+  private LoadConnectionHandler(Http2ConnectionDecoder decoder, Http2ConnectionEncoder encoder,
+      Http2Settings initialSettings, Options options, Stats stats, ByteBuf requestBody) {
+    super(decoder, encoder, initialSettings);
+    this.options = options;
+    this.stats = stats;
+    this.requestBody = requestBody;
+    this.startTimeKey = connection().newKey();
+    this.requestHeaders = new DefaultHttp2Headers()
+        .method(requestBody.isReadable() ? "POST" : "GET")
+        .scheme(options.tls ? "https" : "http")
+        .authority(options.host + ":" + options.port)
+        .path(options.path);
+    if (options.responseSize > 0) {
+      requestHeaders.setInt("x-response-size", options.responseSize);
+    }
+    connection().addListener(new Http2ConnectionAdapter() {
+      @Override
+      public void onStreamClosed(Http2Stream stream) {
+        // Deferred rather than opening a stream from within the bookkeeping of the connection
+        scheduleSend();
+      }
+    });
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+    this.ctx = ctx;
+    super.handlerAdded(ctx);
+    // With TLS the handler is added once ALPN completes
+    if (ctx.channel().isActive()) {
+      startStreams();
+    }
+  }
+
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) throws Exception {
+    super.channelActive(ctx);
+    startStreams();
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+    if (stats.isRunning()) {
+      stats.onConnectionError();
+      logger.debug("Connection error, closing {}", ctx.channel(), cause);
+    }
+    ctx.close();
+  }
+
+  /**
+   * Sends the first requests right after the preface, without waiting for the SETTINGS of the
+   * server, as allowed by RFC 7540 section 3.5. The flush also sends the preface.
+   */
+  private void startStreams() {
+    if (started) {
+      return;
+    }
+    started = true;
+    owed = options.streams;
+    sendOwed();
+  }
+
+  private void scheduleSend() {
+    if (owed > 0 && !sendScheduled) {
+      sendScheduled = true;
+      ctx.executor().execute(this::sendOwed);
+    }
+  }
+
+  private void sendOwed() {
+    sendScheduled = false;
+    boolean sent = false;
+    while (owed > 0 && sendRequest()) {
+      owed--;
+      sent = true;
+    }
+    if (sent) {
+      ctx.flush();
+    }
+  }
+
+  /**
+   * @return false if the request couldn't be sent for now
+   */
+  private boolean sendRequest() {
+    if (!stats.isRunning() || !ctx.channel().isActive()) {
+      return false;
+    }
+    if (!connection().local().canOpenStream()) {
+      // Out of stream IDs or over the concurrency limit of the server
+      return false;
+    }
+    final long startTime = System.nanoTime();
+    final int streamId = connection().local().incrementAndGetNextStreamId();
+    final boolean hasBody = requestBody.isReadable();
+    encoder().writeHeaders(ctx, streamId, requestHeaders, 0, !hasBody, ctx.voidPromise());
+    if (hasBody) {
+      encoder().writeData(ctx, streamId, requestBody.retainedDuplicate(), 0, true,
+          ctx.voidPromise());
+    }
+    final Http2Stream stream = connection().stream(streamId);
+    if (stream != null) {
+      stream.setProperty(startTimeKey, startTime);
+    }
+    stats.onRequestSent();
+    return true;
+  }
+
+  private void onResponseComplete(int streamId, boolean success) {
+    final Http2Stream stream = connection().stream(streamId);
+    final Long startTime = stream != null ? stream.getProperty(startTimeKey) : null;
+    if (startTime != null) {
+      stats.onResponse(System.nanoTime() - startTime, success);
+    }
+    // Sent once the stream is closed, it still counts against the limit of the server
+    owed++;
+  }
+
+  private class Listener extends Http2FrameAdapter {
+
+    @Override
+    public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers,
+        int padding, boolean endOfStream) {
+      final CharSequence status = headers.status();
+      if (status != null && status.length() == 3 && status.charAt(0) != '2') {
+        stats.onErrorStatus();
+      }
+      if (endOfStream) {
+        onResponseComplete(streamId, true);
+      }
+    }
+
+    @Override
+    public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers,
+        int streamDependency, short weight, boolean exclusive, int padding,
+        boolean endOfStream) {
+      onHeadersRead(ctx, streamId, headers, padding, endOfStream);
+    }
+
+    @Override
+    public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
+        boolean endOfStream) {
+      stats.onBytesReceived(data.readableBytes());
+      if (endOfStream) {
+        onResponseComplete(streamId, true);
+      }
+      // Everything is consumed right away, which lets Netty send the WINDOW_UPDATEs
+      return data.readableBytes() + padding;
+    }
+
+    @Override
+    public void onRstStreamRead(ChannelHandlerContext ctx, int streamId, long errorCode) {
+      onResponseComplete(streamId, false);
+    }
+
+    @Override
+    public void onSettingsRead(ChannelHandlerContext ctx, Http2Settings settings) {
+      // The server may allow more concurrent streams
+      scheduleSend();
+    }
+  }
+
+  static class Builder extends
+      AbstractHttp2ConnectionHandlerBuilder<LoadConnectionHandler, Builder> {
+
+    private final Options options;
+    private final Stats stats;
+    private final ByteBuf requestBody;
+
+    Builder(Options options, Stats stats, ByteBuf requestBody) {
+      this.options = options;
+      this.stats = stats;
+      this.requestBody = requestBody;
+      server(false);
+    }
+
+    @Override
+    public LoadConnectionHandler build() {
+      return super.build();
+    }
+
+    @Override
+    protected LoadConnectionHandler build(Http2ConnectionDecoder decoder,
+        Http2ConnectionEncoder encoder, Http2Settings initialSettings) {
+      final LoadConnectionHandler handler = new LoadConnectionHandler(decoder, encoder,
+          initialSettings, options, stats, requestBody);
+      frameListener(handler.new Listener());
+      return handler;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package rxh2.loadgen;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A HTTP/2 load generator: opens N connections to a server and keeps M requests in flight on each
+ * one for a given time, then prints the throughput and the latency percentiles as JSON.
+ *
+ * The defaults target the echo server example, see {@link Options} for the arguments.
+ */
+public class LoadGenerator {
+
+  // How long to wait for the requests in flight when the run is over
+  private static final long DRAIN_TIMEOUT_MILLIS = 5000;
+
+  public static void main(String[] args) throws Exception {
+    final Options options = Options.parse(args);
+    final Results results = new LoadGenerator().run(options);
+    final String json = results.toJson();
+    System.out.println(json);
+    if (options.output != null) {
+      writeOutput(options.output, json);
+    }
+  }
+
+  Results run(Options options) throws Exception {
+    final Stats stats = new Stats();
+    final EventLoopGroup group = new NioEventLoopGroup(options.threads);
+    final ByteBuf requestBody = PooledByteBufAllocator.DEFAULT.directBuffer(options.requestSize)
+        .writeZero(options.requestSize);
+    try {
+      final SslContext sslContext = options.tls ? buildSslContext() : null;
+      final Bootstrap bootstrap = new Bootstrap()
+          .group(group)
+          .channel(NioSocketChannel.class)
+          .option(ChannelOption.TCP_NODELAY, true)
+          .handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+              final LoadConnectionHandler.Builder handlerBuilder =
+                  new LoadConnectionHandler.Builder(options, stats, requestBody);
+              if (sslContext == null) {
+                ch.pipeline().addLast(handlerBuilder.build());
+                return;
+              }
+              ch.pipeline().addLast(sslContext.newHandler(ch.alloc(), options.host, options.port));
+              ch.pipeline().addLast(new ApplicationProtocolNegotiationHandler("") {
+                @Override
+                protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+                  if (!ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                    throw new IllegalStateException("The server doesn't speak h2: " + protocol);
+                  }
+                  ctx.pipeline().addLast(handlerBuilder.build());
+                }
+              });
+            }
+          });
+
+      final List<Channel> channels = new ArrayList<>(options.connections);
+      for (int i = 0; i < options.connections; i++) {
+        channels.add(bootstrap.connect(options.host, options.port).sync().channel());
+      }
+
+      TimeUnit.SECONDS.sleep(options.warmupSeconds);
+      stats.reset();
+      final long start = System.nanoTime();
+      TimeUnit.SECONDS.sleep(options.durationSeconds);
+      final Results results = stats.results(options, System.nanoTime() - start);
+
+      stats.stop();
+      final long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+      while (stats.inFlight() > 0 && System.currentTimeMillis() < deadline) {
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+      for (Channel channel : channels) {
+        channel.close().syncUninterruptibly();
+      }
+      return results;
+    } finally {
+      requestBody.release();
+      group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+  }
+
+  private static SslContext buildSslContext() throws IOException {
+    final SslProvider provider = OpenSsl.isAlpnSupported() ? SslProvider.OPENSSL
+        : SslProvider.JDK;
+    return SslContextBuilder.forClient()
+        .sslProvider(provider)
+        .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+        // Benchmarks run against self signed certificates
+        .trustManager(InsecureTrustManagerFactory.INSTANCE)
+        .applicationProtocolConfig(new ApplicationProtocolConfig(
+            Protocol.ALPN,
+            SelectorFailureBehavior.NO_ADVERTISE,
+            SelectedListenerFailureBehavior.ACCEPT,
+            ApplicationProtocolNames.HTTP_2))
+        .build();
+  }
+
+  private static void writeOutput(String file, String json) throws IOException {
+    Files.write(Paths.get(file), (json + "\n").getBytes(StandardCharsets.UTF_8));
+  }
+}
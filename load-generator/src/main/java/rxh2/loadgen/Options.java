@@ -0,0 +1,70 @@
+package rxh2.loadgen;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The options of a load generator run, parsed from {@code --name=value} arguments.
+ */
+class Options {
+
+  private static final String USAGE = String.join("\n",
+      "Usage: LoadGenerator [--name=value]...",
+      "  --host=localhost       the host of the server",
+      "  --port=8888            the port of the server",
+      "  --tls=true             whether to use TLS (any certificate is trusted) or h2c",
+      "  --path=/               the path of the requests",
+      "  --connections=1        the number of connections",
+      "  --streams=10           the concurrent streams per connection",
+      "  --request-size=0       the size of the request body, sent as a POST if > 0",
+      "  --response-size=0      the response size to ask for with a x-response-size header",
+      "  --threads=0            the event loop threads, 0 for Netty's default",
+      "  --warmup=5             the warmup seconds, not recorded",
+      "  --duration=30          the seconds to record",
+      "  --output=              a file to write the JSON results to, besides stdout");
+
+  final String host;
+  final int port;
+  final boolean tls;
+  final String path;
+  final int connections;
+  final int streams;
+  final int requestSize;
+  final int responseSize;
+  final int threads;
+  final int warmupSeconds;
+  final int durationSeconds;
+  final String output;
+
+  private Options(Map<String, String> values) {
+    host = values.getOrDefault("host", "localhost");
+    port = Integer.parseInt(values.getOrDefault("port", "8888"));
+    tls = Boolean.parseBoolean(values.getOrDefault("tls", "true"));
+    path = values.getOrDefault("path", "/");
+    connections = Integer.parseInt(values.getOrDefault("connections", "1"));
+    streams = Integer.parseInt(values.getOrDefault("streams", "10"));
+    requestSize = Integer.parseInt(values.getOrDefault("request-size", "0"));
+    responseSize = Integer.parseInt(values.getOrDefault("response-size", "0"));
+    threads = Integer.parseInt(values.getOrDefault("threads", "0"));
+    warmupSeconds = Integer.parseInt(values.getOrDefault("warmup", "5"));
+    durationSeconds = Integer.parseInt(values.getOrDefault("duration", "30"));
+    output = values.get("output");
+
+    if (connections < 1 || streams < 1 || requestSize < 0 || responseSize < 0
+        || durationSeconds < 1 || warmupSeconds < 0) {
+      throw new IllegalArgumentException("Invalid options\n" + USAGE);
+    }
+  }
+
+  static Options parse(String[] args) {
+    final Map<String, String> values = new HashMap<>();
+    for (String arg : args) {
+      final int equals = arg.indexOf('=');
+      if (!arg.startsWith("--") || equals < 0) {
+        throw new IllegalArgumentException("Invalid argument " + arg + "\n" + USAGE);
+      }
+      values.put(arg.substring(2, equals), arg.substring(equals + 1));
+    }
+    return new Options(values);
+  }
+}
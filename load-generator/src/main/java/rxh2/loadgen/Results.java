@@ -0,0 +1,69 @@
+package rxh2.loadgen;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+
+/**
+ * The results of a run, rendered as JSON so that runs of different builds can be compared by
+ * scripts.
+ */
+class Results {
+
+  private final Options options;
+  private final double seconds;
+  private final long responses;
+  private final long resets;
+  private final long errorStatuses;
+  private final long bytesReceived;
+  // Connections closed because of an error, which the requests in flight on them went down with
+  private final long connectionErrors;
+  private final Histogram latencies;
+
+  Results(Options options, long elapsedNanos, long responses, long resets, long errorStatuses,
+      long bytesReceived, long connectionErrors, Histogram latencies) {
+    this.options = options;
+    this.seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+    this.responses = responses;
+    this.resets = resets;
+    this.errorStatuses = errorStatuses;
+    this.bytesReceived = bytesReceived;
+    this.connectionErrors = connectionErrors;
+    this.latencies = latencies;
+  }
+
+  String toJson() {
+    return String.format(Locale.ROOT, String.join("\n",
+        "{",
+        "  \"target\": \"%s://%s:%d%s\",",
+        "  \"connections\": %d,",
+        "  \"streams\": %d,",
+        "  \"requestSize\": %d,",
+        "  \"responseSize\": %d,",
+        "  \"seconds\": %.3f,",
+        "  \"responses\": %d,",
+        "  \"resets\": %d,",
+        "  \"errorStatuses\": %d,",
+        "  \"connectionErrors\": %d,",
+        "  \"requestsPerSecond\": %.1f,",
+        "  \"bytesReceivedPerSecond\": %.1f,",
+        "  \"latencyMicros\": {",
+        "    \"min\": %d,",
+        "    \"mean\": %.1f,",
+        "    \"p50\": %d,",
+        "    \"p90\": %d,",
+        "    \"p99\": %d,",
+        "    \"p99.9\": %d,",
+        "    \"max\": %d",
+        "  }",
+        "}"),
+        options.tls ? "https" : "http", options.host, options.port, options.path,
+        options.connections, options.streams, options.requestSize, options.responseSize,
+        seconds, responses, resets, errorStatuses, connectionErrors, responses / seconds,
+        bytesReceived / seconds,
+        latencies.getMinValue(), latencies.getMean(),
+        latencies.getValueAtPercentile(50), latencies.getValueAtPercentile(90),
+        latencies.getValueAtPercentile(99), latencies.getValueAtPercentile(99.9),
+        latencies.getMaxValue());
+  }
+}
@@ -0,0 +1,88 @@
+package rxh2.loadgen;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * The statistics of a run, updated concurrently by the event loops of all the connections.
+ * Latencies are recorded in microseconds.
+ */
+class Stats {
+
+  private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+  private final Recorder latencies = new Recorder(MAX_LATENCY_MICROS, 3);
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder responses = new LongAdder();
+  private final LongAdder resets = new LongAdder();
+  private final LongAdder errorStatuses = new LongAdder();
+  private final LongAdder bytesReceived = new LongAdder();
+  private final LongAdder connectionErrors = new LongAdder();
+  private volatile boolean running = true;
+
+  boolean isRunning() {
+    return running;
+  }
+
+  void stop() {
+    running = false;
+  }
+
+  void onRequestSent() {
+    sent.increment();
+  }
+
+  void onResponse(long latencyNanos, boolean success) {
+    completed.increment();
+    if (success) {
+      responses.increment();
+      latencies.recordValue(
+          Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), MAX_LATENCY_MICROS));
+    } else {
+      resets.increment();
+    }
+  }
+
+  void onErrorStatus() {
+    errorStatuses.increment();
+  }
+
+  void onBytesReceived(int bytes) {
+    bytesReceived.add(bytes);
+  }
+
+  void onConnectionError() {
+    connectionErrors.increment();
+  }
+
+  /**
+   * @return the requests sent which didn't complete yet
+   */
+  long inFlight() {
+    return sent.sum() - completed.sum();
+  }
+
+  /**
+   * Starts a new interval, discarding what was recorded so far, like the warmup.
+   */
+  void reset() {
+    latencies.reset();
+    responses.reset();
+    resets.reset();
+    errorStatuses.reset();
+    bytesReceived.reset();
+    connectionErrors.reset();
+  }
+
+  /**
+   * @return the results of the interval started by the last {@link #reset()}
+   */
+  Results results(Options options, long elapsedNanos) {
+    final Histogram histogram = latencies.getIntervalHistogram();
+    return new Results(options, elapsedNanos, responses.sum(), resets.sum(),
+        errorStatuses.sum(), bytesReceived.sum(), connectionErrors.sum(), histogram);
+  }
+}
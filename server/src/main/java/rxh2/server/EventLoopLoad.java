@@ -0,0 +1,20 @@
+package rxh2.server;
+
+import lombok.Data;
+
+/**
+ * An immutable snapshot of the load of a worker event loop, see
+ * {@link ServerHandle#eventLoopLoads()}. All the values are gauges.
+ */
+@Data
+public class EventLoopLoad {
+
+  // The position of the loop in the worker group, as used to pin hosts
+  private final int index;
+  private final int connections;
+  private final int activeStreams;
+  // Written to the connections and not yet accepted by their sockets, sampled every 100 ms
+  private final long pendingOutboundBytes;
+  // Tasks submitted to the loop and not yet run
+  private final int pendingTasks;
+}
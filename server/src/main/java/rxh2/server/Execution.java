@@ -0,0 +1,21 @@
+package rxh2.server;
+
+/**
+ * Where a {@link RequestHandler} is invoked, see {@link Server#handler(String, Execution,
+ * RequestHandler)}.
+ */
+public enum Execution {
+
+  /**
+   * On the event loop of the connection, as soon as the request headers are received. The lowest
+   * latency option, for handlers which never block: a blocking handler stalls every connection
+   * served by the same event loop.
+   */
+  EVENT_LOOP,
+
+  /**
+   * On the offload executor of the server, for handlers which block. The number of requests
+   * being offloaded at once is bounded: past the bound requests are answered with a 503.
+   */
+  OFFLOADED
+}
@@ -0,0 +1,214 @@
+package rxh2.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+
+/**
+ * A response body read from a file, see {@link Response#body(org.reactivestreams.Publisher)}.
+ *
+ * The file is memory-mapped in regions and every emitted buffer is a slice of a region, so the
+ * bytes go from the page cache to the socket, or to the TLS engine, without passing through the
+ * Java heap. Small files, and files which can't be mapped, are read into direct buffers
+ * instead, as mapping costs more than reading a few pages. The JDK offers no safe way to unmap a
+ * region whose slices may still be queued for writing, so regions are unmapped by the garbage
+ * collector once unreachable.
+ *
+ * Like any body publisher, the file is read only as fast as the flow control windows of the peer
+ * allow. Every subscription opens the file again.
+ */
+public class FileBody extends Flux<ByteBuf> {
+
+  // Mapping in regions bounds the address space held by slow peers
+  private static final int REGION_SIZE = 8 * 1024 * 1024;
+  private static final int CHUNK_SIZE = 64 * 1024;
+  // Files up to this size are read rather than mapped
+  private static final int MIN_MAPPED_SIZE = 256 * 1024;
+
+  private final Path path;
+  private final long position;
+  private final long count;
+  private final ByteBufAllocator alloc;
+
+  /**
+   * @param path the file, which is sent entirely
+   */
+  public FileBody(Path path) {
+    this(path, 0, -1);
+  }
+
+  /**
+   * @param path the file
+   * @param position the offset of the first byte to send
+   * @param count the number of bytes to send, -1 to send until the end of the file
+   */
+  public FileBody(Path path, long position, long count) {
+    this(path, position, count, PooledByteBufAllocator.DEFAULT);
+  }
+
+  /**
+   * @param path the file
+   * @param position the offset of the first byte to send
+   * @param count the number of bytes to send, -1 to send until the end of the file
+   * @param alloc the allocator of the buffers the file is read into when not mapped, usually
+   * {@link Request#alloc()}
+   */
+  public FileBody(Path path, long position, long count, ByteBufAllocator alloc) {
+    this.path = path;
+    this.position = position;
+    this.count = count;
+    this.alloc = alloc;
+  }
+
+  @Override
+  public void subscribe(CoreSubscriber<? super ByteBuf> actual) {
+    final FileChannel channel;
+    final long end;
+    try {
+      channel = FileChannel.open(path, StandardOpenOption.READ);
+      end = count < 0 ? channel.size() : Math.min(channel.size(), position + count);
+    } catch (IOException e) {
+      Operators.error(actual, e);
+      return;
+    }
+    actual.onSubscribe(new FileSubscription(actual, channel, position, end,
+        end - position >= MIN_MAPPED_SIZE, alloc));
+  }
+
+  private static class FileSubscription implements Subscription {
+
+    private final CoreSubscriber<? super ByteBuf> actual;
+    private final FileChannel channel;
+    private final long end;
+    private final ByteBufAllocator alloc;
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean cancelled;
+
+    // Confined to the draining thread
+    private long position;
+    private boolean mapped;
+    private ByteBuf region;
+
+    FileSubscription(CoreSubscriber<? super ByteBuf> actual, FileChannel channel, long position,
+        long end, boolean mapped, ByteBufAllocator alloc) {
+      this.actual = actual;
+      this.channel = channel;
+      this.position = position;
+      this.end = end;
+      this.mapped = mapped;
+      this.alloc = alloc;
+    }
+
+    @Override
+    public void request(long n) {
+      if (Operators.validate(n)) {
+        requested.getAndUpdate(r -> Operators.addCap(r, n));
+        drain();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      drain();
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        // The thread draining will loop again
+        return;
+      }
+      int missed = 1;
+      do {
+        final long r = requested.get();
+        long emitted = 0;
+        while (!cancelled && position < end && emitted != r) {
+          final ByteBuf chunk;
+          try {
+            chunk = nextChunk();
+          } catch (IOException e) {
+            close();
+            actual.onError(e);
+            return;
+          }
+          actual.onNext(chunk);
+          emitted++;
+        }
+        if (cancelled) {
+          close();
+          return;
+        }
+        if (position >= end) {
+          close();
+          actual.onComplete();
+          return;
+        }
+        requested.addAndGet(-emitted);
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private ByteBuf nextChunk() throws IOException {
+      if (mapped && (region == null || !region.isReadable())) {
+        releaseRegion();
+        final int size = (int) Math.min(REGION_SIZE, end - position);
+        try {
+          region = Unpooled.wrappedBuffer(channel.map(MapMode.READ_ONLY, position, size));
+        } catch (IOException | UnsupportedOperationException e) {
+          // E.g. special files or exhausted address space, fall back to reading
+          mapped = false;
+        }
+      }
+
+      final int length = (int) Math.min(CHUNK_SIZE, end - position);
+      final ByteBuf chunk;
+      if (mapped) {
+        chunk = region.readRetainedSlice(length);
+      } else {
+        chunk = alloc.directBuffer(length, length);
+        try {
+          while (chunk.isWritable()) {
+            if (chunk.writeBytes(channel, position + chunk.writerIndex(), chunk.writableBytes())
+                < 0) {
+              throw new IOException("The file was truncated while being sent");
+            }
+          }
+        } catch (IOException e) {
+          chunk.release();
+          throw e;
+        }
+      }
+      position += length;
+      return chunk;
+    }
+
+    private void releaseRegion() {
+      if (region != null) {
+        region.release();
+        region = null;
+      }
+    }
+
+    private void close() {
+      releaseRegion();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Nothing was written to it
+      }
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package rxh2.server;
+
+/**
+ * Receives the metrics of a server periodically, to push them to a monitoring system. See
+ * {@link Server#metricsExporter(MetricsExporter, java.time.Duration)}. Pull based systems can
+ * call {@link ServerHandle#metrics()} instead.
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+
+  /**
+   * Called on a server thread, so it must not block for long.
+   */
+  void export(ServerMetrics metrics);
+}
@@ -0,0 +1,98 @@
+package rxh2.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import reactor.core.publisher.Flux;
+import rxh2.h2.Headers;
+import rxh2.h2.hpack.HeaderNames;
+import rxh2.server.h2.Http2Stream;
+
+/**
+ * A request received by the server. It can be used from any thread.
+ */
+public class Request {
+
+  private final Http2Stream stream;
+  private final AtomicBoolean bodyTaken = new AtomicBoolean();
+
+  public Request(Http2Stream stream) {
+    this.stream = stream;
+  }
+
+  public CharSequence method() {
+    return stream.headers().get(HeaderNames.METHOD);
+  }
+
+  /**
+   * @return the path, query included
+   */
+  public CharSequence path() {
+    return stream.headers().get(HeaderNames.PATH);
+  }
+
+  public CharSequence authority() {
+    return stream.headers().get(HeaderNames.AUTHORITY);
+  }
+
+  public CharSequence scheme() {
+    return stream.headers().get(HeaderNames.SCHEME);
+  }
+
+  /**
+   * @return the request headers, pseudo-headers included
+   */
+  public Headers headers() {
+    return stream.headers();
+  }
+
+  /**
+   * @return the trailers, or null if none were received (yet)
+   */
+  public Headers trailers() {
+    return stream.trailers();
+  }
+
+  /**
+   * @return the body, which can be subscribed only once. Every emitted buffer must be released
+   * by the subscriber. The body of a request the handler doesn't read is discarded once the
+   * response is sent.
+   */
+  public Flux<ByteBuf> body() {
+    bodyTaken.set(true);
+    return stream.body();
+  }
+
+  /**
+   * @return the allocator of the connection, which response bodies should be allocated from
+   */
+  public ByteBufAllocator alloc() {
+    return stream.alloc();
+  }
+
+  /**
+   * @return the round trip time of the connection, measured by the last keepalive PING the
+   * client acknowledged, or null if keepalive is disabled or no PING was acknowledged yet. See
+   * {@link Server#keepAlive(Duration, Duration)}.
+   */
+  public Duration rtt() {
+    final long rttNanos = stream.connectionRttNanos();
+    return rttNanos < 0 ? null : Duration.ofNanos(rttNanos);
+  }
+
+  public Http2Stream stream() {
+    return stream;
+  }
+
+  /**
+   * Releases the body as it arrives, unless it was taken already. The server calls it once the
+   * response is sent, so that a peer still sending isn't kept waiting for window updates.
+   */
+  public void discardBody() {
+    if (bodyTaken.compareAndSet(false, true)) {
+      stream.body().subscribe(ReferenceCountUtil::release);
+    }
+  }
+}
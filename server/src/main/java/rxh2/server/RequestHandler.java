@@ -0,0 +1,17 @@
+package rxh2.server;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * The application logic of a server: turns a request into a response.
+ */
+@FunctionalInterface
+public interface RequestHandler {
+
+  /**
+   * @param request the request, whose body may still be arriving
+   * @return the response, which may be completed on any thread. An empty Mono answers with a 404
+   * and an error with a 500.
+   */
+  Mono<Response> handle(Request request);
+}
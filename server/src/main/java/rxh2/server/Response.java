@@ -0,0 +1,82 @@
+package rxh2.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.reactivestreams.Publisher;
+import rxh2.h2.Headers;
+import rxh2.h2.hpack.HeaderNames;
+
+/**
+ * A response to a {@link Request}. This class is not thread safe.
+ */
+public class Response {
+
+  private final Headers headers = new Headers();
+  private ByteBuf body;
+  private Publisher<? extends ByteBuf> bodyPublisher;
+
+  private Response(int status) {
+    // The text of the known statuses is cached
+    headers.add(HeaderNames.STATUS, HttpResponseStatus.valueOf(status).codeAsText());
+  }
+
+  public static Response status(int status) {
+    return new Response(status);
+  }
+
+  public static Response ok() {
+    return new Response(200);
+  }
+
+  public Response header(CharSequence name, CharSequence value) {
+    headers.add(name, value);
+    return this;
+  }
+
+  /**
+   * Sets the body, whose ownership is transferred to the response.
+   */
+  public Response body(ByteBuf body) {
+    if (this.body != null) {
+      this.body.release();
+    }
+    this.body = body;
+    this.bodyPublisher = null;
+    return this;
+  }
+
+  /**
+   * Streams the body from a publisher: its buffers are requested only as fast as the peer
+   * accepts them, so bodies of any size are sent in constant memory. Ownership of every emitted
+   * buffer is transferred to the response. If the publisher fails, the stream is reset.
+   */
+  public Response body(Publisher<? extends ByteBuf> body) {
+    if (this.body != null) {
+      this.body.release();
+      this.body = null;
+    }
+    this.bodyPublisher = body;
+    return this;
+  }
+
+  /**
+   * @return the headers, :status included
+   */
+  public Headers headers() {
+    return headers;
+  }
+
+  /**
+   * @return the body, or null if the response has none or streams it
+   */
+  public ByteBuf body() {
+    return body;
+  }
+
+  /**
+   * @return the streamed body, or null if the response doesn't stream it
+   */
+  public Publisher<? extends ByteBuf> bodyPublisher() {
+    return bodyPublisher;
+  }
+}
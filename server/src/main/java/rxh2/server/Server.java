@@ -1,17 +1,78 @@
 package rxh2.server;
 
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelHandler;
+import io.netty.handler.ssl.SslContext;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import rxh2.server.impl.ServerImpl;
+import rxh2.server.impl.ServerImpl.Http2Config;
+import rxh2.server.impl.ServerImpl.KeepAliveConfig;
+import rxh2.server.impl.ServerImpl.ResponseCacheConfig;
+import rxh2.server.impl.ServerImpl.RouteConfig;
+import rxh2.server.impl.ServerImpl.SslConfig;
+import rxh2.server.impl.ServerImpl.TransportConfig;
 
 /**
  * Builder for the server. This class is not thread safe.
  */
 public class Server {
 
+  // The page size of the pooled allocators
+  private static final int PAGE_SIZE = 8192;
+
   private int port = 0;
   private Runnable shutdownCallback;
   private ChannelHandler serverChannelHandler;
   private boolean secure;
+  private SslContext sslContext;
+  private File keyCertChainFile;
+  private File keyFile;
+  private String keyPassword;
+  private long sslSessionCacheSize = 0;
+  private long sslSessionTimeout = 0;
+  private byte[][] sslSessionTicketKeys;
+  private Transport transport = Transport.NIO;
+  private int backlog = 100;
+  private int acceptors = 1;
+  private boolean tcpNoDelay = true;
+  private int tcpFastOpenQueueLength = 0;
+  private boolean edgeTriggered = true;
+  private final Map<InetAddress, Integer> pinnedHosts = new HashMap<>();
+  private int outboundWindow = 16;
+  private MetricsExporter metricsExporter;
+  private Duration metricsExportInterval;
+  private final List<RouteConfig> routes = new ArrayList<>();
+  private Executor offloadExecutor;
+  private int maxOffloadedRequests = 1024;
+  private Duration shutdownTimeout = Duration.ofSeconds(30);
+  private long headerTableSize = Http2Config.DEFAULT_HEADER_TABLE_SIZE;
+  private int maxConcurrentStreams = Http2Config.DEFAULT_MAX_CONCURRENT_STREAMS;
+  private int initialWindowSize = Http2Config.DEFAULT_INITIAL_WINDOW_SIZE;
+  private int maxFrameSize = Http2Config.DEFAULT_MAX_FRAME_SIZE;
+  private long maxHeaderListSize = Http2Config.DEFAULT_MAX_HEADER_LIST_SIZE;
+  private int maxHeaderBlockSize = Http2Config.DEFAULT_MAX_HEADER_BLOCK_SIZE;
+  private int maxBufferedBytes = Http2Config.DEFAULT_MAX_BUFFERED_BYTES;
+  private int resetsPerSecond = Http2Config.DEFAULT_RESETS_PER_SECOND;
+  private int resetBurst = Http2Config.DEFAULT_RESET_BURST;
+  private int controlFramesPerSecond = Http2Config.DEFAULT_CONTROL_FRAMES_PER_SECOND;
+  private int controlFrameBurst = Http2Config.DEFAULT_CONTROL_FRAME_BURST;
+  private int emptyFramesPerSecond = Http2Config.DEFAULT_EMPTY_FRAMES_PER_SECOND;
+  private int emptyFrameBurst = Http2Config.DEFAULT_EMPTY_FRAME_BURST;
+  private ByteBufAllocator allocator;
+  private boolean leakTracking;
+  private Duration keepAliveInterval;
+  private Duration keepAliveTimeout;
+  private Duration idleTimeout;
+  private ResponseCacheConfig responseCacheConfig;
 
   private Server() {
   }
@@ -44,11 +105,522 @@ public class Server {
     return this;
   }
 
+  /**
+   * Serves cleartext HTTP/2 with prior knowledge (h2c, RFC 7540 section 3.4), which is the
+   * default: for internal hops where TLS is terminated by a proxy or sidecar. Connections must
+   * start with the HTTP/2 preface, clients speaking anything else (HTTP/1.1 Upgrade included) get
+   * a GOAWAY and are disconnected as soon as their first bytes don't match. Undoes
+   * {@link #secure()}.
+   */
+  public Server h2c() {
+    this.secure = false;
+    this.sslContext = null;
+    this.keyCertChainFile = null;
+    this.keyFile = null;
+    this.keyPassword = null;
+    return this;
+  }
+
+  /**
+   * Enables TLS with a self signed certificate generated once when the server binds. Only useful
+   * for testing.
+   */
   public Server secure() {
     this.secure = true;
     return this;
   }
 
+  /**
+   * Enables TLS using the given PEM encoded files. The files are read again when calling
+   * {@link ServerHandle#reloadSslContext()}.
+   *
+   * @param keyCertChainFile an X.509 certificate chain file in PEM format
+   * @param keyFile a PKCS#8 private key file in PEM format
+   * @param keyPassword the password of the keyFile, or null if it's not password-protected
+   */
+  public Server secure(File keyCertChainFile, File keyFile, String keyPassword) {
+    this.secure = true;
+    this.keyCertChainFile = keyCertChainFile;
+    this.keyFile = keyFile;
+    this.keyPassword = keyPassword;
+    return this;
+  }
+
+  /**
+   * Enables TLS using a prebuilt context which is shared by all the connections. The context must
+   * be configured for ALPN negotiating HTTP/2.
+   *
+   * @param sslContext a server side SslContext
+   */
+  public Server secure(SslContext sslContext) {
+    this.secure = true;
+    this.sslContext = sslContext;
+    return this;
+  }
+
+  /**
+   * Sets the size of the cache used for storing TLS session objects. Ignored with a prebuilt
+   * context.
+   *
+   * @param sessionCacheSize the number of sessions to cache, 0 to use the provider default
+   */
+  public Server sslSessionCacheSize(long sessionCacheSize) {
+    this.sslSessionCacheSize = sessionCacheSize;
+    return this;
+  }
+
+  /**
+   * Sets the timeout for the cached TLS session objects. Ignored with a prebuilt context.
+   *
+   * @param sessionTimeoutSeconds the timeout in seconds, 0 to use the provider default
+   */
+  public Server sslSessionTimeout(long sessionTimeoutSeconds) {
+    this.sslSessionTimeout = sessionTimeoutSeconds;
+    return this;
+  }
+
+  /**
+   * Sets the keys used to encrypt TLS session tickets so that sessions can be resumed across
+   * reloads and across servers sharing the same keys. Only supported by the OpenSSL provider,
+   * which is used when netty-tcnative is in the classpath. Ignored with a prebuilt context.
+   *
+   * @param ticketKeys keys of 48 bytes each: 16 bytes of name, 16 of HMAC key and 16 of AES key.
+   * The first one is used to encrypt new tickets.
+   */
+  public Server sslSessionTicketKeys(byte[]... ticketKeys) {
+    for (byte[] key : ticketKeys) {
+      if (key.length != 48) {
+        throw new IllegalArgumentException("Session ticket keys must be 48 bytes long");
+      }
+    }
+    this.sslSessionTicketKeys = ticketKeys;
+    return this;
+  }
+
+  /**
+   * Selects the transport used for network I/O. Defaults to {@link Transport#NIO}.
+   *
+   * @param transport the transport. {@link Transport#EPOLL} falls back to NIO when the native
+   * transport is not available.
+   */
+  public Server transport(Transport transport) {
+    this.transport = transport;
+    return this;
+  }
+
+  /**
+   * Sets the SO_BACKLOG of the server sockets. Defaults to 100.
+   *
+   * @param backlog the maximum queue length for incoming connections
+   */
+  public Server backlog(int backlog) {
+    this.backlog = backlog;
+    return this;
+  }
+
+  /**
+   * Binds the port with multiple server sockets using SO_REUSEPORT, each served by its own boss
+   * thread, so that the kernel spreads the accepts across cores. Only supported by the epoll
+   * transport. Defaults to 1.
+   *
+   * @param acceptors the number of server sockets to bind
+   */
+  public Server acceptors(int acceptors) {
+    if (acceptors < 1) {
+      throw new IllegalArgumentException("At least one acceptor is needed");
+    }
+    this.acceptors = acceptors;
+    return this;
+  }
+
+  /**
+   * Sets TCP_NODELAY on the accepted connections. Defaults to true.
+   */
+  public Server tcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+    return this;
+  }
+
+  /**
+   * Enables TCP_FASTOPEN on the server sockets. Only supported by the epoll transport.
+   *
+   * @param queueLength the maximum number of pending fast open requests, 0 to disable
+   */
+  public Server tcpFastOpen(int queueLength) {
+    this.tcpFastOpenQueueLength = queueLength;
+    return this;
+  }
+
+  /**
+   * Selects between edge-triggered (the default) and level-triggered mode. Only supported by the
+   * epoll transport.
+   */
+  public Server edgeTriggered(boolean edgeTriggered) {
+    this.edgeTriggered = edgeTriggered;
+    return this;
+  }
+
+  /**
+   * Places the connections from some hosts on a given worker event loop, e.g. to keep the
+   * traffic of a heavy client from slowing down the others. The other connections go to the loop
+   * with the fewest active streams and pending outbound bytes, pinned loops included, see
+   * {@link ServerHandle#eventLoopLoads()}.
+   *
+   * @param loop the index of the worker loop, below the number of worker threads
+   * @param hosts names or addresses of the hosts, resolved now
+   */
+  public Server pinHosts(int loop, String... hosts) {
+    if (loop < 0) {
+      throw new IllegalArgumentException("The loop index can't be negative");
+    }
+    for (String host : hosts) {
+      try {
+        for (InetAddress address : InetAddress.getAllByName(host)) {
+          pinnedHosts.put(address, loop);
+        }
+      } catch (UnknownHostException e) {
+        throw new IllegalArgumentException("Unknown host " + host, e);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Sets how many outbound buffers are requested at once from the connection processor. The
+   * buffers of a batch are written together and flushed once. Defaults to 16.
+   *
+   * @param outboundWindow the maximum number of requested buffers per connection
+   */
+  public Server outboundWindow(int outboundWindow) {
+    if (outboundWindow < 1) {
+      throw new IllegalArgumentException("The outbound window must be positive");
+    }
+    this.outboundWindow = outboundWindow;
+    return this;
+  }
+
+  /**
+   * Pushes the metrics of the server to an exporter periodically. The metrics are always
+   * available through {@link ServerHandle#metrics()}.
+   *
+   * @param exporter the exporter, called on a server thread
+   * @param interval the time between two exports
+   */
+  public Server metricsExporter(MetricsExporter exporter, Duration interval) {
+    if (interval.isNegative() || interval.isZero()) {
+      throw new IllegalArgumentException("The export interval must be positive");
+    }
+    this.metricsExporter = exporter;
+    this.metricsExportInterval = interval;
+    return this;
+  }
+
+  /**
+   * Handles all the requests on the event loops, see {@link Execution#EVENT_LOOP}. Requests no
+   * handler is installed for are answered with a 404.
+   *
+   * @param handler a handler which never blocks
+   */
+  public Server handler(RequestHandler handler) {
+    return handler("*", Execution.EVENT_LOOP, handler);
+  }
+
+  /**
+   * Handles the requests matching a path on the event loops, see {@link Execution#EVENT_LOOP}.
+   *
+   * @param path an exact path, or a prefix followed by "*". The query is not matched.
+   * @param handler a handler which never blocks
+   */
+  public Server handler(String path, RequestHandler handler) {
+    return handler(path, Execution.EVENT_LOOP, handler);
+  }
+
+  /**
+   * Handles the requests matching a path. The paths are matched in the order the handlers are
+   * installed.
+   *
+   * @param path an exact path, or a prefix followed by "*". The query is not matched.
+   * @param execution where the handler is invoked
+   * @param handler the handler
+   */
+  public Server handler(String path, Execution execution, RequestHandler handler) {
+    routes.add(new RouteConfig(path, execution, handler));
+    return this;
+  }
+
+  /**
+   * Sets the executor of the {@link Execution#OFFLOADED} handlers. Defaults to a fixed pool of 64
+   * threads owned by the server. On Java 21 and later
+   * {@code Executors.newVirtualThreadPerTaskExecutor()} runs every offloaded request on its own
+   * virtual thread.
+   *
+   * @param executor the executor, which is not shut down with the server
+   * @param maxOffloadedRequests how many offloaded requests can be in progress at once, the
+   * requests past this bound are answered with a 503. Defaults to 1024.
+   */
+  public Server offloadExecutor(Executor executor, int maxOffloadedRequests) {
+    if (maxOffloadedRequests < 1) {
+      throw new IllegalArgumentException("At least one offloaded request must be allowed");
+    }
+    this.offloadExecutor = executor;
+    this.maxOffloadedRequests = maxOffloadedRequests;
+    return this;
+  }
+
+  /**
+   * Sets SETTINGS_MAX_CONCURRENT_STREAMS: the streams a client can have open at once on a
+   * connection. The streams past it are refused with REFUSED_STREAM, which clients can retry.
+   * Defaults to 256.
+   */
+  public Server maxConcurrentStreams(int maxConcurrentStreams) {
+    if (maxConcurrentStreams < 1) {
+      throw new IllegalArgumentException("At least one concurrent stream must be allowed");
+    }
+    this.maxConcurrentStreams = maxConcurrentStreams;
+    return this;
+  }
+
+  /**
+   * Sets SETTINGS_INITIAL_WINDOW_SIZE: how many bytes of request body a client can send on a
+   * stream before the server consumes them. A larger window lets uploads over high latency links
+   * fill the bandwidth, at the cost of more memory per stream. The connection window is enlarged
+   * to the same size. Defaults to 65535, the protocol default.
+   */
+  public Server initialWindowSize(int initialWindowSize) {
+    if (initialWindowSize < 0) {
+      throw new IllegalArgumentException("The initial window size can't be negative");
+    }
+    this.initialWindowSize = initialWindowSize;
+    return this;
+  }
+
+  /**
+   * Sets SETTINGS_MAX_FRAME_SIZE: the largest frame payload accepted from the clients, between
+   * 16384 (the protocol default, which is the default) and 16777215. Larger frames are
+   * connection errors.
+   */
+  public Server maxFrameSize(int maxFrameSize) {
+    if (maxFrameSize < 16384 || maxFrameSize > 0xFFFFFF) {
+      throw new IllegalArgumentException("The max frame size must be between 16384 and 16777215");
+    }
+    this.maxFrameSize = maxFrameSize;
+    return this;
+  }
+
+  /**
+   * Sets SETTINGS_HEADER_TABLE_SIZE: the size of the HPACK dynamic table the clients can use to
+   * compress the request headers, kept in memory for every connection. Defaults to 4096, the
+   * protocol default.
+   */
+  public Server headerTableSize(long headerTableSize) {
+    if (headerTableSize < 0 || headerTableSize > 0xFFFFFFFFL) {
+      throw new IllegalArgumentException("The header table size must fit in 32 bits");
+    }
+    this.headerTableSize = headerTableSize;
+    return this;
+  }
+
+  /**
+   * Sets SETTINGS_MAX_HEADER_LIST_SIZE: the largest uncompressed header list accepted, counting
+   * 32 bytes of overhead per header as HPACK does. The requests past it are answered with a 431.
+   * Defaults to 8192.
+   */
+  public Server maxHeaderListSize(long maxHeaderListSize) {
+    if (maxHeaderListSize < 1 || maxHeaderListSize > 0xFFFFFFFFL) {
+      throw new IllegalArgumentException("The max header list size must be positive and fit in "
+          + "32 bits");
+    }
+    this.maxHeaderListSize = maxHeaderListSize;
+    return this;
+  }
+
+  /**
+   * Bounds the compressed size of a header block, which clients can otherwise split across an
+   * unlimited number of CONTINUATION frames held in memory until the last one. Clients exceeding
+   * it get a GOAWAY with ENHANCE_YOUR_CALM. Defaults to 65536.
+   */
+  public Server maxHeaderBlockSize(int maxHeaderBlockSize) {
+    if (maxHeaderBlockSize < 1) {
+      throw new IllegalArgumentException("The max header block size must be positive");
+    }
+    this.maxHeaderBlockSize = maxHeaderBlockSize;
+    return this;
+  }
+
+  /**
+   * Bounds the inbound bytes held per connection: the frame being received, the header block
+   * being assembled and the request bodies not yet consumed by the handlers. Past it the
+   * connection is no longer read until the handlers consume some body, so that a client can't
+   * make the server buffer up to the flow control windows of all its streams. It's raised to the
+   * max frame size plus the max header block size if lower. Defaults to 1 MiB, well above the
+   * protocol default windows.
+   */
+  public Server maxBufferedBytes(int maxBufferedBytes) {
+    if (maxBufferedBytes < 1) {
+      throw new IllegalArgumentException("The max buffered bytes must be positive");
+    }
+    this.maxBufferedBytes = maxBufferedBytes;
+    return this;
+  }
+
+  /**
+   * Limits the rate of the streams a client resets, makes the server reset with invalid frames,
+   * or opens past {@link #maxConcurrentStreams(int)}. Each is cheap for the client and costs the
+   * server a request, so a client doing it in a loop ("rapid reset") could monopolize an event
+   * loop. Clients exceeding it get a GOAWAY with ENHANCE_YOUR_CALM. Defaults to 100 per second
+   * with bursts of 500.
+   *
+   * @param perSecond the sustained rate
+   * @param burst how many can be sent at once
+   */
+  public Server resetRateLimit(int perSecond, int burst) {
+    requireRateLimit(perSecond, burst);
+    this.resetsPerSecond = perSecond;
+    this.resetBurst = burst;
+    return this;
+  }
+
+  /**
+   * Limits the rate of the PING, SETTINGS, PRIORITY and PRIORITY_UPDATE frames, which the server
+   * answers or processes on the event loop. Acknowledgements are not counted. Clients exceeding
+   * it get a GOAWAY with ENHANCE_YOUR_CALM. Defaults to 100 per second with bursts of 500.
+   *
+   * @param perSecond the sustained rate
+   * @param burst how many can be sent at once
+   */
+  public Server controlFrameRateLimit(int perSecond, int burst) {
+    requireRateLimit(perSecond, burst);
+    this.controlFramesPerSecond = perSecond;
+    this.controlFrameBurst = burst;
+    return this;
+  }
+
+  /**
+   * Limits the rate of the DATA, HEADERS and CONTINUATION frames which have neither payload nor
+   * END_STREAM / END_HEADERS flag, and thus do nothing but cost a wakeup. Clients exceeding it
+   * get a GOAWAY with ENHANCE_YOUR_CALM. Defaults to 100 per second with bursts of 100.
+   *
+   * @param perSecond the sustained rate
+   * @param burst how many can be sent at once
+   */
+  public Server emptyFrameRateLimit(int perSecond, int burst) {
+    requireRateLimit(perSecond, burst);
+    this.emptyFramesPerSecond = perSecond;
+    this.emptyFrameBurst = burst;
+    return this;
+  }
+
+  private static void requireRateLimit(int perSecond, int burst) {
+    if (perSecond < 1 || burst < 1) {
+      throw new IllegalArgumentException("The rate and the burst must be positive");
+    }
+  }
+
+  /**
+   * Sets the allocator of the buffers of the connections: the buffers read from the sockets, the
+   * frames decoded from them and the frames written. Defaults to
+   * {@link PooledByteBufAllocator#DEFAULT}, which pools direct buffers in per-thread arenas and
+   * is shared with the rest of the process.
+   */
+  public Server allocator(ByteBufAllocator allocator) {
+    this.allocator = allocator;
+    return this;
+  }
+
+  /**
+   * Allocates the buffers of the connections from a pool of direct buffers dedicated to the
+   * server, see {@link #allocator(ByteBufAllocator)}.
+   *
+   * @param arenas the number of arenas, which the threads are assigned to round robin. One per
+   * event loop thread avoids contention, fewer save memory.
+   * @param chunkSize the size of the memory chunks the arenas allocate from, a power of two
+   * between 8192 and 128 MiB. Buffers larger than a chunk are not pooled.
+   */
+  public Server pooledAllocator(int arenas, int chunkSize) {
+    if (arenas < 1) {
+      throw new IllegalArgumentException("At least one arena is needed");
+    }
+    if (chunkSize < PAGE_SIZE || chunkSize > PAGE_SIZE << 14 || Integer.bitCount(chunkSize) != 1) {
+      throw new IllegalArgumentException("The chunk size must be a power of two between 8192 and "
+          + "128 MiB");
+    }
+    // Chunks are made of 2^maxOrder pages
+    final int maxOrder = Integer.numberOfTrailingZeros(chunkSize / PAGE_SIZE);
+    this.allocator = new PooledByteBufAllocator(true, 0, arenas, PAGE_SIZE, maxOrder,
+        PooledByteBufAllocator.defaultTinyCacheSize(),
+        PooledByteBufAllocator.defaultSmallCacheSize(),
+        PooledByteBufAllocator.defaultNormalCacheSize(),
+        PooledByteBufAllocator.defaultUseCacheForAllThreads());
+    return this;
+  }
+
+  /**
+   * Records where every buffer of a connection is allocated, and logs the buffers still
+   * referenced once the connection is closed, counted in {@link ServerMetrics#getLeakedBuffers()}.
+   * The buffers are then not pooled and every allocation records a stack trace, so this is meant
+   * for debugging, e.g. handlers which don't release the request bodies. Disabled by default.
+   */
+  public Server leakTracking(boolean leakTracking) {
+    this.leakTracking = leakTracking;
+    return this;
+  }
+
+  /**
+   * Sends a PING on the connections nothing was read from for an interval, and closes the ones
+   * whose peer doesn't acknowledge it in time. Dead peers, e.g. mobile clients which lost
+   * coverage, are then noticed long before TCP gives up on them. The round trip times measured
+   * are available through {@link Request#rtt()}. Disabled by default.
+   *
+   * @param interval how long a connection is silent before it's sent a PING
+   * @param timeout how long the peer has to acknowledge the PING
+   */
+  public Server keepAlive(Duration interval, Duration timeout) {
+    if (interval.isNegative() || interval.isZero() || timeout.isNegative() || timeout.isZero()) {
+      throw new IllegalArgumentException("The keepalive interval and timeout must be positive");
+    }
+    this.keepAliveInterval = interval;
+    this.keepAliveTimeout = timeout;
+    return this;
+  }
+
+  /**
+   * Closes the connections which had no streams for a while, with a GOAWAY so that the clients
+   * open a new connection for their next requests. Disabled by default.
+   */
+  public Server idleTimeout(Duration timeout) {
+    if (timeout.isNegative() || timeout.isZero()) {
+      throw new IllegalArgumentException("The idle timeout must be positive");
+    }
+    this.idleTimeout = timeout;
+    return this;
+  }
+
+  /**
+   * Caches the responses to GET requests which allow it with a Cache-Control max-age or
+   * s-maxage, and answers the same requests from the cache until they expire, without invoking
+   * the handlers. The header blocks are encoded once and the bodies kept in direct memory.
+   * Meant for small responses identical for all the clients: Vary is honored, but the requests
+   * with an Authorization, the responses setting cookies and the bodies written from a publisher
+   * are never cached. The hits and misses are counted in {@link ServerMetrics}. Disabled by
+   * default.
+   *
+   * @param maxBytes the size of the cache, the least recently used paths are evicted beyond. The
+   * cache is split into segments, up to 16, each evicting from its own share of the size.
+   * @param maxEntrySize the largest response cached, header block and body included
+   * @param maxTtl how long a response is cached at most, whatever its freshness
+   */
+  public Server responseCache(long maxBytes, int maxEntrySize, Duration maxTtl) {
+    if (maxEntrySize < 1 || maxBytes < maxEntrySize) {
+      throw new IllegalArgumentException("The max entry size must be positive and the cache "
+          + "at least as large");
+    }
+    if (maxTtl.isNegative() || maxTtl.isZero()) {
+      throw new IllegalArgumentException("The max TTL must be positive");
+    }
+    this.responseCacheConfig = new ResponseCacheConfig(maxBytes, maxEntrySize, maxTtl);
+    return this;
+  }
+
   /**
    * Binds to the specified port and starts the event processing.
    *
@@ -60,10 +632,40 @@ public class Server {
             port,
             serverChannelHandler,
             shutdownCallback,
-            secure)
+            secure ? new SslConfig(sslContext, keyCertChainFile, keyFile, keyPassword,
+                sslSessionCacheSize, sslSessionTimeout, sslSessionTicketKeys) : null,
+            new TransportConfig(transport, backlog, acceptors, tcpNoDelay,
+                tcpFastOpenQueueLength, edgeTriggered, new HashMap<>(pinnedHosts)),
+            outboundWindow,
+            metricsExporter,
+            metricsExportInterval,
+            new ArrayList<>(routes),
+            offloadExecutor,
+            maxOffloadedRequests,
+            shutdownTimeout,
+            new Http2Config(headerTableSize, maxConcurrentStreams, initialWindowSize,
+                maxFrameSize, maxHeaderListSize, maxHeaderBlockSize, maxBufferedBytes,
+                resetsPerSecond, resetBurst, controlFramesPerSecond, controlFrameBurst,
+                emptyFramesPerSecond, emptyFrameBurst),
+            allocator,
+            leakTracking,
+            new KeepAliveConfig(keepAliveInterval, keepAliveTimeout, idleTimeout),
+            responseCacheConfig)
     ).bind();
   }
 
+  /**
+   * Sets how long the connections are given to finish their streams when the server is shut
+   * down, see {@link ServerHandle#shutdownGracefully()}. Defaults to 30 seconds.
+   */
+  public Server shutdownTimeout(Duration timeout) {
+    if (timeout.isNegative()) {
+      throw new IllegalArgumentException("The shutdown timeout can't be negative");
+    }
+    this.shutdownTimeout = timeout;
+    return this;
+  }
+
   /**
    * A callback which is called when the shutdown is requested on the ServerHandler. Please note
    * that the callback could run in a different thread than the thread which owns the ServerHandle
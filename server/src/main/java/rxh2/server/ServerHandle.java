@@ -1,6 +1,10 @@
 package rxh2.server;
 
+import io.netty.handler.ssl.SslContext;
+import java.security.cert.CertificateException;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import javax.net.ssl.SSLException;
 
 /**
  * Instances of the ServerHandle let you control the server after creation. Instances must be thread
@@ -9,8 +13,11 @@ import java.util.concurrent.ExecutionException;
 public interface ServerHandle {
 
   /**
-   * This method should tear down the activity on the server and block until the shutdownGracefully
-   * is completed.
+   * Shuts the server down without interrupting the requests in progress: no connection is
+   * accepted anymore and every connection gets a GOAWAY with the last stream it processed, so
+   * that clients send new requests elsewhere. Connections are closed as soon as their streams are
+   * done, or when the shutdown timeout expires, then the server threads stop. It doesn't block,
+   * use {@link #join()} to wait for the end of the shutdown.
    */
   void shutdownGracefully();
 
@@ -18,4 +25,32 @@ public interface ServerHandle {
    * Blocks until the server was shutdownGracefully and all resources freed up.
    */
   void join() throws ExecutionException, InterruptedException;
+
+  /**
+   * Reloads the key and certificate files the server was configured with. Connections accepted
+   * afterwards use the new certificates while established connections are not affected.
+   *
+   * @throws IllegalStateException if the server is not secure or was built with a prebuilt
+   * SslContext
+   */
+  void reloadSslContext() throws SSLException, CertificateException;
+
+  /**
+   * Replaces the SslContext used for newly accepted connections.
+   *
+   * @param sslContext a server SslContext configured for ALPN and HTTP/2
+   * @throws IllegalStateException if the server is not secure
+   */
+  void reloadSslContext(SslContext sslContext);
+
+  /**
+   * Takes a snapshot of the metrics of the server. Cheap enough to be scraped every few seconds.
+   */
+  ServerMetrics metrics();
+
+  /**
+   * Takes a snapshot of the load of each worker event loop, e.g. to check how evenly skewed
+   * traffic is spread across them. Empty if the server failed to bind.
+   */
+  List<EventLoopLoad> eventLoopLoads();
 }
@@ -0,0 +1,49 @@
+package rxh2.server;
+
+import java.util.Map;
+import lombok.Data;
+import rxh2.h2.frame.FrameHeader.Type;
+
+/**
+ * An immutable snapshot of the metrics of a server, see {@link ServerHandle#metrics()}. The
+ * counters are cumulative since the server was bound, the other values are gauges.
+ */
+@Data
+public class ServerMetrics {
+
+  private final long activeConnections;
+  private final long totalConnections;
+  private final long activeStreams;
+  private final long totalStreams;
+  // Frames received and sent by type. CONTINUATIONs are counted with their HEADERS when sent.
+  private final Map<Type, Long> framesIn;
+  private final Map<Type, Long> framesOut;
+  // Bytes read from and written to the connections, after TLS decryption and before encryption
+  private final long bytesIn;
+  private final long bytesOut;
+  private final long tlsHandshakes;
+  private final long tlsHandshakeFailures;
+  private final long tlsHandshakeMeanNanos;
+  private final long tlsHandshakeMaxNanos;
+  // Connections closed because the peer didn't respect the protocol
+  private final long decodeErrors;
+  private final long streamErrors;
+  // Connections closed with ENHANCE_YOUR_CALM for exceeding a budget, e.g. resetting streams
+  // faster than allowed
+  private final long floodsDetected;
+  // Frames waiting for the connections to be writable
+  private final long outboundQueueDepth;
+  // Buffers still referenced when their connection was closed, only counted with leak tracking
+  private final long leakedBuffers;
+  // Round trip times measured by the keepalive PINGs
+  private final long pingRttMeanNanos;
+  private final long pingRttMaxNanos;
+  // Connections closed for not acknowledging a keepalive PING, and for having no streams
+  private final long keepAliveTimeouts;
+  private final long idleTimeouts;
+  // GET requests answered from the response cache, and the ones which went to the handlers
+  private final long cacheHits;
+  private final long cacheMisses;
+  // Header blocks and bodies held by the response cache
+  private final long cachedBytes;
+}
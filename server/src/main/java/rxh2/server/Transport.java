@@ -0,0 +1,18 @@
+package rxh2.server;
+
+/**
+ * The Netty transport used by the server for network I/O.
+ */
+public enum Transport {
+
+  /**
+   * The portable Java NIO transport.
+   */
+  NIO,
+
+  /**
+   * The Linux native epoll transport. When the native library can't be loaded (e.g. on other
+   * operating systems) the server falls back to {@link #NIO}.
+   */
+  EPOLL
+}
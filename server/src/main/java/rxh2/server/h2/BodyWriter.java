@@ -0,0 +1,135 @@
+package rxh2.server.h2;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+
+/**
+ * Writes a publisher of buffers as the DATA frames of a stream, ending the stream when the
+ * publisher completes and resetting it when it fails.
+ *
+ * A buffer is requested only while less than {@link #HIGH_WATER_MARK} bytes of the stream wait
+ * to be sent, and the next one once the previous one was received. The publisher then produces
+ * only as fast as the flow control windows of the peer and the socket drain the stream, so a body
+ * of any size is written in bounded memory. The buffers are split into frames when sent, see
+ * {@link Http2Processor}. Signals coming from other threads are handed over to the event loop.
+ */
+class BodyWriter implements CoreSubscriber<ByteBuf> {
+
+  private static final InternalLogger logger = InternalLoggerFactory
+      .getInstance(BodyWriter.class);
+
+  // Four frames of the default size
+  static final int HIGH_WATER_MARK = 64 * 1024;
+
+  private final Http2Processor connection;
+  private final Http2Stream stream;
+  private final EventExecutor executor;
+
+  private Subscription subscription;
+  // True when a buffer was requested and not received yet
+  private boolean requested;
+  private boolean requesting;
+  private boolean done;
+
+  BodyWriter(Http2Processor connection, Http2Stream stream, EventExecutor executor) {
+    this.connection = connection;
+    this.stream = stream;
+    this.executor = executor;
+  }
+
+  @Override
+  public void onSubscribe(Subscription s) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> onSubscribe(s));
+      return;
+    }
+    if (done) {
+      s.cancel();
+      return;
+    }
+    subscription = s;
+    requestMore();
+  }
+
+  @Override
+  public void onNext(ByteBuf data) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> onNext(data));
+      return;
+    }
+    if (done) {
+      data.release();
+      return;
+    }
+    requested = false;
+    connection.writeData(stream, data, false);
+    requestMore();
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> onError(t));
+      return;
+    }
+    if (done) {
+      return;
+    }
+    done = true;
+    logger.warn("Body publisher of {} failed", stream, t);
+    connection.resetStream(stream, Http2Error.INTERNAL_ERROR);
+  }
+
+  @Override
+  public void onComplete() {
+    if (!executor.inEventLoop()) {
+      executor.execute(this::onComplete);
+      return;
+    }
+    if (done) {
+      return;
+    }
+    done = true;
+    connection.writeData(stream, Unpooled.EMPTY_BUFFER, true);
+  }
+
+  /**
+   * Requests the next buffer if the stream has room for it. Called when buffers of the stream are
+   * sent.
+   */
+  void requestMore() {
+    if (requesting) {
+      // Publishers emitting synchronously would recurse, the loop below takes over instead
+      return;
+    }
+    requesting = true;
+    try {
+      while (!done && subscription != null && !requested
+          && stream.pendingBytes < HIGH_WATER_MARK) {
+        requested = true;
+        subscription.request(1);
+      }
+    } finally {
+      requesting = false;
+    }
+  }
+
+  /**
+   * Stops writing, because the stream was closed.
+   */
+  void cancel() {
+    if (done) {
+      return;
+    }
+    done = true;
+    if (subscription != null) {
+      subscription.cancel();
+    }
+  }
+}
@@ -1,57 +1,1396 @@
 package rxh2.server.h2;
 
+import static io.netty.handler.codec.http2.Http2Error.COMPRESSION_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.ENHANCE_YOUR_CALM;
+import static io.netty.handler.codec.http2.Http2Error.FLOW_CONTROL_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.FRAME_SIZE_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.INTERNAL_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.NO_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.PROTOCOL_ERROR;
+import static io.netty.handler.codec.http2.Http2Error.REFUSED_STREAM;
+import static io.netty.handler.codec.http2.Http2Error.STREAM_CLOSED;
+import static io.netty.handler.codec.http2.Http2Exception.connectionError;
+import static io.netty.handler.codec.http2.Http2Exception.streamError;
+
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2Exception.StreamException;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import java.nio.channels.ClosedChannelException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import lombok.NonNull;
+import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 import reactor.core.publisher.Flux;
-import rxh2.server.h2.frame.FrameDecoderImpl;
+import reactor.core.publisher.Operators;
+import rxh2.h2.HeaderBlockAssembler;
+import rxh2.h2.Headers;
+import rxh2.h2.frame.Frame;
+import rxh2.h2.frame.FrameDecoderImpl;
+import rxh2.h2.frame.FrameHeader;
+import rxh2.h2.frame.FrameHeader.Flags;
+import rxh2.h2.frame.FrameHeader.Type;
+import rxh2.h2.frame.FrameWriter;
+import rxh2.h2.hpack.HeaderListSizeException;
+import rxh2.h2.hpack.HeaderNames;
+import rxh2.h2.hpack.HpackDecoder;
+import rxh2.h2.hpack.HpackEncoder;
+import rxh2.h2.hpack.HpackException;
 import rxh2.server.impl.ChannelProcessor;
+import rxh2.server.impl.LoopLoad;
+import rxh2.server.impl.MetricsRecorder;
 import rxh2.server.impl.OutboundByteBuf;
+import rxh2.server.impl.ServerImpl.Http2Config;
+import rxh2.server.impl.ServerImpl.KeepAliveConfig;
 
+/**
+ * The HTTP/2 connection engine. It decodes the inbound frames, dispatches them by stream ID to
+ * the {@link Http2Stream} state machines and hands the new streams to a {@link StreamHandler}.
+ * The frames written by the streams are emitted as {@link OutboundByteBuf}s honoring the demand
+ * of the subscriber.
+ *
+ * Streams are kept in a primitive int keyed open addressing map so that connections with
+ * thousands of concurrent streams don't box the IDs. All the state is confined to the event loop
+ * of the channel.
+ *
+ * Backpressure is propagated end to end. Inbound, the peer's DATA is bounded by the flow control
+ * windows, which are credited back only as the stream bodies are consumed, and the channel is no
+ * longer read while the outbound subscriber doesn't keep up with the frames to send. Outbound,
+ * DATA frames are produced only on demand of the subscriber and within the windows of the peer.
+ */
 public class Http2Processor extends ChannelProcessor {
 
+  private static final InternalLogger logger = InternalLoggerFactory
+      .getInstance(Http2Processor.class);
+
+  // Protocol defaults of SETTINGS_HEADER_TABLE_SIZE, SETTINGS_MAX_FRAME_SIZE and
+  // SETTINGS_INITIAL_WINDOW_SIZE
+  private static final long DEFAULT_HEADER_TABLE_SIZE = 4096;
+  private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+  private static final int MAX_ALLOWED_FRAME_SIZE = 0xFFFFFF;
+  private static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+  private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+  private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  private static final int SETTINGS_ENABLE_PUSH = 0x2;
+  private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+  private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+  // Reads requested at a time from the channel
+  private static final int INBOUND_BATCH = 16;
+  // Frames waiting for the outbound subscriber above which the channel is no longer read
+  private static final int MAX_QUEUED_OUTBOUND = 32;
+  // Streams we reset whose frames still in flight are ignored
+  private static final int RECENTLY_RESET_STREAMS = 128;
+
   private Subscriber<? super OutboundByteBuf> subscriber;
 
   // Factory method to do dependency injection
   public static Http2Processor createFor(Channel channel) {
-    return new Http2Processor(channel, new FrameDecoderImpl());
+    return createFor(channel, StreamHandler.notFound());
+  }
+
+  public static Http2Processor createFor(Channel channel, StreamHandler streamHandler) {
+    return createFor(channel, streamHandler, new MetricsRecorder());
+  }
+
+  public static Http2Processor createFor(Channel channel, StreamHandler streamHandler,
+      MetricsRecorder metrics) {
+    return createFor(channel, streamHandler, metrics, Http2Config.DEFAULT);
+  }
+
+  public static Http2Processor createFor(Channel channel, StreamHandler streamHandler,
+      MetricsRecorder metrics, Http2Config config) {
+    return createFor(channel, streamHandler, metrics, config, null, null);
+  }
+
+  public static Http2Processor createFor(Channel channel, StreamHandler streamHandler,
+      MetricsRecorder metrics, Http2Config config, Timer keepAliveTimer,
+      KeepAliveConfig keepAlive) {
+    return createFor(channel, streamHandler, metrics, config, keepAliveTimer, keepAlive,
+        new LoopLoad());
+  }
+
+  /**
+   * @param keepAliveTimer the timer of the keepalive checks, null to disable them
+   * @param loopLoad the load of the event loop of the channel, which its streams are counted in
+   */
+  public static Http2Processor createFor(Channel channel, StreamHandler streamHandler,
+      MetricsRecorder metrics, Http2Config config, Timer keepAliveTimer,
+      KeepAliveConfig keepAlive, LoopLoad loopLoad) {
+    return new Http2Processor(channel, new FrameDecoderImpl(channel.alloc(),
+        config.getMaxFrameSize()), streamHandler,
+        metrics, config, keepAliveTimer, keepAlive, loopLoad);
   }
 
   final FrameDecoderImpl frameDecoder;
+  private final StreamHandler streamHandler;
+  private final Http2Config config;
+  // Budgets of the frames which cost us work but don't carry requests
+  private final TokenBucket resetBudget;
+  private final TokenBucket controlFrameBudget;
+  private final TokenBucket emptyFrameBudget;
+  private final MetricsRecorder metrics;
+  private final LoopLoad loopLoad;
+  private final ByteBufAllocator alloc;
+  private final EventExecutor executor;
+  private final HeaderBlockAssembler headerBlockAssembler;
+  private final HpackDecoder hpackDecoder;
+  private final HpackEncoder hpackEncoder;
+  private final IntObjectMap<Http2Stream> streams = new IntObjectHashMap<>();
+  // Control and HEADERS frames, sent ahead of the DATA of the streams
+  private final ArrayDeque<OutboundByteBuf> outboundQueue = new ArrayDeque<>();
+  // Streams with pending writes
+  private final StreamScheduler scheduler = new StreamScheduler();
+
+  private Subscription inbound;
+  private long inboundOutstanding;
+  private long outboundDemand;
+  private boolean drainingOutbound;
+  private int lastStreamId;
+  private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+  private int peerInitialWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+  // The protocol default or the configured one, whichever is larger, until our SETTINGS are
+  // acknowledged: the peer may send with either until then
+  private int localInitialWindowSize;
+  private boolean settingsAcked;
+  private int connectionSendWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+  private final int connectionWindowSize;
+  private int connectionRecvWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+  private int connectionConsumedBytes;
+  // The IDs of the last streams we reset, in a ring. 0 is never a stream ID.
+  private final int[] recentlyReset = new int[RECENTLY_RESET_STREAMS];
+  private int nextReset;
+  // DATA received and not yet delivered to the body subscribers
+  private long undeliveredBytes;
+  // Inbound bytes held above which the channel is no longer read
+  private final long maxBufferedBytes;
+  private boolean goAwayReceived;
+  // Streams above the last stream ID of our GOAWAY are refused
+  private boolean goAwaySent;
+  private int goAwayLastStreamId;
+  // Close once the frames queued so far are written
+  private boolean closeWhenFlushed;
+  private boolean closing;
+
+  // Keepalive, the durations are 0 when disabled
+  private final Timer keepAliveTimer;
+  private final long pingIntervalNanos;
+  private final long pingTimeoutNanos;
+  private final long idleTimeoutNanos;
+  private Timeout keepAliveTimeout;
+  private long lastReadNanos;
+  // When the last stream was closed
+  private long idleSinceNanos;
+  // The payload of the PING waiting for an ACK, which is the time it was sent
+  private long pingSentNanos;
+  private boolean pingOutstanding;
+  // Read by the handlers
+  private volatile long rttNanos = -1;
 
-  Http2Processor(@NonNull Channel channel, @NonNull FrameDecoderImpl frameDecoder) {
+  Http2Processor(@NonNull Channel channel, @NonNull FrameDecoderImpl frameDecoder,
+      @NonNull StreamHandler streamHandler, @NonNull MetricsRecorder metrics,
+      @NonNull Http2Config config, Timer keepAliveTimer, KeepAliveConfig keepAlive,
+      @NonNull LoopLoad loopLoad) {
     super(channel);
     this.frameDecoder = frameDecoder;
+    this.streamHandler = streamHandler;
+    this.metrics = metrics;
+    this.loopLoad = loopLoad;
+    this.config = config;
+    this.resetBudget = new TokenBucket(config.getResetsPerSecond(), config.getResetBurst());
+    this.controlFrameBudget = new TokenBucket(config.getControlFramesPerSecond(),
+        config.getControlFrameBurst());
+    this.emptyFrameBudget = new TokenBucket(config.getEmptyFramesPerSecond(),
+        config.getEmptyFrameBurst());
+    this.alloc = channel.alloc();
+    this.executor = channel.eventLoop();
+    this.headerBlockAssembler = new HeaderBlockAssembler(alloc);
+    this.hpackDecoder = new HpackDecoder(
+        Math.max(DEFAULT_HEADER_TABLE_SIZE, config.getHeaderTableSize()),
+        config.getMaxHeaderListSize());
+    this.hpackEncoder = new HpackEncoder(DEFAULT_HEADER_TABLE_SIZE, DEFAULT_HEADER_TABLE_SIZE);
+    this.localInitialWindowSize = Math.max(DEFAULT_INITIAL_WINDOW_SIZE,
+        config.getInitialWindowSize());
+    this.connectionWindowSize = localInitialWindowSize;
+    // Reading must go on until the frame and the header block being decoded are complete,
+    // otherwise only the body subscribers could free memory, and they may have nothing left
+    this.maxBufferedBytes = Math.max(config.getMaxBufferedBytes(),
+        (long) config.getMaxFrameSize() + config.getMaxHeaderBlockSize());
+    this.keepAliveTimer = keepAliveTimer;
+    this.pingIntervalNanos = keepAlive == null ? 0 : nanos(keepAlive.getPingInterval());
+    this.pingTimeoutNanos = keepAlive == null ? 0 : nanos(keepAlive.getPingTimeout());
+    this.idleTimeoutNanos = keepAlive == null ? 0 : nanos(keepAlive.getIdleTimeout());
     Flux.from(frameDecoder)
-        .doOnError(System.err::println)
-        .subscribe(System.out::println);
+        .subscribe(this::onFrame, this::onInboundError);
+
+    // The server connection preface, then the connection window which SETTINGS can't change
+    emit(localSettings(), Type.SETTINGS, true);
+    if (connectionWindowSize > DEFAULT_INITIAL_WINDOW_SIZE) {
+      connectionRecvWindow = connectionWindowSize;
+      emit(FrameWriter.windowUpdate(alloc, 0, connectionWindowSize - DEFAULT_INITIAL_WINDOW_SIZE),
+          Type.WINDOW_UPDATE, true);
+    }
+
+    if (keepAliveTimer != null) {
+      lastReadNanos = idleSinceNanos = System.nanoTime();
+      onKeepAliveTimer();
+    }
+  }
+
+  private static long nanos(Duration duration) {
+    return duration == null ? 0 : duration.toNanos();
+  }
+
+  /**
+   * @return a SETTINGS frame with the configured values differing from the protocol defaults
+   */
+  private ByteBuf localSettings() {
+    final long[] settings = new long[10];
+    int i = 0;
+    if (config.getHeaderTableSize() != DEFAULT_HEADER_TABLE_SIZE) {
+      settings[i++] = SETTINGS_HEADER_TABLE_SIZE;
+      settings[i++] = config.getHeaderTableSize();
+    }
+    // Both unlimited by default
+    settings[i++] = SETTINGS_MAX_CONCURRENT_STREAMS;
+    settings[i++] = config.getMaxConcurrentStreams();
+    settings[i++] = SETTINGS_MAX_HEADER_LIST_SIZE;
+    settings[i++] = config.getMaxHeaderListSize();
+    if (config.getInitialWindowSize() != DEFAULT_INITIAL_WINDOW_SIZE) {
+      settings[i++] = SETTINGS_INITIAL_WINDOW_SIZE;
+      settings[i++] = config.getInitialWindowSize();
+    }
+    if (config.getMaxFrameSize() != DEFAULT_MAX_FRAME_SIZE) {
+      settings[i++] = SETTINGS_MAX_FRAME_SIZE;
+      settings[i++] = config.getMaxFrameSize();
+    }
+    return FrameWriter.settings(alloc, Arrays.copyOf(settings, i));
+  }
+
+  private void onFrame(Frame frame) {
+    if (closing) {
+      frame.release();
+      return;
+    }
+    try {
+      if (!withinBudget(frame.getHeader())) {
+        frame.release();
+        throw connectionError(ENHANCE_YOUR_CALM, "Too many %s frames",
+            frame.getHeader().getType());
+      }
+      if (headerBlockAssembler.inProgress()) {
+        if (headerBlockAssembler.onContinuation(frame)) {
+          onHeaderBlock();
+        } else {
+          requireHeaderBlockWithinLimit();
+        }
+        return;
+      }
+
+      final FrameHeader header = frame.getHeader();
+      metrics.frameReceived(header.getType());
+      switch (header.getType()) {
+        case PREFACE:
+          frame.release();
+          break;
+        case HEADERS:
+          if (header.getStreamId() == 0) {
+            frame.release();
+            throw connectionError(PROTOCOL_ERROR, "HEADERS frame on stream 0");
+          }
+          if (headerBlockAssembler.onHeaders(frame)) {
+            onHeaderBlock();
+          } else {
+            requireHeaderBlockWithinLimit();
+          }
+          break;
+        case DATA:
+          onDataFrame(frame);
+          break;
+        case SETTINGS:
+          onSettingsFrame(frame);
+          break;
+        case PING:
+          onPingFrame(frame);
+          break;
+        case RST_STREAM:
+          onRstStreamFrame(frame);
+          break;
+        case GOAWAY:
+          onGoAwayFrame(frame);
+          break;
+        case WINDOW_UPDATE:
+          onWindowUpdateFrame(frame);
+          break;
+        case PRIORITY:
+          onPriorityFrame(frame);
+          break;
+        case PRIORITY_UPDATE:
+          onPriorityUpdateFrame(frame);
+          break;
+        case CONTINUATION:
+          frame.release();
+          throw connectionError(PROTOCOL_ERROR, "CONTINUATION frame without HEADERS");
+        case PUSH_PROMISE:
+          frame.release();
+          throw connectionError(PROTOCOL_ERROR, "Clients can't push");
+        default:
+          frame.release();
+      }
+    } catch (StreamException e) {
+      logger.debug("Stream error on stream {}", e.streamId(), e);
+      metrics.streamError();
+      if (!resetBudget.tryTake()) {
+        // The peer is making us reset streams, e.g. with invalid frames, as fast as it can
+        onConnectionError(connectionError(ENHANCE_YOUR_CALM, "Too many stream errors"));
+        return;
+      }
+      final Http2Stream stream = streams.get(e.streamId());
+      if (stream != null) {
+        resetStream(stream, e.error());
+      } else {
+        emitReset(e.streamId(), e.error());
+      }
+    } catch (Http2Exception e) {
+      onConnectionError(e);
+    } catch (HpackException e) {
+      onConnectionError(connectionError(COMPRESSION_ERROR, e, e.getMessage()));
+    }
+  }
+
+  /**
+   * Takes a token for the frames which are cheap to send but cost us work: resets, control
+   * frames answered or processed on the event loop, and frames without payload nor flags which
+   * do nothing at all.
+   *
+   * @return false if the peer exceeded its budget for the frame
+   */
+  private boolean withinBudget(FrameHeader header) {
+    final byte flags = header.getFlags();
+    switch (header.getType()) {
+      case RST_STREAM:
+        return resetBudget.tryTake();
+      case PING:
+      case SETTINGS:
+        return Flags.ACK.isSetInByte(flags) || controlFrameBudget.tryTake();
+      case PRIORITY:
+      case PRIORITY_UPDATE:
+        return controlFrameBudget.tryTake();
+      case DATA:
+        return header.getLength() != 0 || Flags.END_STREAM.isSetInByte(flags)
+            || emptyFrameBudget.tryTake();
+      case HEADERS:
+      case CONTINUATION:
+        return header.getLength() != 0 || Flags.END_HEADERS.isSetInByte(flags)
+            || emptyFrameBudget.tryTake();
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Bounds the header block buffered across CONTINUATION frames, which are otherwise unlimited.
+   */
+  private void requireHeaderBlockWithinLimit() throws Http2Exception {
+    if (headerBlockAssembler.bufferedBytes() > config.getMaxHeaderBlockSize()) {
+      throw connectionError(ENHANCE_YOUR_CALM, "Header block of stream %d exceeds %d bytes",
+          headerBlockAssembler.streamId(), config.getMaxHeaderBlockSize());
+    }
+  }
+
+  private void onHeaderBlock() throws Http2Exception {
+    final int streamId = headerBlockAssembler.streamId();
+    final boolean endStream = Flags.END_STREAM.isSetInByte(headerBlockAssembler.headersFlags());
+    final int weight = headerBlockAssembler.weight();
+    final ByteBuf block = headerBlockAssembler.takeBlock();
+    final Headers headers = new Headers();
+    boolean tooLarge = false;
+    try {
+      hpackDecoder.decode(block, (name, value, sensitive) -> headers.add(name, value));
+    } catch (HeaderListSizeException e) {
+      logger.debug("Header list too large on stream {}", streamId, e);
+      tooLarge = true;
+    } finally {
+      block.release();
+    }
+
+    Http2Stream stream = streams.get(streamId);
+    if (stream == null) {
+      if ((streamId & 1) == 0) {
+        throw connectionError(PROTOCOL_ERROR, "Stream %d is not a client stream", streamId);
+      }
+      if (streamId <= lastStreamId) {
+        if (wasReset(streamId)) {
+          // Trailers sent before the peer received our RST_STREAM, decoded for the HPACK state
+          return;
+        }
+        throw connectionError(STREAM_CLOSED, "HEADERS on closed stream %d", streamId);
+      }
+      lastStreamId = streamId;
+      if (goAwaySent && streamId > goAwayLastStreamId) {
+        // The client can retry it on another connection
+        emitReset(streamId, REFUSED_STREAM);
+        return;
+      }
+      if (streams.size() >= config.getMaxConcurrentStreams()) {
+        // Retryable too, the client may not have received our SETTINGS yet
+        metrics.streamError();
+        if (!resetBudget.tryTake()) {
+          throw connectionError(ENHANCE_YOUR_CALM, "Too many refused streams");
+        }
+        emitReset(streamId, REFUSED_STREAM);
+        return;
+      }
+      stream = new Http2Stream(streamId, this, executor, headers, peerInitialWindowSize,
+          localInitialWindowSize);
+      if (weight != 0) {
+        stream.weight = weight;
+      }
+      final CharSequence priority = headers.get(StreamScheduler.PRIORITY);
+      if (priority != null) {
+        stream.urgency = StreamScheduler.parseUrgency(priority, stream.urgency);
+      }
+      stream.receivedHeaders(endStream);
+      streams.put(streamId, stream);
+      metrics.streamOpened();
+      loopLoad.streamOpened();
+      if (endStream) {
+        stream.streamBody().onComplete();
+      }
+
+      if (tooLarge) {
+        metrics.streamError();
+        stream.body().subscribe(ReferenceCountUtil::release);
+        writeHeaders(stream, new Headers(1).add(HeaderNames.STATUS, "431"), true);
+      } else {
+        onNewStream(stream);
+      }
+    } else {
+      // Trailers
+      if (!stream.canReceive()) {
+        throw streamError(streamId, STREAM_CLOSED, "HEADERS on half closed stream");
+      }
+      if (!endStream) {
+        throw streamError(streamId, PROTOCOL_ERROR, "Trailers without END_STREAM");
+      }
+      if (tooLarge) {
+        // Too late for a 431, and the request can't complete with fields missing
+        throw streamError(streamId, PROTOCOL_ERROR, "Trailers exceed the max header list size");
+      }
+      stream.trailers(headers);
+      stream.receivedEndStream();
+      stream.streamBody().onComplete();
+      closeIfDone(stream);
+    }
+  }
+
+  private void onNewStream(Http2Stream stream) {
+    try {
+      streamHandler.onStream(stream);
+    } catch (Throwable t) {
+      logger.warn("StreamHandler failed on stream {}", stream.id(), t);
+      resetStream(stream, INTERNAL_ERROR);
+    }
+  }
+
+  private void onDataFrame(Frame frame) throws Http2Exception {
+    final FrameHeader header = frame.getHeader();
+    final int streamId = header.getStreamId();
+    // The whole payload counts against the windows, padding included
+    final int flowControlledBytes = header.getLength();
+    final ByteBuf data;
+    try {
+      requireStreamId(frame);
+      if (flowControlledBytes > connectionRecvWindow) {
+        throw connectionError(FLOW_CONTROL_ERROR, "Connection flow control window exceeded");
+      }
+      connectionRecvWindow -= flowControlledBytes;
+      data = stripPadding(frame);
+    } finally {
+      frame.release();
+    }
+
+    final Http2Stream stream = streams.get(streamId);
+    if (stream == null || !stream.canReceive()) {
+      data.release();
+      consumeBytes(null, flowControlledBytes);
+      if (stream == null && streamId > lastStreamId) {
+        throw connectionError(PROTOCOL_ERROR, "DATA on idle stream %d", streamId);
+      }
+      if ((stream == null && goAwaySent && streamId > goAwayLastStreamId)
+          || wasReset(streamId)) {
+        // Sent before the peer received our RST_STREAM or GOAWAY, which must be ignored
+        // (RFC 9113 section 5.1): the window is credited back but no budget is spent
+        return;
+      }
+      throw streamError(streamId, STREAM_CLOSED, "DATA on closed stream");
+    }
+    if (flowControlledBytes > stream.recvWindow) {
+      data.release();
+      consumeBytes(null, flowControlledBytes);
+      throw streamError(streamId, FLOW_CONTROL_ERROR, "Stream flow control window exceeded");
+    }
+    stream.recvWindow -= flowControlledBytes;
+
+    // The padding is consumed right away, the data once delivered to the body subscriber
+    consumeBytes(stream, flowControlledBytes - data.readableBytes());
+    if (data.isReadable()) {
+      undeliveredBytes += data.readableBytes();
+      stream.streamBody().onData(data);
+    } else {
+      data.release();
+    }
+    if (Flags.END_STREAM.isSetInByte(header.getFlags())) {
+      stream.receivedEndStream();
+      stream.streamBody().onComplete();
+      closeIfDone(stream);
+    }
+  }
+
+  /**
+   * @return a retained slice of the payload without the padding
+   */
+  private static ByteBuf stripPadding(Frame frame) throws Http2Exception {
+    final ByteBuf payload = frame.getPayload();
+    if (!Flags.PADDED.isSetInByte(frame.getHeader().getFlags())) {
+      return payload.retainedSlice();
+    }
+    if (!payload.isReadable()) {
+      throw connectionError(PROTOCOL_ERROR, "Padded frame without the padding length");
+    }
+    final int padLength = payload.getUnsignedByte(payload.readerIndex());
+    final int dataLength = payload.readableBytes() - 1 - padLength;
+    if (dataLength < 0) {
+      throw connectionError(PROTOCOL_ERROR, "Padding longer than the frame");
+    }
+    return payload.retainedSlice(payload.readerIndex() + 1, dataLength);
+  }
+
+  private void onSettingsFrame(Frame frame) throws Http2Exception {
+    try {
+      final FrameHeader header = frame.getHeader();
+      requireConnectionFrame(frame);
+      if (Flags.ACK.isSetInByte(header.getFlags())) {
+        if (header.getLength() != 0) {
+          throw connectionError(FRAME_SIZE_ERROR, "SETTINGS ACK with a payload");
+        }
+        if (!settingsAcked) {
+          settingsAcked = true;
+          applyLocalSettings();
+        }
+        return;
+      }
+      if (header.getLength() % 6 != 0) {
+        throw connectionError(FRAME_SIZE_ERROR, "Invalid SETTINGS length %d",
+            header.getLength());
+      }
+
+      final ByteBuf payload = frame.getPayload();
+      for (int i = payload.readerIndex(); i < payload.writerIndex(); i += 6) {
+        applyPeerSetting(payload.getUnsignedShort(i), payload.getUnsignedInt(i + 2));
+      }
+      emit(FrameWriter.settingsAck(alloc), Type.SETTINGS, true);
+    } finally {
+      frame.release();
+    }
+  }
+
+  /**
+   * Lowers the limits which were kept at the protocol defaults until the peer acknowledged our
+   * SETTINGS. Raised limits were applied right away, being more lenient.
+   */
+  private void applyLocalSettings() {
+    hpackDecoder.setMaxTableSize(config.getHeaderTableSize());
+    final int delta = config.getInitialWindowSize() - localInitialWindowSize;
+    if (delta != 0) {
+      localInitialWindowSize = config.getInitialWindowSize();
+      for (Http2Stream stream : streams.values()) {
+        stream.recvWindow += delta;
+      }
+    }
+  }
+
+  private void applyPeerSetting(int id, long value) throws Http2Exception {
+    switch (id) {
+      case SETTINGS_HEADER_TABLE_SIZE:
+        hpackEncoder.setMaxTableSize(value);
+        break;
+      case SETTINGS_ENABLE_PUSH:
+        if (value > 1) {
+          throw connectionError(PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH %d", value);
+        }
+        // Push is never used
+        break;
+      case SETTINGS_INITIAL_WINDOW_SIZE:
+        if (value > MAX_WINDOW_SIZE) {
+          throw connectionError(FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE %d",
+              value);
+        }
+        // The change applies to the windows of all the streams, which may turn negative
+        final int delta = (int) value - peerInitialWindowSize;
+        peerInitialWindowSize = (int) value;
+        for (Http2Stream stream : streams.values()) {
+          if (delta > 0 && stream.sendWindow > MAX_WINDOW_SIZE - delta) {
+            throw connectionError(FLOW_CONTROL_ERROR, "Window of stream %d overflows",
+                stream.id());
+          }
+          stream.sendWindow += delta;
+          scheduleWrites(stream);
+        }
+        break;
+      case SETTINGS_MAX_FRAME_SIZE:
+        if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_ALLOWED_FRAME_SIZE) {
+          throw connectionError(PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE %d", value);
+        }
+        peerMaxFrameSize = (int) value;
+        break;
+      default:
+        // SETTINGS_MAX_CONCURRENT_STREAMS limits push, which is never used, and
+        // SETTINGS_MAX_HEADER_LIST_SIZE is advisory. Unknown settings must be ignored.
+    }
+  }
+
+  private void onPriorityFrame(Frame frame) throws Http2Exception {
+    final int streamId = frame.getHeader().getStreamId();
+    final int dependency;
+    final int weight;
+    try {
+      requireStreamId(frame);
+      if (frame.getHeader().getLength() != 5) {
+        throw streamError(streamId, FRAME_SIZE_ERROR, "PRIORITY payload must be 5 bytes");
+      }
+      final ByteBuf payload = frame.getPayload();
+      dependency = payload.getInt(payload.readerIndex()) & 0x7FFFFFFF;
+      weight = payload.getUnsignedByte(payload.readerIndex() + 4) + 1;
+    } finally {
+      frame.release();
+    }
+    if (dependency == streamId) {
+      throw streamError(streamId, PROTOCOL_ERROR, "Stream %d depends on itself", streamId);
+    }
+    // The priorities of idle streams aren't kept, so that they can't be used to hold memory
+    final Http2Stream stream = streams.get(streamId);
+    if (stream != null) {
+      stream.weight = weight;
+    }
+  }
+
+  private void onPriorityUpdateFrame(Frame frame) throws Http2Exception {
+    final int streamId;
+    final CharSequence value;
+    try {
+      requireConnectionFrame(frame);
+      if (frame.getHeader().getLength() < 4) {
+        throw connectionError(FRAME_SIZE_ERROR, "PRIORITY_UPDATE payload must be at least 4 "
+            + "bytes");
+      }
+      final ByteBuf payload = frame.getPayload();
+      streamId = payload.getInt(payload.readerIndex()) & 0x7FFFFFFF;
+      value = payload.toString(payload.readerIndex() + 4, payload.readableBytes() - 4,
+          CharsetUtil.US_ASCII);
+    } finally {
+      frame.release();
+    }
+    if (streamId == 0 || (streamId & 1) == 0) {
+      throw connectionError(PROTOCOL_ERROR, "PRIORITY_UPDATE for stream %d", streamId);
+    }
+    final Http2Stream stream = streams.get(streamId);
+    if (stream != null) {
+      scheduler.urgency(stream, StreamScheduler.parseUrgency(value, stream.urgency));
+    }
+  }
+
+  private void onPingFrame(Frame frame) throws Http2Exception {
+    try {
+      requireConnectionFrame(frame);
+      if (frame.getHeader().getLength() != 8) {
+        throw connectionError(FRAME_SIZE_ERROR, "PING payload must be 8 bytes");
+      }
+      final ByteBuf payload = frame.getPayload();
+      if (!Flags.ACK.isSetInByte(frame.getHeader().getFlags())) {
+        emit(FrameWriter.ping(alloc, payload, true), Type.PING, true);
+      } else if (pingOutstanding && payload.getLong(payload.readerIndex()) == pingSentNanos) {
+        pingOutstanding = false;
+        rttNanos = System.nanoTime() - pingSentNanos;
+        metrics.pingAcknowledged(rttNanos);
+      }
+    } finally {
+      frame.release();
+    }
+  }
+
+  private void onWindowUpdateFrame(Frame frame) throws Http2Exception {
+    final int streamId = frame.getHeader().getStreamId();
+    final int increment;
+    try {
+      if (frame.getHeader().getLength() != 4) {
+        throw connectionError(FRAME_SIZE_ERROR, "WINDOW_UPDATE payload must be 4 bytes");
+      }
+      increment = frame.getPayload().getInt(frame.getPayload().readerIndex()) & 0x7FFFFFFF;
+    } finally {
+      frame.release();
+    }
+
+    if (streamId == 0) {
+      if (increment == 0) {
+        throw connectionError(PROTOCOL_ERROR, "WINDOW_UPDATE with a zero increment");
+      }
+      if (connectionSendWindow > MAX_WINDOW_SIZE - increment) {
+        throw connectionError(FLOW_CONTROL_ERROR, "Connection flow control window overflows");
+      }
+      connectionSendWindow += increment;
+      drainOutbound();
+      return;
+    }
+
+    final Http2Stream stream = streams.get(streamId);
+    if (stream == null) {
+      if (streamId > lastStreamId) {
+        throw connectionError(PROTOCOL_ERROR, "WINDOW_UPDATE on idle stream %d", streamId);
+      }
+      return;
+    }
+    if (increment == 0) {
+      throw streamError(streamId, PROTOCOL_ERROR, "WINDOW_UPDATE with a zero increment");
+    }
+    if (stream.sendWindow > MAX_WINDOW_SIZE - increment) {
+      throw streamError(streamId, FLOW_CONTROL_ERROR, "Stream flow control window overflows");
+    }
+    stream.sendWindow += increment;
+    scheduleWrites(stream);
+    drainOutbound();
+  }
+
+  private void onRstStreamFrame(Frame frame) throws Http2Exception {
+    final int streamId = frame.getHeader().getStreamId();
+    final long errorCode;
+    try {
+      requireStreamId(frame);
+      if (frame.getHeader().getLength() != 4) {
+        throw connectionError(FRAME_SIZE_ERROR, "RST_STREAM payload must be 4 bytes");
+      }
+      errorCode = frame.getPayload().getUnsignedInt(frame.getPayload().readerIndex());
+    } finally {
+      frame.release();
+    }
+
+    final Http2Stream stream = streams.get(streamId);
+    if (stream == null) {
+      if (streamId > lastStreamId) {
+        throw connectionError(PROTOCOL_ERROR, "RST_STREAM on idle stream %d", streamId);
+      }
+      return;
+    }
+    logger.debug("Stream {} reset by peer with error code {}", streamId, errorCode);
+    stream.closed();
+    stream.releasePendingWrites();
+    scheduler.remove(stream);
+    final Http2Error error = Http2Error.valueOf(errorCode);
+    // The body may never be read again, and its bytes count against the max buffered bytes
+    stream.streamBody().releaseQueued();
+    stream.streamBody().onError(streamError(streamId,
+        error != null ? error : INTERNAL_ERROR, "Stream reset by peer"));
+    closeIfDone(stream);
+  }
+
+  private void onGoAwayFrame(Frame frame) throws Http2Exception {
+    try {
+      requireConnectionFrame(frame);
+      if (frame.getHeader().getLength() < 8) {
+        throw connectionError(FRAME_SIZE_ERROR, "GOAWAY payload must be at least 8 bytes");
+      }
+      final ByteBuf payload = frame.getPayload();
+      logger.debug("GOAWAY received: last stream {}, error code {}",
+          payload.getInt(payload.readerIndex()) & 0x7FFFFFFF,
+          payload.getUnsignedInt(payload.readerIndex() + 4));
+      goAwayReceived = true;
+      closeIfIdle();
+    } finally {
+      frame.release();
+    }
+  }
+
+  private static void requireStreamId(Frame frame) throws Http2Exception {
+    if (frame.getHeader().getStreamId() == 0) {
+      throw connectionError(PROTOCOL_ERROR, "%s frame on stream 0",
+          frame.getHeader().getType());
+    }
+  }
+
+  private static void requireConnectionFrame(Frame frame) throws Http2Exception {
+    if (frame.getHeader().getStreamId() != 0) {
+      throw connectionError(PROTOCOL_ERROR, "%s frame on stream %d",
+          frame.getHeader().getType(), frame.getHeader().getStreamId());
+    }
+  }
+
+  /**
+   * Terminates the connection with a GOAWAY. The frame is written bypassing the outbound queue
+   * so that it's sent regardless of the demand, then the channel is closed.
+   */
+  private void onConnectionError(Http2Exception e) {
+    logger.debug("Connection error, closing channel {}", channel.id(), e);
+    if (e.error() == ENHANCE_YOUR_CALM) {
+      metrics.floodDetected();
+    } else {
+      metrics.decodeError();
+    }
+    metrics.frameSent(Type.GOAWAY);
+    closing = true;
+    headerBlockAssembler.release();
+    channel.writeAndFlush(FrameWriter.goAway(alloc, lastStreamId, e.error().code()))
+        .addListener(ChannelFutureListener.CLOSE);
+  }
+
+  private void onInboundError(Throwable t) {
+    if (t instanceof Http2Exception) {
+      // E.g. a client not speaking HTTP/2, rejected by the decoder
+      onConnectionError((Http2Exception) t);
+      return;
+    }
+    logger.error("Unrecoverable error processing channel {}, closing it", channel.id(), t);
+    metrics.decodeError();
+    closing = true;
+    headerBlockAssembler.release();
+    channel.close();
+  }
+
+  ByteBufAllocator alloc() {
+    return alloc;
   }
 
+  /**
+   * @return the round trip time measured by the last keepalive PING acknowledged, -1 if none was
+   */
+  long rttNanos() {
+    return rttNanos;
+  }
+
+  // Called by the streams on the event loop
+
+  void writeHeaders(Http2Stream stream, Headers headers, boolean endStream) {
+    if (!stream.canSend()) {
+      logger.debug("Ignoring headers written on {}", stream);
+      return;
+    }
+    if (endStream) {
+      stream.sentEndStream();
+    }
+    if (stream.hasPendingWrites()) {
+      // Trailers wait for the data written before them
+      stream.pendingWrites.add(new Http2Stream.PendingWrite(headers, null, null, endStream));
+      return;
+    }
+    emit(encodeHeaders(stream, headers, endStream), Type.HEADERS, endStream);
+    closeIfDone(stream);
+  }
+
+  void writeEncodedHeaders(Http2Stream stream, ByteBuf headerBlock, boolean endStream) {
+    if (!stream.canSend()) {
+      logger.debug("Ignoring headers written on {}", stream);
+      headerBlock.release();
+      return;
+    }
+    if (endStream) {
+      stream.sentEndStream();
+    }
+    if (stream.hasPendingWrites()) {
+      stream.pendingWrites.add(new Http2Stream.PendingWrite(null, headerBlock, null, endStream));
+      return;
+    }
+    emit(headersFrame(stream, headerBlock, endStream), Type.HEADERS, endStream);
+    closeIfDone(stream);
+  }
+
+  void writeData(Http2Stream stream, ByteBuf data, boolean endStream) {
+    if (!stream.canSend()) {
+      logger.debug("Ignoring data written on {}", stream);
+      data.release();
+      return;
+    }
+    if (!data.isReadable() && !endStream) {
+      data.release();
+      return;
+    }
+    if (endStream) {
+      stream.sentEndStream();
+    }
+    stream.pendingBytes += data.readableBytes();
+    stream.pendingWrites.add(new Http2Stream.PendingWrite(null, null, data, endStream));
+    scheduleWrites(stream);
+    drainOutbound();
+  }
+
+  void writeBody(Http2Stream stream, Publisher<? extends ByteBuf> body) {
+    final BodyWriter writer = new BodyWriter(this, stream, executor);
+    if (!stream.canSend() || stream.bodyWriter != null) {
+      logger.debug("Ignoring body written on {}", stream);
+      // Cancelled as soon as subscribed
+      writer.cancel();
+    } else {
+      stream.bodyWriter = writer;
+    }
+    body.subscribe(writer);
+  }
+
+  void resetStream(Http2Stream stream, Http2Error error) {
+    if (streams.get(stream.id()) != stream) {
+      // Already closed and forgotten
+      return;
+    }
+    emitReset(stream.id(), error);
+    stream.closed();
+    stream.releasePendingWrites();
+    scheduler.remove(stream);
+    stream.streamBody().releaseQueued();
+    stream.streamBody().onError(streamError(stream.id(), error, "Stream reset"));
+    closeIfDone(stream);
+  }
+
+  private void emitReset(int streamId, Http2Error error) {
+    emit(FrameWriter.rstStream(alloc, streamId, error.code()), Type.RST_STREAM, true);
+    recentlyReset[nextReset] = streamId;
+    nextReset = (nextReset + 1) % RECENTLY_RESET_STREAMS;
+  }
+
+  /**
+   * @return true if we reset the stream recently, so that the peer may still be sending on it.
+   * Only looked up for frames on streams which are gone.
+   */
+  private boolean wasReset(int streamId) {
+    for (int id : recentlyReset) {
+      if (id == streamId) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Called when DATA bytes leave the body of a stream, either delivered or discarded.
+   */
+  void bodyConsumed(Http2Stream stream, int bytes) {
+    undeliveredBytes -= bytes;
+    consumeBytes(stream, bytes);
+    requestInbound();
+  }
+
+  /**
+   * Credits back to the peer the bytes of a stream which were consumed. Window updates are sent
+   * once half of a window is consumed, to save frames.
+   *
+   * @param stream null to credit only the connection window
+   */
+  void consumeBytes(Http2Stream stream, int bytes) {
+    if (closing || bytes == 0) {
+      return;
+    }
+    connectionConsumedBytes += bytes;
+    if (connectionConsumedBytes >= connectionWindowSize / 2) {
+      connectionRecvWindow += connectionConsumedBytes;
+      emit(FrameWriter.windowUpdate(alloc, 0, connectionConsumedBytes), Type.WINDOW_UPDATE,
+          true);
+      connectionConsumedBytes = 0;
+    }
+    if (stream != null && stream.canReceive()) {
+      // No point in updating the window of a stream the peer can't send on anymore
+      stream.consumedBytes += bytes;
+      if (stream.consumedBytes >= localInitialWindowSize / 2) {
+        stream.recvWindow += stream.consumedBytes;
+        emit(FrameWriter.windowUpdate(alloc, stream.id(), stream.consumedBytes),
+            Type.WINDOW_UPDATE, true);
+        stream.consumedBytes = 0;
+      }
+    }
+  }
+
+  private ByteBuf encodeHeaders(Http2Stream stream, Headers headers, boolean endStream) {
+    final ByteBuf block = alloc.buffer();
+    hpackEncoder.beginBlock(block);
+    for (int i = 0; i < headers.size(); i++) {
+      hpackEncoder.encodeHeader(block, headers.name(i), headers.value(i), false);
+    }
+    return FrameWriter.headers(alloc, stream.id(), block, endStream, peerMaxFrameSize);
+  }
+
+  /**
+   * Frames a header block encoded in advance, prefixed by the dynamic table size update which
+   * may be due: it must begin the first block following the change.
+   */
+  private ByteBuf headersFrame(Http2Stream stream, ByteBuf headerBlock, boolean endStream) {
+    ByteBuf block = headerBlock;
+    if (hpackEncoder.sizeUpdatePending()) {
+      block = alloc.buffer(headerBlock.readableBytes() + 8);
+      hpackEncoder.beginBlock(block);
+      block.writeBytes(headerBlock);
+      headerBlock.release();
+    }
+    return FrameWriter.headers(alloc, stream.id(), block, endStream, peerMaxFrameSize);
+  }
+
+  private void closeIfDone(Http2Stream stream) {
+    if (stream.state() == Http2Stream.State.CLOSED && !stream.hasPendingWrites()
+        && streams.remove(stream.id()) != null) {
+      metrics.streamClosed();
+      loopLoad.streamClosed();
+      if (streams.isEmpty()) {
+        idleSinceNanos = System.nanoTime();
+      }
+      closeIfIdle();
+    }
+  }
+
+  private void closeIfIdle() {
+    if ((goAwayReceived || goAwaySent) && streams.isEmpty() && !closeWhenFlushed) {
+      closeWhenFlushed = true;
+      drainOutbound();
+    }
+  }
+
+  /**
+   * Sends a GOAWAY with the last stream processed so far and closes the connection once the
+   * streams up to it are done. New streams are refused with REFUSED_STREAM, so that the clients
+   * retry them on other connections.
+   */
+  @Override
+  public void shutdownGracefully() {
+    if (!executor.inEventLoop()) {
+      executor.execute(this::shutdownGracefully);
+      return;
+    }
+    if (closing || goAwaySent) {
+      return;
+    }
+    goAwaySent = true;
+    goAwayLastStreamId = lastStreamId;
+    emit(FrameWriter.goAway(alloc, lastStreamId, NO_ERROR.code()), Type.GOAWAY, true);
+    closeIfIdle();
+  }
+
+  // Keepalive
+
+  /**
+   * Runs on the event loop when a keepalive deadline may have passed, then schedules itself at
+   * the next one. Reads don't reschedule it, so that they only cost a timestamp: a connection
+   * which was read from is simply checked again later.
+   */
+  private void onKeepAliveTimer() {
+    if (closing) {
+      return;
+    }
+    final long now = System.nanoTime();
+    long next = Long.MAX_VALUE;
+    if (pingIntervalNanos > 0 && inboundFull()) {
+      // The ACK may be waiting behind the bytes we don't read, the peer can't be blamed for it
+      next = now + pingTimeoutNanos;
+    } else if (pingOutstanding) {
+      // Anything read since the PING, e.g. what was held back while the inbound was full, shows
+      // the peer is alive
+      if (now - Math.max(pingSentNanos, lastReadNanos) >= pingTimeoutNanos) {
+        logger.debug("PING not acknowledged in time, closing channel {}", channel.id());
+        metrics.keepAliveTimeout();
+        // The peer is likely gone, a GOAWAY would be pointless
+        closing = true;
+        headerBlockAssembler.release();
+        channel.close();
+        return;
+      }
+      next = Math.max(pingSentNanos, lastReadNanos) + pingTimeoutNanos;
+    } else if (pingIntervalNanos > 0) {
+      if (now - lastReadNanos >= pingIntervalNanos) {
+        pingOutstanding = true;
+        pingSentNanos = now;
+        final ByteBuf opaqueData = alloc.buffer(8).writeLong(now);
+        emit(FrameWriter.ping(alloc, opaqueData, false), Type.PING, true);
+        opaqueData.release();
+        next = now + pingTimeoutNanos;
+      } else {
+        next = lastReadNanos + pingIntervalNanos;
+      }
+    }
+    if (idleTimeoutNanos > 0 && !goAwaySent) {
+      if (!streams.isEmpty()) {
+        next = Math.min(next, now + idleTimeoutNanos);
+      } else if (now - idleSinceNanos >= idleTimeoutNanos) {
+        logger.debug("Closing idle channel {}", channel.id());
+        metrics.idleTimeout();
+        // Closed right away, as there are no streams to wait for
+        shutdownGracefully();
+      } else {
+        next = Math.min(next, idleSinceNanos + idleTimeoutNanos);
+      }
+    }
+    if (next != Long.MAX_VALUE) {
+      keepAliveTimeout = keepAliveTimer.newTimeout(timeout -> {
+        try {
+          executor.execute(this::onKeepAliveTimer);
+        } catch (RejectedExecutionException e) {
+          // The event loop was shut down with the channel
+        }
+      }, next - now, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  // Outbound flow
+
+  private void emit(ByteBuf buffer, Type type, boolean flushNow) {
+    metrics.frameSent(type);
+    outboundQueue.add(new OutboundByteBuf(buffer, flushNow));
+    metrics.outboundQueued(1);
+    drainOutbound();
+  }
+
+  private void scheduleWrites(Http2Stream stream) {
+    if (stream.hasPendingWrites()) {
+      scheduler.schedule(stream);
+    }
+  }
+
+  private void drainOutbound() {
+    if (drainingOutbound || subscriber == null) {
+      return;
+    }
+    drainingOutbound = true;
+    try {
+      while (outboundDemand > 0) {
+        OutboundByteBuf next = outboundQueue.poll();
+        if (next != null) {
+          metrics.outboundQueued(-1);
+        } else {
+          next = nextStreamFrame();
+          if (next == null) {
+            break;
+          }
+        }
+        outboundDemand--;
+        subscriber.onNext(next);
+      }
+    } finally {
+      drainingOutbound = false;
+    }
+    if (closeWhenFlushed && outboundQueue.isEmpty() && !closing) {
+      closing = true;
+      // Written behind the frames the subscriber wrote, so the channel is closed after them
+      channel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+      return;
+    }
+    requestInbound();
+  }
+
+  /**
+   * @return the next frame of the scheduled streams, or null if flow control doesn't allow any
+   */
+  private OutboundByteBuf nextStreamFrame() {
+    Http2Stream stream;
+    while ((stream = scheduler.next()) != null) {
+      final int pendingBytes = stream.pendingBytes;
+      final OutboundByteBuf frame = pollPendingWrite(stream);
+      if (frame == null) {
+        if (stream.sendWindow > 0) {
+          // Blocked by the connection window, as all the streams sending DATA
+          return null;
+        }
+        // Blocked by its own window, rescheduled by the next WINDOW_UPDATE
+        scheduler.remove(stream);
+        continue;
+      }
+      scheduler.sent(stream, pendingBytes - stream.pendingBytes);
+      if (!stream.hasPendingWrites()) {
+        scheduler.remove(stream);
+        closeIfDone(stream);
+      }
+      if (stream.bodyWriter != null) {
+        stream.bodyWriter.requestMore();
+      }
+      return frame;
+    }
+    return null;
+  }
+
+  private OutboundByteBuf pollPendingWrite(Http2Stream stream) {
+    final Http2Stream.PendingWrite write = stream.pendingWrites.peek();
+    if (write.getHeaders() != null) {
+      stream.pendingWrites.poll();
+      metrics.frameSent(Type.HEADERS);
+      return new OutboundByteBuf(encodeHeaders(stream, write.getHeaders(), write.isEndStream()),
+          write.isEndStream());
+    }
+    if (write.getHeaderBlock() != null) {
+      stream.pendingWrites.poll();
+      metrics.frameSent(Type.HEADERS);
+      return new OutboundByteBuf(headersFrame(stream, write.getHeaderBlock(),
+          write.isEndStream()), write.isEndStream());
+    }
+
+    final ByteBuf data = write.getData();
+    final int readable = data.readableBytes();
+    if (readable == 0) {
+      stream.pendingWrites.poll();
+      data.release();
+      metrics.frameSent(Type.DATA);
+      return new OutboundByteBuf(
+          FrameWriter.data(alloc, stream.id(), Unpooled.EMPTY_BUFFER, true), true);
+    }
+
+    final int window = Math.min(stream.sendWindow, connectionSendWindow);
+    final int length = Math.min(Math.min(readable, peerMaxFrameSize), window);
+    if (length <= 0) {
+      return null;
+    }
+    stream.sendWindow -= length;
+    connectionSendWindow -= length;
+    stream.pendingBytes -= length;
+    final boolean last = length == readable;
+    final boolean endStream = last && write.isEndStream();
+    final ByteBuf frame = FrameWriter.data(alloc, stream.id(), data.readRetainedSlice(length),
+        endStream);
+    if (last) {
+      stream.pendingWrites.poll();
+      data.release();
+    }
+    metrics.frameSent(Type.DATA);
+    // The frames queued behind this one are flushed together with it, otherwise the peer is
+    // waiting for it
+    return new OutboundByteBuf(frame, endStream || !stream.hasPendingWrites());
+  }
+
+  /**
+   * Keeps reading from the channel as long as the outbound subscriber keeps up with the frames
+   * to send. Otherwise a peer could make us queue responses to its PINGs, SETTINGS, etc.
+   * indefinitely by not reading them.
+   *
+   * Reading stops as well while the inbound bytes held exceed the max buffered bytes, until the
+   * body subscribers consume some: the flow control windows bound them already, but large
+   * windows multiplied by many streams could hold a lot of memory per connection.
+   */
+  private void requestInbound() {
+    if (inbound == null || closing || outboundQueue.size() >= MAX_QUEUED_OUTBOUND
+        || inboundFull()) {
+      return;
+    }
+    if (inboundOutstanding <= INBOUND_BATCH / 2) {
+      final long n = INBOUND_BATCH - inboundOutstanding;
+      inboundOutstanding += n;
+      inbound.request(n);
+    }
+  }
+
+  /**
+   * @return the inbound bytes held: the frame being decoded, the header block being assembled and
+   * the DATA waiting for the body subscribers
+   */
+  private long bufferedBytes() {
+    return frameDecoder.bufferedBytes() + headerBlockAssembler.bufferedBytes() + undeliveredBytes;
+  }
+
+  private boolean inboundFull() {
+    return bufferedBytes() >= maxBufferedBytes;
+  }
+
+  private void releaseOutbound() {
+    OutboundByteBuf outbound;
+    while ((outbound = outboundQueue.poll()) != null) {
+      metrics.outboundQueued(-1);
+      outbound.getBuffer().release();
+    }
+  }
 
   @Override
   public void onSubscribe(Subscription s) {
-    // Nothing to do as upstream doesn't support backpressure
+    inbound = s;
+    requestInbound();
   }
 
   @Override
   public void onNext(ByteBuf byteBuf) {
+    if (keepAliveTimer != null) {
+      lastReadNanos = System.nanoTime();
+    }
+    if (inboundOutstanding > 0) {
+      // Buffers of a read loop in progress may exceed the demand
+      inboundOutstanding--;
+    }
     frameDecoder.onNext(byteBuf);
+    requestInbound();
   }
 
   @Override
   public void onError(Throwable t) {
+    if (closing) {
+      // Typically writes failing because the channel is being closed
+      logger.debug("Error on closing channel {}", channel.id(), t);
+      return;
+    }
     frameDecoder.onError(t);
   }
 
   @Override
   public void onComplete() {
+    closing = true;
+    if (keepAliveTimeout != null) {
+      keepAliveTimeout.cancel();
+    }
+    headerBlockAssembler.release();
+    final ClosedChannelException closed = new ClosedChannelException();
+    for (Http2Stream stream : new ArrayList<>(streams.values())) {
+      stream.closed();
+      stream.releasePendingWrites();
+      streams.remove(stream.id());
+      metrics.streamClosed();
+      loopLoad.streamClosed();
+      stream.streamBody().releaseQueued();
+      stream.streamBody().onError(closed);
+    }
+    scheduler.clear();
+    releaseOutbound();
     frameDecoder.onComplete();
   }
 
   @Override
   public void subscribe(Subscriber<? super OutboundByteBuf> s) {
     subscriber = s;
+    s.onSubscribe(new Subscription() {
+      @Override
+      public void request(long n) {
+        if (!executor.inEventLoop()) {
+          executor.execute(() -> request(n));
+          return;
+        }
+        outboundDemand = Operators.addCap(outboundDemand, n);
+        drainOutbound();
+      }
+
+      @Override
+      public void cancel() {
+        if (!executor.inEventLoop()) {
+          executor.execute(this::cancel);
+          return;
+        }
+        subscriber = null;
+        releaseOutbound();
+      }
+    });
   }
 }
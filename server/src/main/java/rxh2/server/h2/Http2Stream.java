@@ -0,0 +1,253 @@
+package rxh2.server.h2;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.util.concurrent.EventExecutor;
+import java.util.ArrayDeque;
+import lombok.Data;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import rxh2.h2.Headers;
+import rxh2.h2.StreamBody;
+
+/**
+ * A HTTP/2 stream opened by the peer, following the state machine of RFC 7540 section 5.1.
+ *
+ * The request body is exposed as a {@link Flux} of DATA payloads. The write methods can be
+ * called from any thread: they are executed on the event loop of the connection, in order.
+ *
+ * Both directions are flow controlled (RFC 7540 section 6.9). The peer gets window updates as
+ * the body subscriber consumes the data, and the written data is held back until the windows of
+ * the peer allow sending it.
+ */
+public class Http2Stream {
+
+  public enum State {
+    IDLE,
+    OPEN,
+    HALF_CLOSED_LOCAL,
+    HALF_CLOSED_REMOTE,
+    CLOSED
+  }
+
+  private final int id;
+  private final Http2Processor connection;
+  private final EventExecutor executor;
+  private final Headers headers;
+  private final StreamBody body;
+  private Headers trailers;
+  private State state = State.IDLE;
+
+  // Flow control state, owned by the connection
+  int sendWindow;
+  int recvWindow;
+  // Bytes consumed by the body subscriber which weren't credited back to the peer yet
+  int consumedBytes;
+  // Writes held back by flow control, in order
+  final ArrayDeque<PendingWrite> pendingWrites = new ArrayDeque<>();
+  // Readable bytes of the pending DATA writes
+  int pendingBytes;
+  // Null unless the body is being written from a publisher
+  BodyWriter bodyWriter;
+  // Scheduling state, owned by the StreamScheduler of the connection
+  boolean scheduled;
+  int urgency = StreamScheduler.DEFAULT_URGENCY;
+  int weight = StreamScheduler.DEFAULT_WEIGHT;
+  int deficit;
+
+  Http2Stream(int id, Http2Processor connection, EventExecutor executor, Headers headers,
+      int sendWindow, int recvWindow) {
+    this.id = id;
+    this.connection = connection;
+    this.executor = executor;
+    this.headers = headers;
+    this.sendWindow = sendWindow;
+    this.recvWindow = recvWindow;
+    this.body = new StreamBody(executor, bytes -> connection.bodyConsumed(this, bytes));
+  }
+
+  public int id() {
+    return id;
+  }
+
+  public State state() {
+    return state;
+  }
+
+  /**
+   * @return the request headers, pseudo-headers included
+   */
+  public Headers headers() {
+    return headers;
+  }
+
+  /**
+   * @return the request trailers, or null if none were received (yet)
+   */
+  public Headers trailers() {
+    return trailers;
+  }
+
+  /**
+   * @return the allocator of the connection, which response bodies should be allocated from
+   */
+  public ByteBufAllocator alloc() {
+    return connection.alloc();
+  }
+
+  /**
+   * @return the round trip time of the connection measured by the last keepalive PING
+   * acknowledged, -1 if none was
+   */
+  public long connectionRttNanos() {
+    return connection.rttNanos();
+  }
+
+  /**
+   * @return the request body. Every emitted buffer must be released by the subscriber.
+   */
+  public Flux<ByteBuf> body() {
+    return body;
+  }
+
+  /**
+   * Sends the response headers (or trailers).
+   *
+   * @param endStream true if no body follows
+   */
+  public void writeHeaders(Headers responseHeaders, boolean endStream) {
+    if (executor.inEventLoop()) {
+      connection.writeHeaders(this, responseHeaders, endStream);
+    } else {
+      executor.execute(() -> connection.writeHeaders(this, responseHeaders, endStream));
+    }
+  }
+
+  /**
+   * Sends response headers which were HPACK encoded already, e.g. cached ones.
+   *
+   * @param headerBlock a header block which neither references nor alters the dynamic table,
+   * see {@link rxh2.h2.hpack.HpackEncoder#encodeStateless}. Ownership is transferred to the
+   * stream.
+   * @param endStream true if no body follows
+   */
+  public void writeEncodedHeaders(ByteBuf headerBlock, boolean endStream) {
+    if (executor.inEventLoop()) {
+      connection.writeEncodedHeaders(this, headerBlock, endStream);
+    } else {
+      executor.execute(() -> connection.writeEncodedHeaders(this, headerBlock, endStream));
+    }
+  }
+
+  /**
+   * Sends a chunk of the response body. Ownership of the buffer is transferred to the stream,
+   * which holds it until the flow control windows of the peer allow sending it.
+   *
+   * @param endStream true if this is the last chunk
+   */
+  public void writeData(ByteBuf data, boolean endStream) {
+    if (executor.inEventLoop()) {
+      connection.writeData(this, data, endStream);
+    } else {
+      executor.execute(() -> connection.writeData(this, data, endStream));
+    }
+  }
+
+  /**
+   * Sends the buffers of a publisher as the response body, ending the stream when it completes.
+   * The buffers are requested as the peer and the socket accept the data, and ownership of each
+   * one is transferred to the stream. If the publisher fails the stream is reset.
+   */
+  public void writeBody(Publisher<? extends ByteBuf> body) {
+    if (executor.inEventLoop()) {
+      connection.writeBody(this, body);
+    } else {
+      executor.execute(() -> connection.writeBody(this, body));
+    }
+  }
+
+  /**
+   * Abruptly terminates the stream with a RST_STREAM frame.
+   */
+  public void reset(Http2Error error) {
+    if (executor.inEventLoop()) {
+      connection.resetStream(this, error);
+    } else {
+      executor.execute(() -> connection.resetStream(this, error));
+    }
+  }
+
+  boolean hasPendingWrites() {
+    return !pendingWrites.isEmpty();
+  }
+
+  /**
+   * Drops everything the stream was going to send, as it can't send anymore.
+   */
+  void releasePendingWrites() {
+    if (bodyWriter != null) {
+      bodyWriter.cancel();
+    }
+    pendingBytes = 0;
+    PendingWrite write;
+    while ((write = pendingWrites.poll()) != null) {
+      if (write.getHeaderBlock() != null) {
+        write.getHeaderBlock().release();
+      }
+      if (write.getData() != null) {
+        write.getData().release();
+      }
+    }
+  }
+
+  StreamBody streamBody() {
+    return body;
+  }
+
+  void trailers(Headers trailers) {
+    this.trailers = trailers;
+  }
+
+  boolean canReceive() {
+    return state == State.OPEN || state == State.HALF_CLOSED_LOCAL;
+  }
+
+  boolean canSend() {
+    return state == State.OPEN || state == State.HALF_CLOSED_REMOTE;
+  }
+
+  void receivedHeaders(boolean endStream) {
+    state = endStream ? State.HALF_CLOSED_REMOTE : State.OPEN;
+  }
+
+  void receivedEndStream() {
+    state = state == State.HALF_CLOSED_LOCAL ? State.CLOSED : State.HALF_CLOSED_REMOTE;
+  }
+
+  void sentEndStream() {
+    state = state == State.HALF_CLOSED_REMOTE ? State.CLOSED : State.HALF_CLOSED_LOCAL;
+  }
+
+  void closed() {
+    state = State.CLOSED;
+  }
+
+  @Override
+  public String toString() {
+    return "Http2Stream(" + id + ", " + state + ")";
+  }
+
+  /**
+   * Either headers or data written by the stream and not yet sent. Headers are encoded only
+   * when sent, as HPACK requires the blocks to be encoded in the order they go on the wire,
+   * unless they were written encoded already.
+   */
+  @Data
+  static class PendingWrite {
+    private final Headers headers;
+    private final ByteBuf headerBlock;
+    private final ByteBuf data;
+    private final boolean endStream;
+  }
+}
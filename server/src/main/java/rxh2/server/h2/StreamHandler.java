@@ -0,0 +1,29 @@
+package rxh2.server.h2;
+
+import io.netty.util.ReferenceCountUtil;
+import rxh2.h2.Headers;
+import rxh2.h2.hpack.HeaderNames;
+
+/**
+ * Handles the streams opened by the peer on a connection. It's invoked on the event loop of the
+ * connection as soon as the request headers are received, so it must not block.
+ */
+@FunctionalInterface
+public interface StreamHandler {
+
+  /**
+   * @param stream a new stream in OPEN or HALF_CLOSED_REMOTE state. Its body may still be
+   * arriving.
+   */
+  void onStream(Http2Stream stream);
+
+  /**
+   * @return a handler answering every request with a 404, discarding the request body
+   */
+  static StreamHandler notFound() {
+    return stream -> {
+      stream.body().subscribe(ReferenceCountUtil::release);
+      stream.writeHeaders(new Headers(1).add(HeaderNames.STATUS, "404"), true);
+    };
+  }
+}
@@ -0,0 +1,172 @@
+package rxh2.server.h2;
+
+import io.netty.util.AsciiString;
+import java.util.ArrayDeque;
+
+/**
+ * Decides which stream sends the next frame. Streams are grouped by the urgency of RFC 9218:
+ * a stream is served only when no stream of a more urgent level has something to send. Within a
+ * level the streams share the connection by deficit round robin, in proportion to the weights of
+ * RFC 7540 section 5.3: a stream keeps sending until it used up its quantum of bytes, so a large
+ * download gets its share without holding back the small responses.
+ *
+ * RFC 9218 serves non-incremental responses one at a time, which is the default. Here the
+ * streams of a level are always interleaved instead, as serving them in turn is exactly what lets
+ * one large response starve the others. Stream dependencies are ignored, as deprecated by RFC
+ * 9113.
+ *
+ * Confined to the event loop of the connection like the streams, so nothing is locked.
+ */
+final class StreamScheduler {
+
+  static final AsciiString PRIORITY = AsciiString.cached("priority");
+
+  static final int DEFAULT_URGENCY = 3;
+  static final int DEFAULT_WEIGHT = 16;
+  private static final int URGENCY_LEVELS = 8;
+  // Bytes a stream can send per round for each unit of weight: with the default weight, a frame
+  // of the default size
+  private static final int QUANTUM_PER_WEIGHT = 1024;
+
+  // Allocated when first used, most connections use only the default urgency
+  private final ArrayDeque<Http2Stream>[] levels;
+  // Bit i set when levels[i] is not empty
+  private int activeLevels;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  StreamScheduler() {
+    levels = new ArrayDeque[URGENCY_LEVELS];
+  }
+
+  /**
+   * Queues a stream which has something to write, unless it's queued already.
+   */
+  void schedule(Http2Stream stream) {
+    if (stream.scheduled) {
+      return;
+    }
+    stream.scheduled = true;
+    stream.deficit = 0;
+    ArrayDeque<Http2Stream> level = levels[stream.urgency];
+    if (level == null) {
+      level = levels[stream.urgency] = new ArrayDeque<>();
+    }
+    level.add(stream);
+    activeLevels |= 1 << stream.urgency;
+  }
+
+  /**
+   * @return the stream to send the next frame, which stays queued, or null if none is queued
+   */
+  Http2Stream next() {
+    while (activeLevels != 0) {
+      final ArrayDeque<Http2Stream> level = levels[Integer.numberOfTrailingZeros(activeLevels)];
+      final Http2Stream stream = level.peek();
+      if (stream.deficit > 0) {
+        return stream;
+      }
+      stream.deficit += stream.weight * QUANTUM_PER_WEIGHT;
+      if (stream.deficit > 0) {
+        return stream;
+      }
+      // Still paying for a frame larger than its quantum
+      level.add(level.poll());
+    }
+    return null;
+  }
+
+  /**
+   * Charges the stream returned by {@link #next()} for a frame, moving it behind the other
+   * streams of its level once its quantum is used up.
+   */
+  void sent(Http2Stream stream, int bytes) {
+    stream.deficit -= bytes;
+    if (stream.deficit <= 0) {
+      final ArrayDeque<Http2Stream> level = levels[stream.urgency];
+      if (level.size() > 1 && level.peek() == stream) {
+        level.add(level.poll());
+      }
+    }
+  }
+
+  /**
+   * Dequeues a stream which has nothing to write or can't write for now.
+   */
+  void remove(Http2Stream stream) {
+    if (!stream.scheduled) {
+      return;
+    }
+    stream.scheduled = false;
+    final ArrayDeque<Http2Stream> level = levels[stream.urgency];
+    // Usually the head, removed in constant time
+    if (level.peek() == stream) {
+      level.poll();
+    } else {
+      level.remove(stream);
+    }
+    if (level.isEmpty()) {
+      activeLevels &= ~(1 << stream.urgency);
+    }
+  }
+
+  /**
+   * Changes the urgency of a stream, moving it to the tail of its new level if queued.
+   */
+  void urgency(Http2Stream stream, int urgency) {
+    if (stream.urgency == urgency) {
+      return;
+    }
+    final boolean wasScheduled = stream.scheduled;
+    remove(stream);
+    stream.urgency = urgency;
+    if (wasScheduled) {
+      schedule(stream);
+    }
+  }
+
+  void clear() {
+    for (int i = 0; i < URGENCY_LEVELS; i++) {
+      if (levels[i] != null) {
+        levels[i].clear();
+      }
+    }
+    activeLevels = 0;
+  }
+
+  /**
+   * Parses the urgency out of a Priority Field Value of RFC 9218, a structured field dictionary
+   * such as "u=1, i". Malformed values are ignored as the RFC requires.
+   *
+   * @return the urgency, or the given default if the value doesn't contain a valid one
+   */
+  static int parseUrgency(CharSequence value, int defaultUrgency) {
+    int urgency = defaultUrgency;
+    int i = 0;
+    final int length = value.length();
+    while (i < length) {
+      while (i < length && (value.charAt(i) == ' ' || value.charAt(i) == '\t')) {
+        i++;
+      }
+      final int keyStart = i;
+      while (i < length && value.charAt(i) != '=' && value.charAt(i) != ','
+          && value.charAt(i) != ';') {
+        i++;
+      }
+      final boolean isUrgency = i - keyStart == 1 && value.charAt(keyStart) == 'u';
+      if (isUrgency && i + 1 < length && value.charAt(i) == '=') {
+        final char digit = value.charAt(i + 1);
+        final boolean ends = i + 2 == length || value.charAt(i + 2) == ','
+            || value.charAt(i + 2) == ';' || value.charAt(i + 2) == ' ';
+        if (digit >= '0' && digit < '0' + URGENCY_LEVELS && ends) {
+          // The last occurrence of a key wins
+          urgency = digit - '0';
+        }
+      }
+      while (i < length && value.charAt(i) != ',') {
+        i++;
+      }
+      i++;
+    }
+    return urgency;
+  }
+}
@@ -0,0 +1,39 @@
+package rxh2.server.h2;
+
+/**
+ * Budget of the frames of a kind a peer can send: it allows bursts up to a capacity, then a
+ * sustained rate. The tokens are refilled lazily when taken, so an idle bucket costs nothing.
+ * Confined to the event loop of the connection.
+ */
+final class TokenBucket {
+
+  private final double tokensPerNano;
+  private final double capacity;
+  private double tokens;
+  private long lastRefillNanos;
+
+  /**
+   * @param perSecond the sustained rate
+   * @param burst the capacity, the bucket starts full
+   */
+  TokenBucket(int perSecond, int burst) {
+    this.tokensPerNano = perSecond / 1e9;
+    this.capacity = burst;
+    this.tokens = burst;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  /**
+   * @return false if the budget is exhausted
+   */
+  boolean tryTake() {
+    final long now = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+    lastRefillNanos = now;
+    if (tokens < 1) {
+      return false;
+    }
+    tokens--;
+    return true;
+  }
+}
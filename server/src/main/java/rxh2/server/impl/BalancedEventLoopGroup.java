@@ -0,0 +1,57 @@
+package rxh2.server.impl;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultithreadEventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+/**
+ * An event loop group made of the loops of another group, whose channels are registered on the
+ * loop chosen by a {@link ConnectionBalancer}. Netty's EventExecutorChooser can't see the channel
+ * it chooses a loop for, and the transport groups can't be extended, so the loops are adopted
+ * instead: shutting this group down shuts them down.
+ */
+final class BalancedEventLoopGroup extends MultithreadEventLoopGroup {
+
+  private final ConnectionBalancer balancer;
+
+  BalancedEventLoopGroup(EventLoopGroup loops, ConnectionBalancer balancer) {
+    super(size(loops), (Executor) null, loops.iterator());
+    this.balancer = balancer;
+  }
+
+  private static int size(EventLoopGroup group) {
+    int size = 0;
+    for (EventExecutor ignored : group) {
+      size++;
+    }
+    return size;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected EventLoop newChild(Executor executor, Object... args) {
+    return (EventLoop) ((Iterator<EventExecutor>) args[0]).next();
+  }
+
+  @Override
+  public ChannelFuture register(Channel channel) {
+    return balancer.register(channel);
+  }
+
+  @Override
+  public ChannelFuture register(ChannelPromise promise) {
+    return balancer.register(promise);
+  }
+
+  @Override
+  @Deprecated
+  public ChannelFuture register(Channel channel, ChannelPromise promise) {
+    return balancer.register(promise);
+  }
+}
@@ -8,6 +8,9 @@ import org.reactivestreams.Processor;
  * A channel processor processes the flow of {@link ByteBuf}s which are read from the
  * {@link Channel}, processes them and emits some {@link OutboundByteBuf}s to be written back
  * into the channel.
+ *
+ * The processor takes ownership of every {@link ByteBuf} it receives in {@code onNext} and is
+ * responsible for releasing it.
  */
 public abstract class ChannelProcessor implements Processor<ByteBuf, OutboundByteBuf> {
 
@@ -16,4 +19,12 @@ public abstract class ChannelProcessor implements Processor<ByteBuf, OutboundByt
   public ChannelProcessor(Channel channel) {
     this.channel = channel;
   }
+
+  /**
+   * Finishes the work in progress, refusing new work, and then closes the channel. Called from
+   * any thread when the server shuts down. By default the channel is closed right away.
+   */
+  public void shutdownGracefully() {
+    channel.close();
+  }
 }
@@ -0,0 +1,61 @@
+package rxh2.server.impl;
+
+import io.netty.channel.ChannelHandlerContext;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.Operators;
+
+/**
+ * The {@link Subscription} given to a {@link ChannelProcessor} for the buffers read from the
+ * channel. Each read counts as one element: when the processor stops requesting, auto read is
+ * turned off so that the socket is no longer read and TCP flow control pushes back on the peer.
+ *
+ * Netty may still deliver the buffers of a read loop already in progress, so the processor must
+ * tolerate a few buffers more than requested. All the state is confined to the event loop.
+ */
+class ChannelReadSubscription implements Subscription {
+
+  private final ChannelHandlerContext ctx;
+  private long requested;
+  private boolean cancelled;
+
+  ChannelReadSubscription(ChannelHandlerContext ctx) {
+    this.ctx = ctx;
+    // Nothing is read until the processor asks for it
+    ctx.channel().config().setAutoRead(false);
+  }
+
+  @Override
+  public void request(long n) {
+    if (!ctx.executor().inEventLoop()) {
+      ctx.executor().execute(() -> request(n));
+      return;
+    }
+    if (cancelled || !Operators.validate(n)) {
+      return;
+    }
+    requested = Operators.addCap(requested, n);
+    if (!ctx.channel().config().isAutoRead()) {
+      // Turning auto read on triggers a read
+      ctx.channel().config().setAutoRead(true);
+    }
+  }
+
+  /**
+   * Called for every buffer read from the channel, before it's handed to the processor.
+   */
+  void onRead() {
+    if (requested != Long.MAX_VALUE && requested > 0 && --requested == 0) {
+      ctx.channel().config().setAutoRead(false);
+    }
+  }
+
+  @Override
+  public void cancel() {
+    if (!ctx.executor().inEventLoop()) {
+      ctx.executor().execute(this::cancel);
+      return;
+    }
+    cancelled = true;
+    ctx.channel().config().setAutoRead(false);
+  }
+}
@@ -0,0 +1,176 @@
+package rxh2.server.impl;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import rxh2.server.EventLoopLoad;
+
+/**
+ * Places the accepted connections on the worker event loops. The connections being long-lived
+ * and multiplexed, handing them out in turn leaves some loops with the heavy streams while others
+ * idle: a connection goes instead to the loop with the fewest active streams, each
+ * {@link #PENDING_BYTES_PER_STREAM} waiting in the socket buffers of the loop counting as one
+ * more stream, and between equally loaded loops to the one with the fewest connections.
+ *
+ * The connections from a pinned host always go to the same loop, whatever its load.
+ *
+ * Netty's EventExecutorChooser can't see the channel it chooses a loop for, so the worker group
+ * delegates its registrations to {@link #register(Channel)}, see
+ * {@link BalancedEventLoopGroup}.
+ */
+class ConnectionBalancer {
+
+  // One flow control window of the protocol default size
+  static final long PENDING_BYTES_PER_STREAM = 65535;
+  // How often the loops sample their pending outbound bytes
+  private static final long SAMPLE_INTERVAL_MILLIS = 100;
+
+  private final Map<InetAddress, Integer> pinnedHosts;
+  private final Map<EventLoop, LoopLoad> loads = new IdentityHashMap<>();
+  private EventLoop[] loops;
+  private LoopLoad[] loopLoads;
+
+  /**
+   * @param pinnedHosts the index of the worker loop of each pinned host
+   */
+  ConnectionBalancer(Map<InetAddress, Integer> pinnedHosts) {
+    this.pinnedHosts = pinnedHosts;
+  }
+
+  /**
+   * Must be called once, before any connection is registered.
+   *
+   * @param group the worker group, created by the TransportFactory with this balancer
+   * @throws IllegalArgumentException if a host is pinned to a loop which doesn't exist
+   */
+  void start(EventLoopGroup group) {
+    final List<EventLoop> members = new ArrayList<>();
+    for (EventExecutor executor : group) {
+      members.add((EventLoop) executor);
+    }
+    for (Map.Entry<InetAddress, Integer> pin : pinnedHosts.entrySet()) {
+      if (pin.getValue() >= members.size()) {
+        throw new IllegalArgumentException(pin.getKey() + " is pinned to loop " + pin.getValue()
+            + " but there are only " + members.size() + " worker loops");
+      }
+    }
+    loops = members.toArray(new EventLoop[0]);
+    loopLoads = new LoopLoad[loops.length];
+    for (int i = 0; i < loops.length; i++) {
+      final LoopLoad load = new LoopLoad();
+      loopLoads[i] = load;
+      loads.put(loops[i], load);
+      loops[i].scheduleAtFixedRate(load::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * @return the load of a worker loop
+   */
+  LoopLoad loadOf(EventLoop loop) {
+    return loads.get(loop);
+  }
+
+  ChannelFuture register(Channel channel) {
+    final int index = place(channel);
+    return loops[index].register(channel).addListener(releaseIfFailed(index));
+  }
+
+  ChannelFuture register(ChannelPromise promise) {
+    final int index = place(promise.channel());
+    return loops[index].register(promise).addListener(releaseIfFailed(index));
+  }
+
+  /**
+   * Called by the loop of a connection once it's registered.
+   */
+  void registered(Channel channel) {
+    loadOf(channel.eventLoop()).connectionRegistered(channel);
+  }
+
+  /**
+   * Called by the loop of a connection once it's closed.
+   */
+  void unregistered(Channel channel) {
+    loadOf(channel.eventLoop()).connectionUnregistered(channel);
+  }
+
+  /**
+   * @return a snapshot of the load of every worker loop, in index order
+   */
+  List<EventLoopLoad> snapshot() {
+    if (loops == null) {
+      return Collections.emptyList();
+    }
+    final List<EventLoopLoad> snapshot = new ArrayList<>(loops.length);
+    for (int i = 0; i < loops.length; i++) {
+      final LoopLoad load = loopLoads[i];
+      final int pendingTasks = loops[i] instanceof SingleThreadEventExecutor
+          ? ((SingleThreadEventExecutor) loops[i]).pendingTasks() : 0;
+      snapshot.add(new EventLoopLoad(i, load.connections(), load.activeStreams(),
+          load.pendingOutboundBytes(), pendingTasks));
+    }
+    return snapshot;
+  }
+
+  /**
+   * @return the index of the loop chosen for the channel, whose connection is counted already
+   */
+  int place(Channel channel) {
+    Integer index = pinnedLoop(channel.remoteAddress());
+    if (index == null) {
+      index = leastLoaded();
+    }
+    loopLoads[index].connectionPlaced();
+    return index;
+  }
+
+  private Integer pinnedLoop(SocketAddress remoteAddress) {
+    if (pinnedHosts.isEmpty() || !(remoteAddress instanceof InetSocketAddress)) {
+      return null;
+    }
+    return pinnedHosts.get(((InetSocketAddress) remoteAddress).getAddress());
+  }
+
+  private int leastLoaded() {
+    int best = 0;
+    long bestScore = Long.MAX_VALUE;
+    int bestConnections = Integer.MAX_VALUE;
+    for (int i = 0; i < loopLoads.length; i++) {
+      final LoopLoad load = loopLoads[i];
+      final long score = load.activeStreams()
+          + load.pendingOutboundBytes() / PENDING_BYTES_PER_STREAM;
+      final int connections = load.connections();
+      if (score < bestScore || (score == bestScore && connections < bestConnections)) {
+        best = i;
+        bestScore = score;
+        bestConnections = connections;
+      }
+    }
+    return best;
+  }
+
+  private ChannelFutureListener releaseIfFailed(int index) {
+    return future -> {
+      if (!future.isSuccess()) {
+        // Never registered, so never unregistered either
+        loopLoads[index].connectionReleased();
+      }
+    };
+  }
+}
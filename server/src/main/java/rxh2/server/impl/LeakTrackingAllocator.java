@@ -0,0 +1,101 @@
+package rxh2.server.impl;
+
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The allocator of a single connection when leak tracking is enabled, see
+ * {@link rxh2.server.Server#leakTracking(boolean)}. It records where every buffer of the
+ * connection is allocated, the buffers read from the socket, the frames decoded from them and
+ * the frames written included, so that the buffers still referenced once the connection is
+ * closed can be reported with their allocation sites.
+ *
+ * The buffers are not pooled: pooled buffer objects are recycled, so a buffer released by the
+ * connection could be allocated again by another one and look leaked. Recording a stack trace
+ * per allocation is expensive as well, so this is meant for debugging only.
+ */
+final class LeakTrackingAllocator extends AbstractByteBufAllocator {
+
+  private static final InternalLogger logger = InternalLoggerFactory
+      .getInstance(LeakTrackingAllocator.class);
+
+  // Allocation sites logged per connection
+  private static final int MAX_REPORTED = 8;
+  private static final int MIN_PRUNE_THRESHOLD = 1024;
+
+  private final UnpooledByteBufAllocator delegate = new UnpooledByteBufAllocator(true);
+  // Allocation sites by buffer. Handlers may allocate from other threads, hence the locking.
+  private final Map<ByteBuf, Throwable> allocations = new IdentityHashMap<>();
+  private int pruneThreshold = MIN_PRUNE_THRESHOLD;
+
+  LeakTrackingAllocator() {
+    super(true);
+  }
+
+  @Override
+  protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+    return track(delegate.heapBuffer(initialCapacity, maxCapacity));
+  }
+
+  @Override
+  protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+    return track(delegate.directBuffer(initialCapacity, maxCapacity));
+  }
+
+  @Override
+  public CompositeByteBuf compositeHeapBuffer(int maxNumComponents) {
+    return (CompositeByteBuf) track(super.compositeHeapBuffer(maxNumComponents));
+  }
+
+  @Override
+  public CompositeByteBuf compositeDirectBuffer(int maxNumComponents) {
+    return (CompositeByteBuf) track(super.compositeDirectBuffer(maxNumComponents));
+  }
+
+  @Override
+  public boolean isDirectBufferPooled() {
+    return false;
+  }
+
+  private synchronized ByteBuf track(ByteBuf buffer) {
+    if (allocations.size() >= pruneThreshold) {
+      allocations.keySet().removeIf(b -> b.refCnt() == 0);
+      // Amortized, so that the released buffers are forgotten in constant time per allocation
+      pruneThreshold = Math.max(MIN_PRUNE_THRESHOLD, allocations.size() * 2);
+    }
+    allocations.put(buffer, new Throwable("Allocated on " + Thread.currentThread().getName()));
+    return buffer;
+  }
+
+  /**
+   * Logs the buffers still referenced and forgets about all the buffers. Buffers held by handlers
+   * still running when the connection is closed are reported as well.
+   *
+   * @param connection describes the connection in the log
+   * @return the number of buffers still referenced
+   */
+  synchronized int reportLeaks(Object connection) {
+    int leaks = 0;
+    for (Map.Entry<ByteBuf, Throwable> allocation : allocations.entrySet()) {
+      if (allocation.getKey().refCnt() == 0) {
+        continue;
+      }
+      if (leaks < MAX_REPORTED) {
+        logger.warn("{} closed with an unreleased buffer {}", connection, allocation.getKey(),
+            allocation.getValue());
+      }
+      leaks++;
+    }
+    allocations.clear();
+    if (leaks > 0) {
+      logger.warn("{} closed with {} unreleased buffers", connection, leaks);
+    }
+    return leaks;
+  }
+}
@@ -0,0 +1,87 @@
+package rxh2.server.impl;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The load of a worker event loop, by which the {@link ConnectionBalancer} places the new
+ * connections. The streams and the pending outbound bytes are only written by the loop itself and
+ * read by the acceptors, the connections are counted by the acceptors as soon as they place them,
+ * so that a burst of accepts doesn't land on a single loop.
+ */
+public final class LoopLoad {
+
+  private final AtomicInteger connections = new AtomicInteger();
+  // The connections registered on the loop, only accessed by the loop
+  private final Set<Channel> channels = new HashSet<>();
+  private volatile int activeStreams;
+  private volatile long pendingOutboundBytes;
+
+  /**
+   * Called by the loop when one of its connections opened a stream.
+   */
+  public void streamOpened() {
+    activeStreams++;
+  }
+
+  /**
+   * Called by the loop when one of its connections closed a stream.
+   */
+  public void streamClosed() {
+    activeStreams--;
+  }
+
+  int connections() {
+    return connections.get();
+  }
+
+  int activeStreams() {
+    return activeStreams;
+  }
+
+  /**
+   * @return the bytes written to the connections of the loop and not yet accepted by their
+   * sockets, as of the last {@link #sample()}
+   */
+  long pendingOutboundBytes() {
+    return pendingOutboundBytes;
+  }
+
+  void connectionPlaced() {
+    connections.incrementAndGet();
+  }
+
+  void connectionRegistered(Channel channel) {
+    channels.add(channel);
+  }
+
+  void connectionUnregistered(Channel channel) {
+    channels.remove(channel);
+    connectionReleased();
+  }
+
+  /**
+   * Called for the connections which were placed but never registered.
+   */
+  void connectionReleased() {
+    connections.decrementAndGet();
+  }
+
+  /**
+   * Called by the loop periodically: reading the outbound buffers is cheap, while tracking every
+   * write until the socket accepts it would cost a listener per buffer.
+   */
+  void sample() {
+    long pending = 0;
+    for (Channel channel : channels) {
+      final ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+      if (outboundBuffer != null) {
+        pending += outboundBuffer.totalPendingWriteBytes();
+      }
+    }
+    pendingOutboundBytes = pending;
+  }
+}
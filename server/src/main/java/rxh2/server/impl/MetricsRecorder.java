@@ -0,0 +1,219 @@
+package rxh2.server.impl;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import rxh2.h2.frame.FrameHeader.Type;
+import rxh2.server.ServerMetrics;
+
+/**
+ * Collects the metrics of a server. It's shared by all the connections and updated from their
+ * event loops: every counter is a {@link LongAdder}, whose striped cells keep the event loops
+ * from contending on the same cache line, so recording is cheap and never blocks. Reading is
+ * comparatively expensive and done only when taking a {@link #snapshot()}.
+ */
+public final class MetricsRecorder {
+
+  private static final Type[] TYPES = Type.values();
+
+  private final LongAdder connectionsOpened = new LongAdder();
+  private final LongAdder connectionsClosed = new LongAdder();
+  private final LongAdder streamsOpened = new LongAdder();
+  private final LongAdder streamsClosed = new LongAdder();
+  private final LongAdder[] framesIn = newAdders(TYPES.length);
+  private final LongAdder[] framesOut = newAdders(TYPES.length);
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder tlsHandshakes = new LongAdder();
+  private final LongAdder tlsHandshakeFailures = new LongAdder();
+  private final LongAdder tlsHandshakeNanos = new LongAdder();
+  private final LongAccumulator tlsHandshakeMaxNanos = new LongAccumulator(Math::max, 0);
+  private final LongAdder decodeErrors = new LongAdder();
+  private final LongAdder streamErrors = new LongAdder();
+  private final LongAdder floodsDetected = new LongAdder();
+  private final LongAdder outboundQueueDepth = new LongAdder();
+  private final LongAdder leakedBuffers = new LongAdder();
+  private final LongAdder pings = new LongAdder();
+  private final LongAdder pingRttNanos = new LongAdder();
+  private final LongAccumulator pingRttMaxNanos = new LongAccumulator(Math::max, 0);
+  private final LongAdder keepAliveTimeouts = new LongAdder();
+  private final LongAdder idleTimeouts = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder cacheMisses = new LongAdder();
+  private final LongAdder cachedBytes = new LongAdder();
+
+  private static LongAdder[] newAdders(int length) {
+    final LongAdder[] adders = new LongAdder[length];
+    for (int i = 0; i < length; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+
+  public void connectionOpened() {
+    connectionsOpened.increment();
+  }
+
+  public void connectionClosed() {
+    connectionsClosed.increment();
+  }
+
+  public void streamOpened() {
+    streamsOpened.increment();
+  }
+
+  public void streamClosed() {
+    streamsClosed.increment();
+  }
+
+  public void frameReceived(Type type) {
+    framesIn[type.ordinal()].increment();
+  }
+
+  public void frameSent(Type type) {
+    framesOut[type.ordinal()].increment();
+  }
+
+  public void bytesReceived(int bytes) {
+    bytesIn.add(bytes);
+  }
+
+  public void bytesSent(int bytes) {
+    bytesOut.add(bytes);
+  }
+
+  public void tlsHandshake(long nanos, boolean success) {
+    if (success) {
+      tlsHandshakes.increment();
+      tlsHandshakeNanos.add(nanos);
+      tlsHandshakeMaxNanos.accumulate(nanos);
+    } else {
+      tlsHandshakeFailures.increment();
+    }
+  }
+
+  /**
+   * A connection was closed because of a protocol, compression or framing error of the peer.
+   */
+  public void decodeError() {
+    decodeErrors.increment();
+  }
+
+  /**
+   * A connection was closed with ENHANCE_YOUR_CALM because the peer exceeded a budget.
+   */
+  public void floodDetected() {
+    floodsDetected.increment();
+  }
+
+  /**
+   * A stream was reset because of an error.
+   */
+  public void streamError() {
+    streamErrors.increment();
+  }
+
+  /**
+   * @param delta the number of frames added to (positive) or removed from (negative) the queues
+   * of frames waiting to be written
+   */
+  public void outboundQueued(int delta) {
+    outboundQueueDepth.add(delta);
+  }
+
+  /**
+   * A keepalive PING was acknowledged.
+   */
+  public void pingAcknowledged(long rttNanos) {
+    pings.increment();
+    pingRttNanos.add(rttNanos);
+    pingRttMaxNanos.accumulate(rttNanos);
+  }
+
+  /**
+   * A connection was closed because its peer didn't acknowledge a keepalive PING in time.
+   */
+  public void keepAliveTimeout() {
+    keepAliveTimeouts.increment();
+  }
+
+  /**
+   * A connection was closed because it had no streams for too long.
+   */
+  public void idleTimeout() {
+    idleTimeouts.increment();
+  }
+
+  /**
+   * @param buffers the number of buffers still referenced when a connection was closed
+   */
+  public void buffersLeaked(int buffers) {
+    leakedBuffers.add(buffers);
+  }
+
+  /**
+   * A cacheable request was answered from the response cache.
+   */
+  public void cacheHit() {
+    cacheHits.increment();
+  }
+
+  /**
+   * A cacheable request wasn't found in the response cache, and went to its handler.
+   */
+  public void cacheMiss() {
+    cacheMisses.increment();
+  }
+
+  /**
+   * @param delta the bytes added to (positive) or evicted from (negative) the response cache
+   */
+  public void cachedBytes(long delta) {
+    cachedBytes.add(delta);
+  }
+
+  /**
+   * Sums up the counters. Counters updated while taking the snapshot may or may not be included,
+   * so the values are not necessarily consistent with each other.
+   */
+  public ServerMetrics snapshot() {
+    final long opened = connectionsOpened.sum();
+    final long streams = streamsOpened.sum();
+    final long handshakes = tlsHandshakes.sum();
+    final long pingCount = pings.sum();
+    return new ServerMetrics(
+        opened - connectionsClosed.sum(),
+        opened,
+        streams - streamsClosed.sum(),
+        streams,
+        sums(framesIn),
+        sums(framesOut),
+        bytesIn.sum(),
+        bytesOut.sum(),
+        handshakes,
+        tlsHandshakeFailures.sum(),
+        handshakes == 0 ? 0 : tlsHandshakeNanos.sum() / handshakes,
+        tlsHandshakeMaxNanos.get(),
+        decodeErrors.sum(),
+        streamErrors.sum(),
+        floodsDetected.sum(),
+        outboundQueueDepth.sum(),
+        leakedBuffers.sum(),
+        pingCount == 0 ? 0 : pingRttNanos.sum() / pingCount,
+        pingRttMaxNanos.get(),
+        keepAliveTimeouts.sum(),
+        idleTimeouts.sum(),
+        cacheHits.sum(),
+        cacheMisses.sum(),
+        cachedBytes.sum());
+  }
+
+  private static Map<Type, Long> sums(LongAdder[] adders) {
+    final Map<Type, Long> sums = new EnumMap<>(Type.class);
+    for (Type type : TYPES) {
+      sums.put(type, adders[type.ordinal()].sum());
+    }
+    return sums;
+  }
+}
@@ -0,0 +1,166 @@
+package rxh2.server.impl;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Subscribes to a {@link ChannelProcessor} and writes the {@link OutboundByteBuf}s it emits into
+ * the channel.
+ *
+ * Buffers are requested in batches of up to {@code window} elements and writes are coalesced:
+ * the channel is flushed once per batch, when a buffer asks to be flushed now, or at the end of
+ * the current read cycle when the buffers are emitted while processing inbound data. Buffers not
+ * asking to be flushed now are flushed at the end of the event loop task which emitted them.
+ * When the channel turns unwritable no more buffers are requested until it becomes writable
+ * again, so the processor sees the backpressure of the socket.
+ *
+ * All the state is confined to the event loop of the channel: buffers emitted from other
+ * threads are handed over to the event loop.
+ */
+class OutboundSubscriber implements Subscriber<OutboundByteBuf> {
+
+  private static final InternalLogger logger = InternalLoggerFactory
+      .getInstance(OutboundSubscriber.class);
+
+  private final ChannelHandlerContext ctx;
+  private final int window;
+  private final MetricsRecorder metrics;
+  private final Runnable flushTask = this::scheduledFlush;
+
+  private Subscription subscription;
+  // Requested but not yet received buffers
+  private int outstanding;
+  // Written but not yet flushed buffers
+  private int unflushed;
+  private boolean inReadCycle;
+  private boolean flushScheduled;
+
+  OutboundSubscriber(ChannelHandlerContext ctx, int window, MetricsRecorder metrics) {
+    this.ctx = ctx;
+    this.window = window;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void onSubscribe(Subscription s) {
+    subscription = s;
+    if (ctx.executor().inEventLoop()) {
+      requestMore();
+    } else {
+      ctx.executor().execute(this::requestMore);
+    }
+  }
+
+  @Override
+  public void onNext(OutboundByteBuf outboundByteBuf) {
+    if (!ctx.executor().inEventLoop()) {
+      ctx.executor().execute(() -> onNext(outboundByteBuf));
+      return;
+    }
+
+    outstanding--;
+    metrics.bytesSent(outboundByteBuf.getBuffer().readableBytes());
+    ctx.write(outboundByteBuf.getBuffer(), ctx.voidPromise());
+    unflushed++;
+
+    if (unflushed >= window) {
+      // End of a batch
+      flush();
+    } else if (!inReadCycle) {
+      if (outboundByteBuf.isFlushNow()) {
+        flush();
+      } else {
+        // Flush at the end of the current event loop task so that the buffers emitted together
+        // go out together
+        scheduleFlush();
+      }
+    }
+    // Inside a read cycle everything is flushed by readComplete()
+
+    requestMore();
+  }
+
+  /**
+   * Called when the channel starts delivering inbound data. Flushes are delayed until
+   * {@link #readComplete()}.
+   */
+  void readStarted() {
+    inReadCycle = true;
+  }
+
+  /**
+   * Called at the end of a read cycle: flushes whatever was written while processing the inbound
+   * data.
+   */
+  void readComplete() {
+    inReadCycle = false;
+    if (unflushed > 0) {
+      flush();
+    }
+  }
+
+  /**
+   * Called when the writability of the channel changes: resumes requesting buffers when the
+   * channel becomes writable again.
+   */
+  void writabilityChanged() {
+    if (ctx.channel().isWritable()) {
+      requestMore();
+    } else if (unflushed > 0) {
+      // Give the socket a chance to drain what's pending
+      flush();
+    }
+  }
+
+  private void requestMore() {
+    if (subscription == null || !ctx.channel().isWritable()) {
+      return;
+    }
+    // Replenish only when at least half of the window was consumed, to request in batches
+    final int missing = window - outstanding;
+    if (missing > 0 && outstanding <= window / 2) {
+      outstanding += missing;
+      subscription.request(missing);
+    }
+  }
+
+  private void scheduleFlush() {
+    if (!flushScheduled) {
+      flushScheduled = true;
+      ctx.executor().execute(flushTask);
+    }
+  }
+
+  private void scheduledFlush() {
+    flushScheduled = false;
+    if (unflushed > 0 && !inReadCycle) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    logger.debug("ctx.flush() of {} buffers", unflushed);
+    unflushed = 0;
+    ctx.flush();
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    logger.error("Unrecoverable error in subscriber of ChannelProcessor."
+        + "Closing channel {}", ctx.channel().id(), t);
+    ctx.channel().close();
+  }
+
+  @Override
+  public void onComplete() {
+    logger.debug("onComplete()");
+    if (ctx.executor().inEventLoop()) {
+      ctx.channel().close();
+    } else {
+      ctx.executor().execute(() -> ctx.channel().close());
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package rxh2.server.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import rxh2.server.Execution;
+import rxh2.server.Request;
+import rxh2.server.RequestHandler;
+import rxh2.server.Response;
+import rxh2.server.h2.Http2Stream;
+import rxh2.server.h2.StreamHandler;
+import rxh2.server.impl.ServerImpl.RouteConfig;
+
+/**
+ * Routes the streams of all the connections to the {@link RequestHandler}s of the server.
+ *
+ * Handlers of {@link Execution#OFFLOADED} routes are invoked on the offload executor. At most
+ * maxOffloadedRequests of them are in progress at once, counting from the invocation to the
+ * termination of the returned Mono, and the requests past the bound are answered with a 503:
+ * queueing them would only add latency to requests the executor can't keep up with. The
+ * responses are written through the {@link Http2Stream}, which hands them over to the event loop
+ * of the connection.
+ *
+ * With a {@link ResponseCache}, the requests it holds a fresh response for are answered from
+ * it before routing, and the responses of the handlers are offered to it.
+ */
+class RequestDispatcher implements StreamHandler {
+
+  private static final InternalLogger logger = InternalLoggerFactory
+      .getInstance(RequestDispatcher.class);
+
+  private final List<RouteConfig> routes;
+  private final Executor offloadExecutor;
+  private final Semaphore offloadPermits;
+  // Null when responses are not cached
+  private final ResponseCache responseCache;
+
+  RequestDispatcher(List<RouteConfig> routes, Executor offloadExecutor, int maxOffloadedRequests,
+      ResponseCache responseCache) {
+    this.routes = routes;
+    this.offloadExecutor = offloadExecutor;
+    this.offloadPermits = new Semaphore(maxOffloadedRequests);
+    this.responseCache = responseCache;
+  }
+
+  @Override
+  public void onStream(Http2Stream stream) {
+    final Request request = new Request(stream);
+    if (responseCache != null && responseCache.serve(request)) {
+      return;
+    }
+    final RouteConfig route = route(request.path());
+    if (route == null) {
+      respond(request, Response.status(404));
+    } else if (route.getExecution() == Execution.EVENT_LOOP) {
+      invoke(route.getHandler(), request, null);
+    } else if (!offloadPermits.tryAcquire()) {
+      respond(request, Response.status(503));
+    } else {
+      try {
+        offloadExecutor.execute(
+            () -> invoke(route.getHandler(), request, offloadPermits::release));
+      } catch (RejectedExecutionException e) {
+        offloadPermits.release();
+        respond(request, Response.status(503));
+      }
+    }
+  }
+
+  private RouteConfig route(CharSequence path) {
+    if (path == null) {
+      return null;
+    }
+    for (RouteConfig route : routes) {
+      if (matches(route.getPath(), path)) {
+        return route;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param pattern a path, or a prefix followed by "*"
+   * @param path a request path, whose query is ignored
+   */
+  static boolean matches(String pattern, CharSequence path) {
+    int end = path.length();
+    for (int i = 0; i < end; i++) {
+      if (path.charAt(i) == '?') {
+        end = i;
+      }
+    }
+    final boolean prefix = pattern.endsWith("*");
+    final int length = prefix ? pattern.length() - 1 : pattern.length();
+    if (prefix ? end < length : end != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (pattern.charAt(i) != path.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void invoke(RequestHandler handler, Request request, Runnable onTerminate) {
+    Mono<Response> response;
+    try {
+      response = handler.handle(request);
+    } catch (Throwable t) {
+      response = Mono.error(t);
+    }
+    response.subscribe(new ResponseSubscriber(request, onTerminate));
+  }
+
+  private void respond(Request request, Response response) {
+    if (responseCache != null) {
+      responseCache.store(request, response);
+    }
+    final Http2Stream stream = request.stream();
+    final ByteBuf body = response.body();
+    if (response.bodyPublisher() != null) {
+      stream.writeHeaders(response.headers(), false);
+      stream.writeBody(response.bodyPublisher());
+    } else if (body == null || !body.isReadable()) {
+      if (body != null) {
+        body.release();
+      }
+      stream.writeHeaders(response.headers(), true);
+    } else {
+      stream.writeHeaders(response.headers(), false);
+      stream.writeData(body, true);
+    }
+    request.discardBody();
+  }
+
+  private class ResponseSubscriber extends BaseSubscriber<Response> {
+
+    private final Request request;
+    // Null when the handler runs on the event loop
+    private final Runnable onTerminate;
+    private boolean responded;
+
+    ResponseSubscriber(Request request, Runnable onTerminate) {
+      this.request = request;
+      this.onTerminate = onTerminate;
+    }
+
+    @Override
+    protected void hookOnNext(Response response) {
+      responded = true;
+      respond(request, response);
+    }
+
+    @Override
+    protected void hookOnComplete() {
+      if (!responded) {
+        respond(request, Response.status(404));
+      }
+    }
+
+    @Override
+    protected void hookOnError(Throwable t) {
+      logger.warn("Handler failed on {}", request.stream(), t);
+      if (!responded) {
+        respond(request, Response.status(500));
+      }
+    }
+
+    @Override
+    protected void hookFinally(SignalType type) {
+      if (onTerminate != null) {
+        onTerminate.run();
+      }
+    }
+  }
+}
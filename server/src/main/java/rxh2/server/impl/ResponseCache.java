@@ -0,0 +1,405 @@
+package rxh2.server.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.AsciiString;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import rxh2.h2.Headers;
+import rxh2.h2.hpack.HeaderNames;
+import rxh2.h2.hpack.HpackEncoder;
+import rxh2.server.Request;
+import rxh2.server.Response;
+import rxh2.server.h2.Http2Stream;
+import rxh2.server.impl.ServerImpl.ResponseCacheConfig;
+
+/**
+ * A cache of small responses to GET requests, shared by all the connections of the server. The
+ * requests it has a fresh response for are answered without invoking their handler: the header
+ * block is HPACK encoded once when the response is stored, without the dynamic table so that
+ * it's valid on any connection, and the block and the body are written from direct buffers
+ * without copying the body.
+ *
+ * It behaves as a shared cache which never revalidates (RFC 9111):
+ * - Only the responses with a cacheable status and an explicit freshness, s-maxage or max-age,
+ * are stored, and not when Cache-Control has no-store, no-cache or private. They expire after
+ * their freshness or the max TTL, whichever comes first, and are served with their Age.
+ * - Requests with no-cache or max-age=0 go to their handler, and no-store ones don't store the
+ * response. Requests with credentials and responses setting cookies are never cached.
+ * - The responses with a Vary header are stored per value of the request headers they vary on,
+ * Vary: * ones aren't stored.
+ *
+ * The least recently used paths are evicted once the cache exceeds its size. Lookups change the
+ * order, so the cache is split into segments by hash of the path, each with its own LRU order,
+ * share of the size and lock, held only for the lookup itself: the connections don't all contend
+ * on one lock, at the cost of an approximate LRU. A small cache has fewer segments, so that each
+ * one holds several entries of the max size.
+ */
+final class ResponseCache {
+
+  // Statuses cacheable by default (RFC 9110 section 15.1)
+  private static final int[] CACHEABLE_STATUSES = {200, 203, 204, 300, 301, 308, 404, 405,
+      410, 414, 501};
+  private static final AsciiString GET = AsciiString.cached("GET");
+  private static final AsciiString PRAGMA = AsciiString.cached("pragma");
+  // Variants kept per path, e.g. per Accept-Encoding
+  private static final int MAX_VARIANTS = 8;
+  // Rough size of an entry besides its buffers
+  private static final int ENTRY_OVERHEAD = 128;
+  // A power of two, and the entries of the max size a segment has room for at least
+  private static final int MAX_SEGMENTS = 16;
+  private static final int MIN_ENTRIES_PER_SEGMENT = 4;
+
+  private final int maxEntrySize;
+  private final long maxTtlNanos;
+  private final MetricsRecorder metrics;
+  private final Segment[] segments;
+
+  ResponseCache(ResponseCacheConfig config, MetricsRecorder metrics) {
+    this.maxEntrySize = config.getMaxEntrySize();
+    this.maxTtlNanos = config.getMaxTtl().toNanos();
+    this.metrics = metrics;
+    final long entries = config.getMaxBytes() / ((long) MIN_ENTRIES_PER_SEGMENT * maxEntrySize);
+    segments = new Segment[(int) Long.highestOneBit(Math.max(1,
+        Math.min(MAX_SEGMENTS, entries)))];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment(config.getMaxBytes() / segments.length);
+    }
+  }
+
+  /**
+   * Answers the request from the cache if it holds a fresh response for it.
+   *
+   * @return true if the request was answered
+   */
+  boolean serve(Request request) {
+    final Headers headers = request.headers();
+    if (!isCacheable(headers)) {
+      return false;
+    }
+    final Map<String, String> cacheControl = directives(headers, HeaderNames.CACHE_CONTROL);
+    if (cacheControl.containsKey("no-cache") || "0".equals(cacheControl.get("max-age"))
+        || cacheControl.isEmpty() && directives(headers, PRAGMA).containsKey("no-cache")) {
+      return false;
+    }
+
+    final String key = key(headers);
+    final long now = System.nanoTime();
+    CachedResponse expired = null;
+    ByteBuf headerBlock = null;
+    ByteBuf body = null;
+    long ageNanos = 0;
+    final Segment segment = segment(key);
+    synchronized (segment) {
+      final List<CachedResponse> variants = segment.entries.get(key);
+      final CachedResponse cached = variants != null ? find(variants, headers) : null;
+      if (cached != null && now - cached.expiresNanos >= 0) {
+        expired = cached;
+        segment.remove(key, variants, cached);
+      } else if (cached != null) {
+        // Retained within the lock, as an eviction would release them
+        headerBlock = cached.headerBlock.retainedDuplicate();
+        body = cached.body != null ? cached.body.retainedDuplicate() : null;
+        ageNanos = now - cached.storedNanos;
+      }
+    }
+    if (expired != null) {
+      metrics.cachedBytes(-expired.size);
+      expired.release();
+    }
+    if (headerBlock == null) {
+      metrics.cacheMiss();
+      return false;
+    }
+    metrics.cacheHit();
+
+    final Http2Stream stream = request.stream();
+    final ByteBuf block = stream.alloc().buffer(headerBlock.readableBytes() + 8);
+    block.writeBytes(headerBlock);
+    headerBlock.release();
+    HpackEncoder.encodeStateless(block, HeaderNames.AGE,
+        AsciiString.of(Long.toString(TimeUnit.NANOSECONDS.toSeconds(ageNanos))));
+    stream.writeEncodedHeaders(block, body == null);
+    if (body != null) {
+      stream.writeData(body, true);
+    }
+    request.discardBody();
+    return true;
+  }
+
+  /**
+   * Stores the response if it's cacheable. Must be called before the response is written, as
+   * its body is copied.
+   */
+  void store(Request request, Response response) {
+    final Headers requestHeaders = request.headers();
+    if (!isCacheable(requestHeaders) || response.bodyPublisher() != null
+        || directives(requestHeaders, HeaderNames.CACHE_CONTROL).containsKey("no-store")) {
+      return;
+    }
+    final Headers headers = response.headers();
+    final long ttlNanos = Math.min(TimeUnit.SECONDS.toNanos(
+        freshnessSeconds(directives(headers, HeaderNames.CACHE_CONTROL))), maxTtlNanos);
+    if (ttlNanos <= 0 || !isCacheableStatus(headers.get(HeaderNames.STATUS))
+        || headers.contains(HeaderNames.SET_COOKIE)) {
+      return;
+    }
+    final String[] vary = varyNames(headers);
+    final ByteBuf body = response.body();
+    final int bodyLength = body != null ? body.readableBytes() : 0;
+    if (vary == null || bodyLength + ENTRY_OVERHEAD > maxEntrySize) {
+      return;
+    }
+
+    final ByteBuf headerBlock = Unpooled.directBuffer(256);
+    for (int i = 0; i < headers.size(); i++) {
+      // The Age is added when served
+      if (!AsciiString.contentEquals(headers.name(i), HeaderNames.AGE)) {
+        HpackEncoder.encodeStateless(headerBlock, headers.name(i), headers.value(i));
+      }
+    }
+    final int entrySize = headerBlock.readableBytes() + bodyLength + ENTRY_OVERHEAD;
+    if (entrySize > maxEntrySize) {
+      headerBlock.release();
+      return;
+    }
+    final ByteBuf cachedBody = bodyLength == 0 ? null : Unpooled.directBuffer(bodyLength)
+        .writeBytes(body, body.readerIndex(), bodyLength);
+    final long now = System.nanoTime();
+    final CachedResponse cached = new CachedResponse(vary, varyValues(requestHeaders, vary),
+        headerBlock, cachedBody, now, now + ttlNanos, entrySize);
+
+    final String key = key(requestHeaders);
+    final List<CachedResponse> evicted = new ArrayList<>();
+    final Segment segment = segment(key);
+    synchronized (segment) {
+      final List<CachedResponse> variants = segment.entries.computeIfAbsent(key,
+          k -> new ArrayList<>(1));
+      final CachedResponse previous = find(variants, requestHeaders);
+      if (previous != null) {
+        variants.remove(previous);
+        evicted.add(previous);
+      } else if (variants.size() == MAX_VARIANTS) {
+        evicted.add(variants.remove(0));
+      }
+      variants.add(cached);
+      segment.size += entrySize - sizeOf(evicted);
+
+      // The path just stored is the most recently used
+      final Iterator<List<CachedResponse>> eldest = segment.entries.values().iterator();
+      while (segment.size > segment.maxBytes && eldest.hasNext()) {
+        final List<CachedResponse> evictedVariants = eldest.next();
+        eldest.remove();
+        evicted.addAll(evictedVariants);
+        segment.size -= sizeOf(evictedVariants);
+      }
+    }
+    metrics.cachedBytes(entrySize - sizeOf(evicted));
+    evicted.forEach(CachedResponse::release);
+  }
+
+  /**
+   * Releases all the cached responses.
+   */
+  void clear() {
+    final List<CachedResponse> cleared = new ArrayList<>();
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.entries.values().forEach(cleared::addAll);
+        segment.entries.clear();
+        segment.size = 0;
+      }
+    }
+    metrics.cachedBytes(-sizeOf(cleared));
+    cleared.forEach(CachedResponse::release);
+  }
+
+  private Segment segment(String key) {
+    // Spread the bits, as the low ones select the segment
+    final int hash = key.hashCode();
+    return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+  }
+
+  private static long sizeOf(List<CachedResponse> responses) {
+    long size = 0;
+    for (CachedResponse response : responses) {
+      size += response.size;
+    }
+    return size;
+  }
+
+  private static boolean isCacheable(Headers requestHeaders) {
+    return AsciiString.contentEquals(GET, requestHeaders.get(HeaderNames.METHOD))
+        && requestHeaders.contains(HeaderNames.PATH)
+        && !requestHeaders.contains(HeaderNames.AUTHORIZATION);
+  }
+
+  private static boolean isCacheableStatus(CharSequence status) {
+    final int code = AsciiString.of(status).parseInt();
+    for (int cacheable : CACHEABLE_STATUSES) {
+      if (code == cacheable) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String key(Headers requestHeaders) {
+    CharSequence authority = requestHeaders.get(HeaderNames.AUTHORITY);
+    if (authority == null) {
+      authority = requestHeaders.get(HeaderNames.HOST);
+    }
+    return (authority != null ? authority.toString() : "")
+        + requestHeaders.get(HeaderNames.PATH);
+  }
+
+  private static CachedResponse find(List<CachedResponse> variants, Headers requestHeaders) {
+    for (CachedResponse variant : variants) {
+      if (Objects.deepEquals(variant.varyValues, varyValues(requestHeaders, variant.varyNames))) {
+        return variant;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the lowercase names of the request headers the response varies on, null for
+   * Vary: *
+   */
+  private static String[] varyNames(Headers responseHeaders) {
+    final List<String> names = new ArrayList<>();
+    for (CharSequence value : responseHeaders.getAll(HeaderNames.VARY)) {
+      for (String name : value.toString().split(",")) {
+        name = name.trim().toLowerCase();
+        if (name.equals("*")) {
+          return null;
+        }
+        if (!name.isEmpty()) {
+          names.add(name);
+        }
+      }
+    }
+    return names.toArray(new String[0]);
+  }
+
+  private static String[] varyValues(Headers requestHeaders, String[] names) {
+    final String[] values = new String[names.length];
+    for (int i = 0; i < names.length; i++) {
+      final List<CharSequence> all = requestHeaders.getAll(names[i]);
+      values[i] = all.isEmpty() ? null : String.join(",", all);
+    }
+    return values;
+  }
+
+  /**
+   * @return the directives of the Cache-Control (or Pragma) fields, by lowercase name, with
+   * their unquoted value or an empty one
+   */
+  static Map<String, String> directives(Headers headers, CharSequence name) {
+    final List<CharSequence> values = headers.getAll(name);
+    if (values.isEmpty()) {
+      return Map.of();
+    }
+    final Map<String, String> directives = new LinkedHashMap<>();
+    for (CharSequence value : values) {
+      for (String directive : value.toString().split(",")) {
+        final int equals = directive.indexOf('=');
+        final String directiveName = (equals < 0 ? directive : directive.substring(0, equals))
+            .trim().toLowerCase();
+        String argument = equals < 0 ? "" : directive.substring(equals + 1).trim();
+        if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+          argument = argument.substring(1, argument.length() - 1);
+        }
+        if (!directiveName.isEmpty()) {
+          directives.putIfAbsent(directiveName, argument);
+        }
+      }
+    }
+    return directives;
+  }
+
+  /**
+   * @return how long a shared cache may serve the response, s-maxage taking precedence over
+   * max-age, or 0 if it must not be stored
+   */
+  static long freshnessSeconds(Map<String, String> cacheControl) {
+    if (cacheControl.containsKey("no-store") || cacheControl.containsKey("no-cache")
+        || cacheControl.containsKey("private")) {
+      return 0;
+    }
+    final String freshness = cacheControl.containsKey("s-maxage")
+        ? cacheControl.get("s-maxage") : cacheControl.get("max-age");
+    if (freshness == null) {
+      return 0;
+    }
+    try {
+      return Math.max(0, Long.parseLong(freshness));
+    } catch (NumberFormatException e) {
+      // An invalid freshness makes the response stale
+      return 0;
+    }
+  }
+
+  /**
+   * A share of the cache, guarded by its own lock.
+   */
+  private static final class Segment {
+
+    private final long maxBytes;
+    // Variants by authority and path, in access order
+    private final LinkedHashMap<String, List<CachedResponse>> entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    Segment(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    void remove(String key, List<CachedResponse> variants, CachedResponse cached) {
+      variants.remove(cached);
+      if (variants.isEmpty()) {
+        entries.remove(key);
+      }
+      size -= cached.size;
+    }
+  }
+
+  /**
+   * A cached response. The buffers are released once it's evicted, the responses being written
+   * hold duplicates of them.
+   */
+  private static final class CachedResponse {
+
+    private final String[] varyNames;
+    private final String[] varyValues;
+    private final ByteBuf headerBlock;
+    // Null if the body is empty
+    private final ByteBuf body;
+    private final long storedNanos;
+    private final long expiresNanos;
+    private final int size;
+
+    CachedResponse(String[] varyNames, String[] varyValues, ByteBuf headerBlock, ByteBuf body,
+        long storedNanos, long expiresNanos, int size) {
+      this.varyNames = varyNames;
+      this.varyValues = varyValues;
+      this.headerBlock = headerBlock;
+      this.body = body;
+      this.storedNanos = storedNanos;
+      this.expiresNanos = expiresNanos;
+      this.size = size;
+    }
+
+    void release() {
+      headerBlock.release();
+      if (body != null) {
+        body.release();
+      }
+    }
+  }
+}
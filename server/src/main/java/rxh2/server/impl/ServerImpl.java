@@ -1,20 +1,48 @@
 package rxh2.server.impl;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.HashedWheelTimer;
 import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
 import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.cert.CertificateException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLException;
 import lombok.Data;
+import rxh2.server.EventLoopLoad;
+import rxh2.server.Execution;
+import rxh2.server.MetricsExporter;
+import rxh2.server.RequestHandler;
 import rxh2.server.ServerHandle;
+import rxh2.server.ServerMetrics;
+import rxh2.server.Transport;
 import rxh2.server.h2.Http2Processor;
 
 public class ServerImpl implements ServerHandle {
@@ -22,37 +50,99 @@ public class ServerImpl implements ServerHandle {
   private static final InternalLogger logger = InternalLoggerFactory
       .getInstance(ServerImpl.class);
 
+  // Threads of the offload executor created when none is given
+  private static final int DEFAULT_OFFLOAD_THREADS = 64;
+  // Resolution of the keepalive timer
+  private static final long KEEPALIVE_TICK_MILLIS = 100;
+
   private final ServerConfig config;
   private volatile EventLoopGroup bossGroup;
   private volatile EventLoopGroup workerGroup;
+  private volatile ConnectionBalancer balancer;
+  private volatile SslContextProvider sslContextProvider;
+  // Only set when the offload executor is owned by the server
+  private volatile ExecutorService defaultOffloadExecutor;
+  // Only set when keepalive or the idle timeout is enabled
+  private volatile HashedWheelTimer keepAliveTimer;
+  // Only set when responses are cached
+  private volatile ResponseCache responseCache;
+  private final List<Channel> serverChannels = new CopyOnWriteArrayList<>();
+  // Backed by a concurrent map, connections add and remove themselves without locking
+  private final ChannelGroup connections = new DefaultChannelGroup("rxh2-connections",
+      GlobalEventExecutor.INSTANCE);
+  private final AtomicBoolean shuttingDown = new AtomicBoolean();
+  private final MetricsRecorder metrics = new MetricsRecorder();
 
   public ServerImpl(ServerConfig config) {
     this.config = config;
   }
 
   public ServerImpl bind() {
-    bossGroup = new NioEventLoopGroup(1,
+    final TransportFactory transportFactory = new TransportFactory(config.transportConfig);
+    final int acceptors = transportFactory.acceptors();
+
+    // One boss thread per server socket
+    bossGroup = transportFactory.newEventLoopGroup(acceptors,
         new DefaultThreadFactory("rxh2-boss"));
 
-    workerGroup = new NioEventLoopGroup(0,
-        new DefaultThreadFactory("rxh2-worker"));
+    balancer = new ConnectionBalancer(config.transportConfig.getPinnedHosts());
+    workerGroup = transportFactory.newBalancedEventLoopGroup(0,
+        new DefaultThreadFactory("rxh2-worker"), balancer);
 
     try {
+      balancer.start(workerGroup);
+      if (config.sslConfig != null) {
+        // Built once here so that no key material is generated on the event loops
+        sslContextProvider = new SslContextProvider(config.sslConfig);
+      }
+
+      if (config.responseCacheConfig != null) {
+        responseCache = new ResponseCache(config.responseCacheConfig, metrics);
+      }
+      final RequestDispatcher dispatcher = new RequestDispatcher(config.routes,
+          offloadExecutor(), config.maxOffloadedRequests, responseCache);
+      final KeepAliveConfig keepAlive = config.keepAliveConfig;
+      if (keepAlive.pingInterval != null || keepAlive.idleTimeout != null) {
+        // A single timing wheel for all the connections: scheduling and cancelling are constant
+        // time, where a scheduled task per connection would cost a log(n) heap update
+        keepAliveTimer = new HashedWheelTimer(new DefaultThreadFactory("rxh2-keepalive", true),
+            KEEPALIVE_TICK_MILLIS, TimeUnit.MILLISECONDS);
+      }
+
       ServerBootstrap b = new ServerBootstrap();
       final MainChannelInitializer childHandler = new MainChannelInitializer(
-          (Channel channel) -> Http2Processor.createFor(channel),
-          config.secure
+          (Channel channel) -> Http2Processor.createFor(channel, dispatcher, metrics,
+              config.http2Config, keepAliveTimer, keepAlive,
+              balancer.loadOf(channel.eventLoop())),
+          sslContextProvider,
+          config.outboundWindow,
+          metrics,
+          connections,
+          balancer,
+          shuttingDown::get,
+          config.leakTracking
       );
 
+      final ByteBufAllocator allocator = config.allocator != null
+          ? config.allocator : PooledByteBufAllocator.DEFAULT;
       b.group(bossGroup, workerGroup)
-          .channel(NioServerSocketChannel.class)
-          .option(ChannelOption.SO_BACKLOG, 100)
           .handler(new LoggingHandler(LogLevel.INFO))
+          .option(ChannelOption.ALLOCATOR, allocator)
+          .childOption(ChannelOption.ALLOCATOR, allocator)
           .childHandler(childHandler);
+      transportFactory.configure(b);
 
-      // Start the server.
+      // Start the server. With SO_REUSEPORT all the acceptors bind to the port of the first one
       try {
-        b.bind(config.port).sync();
+        Channel first = b.bind(config.port).sync().channel();
+        serverChannels.add(first);
+        final int port = ((InetSocketAddress) first.localAddress()).getPort();
+        for (int i = 1; i < acceptors; i++) {
+          serverChannels.add(b.bind(port).sync().channel());
+        }
+        logger.info("Bound {} acceptor(s) to port {} using the {} transport",
+            acceptors, port, transportFactory.transport());
+        scheduleMetricsExport();
       } catch (InterruptedException e) {
         shutdownGracefully();
         Thread.currentThread().interrupt();
@@ -65,13 +155,109 @@ public class ServerImpl implements ServerHandle {
     return this;
   }
 
+  private Executor offloadExecutor() {
+    if (config.offloadExecutor != null) {
+      return config.offloadExecutor;
+    }
+    final boolean offloading = config.routes.stream()
+        .anyMatch(route -> route.execution == Execution.OFFLOADED);
+    if (!offloading) {
+      return null;
+    }
+    defaultOffloadExecutor = Executors.newFixedThreadPool(DEFAULT_OFFLOAD_THREADS,
+        new DefaultThreadFactory("rxh2-handler", true));
+    return defaultOffloadExecutor;
+  }
+
+  private void scheduleMetricsExport() {
+    final MetricsExporter exporter = config.metricsExporter;
+    if (exporter == null) {
+      return;
+    }
+    final long interval = config.metricsExportInterval.toNanos();
+    // On a boss thread, as the workers are busier
+    bossGroup.next().scheduleAtFixedRate(() -> {
+      try {
+        exporter.export(metrics.snapshot());
+      } catch (Exception e) {
+        logger.warn("Metrics exporter failed", e);
+      }
+    }, interval, interval, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Stops accepting connections and drains the live ones: each gets a GOAWAY and is closed once
+   * its streams are done. The connections still open after the shutdown timeout are closed, then
+   * the event loops are shut down.
+   */
   @Override
   public void shutdownGracefully() {
+    if (!shuttingDown.compareAndSet(false, true)) {
+      return;
+    }
     if (config.shutdownCallback != null) {
       config.shutdownCallback.run();
     }
-    bossGroup.shutdownGracefully();
-    workerGroup.shutdownGracefully();
+    // Connections accepted before the server channels are closed may be registered after, so
+    // they are drained once all are closed, and the initializer drains those registered later
+    final List<Channel> acceptors = new ArrayList<>(serverChannels);
+    if (acceptors.isEmpty()) {
+      drain();
+      return;
+    }
+    final AtomicInteger open = new AtomicInteger(acceptors.size());
+    for (Channel serverChannel : acceptors) {
+      serverChannel.close().addListener(future -> {
+        if (open.decrementAndGet() == 0) {
+          drain();
+        }
+      });
+    }
+  }
+
+  private void drain() {
+    logger.info("Draining {} connection(s)", connections.size());
+    for (Channel connection : connections) {
+      final ChannelProcessor processor = connection.attr(MainChannelInitializer.PROCESSOR_KEY)
+          .get();
+      if (processor != null) {
+        processor.shutdownGracefully();
+      } else {
+        connection.close();
+      }
+    }
+
+    final ScheduledFuture<?> deadline = bossGroup.next().schedule(() -> {
+      logger.info("Closing {} connection(s) still open after the shutdown timeout",
+          connections.size());
+      connections.close();
+    }, config.shutdownTimeout.toNanos(), TimeUnit.NANOSECONDS);
+    whenConnectionsClosed(() -> {
+      deadline.cancel(false);
+      bossGroup.shutdownGracefully();
+      workerGroup.shutdownGracefully();
+      if (defaultOffloadExecutor != null) {
+        defaultOffloadExecutor.shutdown();
+      }
+      if (keepAliveTimer != null) {
+        keepAliveTimer.stop();
+      }
+      if (responseCache != null) {
+        responseCache.clear();
+      }
+    });
+  }
+
+  /**
+   * Runs the task once no connection is left. The close future of the group only covers the
+   * connections it holds when created, so it's taken again for those registered meanwhile.
+   */
+  private void whenConnectionsClosed(Runnable task) {
+    if (connections.isEmpty()) {
+      task.run();
+      return;
+    }
+    connections.newCloseFuture().addListener(future -> whenConnectionsClosed(task));
   }
 
   @Override
@@ -80,6 +266,33 @@ public class ServerImpl implements ServerHandle {
     workerGroup.terminationFuture().get();
   }
 
+  @Override
+  public void reloadSslContext() throws SSLException, CertificateException {
+    requireSslContextProvider().reload();
+  }
+
+  @Override
+  public void reloadSslContext(SslContext sslContext) {
+    requireSslContextProvider().reload(sslContext);
+  }
+
+  @Override
+  public ServerMetrics metrics() {
+    return metrics.snapshot();
+  }
+
+  @Override
+  public List<EventLoopLoad> eventLoopLoads() {
+    return balancer.snapshot();
+  }
+
+  private SslContextProvider requireSslContextProvider() {
+    if (sslContextProvider == null) {
+      throw new IllegalStateException("The server is not secure");
+    }
+    return sslContextProvider;
+  }
+
   /**
    * Immutable server configuration data to instantiate a running server.
    */
@@ -89,6 +302,154 @@ public class ServerImpl implements ServerHandle {
     private final int port;
     private final ChannelHandler serverChannelHandler;
     private final Runnable shutdownCallback;
-    private final boolean secure;
+    // Null when the server is not secure
+    private final SslConfig sslConfig;
+    private final TransportConfig transportConfig;
+    // How many OutboundByteBufs are requested and written before flushing
+    private final int outboundWindow;
+    // Null when the metrics are not exported
+    private final MetricsExporter metricsExporter;
+    private final Duration metricsExportInterval;
+    // Matched in order
+    private final List<RouteConfig> routes;
+    // Null to use a default fixed thread pool
+    private final Executor offloadExecutor;
+    private final int maxOffloadedRequests;
+    // How long the connections are given to finish their streams on shutdown
+    private final Duration shutdownTimeout;
+    private final Http2Config http2Config;
+    // Null to use the default pooled allocator
+    private final ByteBufAllocator allocator;
+    // Replaces the allocator of every connection with a LeakTrackingAllocator
+    private final boolean leakTracking;
+    private final KeepAliveConfig keepAliveConfig;
+    // Null when responses are not cached
+    private final ResponseCacheConfig responseCacheConfig;
+  }
+
+  /**
+   * Immutable keepalive configuration. Null durations disable the corresponding checks.
+   */
+  @Data
+  public static class KeepAliveConfig {
+
+    // How long nothing is read from a connection before it's sent a PING
+    private final Duration pingInterval;
+    // How long the peer has to acknowledge the PING before the connection is closed
+    private final Duration pingTimeout;
+    // How long a connection without streams is kept open
+    private final Duration idleTimeout;
+  }
+
+  /**
+   * Immutable response cache configuration.
+   */
+  @Data
+  public static class ResponseCacheConfig {
+
+    // Header blocks and bodies held at most, the least recently used paths are evicted beyond
+    private final long maxBytes;
+    private final int maxEntrySize;
+    // Caps the freshness of the responses
+    private final Duration maxTtl;
+  }
+
+  /**
+   * Immutable HTTP/2 configuration: the SETTINGS advertised to the clients and enforced on them,
+   * and the budgets protecting the event loops from floods of frames which don't carry requests.
+   */
+  @Data
+  public static class Http2Config {
+
+    // The defaults of the server builder
+    public static final long DEFAULT_HEADER_TABLE_SIZE = 4096;
+    public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 256;
+    public static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    public static final long DEFAULT_MAX_HEADER_LIST_SIZE = 8192;
+    public static final int DEFAULT_MAX_HEADER_BLOCK_SIZE = 65536;
+    public static final int DEFAULT_MAX_BUFFERED_BYTES = 1 << 20;
+    public static final int DEFAULT_RESETS_PER_SECOND = 100;
+    public static final int DEFAULT_RESET_BURST = 500;
+    public static final int DEFAULT_CONTROL_FRAMES_PER_SECOND = 100;
+    public static final int DEFAULT_CONTROL_FRAME_BURST = 500;
+    public static final int DEFAULT_EMPTY_FRAMES_PER_SECOND = 100;
+    public static final int DEFAULT_EMPTY_FRAME_BURST = 100;
+
+    public static final Http2Config DEFAULT = new Http2Config(DEFAULT_HEADER_TABLE_SIZE,
+        DEFAULT_MAX_CONCURRENT_STREAMS, DEFAULT_INITIAL_WINDOW_SIZE, DEFAULT_MAX_FRAME_SIZE,
+        DEFAULT_MAX_HEADER_LIST_SIZE, DEFAULT_MAX_HEADER_BLOCK_SIZE, DEFAULT_MAX_BUFFERED_BYTES,
+        DEFAULT_RESETS_PER_SECOND, DEFAULT_RESET_BURST, DEFAULT_CONTROL_FRAMES_PER_SECOND,
+        DEFAULT_CONTROL_FRAME_BURST, DEFAULT_EMPTY_FRAMES_PER_SECOND, DEFAULT_EMPTY_FRAME_BURST);
+
+    private final long headerTableSize;
+    private final int maxConcurrentStreams;
+    // Also the size of the connection window when larger than the protocol default
+    private final int initialWindowSize;
+    private final int maxFrameSize;
+    private final long maxHeaderListSize;
+    // Compressed size of a header block split across CONTINUATION frames
+    private final int maxHeaderBlockSize;
+    // Inbound bytes held per connection, DATA not yet consumed by the handlers included, above
+    // which the connection is no longer read
+    private final int maxBufferedBytes;
+    // Streams reset by the peer, reset because of its errors or refused
+    private final int resetsPerSecond;
+    private final int resetBurst;
+    // PING, SETTINGS, PRIORITY and PRIORITY_UPDATE frames
+    private final int controlFramesPerSecond;
+    private final int controlFrameBurst;
+    // DATA, HEADERS and CONTINUATION frames without payload nor END_STREAM / END_HEADERS
+    private final int emptyFramesPerSecond;
+    private final int emptyFrameBurst;
+  }
+
+  /**
+   * Immutable route configuration: the requests whose path matches are handled by the handler.
+   */
+  @Data
+  public static class RouteConfig {
+
+    // An exact path, or a prefix followed by "*"
+    private final String path;
+    private final Execution execution;
+    private final RequestHandler handler;
+  }
+
+  /**
+   * Immutable transport configuration. The native only options are ignored by the NIO transport.
+   */
+  @Data
+  public static class TransportConfig {
+
+    private final Transport transport;
+    private final int backlog;
+    // Number of server sockets bound with SO_REUSEPORT
+    private final int acceptors;
+    private final boolean tcpNoDelay;
+    // 0 disables TCP_FASTOPEN
+    private final int tcpFastOpenQueueLength;
+    private final boolean edgeTriggered;
+    // The index of the worker loop the connections of each pinned host are placed on
+    private final Map<InetAddress, Integer> pinnedHosts;
+  }
+
+  /**
+   * Immutable TLS configuration. Either a prebuilt {@link SslContext} or the key and certificate
+   * files are used; when neither is given a self signed certificate is generated.
+   */
+  @Data
+  public static class SslConfig {
+
+    private final SslContext sslContext;
+    private final File keyCertChainFile;
+    private final File keyFile;
+    private final String keyPassword;
+    // 0 means the provider default
+    private final long sessionCacheSize;
+    // In seconds, 0 means the provider default
+    private final long sessionTimeout;
+    // Each key is OpenSslSessionTicketKey.TICKET_KEY_SIZE bytes: name, HMAC key and AES key
+    private final byte[][] sessionTicketKeys;
   }
 }
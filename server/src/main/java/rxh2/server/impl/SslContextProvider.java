@@ -0,0 +1,120 @@
+package rxh2.server.impl;
+
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import java.security.cert.CertificateException;
+import java.util.Arrays;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSessionContext;
+import rxh2.server.impl.ServerImpl.SslConfig;
+
+/**
+ * Holds the {@link SslContext} shared by all the connections of a server. The context is built
+ * once when the server binds and can be atomically swapped at runtime to reload the certificates:
+ * connections accepted after the reload use the new context while established ones keep going
+ * with the old one.
+ */
+class SslContextProvider {
+
+  private static final InternalLogger logger = InternalLoggerFactory
+      .getInstance(SslContextProvider.class);
+
+  private final SslConfig config;
+  private volatile SslContext sslContext;
+
+  SslContextProvider(SslConfig config) throws SSLException, CertificateException {
+    this.config = config;
+    this.sslContext = config.getSslContext() != null ? config.getSslContext() : build();
+  }
+
+  SslContext get() {
+    return sslContext;
+  }
+
+  /**
+   * Rebuilds the context reading again the key and certificate files.
+   */
+  void reload() throws SSLException, CertificateException {
+    if (config.getSslContext() != null) {
+      throw new IllegalStateException(
+          "The server was configured with a prebuilt SslContext: pass the new one explicitly");
+    }
+    sslContext = build();
+    logger.info("SslContext reloaded");
+  }
+
+  /**
+   * Replaces the context with a prebuilt one.
+   */
+  void reload(SslContext newContext) {
+    sslContext = newContext;
+    logger.info("SslContext replaced");
+  }
+
+  private SslContext build() throws SSLException, CertificateException {
+    final SslContextBuilder builder;
+    if (config.getKeyCertChainFile() != null) {
+      builder = SslContextBuilder.forServer(
+          config.getKeyCertChainFile(), config.getKeyFile(), config.getKeyPassword());
+    } else {
+      logger.warn("No key and certificate configured: using a self signed certificate");
+      SelfSignedCertificate ssc = new SelfSignedCertificate();
+      builder = SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey());
+    }
+
+    final SslProvider provider = OpenSsl.isAlpnSupported() ? SslProvider.OPENSSL : SslProvider.JDK;
+    logger.debug("Building SslContext with provider {}", provider);
+
+    final SslContext context = builder
+        .sslProvider(provider)
+        /* NOTE: the cipher filter may not include all ciphers required by the HTTP/2 specification.
+         * Please refer to the HTTP/2 specification for cipher requirements. */
+        .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+        .sessionCacheSize(config.getSessionCacheSize())
+        .sessionTimeout(config.getSessionTimeout())
+        .applicationProtocolConfig(new ApplicationProtocolConfig(
+            Protocol.ALPN,
+            // NO_ADVERTISE is currently the only mode supported by both OpenSsl and JDK providers.
+            SelectorFailureBehavior.NO_ADVERTISE,
+            // ACCEPT is currently the only mode supported by both OpenSsl and JDK providers.
+            SelectedListenerFailureBehavior.ACCEPT,
+            ApplicationProtocolNames.HTTP_2))
+        .build();
+
+    configureSessionTickets(context.sessionContext());
+    return context;
+  }
+
+  private void configureSessionTickets(SSLSessionContext sessionContext) {
+    if (config.getSessionTicketKeys() == null) {
+      return;
+    }
+    if (!(sessionContext instanceof OpenSslSessionContext)) {
+      logger.warn("Session ticket keys are only supported by the OpenSSL provider: ignoring them");
+      return;
+    }
+    ((OpenSslSessionContext) sessionContext).setTicketKeys(Arrays
+        .stream(config.getSessionTicketKeys())
+        .map(key -> new OpenSslSessionTicketKey(
+            Arrays.copyOfRange(key, 0, OpenSslSessionTicketKey.NAME_SIZE),
+            Arrays.copyOfRange(key, OpenSslSessionTicketKey.NAME_SIZE,
+                OpenSslSessionTicketKey.NAME_SIZE + OpenSslSessionTicketKey.HMAC_KEY_SIZE),
+            Arrays.copyOfRange(key, OpenSslSessionTicketKey.NAME_SIZE
+                + OpenSslSessionTicketKey.HMAC_KEY_SIZE, OpenSslSessionTicketKey.TICKET_KEY_SIZE)))
+        .toArray(OpenSslSessionTicketKey[]::new));
+  }
+}
@@ -0,0 +1,111 @@
+package rxh2.server.impl;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import java.util.concurrent.ThreadFactory;
+import rxh2.server.Transport;
+import rxh2.server.impl.ServerImpl.TransportConfig;
+
+/**
+ * Creates the transport specific Netty objects (event loop groups, server channels and their
+ * options) for the configured {@link Transport}, falling back to NIO when the native transport
+ * is not available.
+ */
+class TransportFactory {
+
+  private static final InternalLogger logger = InternalLoggerFactory
+      .getInstance(TransportFactory.class);
+
+  private final TransportConfig config;
+  private final Transport transport;
+
+  TransportFactory(TransportConfig config) {
+    this.config = config;
+    this.transport = resolve(config.getTransport());
+  }
+
+  private static Transport resolve(Transport requested) {
+    if (requested == Transport.EPOLL && !Epoll.isAvailable()) {
+      logger.warn("Native epoll transport not available, falling back to NIO",
+          Epoll.unavailabilityCause());
+      return Transport.NIO;
+    }
+    return requested;
+  }
+
+  Transport transport() {
+    return transport;
+  }
+
+  EventLoopGroup newEventLoopGroup(int nThreads, ThreadFactory threadFactory) {
+    if (transport == Transport.EPOLL) {
+      return new EpollEventLoopGroup(nThreads, threadFactory);
+    }
+    return new NioEventLoopGroup(nThreads, threadFactory);
+  }
+
+  /**
+   * @return a group registering its channels on the loop chosen by the balancer rather than on
+   * the next one in turn. The balancer must be started with the group before it's used.
+   */
+  EventLoopGroup newBalancedEventLoopGroup(int nThreads, ThreadFactory threadFactory,
+      ConnectionBalancer balancer) {
+    return new BalancedEventLoopGroup(newEventLoopGroup(nThreads, threadFactory), balancer);
+  }
+
+  /**
+   * @return how many server sockets are bound to the port. More than one only with SO_REUSEPORT,
+   * which is only supported by the native transport.
+   */
+  int acceptors() {
+    if (config.getAcceptors() > 1 && transport != Transport.EPOLL) {
+      logger.warn("Multiple acceptors require SO_REUSEPORT with the epoll transport: using one");
+      return 1;
+    }
+    return config.getAcceptors();
+  }
+
+  /**
+   * Sets the channel class and the transport options on the bootstrap.
+   */
+  void configure(ServerBootstrap bootstrap) {
+    bootstrap
+        .channel(serverChannelClass())
+        .option(ChannelOption.SO_BACKLOG, config.getBacklog())
+        .childOption(ChannelOption.TCP_NODELAY, config.isTcpNoDelay());
+
+    if (transport == Transport.EPOLL) {
+      final EpollMode mode = config.isEdgeTriggered()
+          ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+      bootstrap
+          .option(EpollChannelOption.EPOLL_MODE, mode)
+          .childOption(EpollChannelOption.EPOLL_MODE, mode);
+      if (acceptors() > 1) {
+        bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+      }
+      if (config.getTcpFastOpenQueueLength() > 0) {
+        bootstrap.option(EpollChannelOption.TCP_FASTOPEN, config.getTcpFastOpenQueueLength());
+      }
+    } else if (config.getTcpFastOpenQueueLength() > 0) {
+      logger.warn("TCP_FASTOPEN is only supported by the epoll transport: ignoring it");
+    }
+  }
+
+  private Class<? extends ServerChannel> serverChannelClass() {
+    if (transport == Transport.EPOLL) {
+      return EpollServerSocketChannel.class;
+    }
+    return NioServerSocketChannel.class;
+  }
+}
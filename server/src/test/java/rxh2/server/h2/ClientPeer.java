@@ -0,0 +1,345 @@
+package rxh2.server.h2;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import rxh2.h2.Headers;
+import rxh2.h2.frame.Frame;
+import rxh2.h2.frame.FrameDecoderImpl;
+import rxh2.h2.frame.FrameHeader;
+import rxh2.h2.frame.FrameHeader.Flags;
+import rxh2.h2.frame.FrameHeader.Type;
+import rxh2.h2.frame.FrameWriter;
+import rxh2.h2.hpack.HpackDecoder;
+import rxh2.h2.hpack.HpackEncoder;
+import rxh2.server.impl.MetricsRecorder;
+import rxh2.server.impl.OutboundByteBuf;
+import rxh2.server.impl.ServerImpl.Http2Config;
+
+/**
+ * Plays the client of a {@link Http2Processor} on an {@link EmbeddedChannel}: the frames written
+ * are handed to the processor as if read from the socket, and what the processor sends is
+ * decoded back into frames. The frames of the outbound subscriber and the GOAWAY written
+ * straight to the channel on connection errors both end up in the outbound messages of the
+ * channel, in order.
+ */
+public class ClientPeer {
+
+  private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n"
+      .getBytes(CharsetUtil.US_ASCII);
+
+  private final EmbeddedChannel channel = new EmbeddedChannel();
+  private final MetricsRecorder metrics = new MetricsRecorder();
+  private final List<Http2Stream> streams = new ArrayList<>();
+  private final Http2Processor processor;
+  private final HpackEncoder hpackEncoder = new HpackEncoder(4096, 4096);
+  private final HpackDecoder hpackDecoder = new HpackDecoder(4096, Long.MAX_VALUE);
+  private final FrameDecoderImpl frameDecoder = new FrameDecoderImpl(channel.alloc(),
+      0xFFFFFF, false);
+  private final List<Received> received = new ArrayList<>();
+  // Reads requested by the processor, and the ones done so far
+  private long readsRequested;
+  private long reads;
+
+  public ClientPeer(StreamHandler handler) {
+    this(Http2Config.DEFAULT, handler);
+  }
+
+  /**
+   * @param handler invoked for the streams after they were added to {@link #streams()}
+   */
+  public ClientPeer(Http2Config config, StreamHandler handler) {
+    processor = Http2Processor.createFor(channel, stream -> {
+      streams.add(stream);
+      handler.onStream(stream);
+    }, metrics, config);
+    processor.subscribe(new Subscriber<OutboundByteBuf>() {
+      @Override
+      public void onSubscribe(Subscription s) {
+        s.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(OutboundByteBuf outbound) {
+        channel.writeAndFlush(outbound.getBuffer());
+      }
+
+      @Override
+      public void onError(Throwable t) {
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+    processor.onSubscribe(new Subscription() {
+      @Override
+      public void request(long n) {
+        readsRequested += n;
+      }
+
+      @Override
+      public void cancel() {
+      }
+    });
+    frameDecoder.subscribe(new Subscriber<Frame>() {
+      @Override
+      public void onSubscribe(Subscription s) {
+      }
+
+      @Override
+      public void onNext(Frame frame) {
+        // Copied to the heap, so that the tests don't have to release anything
+        final Received frameReceived = new Received(frame.getHeader().copy(),
+            Unpooled.copiedBuffer(frame.getPayload()));
+        frame.release();
+        if (frameReceived.type() == Type.HEADERS) {
+          frameReceived.headers = new Headers();
+          hpackDecoder.decode(frameReceived.payload.duplicate(),
+              (name, value, sensitive) -> frameReceived.headers.add(name, value));
+        }
+        received.add(frameReceived);
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        throw new AssertionError("Invalid frame sent", t);
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+  }
+
+  public EmbeddedChannel channel() {
+    return channel;
+  }
+
+  public MetricsRecorder metrics() {
+    return metrics;
+  }
+
+  public Http2Processor processor() {
+    return processor;
+  }
+
+  /**
+   * @return the streams the handler was invoked for, in order
+   */
+  public List<Http2Stream> streams() {
+    return streams;
+  }
+
+  /**
+   * @return the reads the processor requested and which weren't done yet
+   */
+  public long readsOutstanding() {
+    return Math.max(0, readsRequested - reads);
+  }
+
+  /**
+   * Hands a buffer to the processor as if read from the channel.
+   */
+  public ClientPeer write(ByteBuf buffer) {
+    reads++;
+    processor.onNext(buffer);
+    channel.runPendingTasks();
+    return this;
+  }
+
+  /**
+   * Sends the connection preface followed by a SETTINGS frame.
+   *
+   * @param settings pairs of setting identifier and value
+   */
+  public ClientPeer preface(long... settings) {
+    final ByteBuf preface = channel.alloc().buffer().writeBytes(PREFACE);
+    return write(preface.writeBytes(settingsBuffer(settings)));
+  }
+
+  /**
+   * Sends the preface and acknowledges the SETTINGS of the server, then discards the frames
+   * received so far.
+   */
+  public ClientPeer connect() {
+    preface().settingsAck();
+    read();
+    return this;
+  }
+
+  public ClientPeer settings(long... settings) {
+    return write(settingsBuffer(settings));
+  }
+
+  private ByteBuf settingsBuffer(long... settings) {
+    return FrameWriter.settings(channel.alloc(), settings);
+  }
+
+  public ClientPeer settingsAck() {
+    return write(FrameWriter.settingsAck(channel.alloc()));
+  }
+
+  public ClientPeer ping(long opaqueData) {
+    return write(FrameWriter.ping(channel.alloc(), opaqueData, false));
+  }
+
+  public ClientPeer rstStream(int streamId, long errorCode) {
+    return write(FrameWriter.rstStream(channel.alloc(), streamId, errorCode));
+  }
+
+  /**
+   * Sends a HEADERS frame, HPACK encoded with the dynamic table of the client.
+   *
+   * @param namesAndValues pairs of header name and value
+   */
+  public ClientPeer headers(int streamId, boolean endStream, CharSequence... namesAndValues) {
+    final ByteBuf block = channel.alloc().buffer();
+    hpackEncoder.beginBlock(block);
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      hpackEncoder.encodeHeader(block, namesAndValues[i], namesAndValues[i + 1], false);
+    }
+    return write(FrameWriter.headers(channel.alloc(), streamId, block, endStream, 16384));
+  }
+
+  /**
+   * Sends a GET request for a path.
+   */
+  public ClientPeer get(int streamId, boolean endStream, CharSequence path) {
+    return headers(streamId, endStream, ":method", "GET", ":scheme", "http", ":authority",
+        "localhost", ":path", path);
+  }
+
+  /**
+   * Sends a DATA frame of zeros.
+   */
+  public ClientPeer data(int streamId, int length, boolean endStream) {
+    return write(FrameWriter.data(channel.alloc(), streamId,
+        channel.alloc().buffer(length).writeZero(length), endStream));
+  }
+
+  /**
+   * Sends a frame as is, however invalid.
+   */
+  public ClientPeer frame(Type type, int flags, int streamId, byte... payload) {
+    final ByteBuf frame = channel.alloc().buffer(FrameWriter.FRAME_HEADER_SIZE + payload.length);
+    FrameWriter.writeFrameHeader(frame, payload.length, type, flags, streamId);
+    return write(frame.writeBytes(payload));
+  }
+
+  /**
+   * @return the frames sent by the processor since the last call
+   */
+  public List<Received> read() {
+    channel.runPendingTasks();
+    ByteBuf outbound;
+    while ((outbound = channel.readOutbound()) != null) {
+      frameDecoder.onNext(outbound);
+    }
+    final List<Received> frames = new ArrayList<>(received);
+    received.clear();
+    return frames;
+  }
+
+  /**
+   * @return the frames of a type sent by the processor since the last call, the others are
+   * discarded
+   */
+  public List<Received> read(Type type) {
+    final List<Received> frames = new ArrayList<>();
+    for (Received frame : read()) {
+      if (frame.type() == type) {
+        frames.add(frame);
+      }
+    }
+    return frames;
+  }
+
+  /**
+   * Closes the connection, releasing the streams and the frames not read.
+   */
+  public void close() {
+    processor.onComplete();
+    channel.finishAndReleaseAll();
+    frameDecoder.onComplete();
+  }
+
+  /**
+   * A frame sent by the processor.
+   */
+  public static final class Received {
+
+    private final FrameHeader header;
+    private final ByteBuf payload;
+    private Headers headers;
+
+    Received(FrameHeader header, ByteBuf payload) {
+      this.header = header;
+      this.payload = payload;
+    }
+
+    public Type type() {
+      return header.getType();
+    }
+
+    public int streamId() {
+      return header.getStreamId();
+    }
+
+    public boolean endStream() {
+      return Flags.END_STREAM.isSetInByte(header.getFlags());
+    }
+
+    public boolean ack() {
+      return Flags.ACK.isSetInByte(header.getFlags());
+    }
+
+    public ByteBuf payload() {
+      return payload;
+    }
+
+    /**
+     * @return the decoded headers of a HEADERS frame
+     */
+    public Headers headers() {
+      return headers;
+    }
+
+    /**
+     * @return the error code of a RST_STREAM or GOAWAY frame
+     */
+    public long errorCode() {
+      return payload.getUnsignedInt(type() == Type.GOAWAY ? 4 : 0);
+    }
+
+    /**
+     * @return the increment of a WINDOW_UPDATE frame
+     */
+    public int windowIncrement() {
+      return payload.getInt(0) & 0x7FFFFFFF;
+    }
+
+    /**
+     * @return the settings of a SETTINGS frame by identifier, in order
+     */
+    public Map<Integer, Long> settings() {
+      final Map<Integer, Long> settings = new LinkedHashMap<>();
+      for (int i = 0; i < payload.readableBytes(); i += 6) {
+        settings.put(payload.getUnsignedShort(i), payload.getUnsignedInt(i + 2));
+      }
+      return settings;
+    }
+
+    @Override
+    public String toString() {
+      return header.toString();
+    }
+  }
+}
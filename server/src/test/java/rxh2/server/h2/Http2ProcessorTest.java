@@ -0,0 +1,441 @@
+package rxh2.server.h2;
+
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.util.ReferenceCountUtil;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rxh2.h2.Headers;
+import rxh2.h2.frame.FrameHeader.Flags;
+import rxh2.h2.frame.FrameHeader.Type;
+import rxh2.h2.hpack.HeaderNames;
+import rxh2.server.h2.ClientPeer.Received;
+import rxh2.server.impl.ServerImpl.Http2Config;
+
+public class Http2ProcessorTest {
+
+  // Streams left open, their requests are never answered
+  private static final StreamHandler IGNORE = stream -> { };
+
+  private ClientPeer peer;
+
+  @AfterEach
+  public void close() {
+    if (peer != null) {
+      peer.close();
+    }
+  }
+
+  private static Http2Config config(int maxConcurrentStreams, long maxHeaderListSize) {
+    return new Http2Config(4096, maxConcurrentStreams, 65535, 16384, maxHeaderListSize, 65536,
+        1 << 20, 100, 500, 100, 500, 100, 100);
+  }
+
+  private static void consume(Http2Stream stream) {
+    // Failed with the connection once the test is done
+    stream.body().subscribe(ReferenceCountUtil::release, e -> { });
+  }
+
+  private static void assertGoAway(ClientPeer peer, Http2Error error) {
+    final List<Received> goAways = peer.read(Type.GOAWAY);
+    Assertions.assertEquals(1, goAways.size());
+    Assertions.assertEquals(error.code(), goAways.get(0).errorCode());
+    Assertions.assertFalse(peer.channel().isOpen());
+  }
+
+  private static void assertReset(Received frame, int streamId, Http2Error error) {
+    Assertions.assertEquals(Type.RST_STREAM, frame.type());
+    Assertions.assertEquals(streamId, frame.streamId());
+    Assertions.assertEquals(error.code(), frame.errorCode());
+  }
+
+  @Test
+  public void answersRequestsAndForgetsClosedStreams() {
+    peer = new ClientPeer(StreamHandler.notFound()).connect();
+    peer.get(1, true, "/");
+    final List<Received> frames = peer.read();
+    Assertions.assertEquals(1, frames.size());
+    Assertions.assertEquals(1, frames.get(0).streamId());
+    Assertions.assertTrue(frames.get(0).endStream());
+    Assertions.assertEquals("404", frames.get(0).headers().get(HeaderNames.STATUS).toString());
+    Assertions.assertEquals(0, peer.metrics().snapshot().getActiveStreams());
+    Assertions.assertEquals(1, peer.metrics().snapshot().getTotalStreams());
+
+    // A closed stream can't be opened again
+    peer.get(1, true, "/");
+    assertGoAway(peer, Http2Error.STREAM_CLOSED);
+    Assertions.assertEquals(1, peer.streams().size());
+  }
+
+  @Test
+  public void closesStreamsResetByThePeer() {
+    peer = new ClientPeer(IGNORE).connect();
+    peer.get(1, false, "/");
+    Assertions.assertEquals(1, peer.metrics().snapshot().getActiveStreams());
+    final Throwable[] bodyError = new Throwable[1];
+    peer.streams().get(0).body().subscribe(ReferenceCountUtil::release, e -> bodyError[0] = e);
+
+    peer.rstStream(1, Http2Error.CANCEL.code());
+    Assertions.assertEquals(0, peer.metrics().snapshot().getActiveStreams());
+    Assertions.assertEquals(Http2Stream.State.CLOSED, peer.streams().get(0).state());
+    Assertions.assertNotNull(bodyError[0]);
+
+    // Too late for the stream, but not a reason to close the connection
+    peer.data(1, 10, true);
+    final List<Received> frames = peer.read();
+    Assertions.assertEquals(1, frames.size());
+    assertReset(frames.get(0), 1, Http2Error.STREAM_CLOSED);
+    Assertions.assertTrue(peer.channel().isOpen());
+  }
+
+  @Test
+  public void refusesStreamsBeyondTheConcurrencyLimit() {
+    peer = new ClientPeer(config(2, 8192), IGNORE).connect();
+    peer.get(1, false, "/").get(3, false, "/").get(5, false, "/");
+    final List<Received> frames = peer.read();
+    Assertions.assertEquals(1, frames.size());
+    assertReset(frames.get(0), 5, Http2Error.REFUSED_STREAM);
+    Assertions.assertEquals(2, peer.streams().size());
+
+    // Once a stream is done, the next one is accepted
+    peer.data(1, 0, true);
+    peer.streams().get(0).writeHeaders(new Headers(1).add(HeaderNames.STATUS, "200"), true);
+    peer.get(7, false, "/");
+    Assertions.assertEquals(3, peer.streams().size());
+    Assertions.assertEquals(7, peer.streams().get(2).id());
+    Assertions.assertTrue(peer.read(Type.RST_STREAM).isEmpty());
+  }
+
+  @Test
+  public void answersOversizedHeaderListsWith431() {
+    peer = new ClientPeer(config(100, 1024), IGNORE).connect();
+    peer.headers(1, true, ":method", "GET", ":scheme", "http", ":path", "/",
+        "x-large", "x".repeat(2000), "x-after", "indexed");
+    final List<Received> frames = peer.read();
+    Assertions.assertEquals(1, frames.size());
+    Assertions.assertEquals(1, frames.get(0).streamId());
+    Assertions.assertTrue(frames.get(0).endStream());
+    Assertions.assertEquals("431", frames.get(0).headers().get(HeaderNames.STATUS).toString());
+    // The handler never sees the request, and the stream is done
+    Assertions.assertTrue(peer.streams().isEmpty());
+    Assertions.assertEquals(0, peer.metrics().snapshot().getActiveStreams());
+
+    // The decoder kept its table in sync: the field indexed after the oversized one is
+    // referenced by index in the next request
+    peer.headers(3, true, ":method", "GET", ":scheme", "http", ":path", "/",
+        "x-after", "indexed");
+    Assertions.assertEquals(1, peer.streams().size());
+    Assertions.assertEquals("indexed",
+        peer.streams().get(0).headers().get("x-after").toString());
+  }
+
+  @Test
+  public void rejectsHeadersOnServerStreams() {
+    peer = new ClientPeer(IGNORE).connect();
+    peer.get(2, true, "/");
+    assertGoAway(peer, Http2Error.PROTOCOL_ERROR);
+    Assertions.assertTrue(peer.streams().isEmpty());
+    Assertions.assertEquals(1, peer.metrics().snapshot().getDecodeErrors());
+  }
+
+  @Test
+  public void rejectsHeadersOnTheConnection() {
+    peer = new ClientPeer(IGNORE).connect();
+    peer.get(0, true, "/");
+    assertGoAway(peer, Http2Error.PROTOCOL_ERROR);
+  }
+
+  @Test
+  public void rejectsEmptyPaddedHeaders() {
+    peer = new ClientPeer(IGNORE).connect();
+    peer.frame(Type.HEADERS, Flags.PADDED.mask() | Flags.END_HEADERS.mask(), 1);
+    assertGoAway(peer, Http2Error.PROTOCOL_ERROR);
+    Assertions.assertTrue(peer.streams().isEmpty());
+  }
+
+  @Test
+  public void resetsStreamsSendingTrailersWithoutEndStream() {
+    peer = new ClientPeer(IGNORE).connect();
+    peer.get(1, false, "/");
+    peer.headers(1, false, "x-trailer", "1");
+    final List<Received> frames = peer.read();
+    Assertions.assertEquals(1, frames.size());
+    assertReset(frames.get(0), 1, Http2Error.PROTOCOL_ERROR);
+    Assertions.assertEquals(0, peer.metrics().snapshot().getActiveStreams());
+    Assertions.assertTrue(peer.channel().isOpen());
+  }
+
+  @Test
+  public void resetsStreamsSendingOversizedTrailers() {
+    peer = new ClientPeer(config(100, 1024), IGNORE).connect();
+    peer.get(1, false, "/");
+    final Throwable[] bodyError = new Throwable[1];
+    peer.streams().get(0).body().subscribe(ReferenceCountUtil::release, e -> bodyError[0] = e);
+    peer.headers(1, true, "x-trailer", "x".repeat(2000));
+    final List<Received> frames = peer.read();
+    Assertions.assertEquals(1, frames.size());
+    assertReset(frames.get(0), 1, Http2Error.PROTOCOL_ERROR);
+    Assertions.assertNull(peer.streams().get(0).trailers());
+    Assertions.assertNotNull(bodyError[0]);
+    Assertions.assertEquals(0, peer.metrics().snapshot().getActiveStreams());
+  }
+
+  @Test
+  public void rejectsDataBeyondTheConnectionWindow() {
+    peer = new ClientPeer(IGNORE).connect();
+    peer.get(1, false, "/");
+    // The body is never consumed, so the 65535 bytes of the window are never credited back
+    peer.data(1, 16384, false).data(1, 16384, false).data(1, 16384, false);
+    Assertions.assertTrue(peer.read().isEmpty());
+    peer.data(1, 16384, false);
+    assertGoAway(peer, Http2Error.FLOW_CONTROL_ERROR);
+  }
+
+  @Test
+  public void resetsStreamsSendingBeyondTheirWindow() {
+    final Http2Config config = new Http2Config(4096, 100, 16384, 16384, 8192, 65536, 1 << 20,
+        100, 500, 100, 500, 100, 100);
+    peer = new ClientPeer(config, IGNORE).connect();
+    peer.get(1, false, "/");
+    peer.data(1, 16384, false);
+    Assertions.assertTrue(peer.read().isEmpty());
+    peer.data(1, 1, false);
+    final List<Received> frames = peer.read();
+    Assertions.assertEquals(1, frames.size());
+    assertReset(frames.get(0), 1, Http2Error.FLOW_CONTROL_ERROR);
+    Assertions.assertTrue(peer.channel().isOpen());
+  }
+
+  @Test
+  public void updatesTheWindowsOnlyOnceTheBodyIsConsumed() {
+    peer = new ClientPeer(IGNORE).connect();
+    peer.get(1, false, "/");
+    peer.data(1, 16384, false).data(1, 16384, false).data(1, 16384, false);
+    Assertions.assertTrue(peer.read(Type.WINDOW_UPDATE).isEmpty());
+
+    consume(peer.streams().get(0));
+    // Credited once half of a window is consumed, the last 16384 bytes aren't yet
+    final List<Received> updates = peer.read(Type.WINDOW_UPDATE);
+    Assertions.assertEquals(2, updates.size());
+    Assertions.assertEquals(0, updates.get(0).streamId());
+    Assertions.assertEquals(32768, updates.get(0).windowIncrement());
+    Assertions.assertEquals(1, updates.get(1).streamId());
+    Assertions.assertEquals(32768, updates.get(1).windowIncrement());
+  }
+
+  @Test
+  public void stopsReadingWhileTheBodyIsUnconsumed() {
+    // At most 32768 bytes buffered, given the frame and header block sizes
+    final Http2Config config = new Http2Config(4096, 100, 65535, 16384, 1024, 1024, 32768,
+        100, 500, 100, 500, 100, 100);
+    peer = new ClientPeer(config, IGNORE).connect();
+    peer.get(1, false, "/");
+    Assertions.assertTrue(peer.readsOutstanding() > 0);
+    peer.data(1, 16384, false).data(1, 16384, false);
+    assertReadingStopped(peer);
+
+    consume(peer.streams().get(0));
+    Assertions.assertTrue(peer.readsOutstanding() > 0);
+  }
+
+  private static void assertReadingStopped(ClientPeer peer) {
+    // The reads already requested are done, but no more are requested
+    for (int i = 0; i < 100 && peer.readsOutstanding() > 0; i++) {
+      peer.ping(i);
+    }
+    Assertions.assertEquals(0, peer.readsOutstanding());
+  }
+
+  @Test
+  public void releasesTheBodyOfResetStreams() {
+    // At most 20000 bytes buffered, the handler never reads the bodies
+    final Http2Config config = new Http2Config(4096, 100, 65535, 16384, 1024, 1024, 20000,
+        100, 500, 100, 500, 100, 100);
+    peer = new ClientPeer(config, IGNORE).connect();
+    peer.get(1, false, "/");
+    peer.data(1, 16384, false).data(1, 4000, false);
+    assertReadingStopped(peer);
+    // Reset by the peer
+    peer.rstStream(1, Http2Error.CANCEL.code());
+    Assertions.assertTrue(peer.readsOutstanding() > 0);
+
+    peer.get(3, false, "/");
+    peer.data(3, 16384, false).data(3, 4000, false);
+    assertReadingStopped(peer);
+    // Reset by the server
+    peer.headers(3, false, "x-trailer", "1");
+    Assertions.assertTrue(peer.readsOutstanding() > 0);
+    Assertions.assertTrue(peer.channel().isOpen());
+  }
+
+  // Bursts of 4 frames, refilled at 1 per second so not at all during a test
+  private static Http2Config budgets() {
+    return new Http2Config(4096, 100, 65535, 16384, 8192, 65536, 1 << 20, 1, 4, 1, 4, 1, 4);
+  }
+
+  @Test
+  public void toleratesResetsAndPingsWithinTheirBudgets() {
+    peer = new ClientPeer(budgets(), StreamHandler.notFound()).connect();
+    peer.get(1, true, "/");
+    for (int i = 0; i < 4; i++) {
+      peer.rstStream(1, Http2Error.CANCEL.code());
+    }
+    // The SETTINGS of the preface took a control frame token
+    peer.ping(1).ping(2).ping(3);
+    Assertions.assertTrue(peer.read(Type.GOAWAY).isEmpty());
+    Assertions.assertTrue(peer.channel().isOpen());
+    Assertions.assertEquals(0, peer.metrics().snapshot().getFloodsDetected());
+  }
+
+  @Test
+  public void calmsDownFloodsOfResets() {
+    peer = new ClientPeer(budgets(), StreamHandler.notFound()).connect();
+    peer.get(1, true, "/");
+    for (int i = 0; i < 5; i++) {
+      peer.rstStream(1, Http2Error.CANCEL.code());
+    }
+    assertGoAway(peer, Http2Error.ENHANCE_YOUR_CALM);
+    Assertions.assertEquals(1, peer.metrics().snapshot().getFloodsDetected());
+    Assertions.assertEquals(0, peer.metrics().snapshot().getDecodeErrors());
+  }
+
+  @Test
+  public void calmsDownFloodsOfPings() {
+    peer = new ClientPeer(budgets(), IGNORE).connect();
+    peer.ping(1).ping(2).ping(3).ping(4);
+    final List<Received> frames = peer.read();
+    Assertions.assertEquals(4, frames.size());
+    for (int i = 0; i < 3; i++) {
+      Assertions.assertEquals(Type.PING, frames.get(i).type());
+      Assertions.assertTrue(frames.get(i).ack());
+    }
+    Assertions.assertEquals(Type.GOAWAY, frames.get(3).type());
+    Assertions.assertEquals(Http2Error.ENHANCE_YOUR_CALM.code(), frames.get(3).errorCode());
+    Assertions.assertEquals(1, peer.metrics().snapshot().getFloodsDetected());
+  }
+
+  @Test
+  public void calmsDownFloodsOfRefusedStreams() {
+    final Http2Config config = new Http2Config(4096, 1, 65535, 16384, 8192, 65536, 1 << 20, 1,
+        4, 100, 500, 100, 100);
+    peer = new ClientPeer(config, IGNORE).connect();
+    peer.get(1, false, "/");
+    for (int id = 3; id <= 11; id += 2) {
+      peer.get(id, false, "/");
+    }
+    final List<Received> frames = peer.read();
+    Assertions.assertEquals(5, frames.size());
+    for (int i = 0; i < 4; i++) {
+      assertReset(frames.get(i), 3 + 2 * i, Http2Error.REFUSED_STREAM);
+    }
+    Assertions.assertEquals(Type.GOAWAY, frames.get(4).type());
+    Assertions.assertEquals(Http2Error.ENHANCE_YOUR_CALM.code(), frames.get(4).errorCode());
+    Assertions.assertEquals(1, peer.metrics().snapshot().getFloodsDetected());
+  }
+
+  @Test
+  public void advertisesOnlyTheSettingsWhichAreNotDefaults() {
+    peer = new ClientPeer(IGNORE);
+    List<Received> frames = peer.read();
+    Assertions.assertEquals(1, frames.size());
+    Assertions.assertEquals(Type.SETTINGS, frames.get(0).type());
+    Assertions.assertEquals(Map.of(0x3, 256L, 0x6, 8192L), frames.get(0).settings());
+
+    // The settings of the client are acknowledged
+    peer.preface(0x4, 1 << 20);
+    frames = peer.read();
+    Assertions.assertEquals(1, frames.size());
+    Assertions.assertEquals(Type.SETTINGS, frames.get(0).type());
+    Assertions.assertTrue(frames.get(0).ack());
+  }
+
+  @Test
+  public void advertisesConfiguredSettingsAndConnectionWindow() {
+    final Http2Config config = new Http2Config(8192, 50, 1 << 20, 32768, 4096, 65536, 1 << 21,
+        100, 500, 100, 500, 100, 100);
+    peer = new ClientPeer(config, IGNORE);
+    final List<Received> frames = peer.read();
+    Assertions.assertEquals(2, frames.size());
+    Assertions.assertEquals(Map.of(0x1, 8192L, 0x3, 50L, 0x6, 4096L, 0x4, (long) (1 << 20),
+        0x5, 32768L), frames.get(0).settings());
+    // SETTINGS can't change the connection window
+    Assertions.assertEquals(Type.WINDOW_UPDATE, frames.get(1).type());
+    Assertions.assertEquals(0, frames.get(1).streamId());
+    Assertions.assertEquals((1 << 20) - 65535, frames.get(1).windowIncrement());
+  }
+
+  private static void assertRejected(Http2Error error, long... settings) {
+    final ClientPeer peer = new ClientPeer(IGNORE);
+    try {
+      peer.read();
+      peer.preface(settings);
+      assertGoAway(peer, error);
+    } finally {
+      peer.close();
+    }
+  }
+
+  @Test
+  public void rejectsInvalidPeerSettings() {
+    assertRejected(Http2Error.PROTOCOL_ERROR, 0x2, 2);
+    assertRejected(Http2Error.FLOW_CONTROL_ERROR, 0x4, 1L << 31);
+    assertRejected(Http2Error.PROTOCOL_ERROR, 0x5, 16383);
+    assertRejected(Http2Error.PROTOCOL_ERROR, 0x5, 1 << 24);
+  }
+
+  @Test
+  public void lowersLocalLimitsOnlyOnceAcknowledged() {
+    final Http2Config config = new Http2Config(4096, 100, 16384, 16384, 8192, 65536, 1 << 20,
+        100, 500, 100, 500, 100, 100);
+    peer = new ClientPeer(config, IGNORE);
+    peer.preface();
+    // The client may send with the default window until it acknowledged the SETTINGS
+    peer.get(1, false, "/");
+    peer.data(1, 16384, false).data(1, 16384, false);
+    Assertions.assertTrue(peer.read(Type.RST_STREAM).isEmpty());
+
+    peer.settingsAck();
+    // The window of the open stream shrinks by the difference, to below zero
+    peer.data(1, 1, false);
+    // The body of the reset stream is released, crediting the connection window
+    List<Received> frames = peer.read(Type.RST_STREAM);
+    Assertions.assertEquals(1, frames.size());
+    assertReset(frames.get(0), 1, Http2Error.FLOW_CONTROL_ERROR);
+
+    // New streams get the configured window
+    peer.get(3, false, "/");
+    peer.data(3, 16384, false);
+    Assertions.assertTrue(peer.read().isEmpty());
+    peer.data(3, 1, false);
+    frames = peer.read();
+    Assertions.assertEquals(1, frames.size());
+    assertReset(frames.get(0), 3, Http2Error.FLOW_CONTROL_ERROR);
+  }
+
+  @Test
+  public void ignoresFramesInFlightOnStreamsItReset() {
+    // A budget of 2 resets, which the frames in flight must not spend
+    final Http2Config config = new Http2Config(4096, 1, 65535, 16384, 8192, 65536, 1 << 20, 1,
+        2, 100, 500, 100, 100);
+    peer = new ClientPeer(config, IGNORE).connect();
+    peer.get(1, false, "/").get(3, false, "/");
+    // The client uploads the body of the refused stream before receiving the RST_STREAM
+    for (int i = 0; i < 5; i++) {
+      peer.data(3, 16384, false);
+    }
+    peer.headers(3, true, "x-trailer", "1");
+
+    final List<Received> frames = peer.read();
+    assertReset(frames.get(0), 3, Http2Error.REFUSED_STREAM);
+    // The rest credits back the connection window
+    Assertions.assertEquals(3, frames.size());
+    for (Received frame : frames.subList(1, 3)) {
+      Assertions.assertEquals(Type.WINDOW_UPDATE, frame.type());
+      Assertions.assertEquals(0, frame.streamId());
+    }
+    Assertions.assertTrue(peer.channel().isOpen());
+    Assertions.assertEquals(0, peer.metrics().snapshot().getFloodsDetected());
+  }
+}
@@ -0,0 +1,86 @@
+package rxh2.server.h2;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rxh2.h2.Headers;
+
+public class StreamSchedulerTest {
+
+  private static final int FRAME_SIZE = 16384;
+
+  private static Http2Stream stream(int id) {
+    return new Http2Stream(id, null, null, new Headers(), 0, 0);
+  }
+
+  /**
+   * Sends frames of the default size from the streams the scheduler picks.
+   *
+   * @return the frames sent by stream ID
+   */
+  private static Map<Integer, Integer> send(StreamScheduler scheduler, int frames) {
+    final Map<Integer, Integer> sent = new HashMap<>();
+    for (int i = 0; i < frames; i++) {
+      final Http2Stream stream = scheduler.next();
+      scheduler.sent(stream, FRAME_SIZE);
+      sent.merge(stream.id(), 1, Integer::sum);
+    }
+    return sent;
+  }
+
+  @Test
+  public void sharesInProportionToTheWeights() {
+    final StreamScheduler scheduler = new StreamScheduler();
+    final Http2Stream heavy = stream(1);
+    heavy.weight = 64;
+    final Http2Stream light = stream(3);
+    light.weight = 16;
+    final Http2Stream lightest = stream(5);
+    lightest.weight = 1;
+    scheduler.schedule(heavy);
+    scheduler.schedule(light);
+    scheduler.schedule(lightest);
+
+    final Map<Integer, Integer> sent = send(scheduler, 81 * 16);
+    Assertions.assertEquals(64 * 16, (int) sent.get(1));
+    Assertions.assertEquals(16 * 16, (int) sent.get(3));
+    Assertions.assertEquals(16, (int) sent.get(5));
+  }
+
+  @Test
+  public void servesMoreUrgentStreamsFirst() {
+    final StreamScheduler scheduler = new StreamScheduler();
+    final Http2Stream download = stream(1);
+    final Http2Stream urgent = stream(3);
+    urgent.urgency = 0;
+    scheduler.schedule(download);
+    scheduler.schedule(urgent);
+
+    Assertions.assertSame(urgent, scheduler.next());
+    scheduler.sent(urgent, FRAME_SIZE);
+    scheduler.remove(urgent);
+    Assertions.assertSame(download, scheduler.next());
+
+    // Reprioritized while queued
+    scheduler.urgency(download, 7);
+    final Http2Stream other = stream(5);
+    scheduler.schedule(other);
+    Assertions.assertSame(other, scheduler.next());
+    scheduler.remove(other);
+    Assertions.assertSame(download, scheduler.next());
+    scheduler.remove(download);
+    Assertions.assertNull(scheduler.next());
+  }
+
+  @Test
+  public void parsesUrgency() {
+    Assertions.assertEquals(1, StreamScheduler.parseUrgency("u=1", 3));
+    Assertions.assertEquals(0, StreamScheduler.parseUrgency("i, u=0", 3));
+    Assertions.assertEquals(5, StreamScheduler.parseUrgency("u=2, u=5;x", 3));
+    Assertions.assertEquals(3, StreamScheduler.parseUrgency("u=8", 3));
+    Assertions.assertEquals(3, StreamScheduler.parseUrgency("u=12", 3));
+    Assertions.assertEquals(3, StreamScheduler.parseUrgency("uu=1, x=u=1", 3));
+    Assertions.assertEquals(3, StreamScheduler.parseUrgency("", 3));
+  }
+}
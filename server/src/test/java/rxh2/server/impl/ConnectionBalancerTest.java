@@ -0,0 +1,79 @@
+package rxh2.server.impl;
+
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.EventExecutor;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rxh2.server.EventLoopLoad;
+
+public class ConnectionBalancerTest {
+
+  private final DefaultEventLoopGroup group = new DefaultEventLoopGroup(3);
+
+  @AfterEach
+  public void shutdown() {
+    group.shutdownGracefully();
+  }
+
+  private static Channel from(String host) {
+    return new EmbeddedChannel() {
+      @Override
+      public SocketAddress remoteAddress() {
+        return new InetSocketAddress(host, 443);
+      }
+    };
+  }
+
+  private LoopLoad load(ConnectionBalancer balancer, int index) {
+    int i = 0;
+    for (EventExecutor loop : group) {
+      if (i++ == index) {
+        return balancer.loadOf((EventLoop) loop);
+      }
+    }
+    throw new IndexOutOfBoundsException();
+  }
+
+  @Test
+  public void spreadsIdleConnectionsAndAvoidsBusyLoops() {
+    final ConnectionBalancer balancer = new ConnectionBalancer(Map.of());
+    balancer.start(group);
+    Assertions.assertEquals(0, balancer.place(from("127.0.0.1")));
+    Assertions.assertEquals(1, balancer.place(from("127.0.0.1")));
+    Assertions.assertEquals(2, balancer.place(from("127.0.0.1")));
+
+    load(balancer, 0).streamOpened();
+    load(balancer, 1).streamOpened();
+    // Fewer streams win over fewer connections
+    Assertions.assertEquals(2, balancer.place(from("127.0.0.1")));
+    Assertions.assertEquals(2, balancer.place(from("127.0.0.1")));
+    final EventLoopLoad third = balancer.snapshot().get(2);
+    Assertions.assertEquals(3, third.getConnections());
+    Assertions.assertEquals(0, third.getActiveStreams());
+  }
+
+  @Test
+  public void placesPinnedHostsWhateverTheLoad() throws Exception {
+    final ConnectionBalancer balancer = new ConnectionBalancer(
+        Map.of(InetAddress.getByName("127.0.0.2"), 1));
+    balancer.start(group);
+    load(balancer, 1).streamOpened();
+    Assertions.assertEquals(1, balancer.place(from("127.0.0.2")));
+    Assertions.assertEquals(0, balancer.place(from("127.0.0.1")));
+  }
+
+  @Test
+  public void rejectsPinsToMissingLoops() throws Exception {
+    final ConnectionBalancer balancer = new ConnectionBalancer(
+        Map.of(InetAddress.getByName("127.0.0.2"), 3));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> balancer.start(group));
+  }
+}
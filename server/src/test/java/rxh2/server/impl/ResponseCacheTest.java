@@ -0,0 +1,295 @@
+package rxh2.server.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rxh2.h2.Headers;
+import rxh2.h2.frame.FrameHeader.Type;
+import rxh2.h2.hpack.HeaderNames;
+import rxh2.server.Request;
+import rxh2.server.Response;
+import rxh2.server.h2.ClientPeer;
+import rxh2.server.h2.ClientPeer.Received;
+import rxh2.server.impl.ServerImpl.ResponseCacheConfig;
+
+public class ResponseCacheTest {
+
+  private final MetricsRecorder metrics = new MetricsRecorder();
+  // The connection the cached responses are served on
+  private final ClientPeer peer = new ClientPeer(stream -> { }).connect();
+  private int streamId = 1;
+  private ResponseCache cache;
+
+  @AfterEach
+  public void close() {
+    if (cache != null) {
+      cache.clear();
+    }
+    peer.close();
+  }
+
+  private static ResponseCache cache(long maxBytes, Duration maxTtl, MetricsRecorder metrics) {
+    return new ResponseCache(new ResponseCacheConfig(maxBytes, 4096, maxTtl), metrics);
+  }
+
+  private static Headers requestHeaders(String path, CharSequence... namesAndValues) {
+    final Headers headers = new Headers().add(HeaderNames.METHOD, "GET")
+        .add(HeaderNames.SCHEME, "http").add(HeaderNames.AUTHORITY, "localhost")
+        .add(HeaderNames.PATH, path);
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      headers.add(namesAndValues[i], namesAndValues[i + 1]);
+    }
+    return headers;
+  }
+
+  /**
+   * @return a request without a stream, which is enough to store a response
+   */
+  private static Request request(String path, CharSequence... namesAndValues) {
+    final Headers headers = requestHeaders(path, namesAndValues);
+    return new Request(null) {
+      @Override
+      public Headers headers() {
+        return headers;
+      }
+    };
+  }
+
+  private static void store(ResponseCache cache, Request request, String body,
+      CharSequence... namesAndValues) {
+    final Response response = Response.ok()
+        .body(Unpooled.copiedBuffer(body, CharsetUtil.US_ASCII));
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      response.header(namesAndValues[i], namesAndValues[i + 1]);
+    }
+    cache.store(request, response);
+    response.body().release();
+  }
+
+  private void store(String path, String body) {
+    store(cache, request(path), body, "cache-control", "max-age=60");
+  }
+
+  /**
+   * Sends a request on the connection and has the cache answer it, leaving the frames served
+   * in the channel.
+   */
+  private boolean answer(String path, CharSequence... namesAndValues) {
+    final Headers headers = requestHeaders(path, namesAndValues);
+    final CharSequence[] fields = new CharSequence[headers.size() * 2];
+    for (int i = 0; i < headers.size(); i++) {
+      fields[2 * i] = headers.name(i);
+      fields[2 * i + 1] = headers.value(i);
+    }
+    peer.headers(streamId, true, fields);
+    streamId += 2;
+    return cache.serve(new Request(peer.streams().get(peer.streams().size() - 1)));
+  }
+
+  /**
+   * @return the HEADERS and DATA frames served, or null if the cache had no response
+   */
+  private List<Received> serve(String path, CharSequence... namesAndValues) {
+    final boolean served = answer(path, namesAndValues);
+    final List<Received> frames = peer.read();
+    Assertions.assertEquals(served, !frames.isEmpty());
+    return served ? frames : null;
+  }
+
+  private String servedBody(String path, CharSequence... namesAndValues) {
+    final List<Received> frames = serve(path, namesAndValues);
+    return frames == null ? null
+        : frames.get(1).payload().toString(CharsetUtil.US_ASCII);
+  }
+
+  /**
+   * Serves a cached response, keeping a view of its body.
+   *
+   * @return a slice of the cached body, which has the reference count of the cached buffer
+   */
+  private ByteBuf servedBuffer(String path) {
+    Assertions.assertTrue(answer(path));
+    Object dataFrame = null;
+    for (Object message : peer.channel().outboundMessages()) {
+      dataFrame = message;
+    }
+    final ByteBuf body = ((CompositeByteBuf) dataFrame).component(1);
+    // Releases the frames written
+    peer.read();
+    return body;
+  }
+
+  private static Map<String, String> cacheControl(String... values) {
+    final Headers headers = new Headers();
+    for (String value : values) {
+      headers.add(HeaderNames.CACHE_CONTROL, value);
+    }
+    return ResponseCache.directives(headers, HeaderNames.CACHE_CONTROL);
+  }
+
+  @Test
+  public void parsesDirectivesAcrossFields() {
+    final Map<String, String> directives = cacheControl("Public, Max-Age=\"60\"", "immutable");
+    Assertions.assertEquals(Map.of("public", "", "max-age", "60", "immutable", ""),
+        directives);
+  }
+
+  @Test
+  public void prefersSharedFreshness() {
+    Assertions.assertEquals(60, ResponseCache.freshnessSeconds(cacheControl("max-age=60")));
+    Assertions.assertEquals(5,
+        ResponseCache.freshnessSeconds(cacheControl("max-age=60, s-maxage=5")));
+  }
+
+  @Test
+  public void doesNotStoreWithoutFreshnessOrWhenForbidden() {
+    Assertions.assertEquals(0, ResponseCache.freshnessSeconds(cacheControl()));
+    Assertions.assertEquals(0, ResponseCache.freshnessSeconds(cacheControl("public")));
+    Assertions.assertEquals(0, ResponseCache.freshnessSeconds(cacheControl("max-age=x")));
+    Assertions.assertEquals(0,
+        ResponseCache.freshnessSeconds(cacheControl("max-age=60", "private")));
+    Assertions.assertEquals(0,
+        ResponseCache.freshnessSeconds(cacheControl("no-store, max-age=60")));
+    Assertions.assertEquals(0,
+        ResponseCache.freshnessSeconds(cacheControl("no-cache, max-age=60")));
+  }
+
+  @Test
+  public void servesStoredResponsesWithTheirAge() {
+    cache = cache(1 << 20, Duration.ofMinutes(1), metrics);
+    store("/a", "hello");
+    final List<Received> frames = serve("/a");
+    Assertions.assertEquals(2, frames.size());
+    final Headers headers = frames.get(0).headers();
+    Assertions.assertEquals("200", headers.get(HeaderNames.STATUS).toString());
+    Assertions.assertEquals("max-age=60", headers.get(HeaderNames.CACHE_CONTROL).toString());
+    Assertions.assertEquals("0", headers.get(HeaderNames.AGE).toString());
+    Assertions.assertFalse(frames.get(0).endStream());
+    Assertions.assertEquals(Type.DATA, frames.get(1).type());
+    Assertions.assertEquals("hello", frames.get(1).payload().toString(CharsetUtil.US_ASCII));
+    Assertions.assertTrue(frames.get(1).endStream());
+
+    Assertions.assertNull(serve("/b"));
+    // Requests asking to revalidate go to their handler
+    Assertions.assertNull(serve("/a", "cache-control", "no-cache"));
+    Assertions.assertEquals(1, metrics.snapshot().getCacheHits());
+    Assertions.assertEquals(1, metrics.snapshot().getCacheMisses());
+  }
+
+  @Test
+  public void keepsTheVariantsOfAPath() {
+    cache = cache(1 << 20, Duration.ofMinutes(1), metrics);
+    store(cache, request("/a", "accept-encoding", "gzip"), "gzip",
+        "cache-control", "max-age=60", "vary", "Accept-Encoding");
+    store(cache, request("/a", "accept-encoding", "br"), "br",
+        "cache-control", "max-age=60", "vary", "Accept-Encoding");
+    Assertions.assertEquals("gzip", servedBody("/a", "accept-encoding", "gzip"));
+    Assertions.assertEquals("br", servedBody("/a", "accept-encoding", "br"));
+    Assertions.assertNull(servedBody("/a"));
+
+    store(cache, request("/b"), "any", "cache-control", "max-age=60", "vary", "*");
+    Assertions.assertNull(servedBody("/b"));
+  }
+
+  @Test
+  public void replacesTheOldestVariantBeyondTheLimit() {
+    cache = cache(1 << 20, Duration.ofMinutes(1), metrics);
+    for (int i = 0; i < 9; i++) {
+      store(cache, request("/a", "accept-language", "l" + i), "body" + i,
+          "cache-control", "max-age=60", "vary", "accept-language");
+    }
+    Assertions.assertNull(servedBody("/a", "accept-language", "l0"));
+    Assertions.assertEquals("body1", servedBody("/a", "accept-language", "l1"));
+    Assertions.assertEquals("body8", servedBody("/a", "accept-language", "l8"));
+
+    // Storing a variant again replaces it rather than adding one
+    final long cachedBytes = metrics.snapshot().getCachedBytes();
+    store(cache, request("/a", "accept-language", "l8"), "BODY8",
+        "cache-control", "max-age=60", "vary", "accept-language");
+    Assertions.assertEquals("BODY8", servedBody("/a", "accept-language", "l8"));
+    Assertions.assertEquals("body1", servedBody("/a", "accept-language", "l1"));
+    Assertions.assertEquals(cachedBytes, metrics.snapshot().getCachedBytes());
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsedPaths() {
+    final MetricsRecorder sizing = new MetricsRecorder();
+    final ResponseCache one = cache(1 << 20, Duration.ofMinutes(1), sizing);
+    store(one, request("/x"), "hello", "cache-control", "max-age=60");
+    final long entrySize = sizing.snapshot().getCachedBytes();
+    one.clear();
+
+    // Room for three entries of the same size
+    cache = cache(3 * entrySize, Duration.ofMinutes(1), metrics);
+    store("/a", "hello");
+    store("/b", "hello");
+    store("/c", "hello");
+    Assertions.assertEquals(3 * entrySize, metrics.snapshot().getCachedBytes());
+    final ByteBuf a = servedBuffer("/a");
+    final ByteBuf b = servedBuffer("/b");
+    final ByteBuf c = servedBuffer("/c");
+    servedBuffer("/a");
+    // From the least recently used: /b, /c, /a
+    store("/d", "hello");
+    Assertions.assertEquals(0, b.refCnt());
+    Assertions.assertEquals(1, a.refCnt());
+    Assertions.assertEquals(1, c.refCnt());
+    Assertions.assertEquals(3 * entrySize, metrics.snapshot().getCachedBytes());
+    Assertions.assertNull(servedBody("/b"));
+    Assertions.assertEquals("hello", servedBody("/c"));
+
+    cache.clear();
+    Assertions.assertEquals(0, a.refCnt());
+    Assertions.assertEquals(0, c.refCnt());
+    Assertions.assertEquals(0, metrics.snapshot().getCachedBytes());
+  }
+
+  @Test
+  public void staysWithinItsSizeAcrossSegments() {
+    // Room for 64 entries of the max size, split into 16 segments
+    cache = cache(64 * 4096, Duration.ofMinutes(1), metrics);
+    final String body = new String(new char[3000]).replace('\0', 'x');
+    for (int i = 0; i < 200; i++) {
+      store("/" + i, body);
+    }
+    final long cachedBytes = metrics.snapshot().getCachedBytes();
+    Assertions.assertTrue(cachedBytes <= 64 * 4096, "Cached " + cachedBytes);
+    // Each segment evicted its least recently used paths only
+    Assertions.assertEquals(body, servedBody("/199"));
+    Assertions.assertNull(servedBody("/0"));
+
+    cache.clear();
+    Assertions.assertEquals(0, metrics.snapshot().getCachedBytes());
+  }
+
+  @Test
+  public void dropsExpiredResponses() throws InterruptedException {
+    cache = cache(1 << 20, Duration.ofMillis(50), metrics);
+    store("/a", "hello");
+    final ByteBuf body = servedBuffer("/a");
+    Assertions.assertEquals(1, body.refCnt());
+    Thread.sleep(100);
+    Assertions.assertNull(serve("/a"));
+    Assertions.assertEquals(0, body.refCnt());
+    Assertions.assertEquals(0, metrics.snapshot().getCachedBytes());
+  }
+
+  @Test
+  public void doesNotStorePrivateResponses() {
+    cache = cache(1 << 20, Duration.ofMinutes(1), metrics);
+    store(cache, request("/a", "authorization", "Basic eDp5"), "hello",
+        "cache-control", "max-age=60");
+    store(cache, request("/a"), "hello", "cache-control", "max-age=60", "set-cookie", "id=1");
+    store(cache, request("/a", "cache-control", "no-store"), "hello",
+        "cache-control", "max-age=60");
+    Assertions.assertEquals(0, metrics.snapshot().getCachedBytes());
+    Assertions.assertNull(serve("/a"));
+  }
+}